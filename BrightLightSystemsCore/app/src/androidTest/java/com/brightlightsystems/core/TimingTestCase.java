@@ -0,0 +1,51 @@
+package com.brightlightsystems.core;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Base of timing tests, the benchmarks of the project. JMH does not run in instrumentation tests,
+ * so a timing test runs the measured code in a few rounds after a warm-up round and logs
+ * the fastest round. Timings depend on the device, so timing tests check results, not durations.
+ */
+public abstract class TimingTestCase extends TestCase
+{
+    /**Amount of measured rounds*/
+    private static final int ROUNDS = 5;
+
+    /**
+     * Measures the task
+     * @param name name of the measurement, for the log
+     * @param ops amount of operations one run of the task does
+     * @param task task to measure
+     * @return time of an operation in nanoseconds, of the fastest round
+     */
+    protected final double measure(String name, int ops, Runnable task)
+    {
+        if(name == null || ops < 1 || task == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        task.run();
+        long best = Long.MAX_VALUE;
+        for(int round = 0; round < ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double nanos = (double) best / ops;
+        report(name + ": " + String.format("%.1f", nanos) + " ns/op");
+        return nanos;
+    }
+
+    /**
+     * Logs a line of the results
+     * @param line line to log
+     */
+    protected final void report(String line)
+    {
+        Log.i(getClass().getSimpleName(), line);
+    }
+
+    /******************** end of class********************************/
+}
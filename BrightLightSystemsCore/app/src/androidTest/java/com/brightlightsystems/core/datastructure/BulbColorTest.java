@@ -0,0 +1,78 @@
+package com.brightlightsystems.core.datastructure;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of colors as values: components are packed and clamped, equal colors are equal
+ * and shared by valueOf.
+ */
+public class BulbColorTest extends TestCase
+{
+    public void testComponentsArePacked()
+    {
+        BulbColor color = BulbColor.valueOf(0x12, 0x34, 0x56, 78);
+
+        assertEquals(0x12, color.getRed());
+        assertEquals(0x34, color.getGreen());
+        assertEquals(0x56, color.getBlue());
+        assertEquals(78, color.getTransparency());
+        assertEquals(78 << 24 | 0x123456, color.getColor());
+    }
+
+    public void testComponentsAreClamped()
+    {
+        BulbColor color = BulbColor.valueOf(-1, 300, 255, -5);
+
+        assertEquals(BulbColor.DEF_RED_COMPONENT, color.getRed());
+        assertEquals(255, color.getGreen());
+        assertEquals(255, color.getBlue());
+        assertEquals(BulbColor.DEF_TRANSPARENCY, color.getTransparency());
+        assertEquals(BulbColor.valueOf(0, 255, 255, 1000).getColor() & 0xFFFFFF, color.getColor() & 0xFFFFFF);
+        assertEquals(255, BulbColor.valueOf(0, 0, 0, 1000).getTransparency());
+    }
+
+    public void testColorValueIsSplitIntoComponents()
+    {
+        BulbColor color = BulbColor.valueOf(0x123456, 50);
+
+        assertEquals(BulbColor.valueOf(0x12, 0x34, 0x56, 50), color);
+        assertEquals(new BulbColor(), BulbColor.valueOf(-1, BulbColor.DEF_TRANSPARENCY));
+    }
+
+    public void testEqualColorsAreShared()
+    {
+        BulbColor color = BulbColor.valueOf(10, 20, 30, 40);
+
+        assertSame(color, BulbColor.valueOf(10, 20, 30, 40));
+        assertSame(color, BulbColor.fromArgb(color.getColor()));
+        assertNotSame(color, BulbColor.valueOf(10, 20, 30, 41));
+    }
+
+    public void testEqualsAndHashCode()
+    {
+        BulbColor color = new BulbColor(1, 2, 3, 4);
+        BulbColor same = new BulbColor(1, 2, 3, 4);
+
+        assertNotSame(color, same);
+        assertEquals(color, same);
+        assertEquals(color.hashCode(), same.hashCode());
+        assertEquals(color, BulbColor.valueOf(1, 2, 3, 4));
+        assertFalse(color.equals(new BulbColor(1, 2, 3, 5)));
+        assertFalse(color.equals(new BulbColor(1, 2, 4, 4)));
+        assertFalse(color.equals(null));
+        assertFalse(color.equals(color.getColor()));
+    }
+
+    public void testDefaultColor()
+    {
+        BulbColor color = new BulbColor();
+
+        assertEquals(BulbColor.DEF_RED_COMPONENT, color.getRed());
+        assertEquals(BulbColor.DEF_GREEN_COMPONENT, color.getGreen());
+        assertEquals(BulbColor.DEF_BLUE_COMPONENT, color.getBlue());
+        assertEquals(BulbColor.DEF_TRANSPARENCY, color.getTransparency());
+        assertEquals(new BulbColor(0, 0, 0), color);
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,208 @@
+package com.brightlightsystems.core.datastructure;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tests of bulb slots: every bridge has its own slots, groups get slots only for bulbs
+ * the bridge holds, and a slot is not reused while a group still has its bulb.
+ */
+public class BulbSlotsTest extends TestCase
+{
+    private static final int BRIDGE_ID = 1;
+
+    private Bridge _bridge;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _bridge = new Bridge(BRIDGE_ID, "Home", "BSB001");
+    }
+
+    public void testGroupsDoNotAllocateSlotsForBulbsTheBridgeDoesNotHold()
+    {
+        Group group = new Group(1, "Kitchen", BRIDGE_ID, false, false);
+        for(int id = 1; id <= 2 * BulbSlots.CAPACITY; id++)
+            group.addBulb(bulb(id));
+
+        assertEquals(2 * BulbSlots.CAPACITY, group.bulbCount());
+        assertEquals(0, group.getBulbMask());
+        assertTrue(group.containsBulb(BulbSlots.CAPACITY + 1));
+        //the bridge still has all slots
+        for(int id = 1; id <= Bridge.INIT_BULB_COUNT; id++)
+            assertTrue(_bridge.addBulb(bulb(1000 + id)));
+    }
+
+    public void testSlotIsKeptWhileAGroupHasTheBulb()
+    {
+        hold(1, 2);
+        Group group = new Group(1, "Kitchen", BRIDGE_ID, false, false);
+        group.addBulb(_bridge.getBulb(1));
+        group.addBulb(_bridge.getBulb(2));
+
+        _bridge.removeBulb(1);
+        hold(3);
+        assertTrue(Arrays.equals(new int[]{1, 2}, sorted(group.getAllBulbIds())));
+        assertFalse(group.containsBulb(3));
+
+        group.removeBulb(1);
+        hold(4);
+        assertTrue(Arrays.equals(new int[]{2}, group.getAllBulbIds()));
+    }
+
+    public void testUpdateAllKeepsSlotsOfGroups()
+    {
+        hold(1, 2, 3);
+        Group group = new Group(1, "Kitchen", BRIDGE_ID, false, false);
+        group.addBulb(_bridge.getBulb(1));
+
+        Map<Integer,Lightbulb> bulbs = new LinkedHashMap<>();
+        for(int id = 2; id <= 5; id++)
+            bulbs.put(id, bulb(id));
+        _bridge.updateAll(bulbs);
+
+        assertTrue(Arrays.equals(new int[]{1}, group.getAllBulbIds()));
+        assertEquals(1, group.countAllBulbs());
+    }
+
+    public void testRemovedBulbsFreeTheirSlots()
+    {
+        Group group = new Group(1, "Kitchen", BRIDGE_ID, false, false);
+        for(int id = 1; id <= 4 * BulbSlots.CAPACITY; id++)
+        {
+            hold(id);
+            group.addBulb(_bridge.getBulb(id));
+            assertTrue(group.containsBulb(id));
+            group.removeBulb(id);
+            _bridge.removeBulb(id);
+        }
+        assertEquals(0, group.getBulbMask());
+    }
+
+    public void testGroupOutOfTheDataManagerReleasesSlots()
+    {
+        hold(1);
+        Group group = new Group(1, "Kitchen", BRIDGE_ID, false, false);
+        group.addBulb(_bridge.getBulb(1));
+        group.setIndex(new MembershipIndex());
+        assertEquals(1, group.countAllBulbs());
+
+        group.setIndex(null);
+        assertEquals(0, group.getBulbMask());
+        assertTrue(group.containsBulb(1));
+
+        group.setIndex(new MembershipIndex());
+        assertEquals(1, group.countAllBulbs());
+    }
+
+    public void testBridgesHaveTheirOwnSlots()
+    {
+        Bridge other = new Bridge(BRIDGE_ID + 1, "Office", "BSB002");
+        for(int id = 1; id <= Bridge.INIT_BULB_COUNT; id++)
+        {
+            assertTrue(_bridge.addBulb(bulb(id)));
+            assertTrue(other.addBulb(bulb(100 + id)));
+        }
+
+        Group home = new Group(1, "Kitchen", BRIDGE_ID, false, false);
+        home.addBulb(_bridge.getBulb(1));
+        //a bulb of another bridge gets no slot in the group, but is still one of its bulbs
+        home.addBulb(other.getBulb(101));
+        assertTrue(Arrays.equals(new int[]{1}, home.getBulbIds(home.getBulbMask())));
+        assertTrue(Arrays.equals(new int[]{1, 101}, home.getAllBulbIds()));
+
+        Group office = new Group(2, "Office", BRIDGE_ID + 1, false, false);
+        office.addBulb(other.getBulb(101));
+        assertFalse(home.canAddGroup(office));
+        try
+        {
+            home.unionMask(office);
+            fail("Masks of different bridges can't be combined");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+    }
+
+    public void testDetachedGroupsCountTheirBulbs()
+    {
+        Group group = new Group(1, "Kitchen", BRIDGE_ID, false, false);
+        group.addBulb(bulb(1));
+        group.addBulb(bulb(2));
+        Group sub = new Group(2, "Counter", BRIDGE_ID, false, false);
+        sub.addBulb(bulb(2));
+        sub.addBulb(bulb(3));
+        group.addGroup(sub);
+
+        assertEquals(2, group.bulbCount());
+        assertEquals(0, group.getBulbMask());
+        assertEquals(3, group.countAllBulbs());
+        assertEquals(2, sub.countAllBulbs());
+        assertTrue(group.intersects(sub));
+        assertFalse(group.containsAll(sub));
+
+        group.addBulb(bulb(3));
+        assertTrue(group.containsAll(sub));
+        assertEquals(3, group.countAllBulbs());
+    }
+
+    public void testGroupCountsBulbsInAndOutOfTheDataManager()
+    {
+        hold(1, 2);
+        Group group = new Group(1, "Kitchen", BRIDGE_ID, false, false);
+        group.addBulb(_bridge.getBulb(1));
+        group.addBulb(_bridge.getBulb(2));
+
+        group.setIndex(new MembershipIndex());
+        assertEquals(2, group.countAllBulbs());
+        group.setIndex(null);
+        assertEquals(0, group.getBulbMask());
+        assertEquals(2, group.bulbCount());
+        assertEquals(2, group.countAllBulbs());
+    }
+
+    public void testBulbsWithoutSlotsAreComparedByMaps()
+    {
+        hold(1);
+        Group group = new Group(1, "Kitchen", BRIDGE_ID, false, false);
+        group.addBulb(_bridge.getBulb(1));
+        group.addBulb(bulb(2));
+        Group other = new Group(2, "Counter", BRIDGE_ID, false, false);
+        other.addBulb(bulb(2));
+
+        assertEquals(1, Long.bitCount(group.getBulbMask()));
+        assertEquals(2, group.countAllBulbs());
+        assertTrue(group.containsAll(other));
+        assertTrue(group.intersects(other));
+        assertTrue(other.intersects(group));
+        assertFalse(other.containsAll(group));
+    }
+
+    /**
+     * Makes the bridge hold new bulbs
+     * @param ids ids of the bulbs
+     */
+    private void hold(int... ids)
+    {
+        for(int id : ids)
+            assertTrue(_bridge.addBulb(bulb(id)));
+    }
+
+    private static Lightbulb bulb(int id)
+    {
+        return new Lightbulb(id, "LCT001", "Bulb " + id, null, Lightbulb.States.ON);
+    }
+
+    private static int[] sorted(int[] ids)
+    {
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,125 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.brightlightsystems.core.utilities.notificationsystem.BulbMessage;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests of the batched update of light bulbs, in the database and in the bridge
+ */
+public class BulbsContractTest extends TestCase
+{
+    private SQLiteDatabase _db;
+    private StatementCache _statements;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _db = TestDatabase.create();
+        //rows are written for the active bridge
+        DataManager.setActiveBridgeId(1);
+        _statements = new StatementCache(_db);
+        for(int id = 1; id <= 3; id++)
+            TestDatabase.insertBulb(_db, bulb(id, 10, Lightbulb.States.OFF));
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _statements.clear();
+        _db.close();
+        super.tearDown();
+    }
+
+    public void testBatchUpdatesEveryRow()
+    {
+        List<Lightbulb> bulbs = new ArrayList<>();
+        for(int id = 1; id <= 3; id++)
+            bulbs.add(bulb(id, 50 + id, Lightbulb.States.ON));
+
+        BulbsContract.update(bulbs, 1, _db, _statements);
+
+        for(int id = 1; id <= 3; id++)
+        {
+            assertEquals(50 + id, TestDatabase.queryLong(_db, "SELECT bulb_brightness FROM bulbs WHERE _id = " + id));
+            assertEquals(Lightbulb.stateToInt(Lightbulb.States.ON),
+                         TestDatabase.queryLong(_db, "SELECT state_id FROM bulbs WHERE _id = " + id));
+        }
+        assertFalse(_db.inTransaction());
+    }
+
+    public void testBatchIsRolledBackIfARowIsMissing()
+    {
+        List<Lightbulb> bulbs = new ArrayList<>();
+        bulbs.add(bulb(1, 77, Lightbulb.States.ON));
+        bulbs.add(bulb(42, 77, Lightbulb.States.ON));
+
+        try
+        {
+            BulbsContract.update(bulbs, 1, _db, _statements);
+            fail("Update of a missing row must fail");
+        }
+        catch (Error e)
+        {
+            //expected
+        }
+
+        assertEquals(10, TestDatabase.queryLong(_db, "SELECT bulb_brightness FROM bulbs WHERE _id = 1"));
+        assertFalse(_db.inTransaction());
+    }
+
+    public void testRowsAreWrittenForTheBridgeOfTheMessage()
+    {
+        BulbMessage message = new BulbMessage(BulbMessage.MSG_UPDATE_SINGLE_BULB, bulb(2, 60, Lightbulb.States.ON));
+        //the active bridge changes before the message is handled
+        DataManager.setActiveBridgeId(2);
+
+        _db.execSQL("INSERT INTO bridges (factory_name, user_def_name, active) VALUES ('BSB002', 'Office', 0)");
+        BulbsContract.update(message._bulb, message._bridgeId, _db, _statements);
+        BulbsContract.add(bulb(4, 10, Lightbulb.States.OFF), 2, _db);
+
+        assertEquals(1, message._bridgeId);
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT bridge_id FROM bulbs WHERE _id = 2"));
+        assertEquals(60, TestDatabase.queryLong(_db, "SELECT bulb_brightness FROM bulbs WHERE _id = 2"));
+        assertEquals(2, TestDatabase.queryLong(_db, "SELECT bridge_id FROM bulbs WHERE user_def_name = 'Bulb 4'"));
+    }
+
+    public void testBridgeUpdatesOnlyItsBulbs()
+    {
+        Bridge bridge = new Bridge(1, "Home", "BSB001");
+        bridge.addBulb(bulb(1, 10, Lightbulb.States.OFF));
+        bridge.addBulb(bulb(2, 10, Lightbulb.States.OFF));
+
+        Map<Integer,Lightbulb> update = new LinkedHashMap<>();
+        update.put(2, bulb(2, 90, Lightbulb.States.ON));
+        update.put(42, bulb(42, 90, Lightbulb.States.ON));
+
+        assertEquals(1, bridge.update(update));
+        assertEquals(10, bridge.getBulb(1).getTrait().getBrightness());
+        assertEquals(90, bridge.getBulb(2).getTrait().getBrightness());
+        assertEquals(Lightbulb.States.ON, bridge.getBulb(2).getState());
+        assertNull(bridge.getBulb(42));
+    }
+
+    /**
+     * Creates a bulb with a fixed color
+     * @param id id of the bulb
+     * @param brightness brightness of the bulb
+     * @param state state of the bulb
+     * @return new bulb
+     */
+    private static Lightbulb bulb(int id, int brightness, Lightbulb.States state)
+    {
+        return new Lightbulb(id, "LCT001", "Bulb " + id, Trait.valueOf(BulbColor.valueOf(200, 100, 50, 100), brightness), state);
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,71 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.brightlightsystems.core.TimingTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timing of the update of all bulbs of a bridge: one batched transaction against
+ * a transaction per bulb, as separate single bulb messages are persisted.
+ */
+public class BulbsContractTimingTest extends TimingTestCase
+{
+    private static final int BRIDGE_ID = 1;
+
+    private SQLiteDatabase _db;
+    private StatementCache _statements;
+    private final List<Lightbulb> _bulbs = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _db = TestDatabase.create();
+        _statements = new StatementCache(_db);
+        for(int id = 1; id <= Bridge.INIT_BULB_COUNT; id++)
+        {
+            Lightbulb bulb = new Lightbulb(id, "LCT001", "Bulb " + id,
+                                           Trait.valueOf(BulbColor.valueOf(id, 0, 0, 100), id), Lightbulb.States.ON);
+            TestDatabase.insertBulb(_db, bulb);
+            _bulbs.add(bulb);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _statements.clear();
+        _db.close();
+        super.tearDown();
+    }
+
+    public void testCostPerBulb()
+    {
+        double single = measure("update per bulb", _bulbs.size(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for(Lightbulb bulb : _bulbs)
+                    BulbsContract.update(bulb, BRIDGE_ID, _db, _statements);
+            }
+        });
+        double batch = measure("batched update per bulb", _bulbs.size(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                BulbsContract.update(_bulbs, BRIDGE_ID, _db, _statements);
+            }
+        });
+        report("time per bulb, separate updates / batch: " + String.format("%.2f", single / batch));
+
+        for(Lightbulb bulb : _bulbs)
+            assertEquals(bulb.getId(), TestDatabase.queryLong(_db, "SELECT bulb_brightness FROM bulbs WHERE _id = " + bulb.getId()));
+    }
+
+    /******************** end of class********************************/
+}
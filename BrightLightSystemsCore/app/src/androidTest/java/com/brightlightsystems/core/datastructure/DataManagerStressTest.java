@@ -0,0 +1,332 @@
+package com.brightlightsystems.core.datastructure;
+
+import com.brightlightsystems.core.utilities.notificationsystem.BulbMessage;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stress test of the data manager: writers change bulbs and groups of different bridges
+ * while readers take generations and look bulbs and groups up. Every generation must be
+ * consistent, and the reverse index must match the groups at the end.
+ */
+public class DataManagerStressTest extends TestCase
+{
+    private static final int ACTIVE_BRIDGE_ID = 1;
+    private static final int BRIDGES = 3;
+    private static final int ITERATIONS = 2000;
+    private static final int READERS = 4;
+    /**Bulbs of bridge b have ids b * BULB_ID_BASE + n*/
+    private static final int BULB_ID_BASE = 100;
+
+    private DataManager _dm;
+    private final ConcurrentLinkedQueue<Throwable> _errors = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean _writing = new AtomicBoolean();
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _dm = DataManager.getInstance();
+        _dm.removeAll();
+        for(int b = 1; b <= BRIDGES; b++)
+        {
+            Bridge bridge = new Bridge(b, "Bridge " + b, "BSB00" + b);
+            if(b != ACTIVE_BRIDGE_ID)
+            {
+                for(int n = 0; n < 10; n++)
+                    bridge.addBulb(bulb(b * BULB_ID_BASE + n));
+            }
+            _dm.addBridge(bridge);
+        }
+        DataManager.setActiveBridgeId(ACTIVE_BRIDGE_ID);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _dm.removeAll();
+        super.tearDown();
+    }
+
+    public void testConcurrentWritersAndReaders() throws InterruptedException
+    {
+        List<Thread> writers = new ArrayList<>();
+        writers.add(thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                changeBulbs();
+            }
+        }));
+        for(int b = 1; b <= BRIDGES; b++)
+        {
+            if(b == ACTIVE_BRIDGE_ID)
+                continue;
+            final int bridgeId = b;
+            writers.add(thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    changeGroups(bridgeId);
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for(int r = 0; r < READERS; r++)
+        {
+            readers.add(thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    read();
+                }
+            }));
+        }
+
+        _writing.set(true);
+        for(Thread t : readers)
+            t.start();
+        for(Thread t : writers)
+            t.start();
+        for(Thread t : writers)
+            t.join(TimeUnit.MINUTES.toMillis(1));
+        _writing.set(false);
+        for(Thread t : readers)
+            t.join(TimeUnit.MINUTES.toMillis(1));
+
+        for(Thread t : writers)
+            assertFalse("Writer is stuck", t.isAlive());
+        for(Thread t : readers)
+            assertFalse("Reader is stuck", t.isAlive());
+        if(!_errors.isEmpty())
+        {
+            AssertionError error = new AssertionError("Failed with " + _errors.size() + " errors");
+            error.initCause(_errors.peek());
+            throw error;
+        }
+
+        ModelGeneration generation = _dm.getGeneration();
+        assertConsistent(generation);
+        assertSame(generation, _dm.getGeneration());
+        assertIndexMatchesGroups();
+    }
+
+    public void testBulbMessageIsAppliedToTheBridgeItWasPostedFor()
+    {
+        BulbMessage message = new BulbMessage(BulbMessage.MSG_ADD_BULB, bulb(ACTIVE_BRIDGE_ID * BULB_ID_BASE));
+        DataManager.setActiveBridgeId(ACTIVE_BRIDGE_ID + 1);
+
+        _dm.onAddBulb(message);
+
+        assertEquals(1, _dm.getBulbs(ACTIVE_BRIDGE_ID).size());
+        assertEquals(10, _dm.getBulbs(ACTIVE_BRIDGE_ID + 1).size());
+    }
+
+    public void testCollectionsAreUnmodifiableSnapshots()
+    {
+        _dm.addTheme(new Theme(1, "Evening", false, false));
+        Map<Integer,Bridge> bridges = _dm.getBridgeCollection();
+        Map<Integer,Map<Integer,Group>> groups = _dm.getGroupCollection();
+        Map<Integer,Theme> themes = _dm.getThemeMap();
+
+        _dm.addGroup(new Group(1, "Group", ACTIVE_BRIDGE_ID + 1, false, false));
+        _dm.addTheme(new Theme(2, "Night", false, false));
+
+        assertEquals(BRIDGES, bridges.size());
+        assertFalse(groups.containsKey(ACTIVE_BRIDGE_ID + 1));
+        assertEquals(1, themes.size());
+        assertEquals(2, _dm.getThemeCollection().size());
+        assertEquals(1, _dm.getGroupCollection().get(ACTIVE_BRIDGE_ID + 1).size());
+        try
+        {
+            bridges.remove(ACTIVE_BRIDGE_ID);
+            fail("Collection of bridges can be changed");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            //expected
+        }
+        try
+        {
+            _dm.getGroupCollection().get(ACTIVE_BRIDGE_ID + 1).clear();
+            fail("Groups of a bridge can be changed");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            //expected
+        }
+        try
+        {
+            themes.clear();
+            fail("Collection of themes can be changed");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            //expected
+        }
+    }
+
+    /**
+     * Adds, updates and removes bulbs of the active bridge through the message handlers,
+     * and replaces groups of the active bridge with groups of the new bulbs
+     */
+    private void changeBulbs()
+    {
+        Bridge bridge = _dm.getBridgeCollection().get(ACTIVE_BRIDGE_ID);
+        Set<Integer> held = new HashSet<>();
+        for(int i = 0; i < ITERATIONS; i++)
+        {
+            int bulbId = ACTIVE_BRIDGE_ID * BULB_ID_BASE + i % 20;
+            if(held.add(bulbId))
+                _dm.onAddBulb(new BulbMessage(BulbMessage.MSG_ADD_BULB, bulb(bulbId)));
+
+            Lightbulb update = new Lightbulb(bulbId, "LCT001", "Bulb " + i, null, Lightbulb.States.ON);
+            update.setTrait(Trait.valueOf(BulbColor.valueOf(i % 256, 0, 0, 100), i % 256));
+            _dm.onUpdateBulb(new BulbMessage(BulbMessage.MSG_UPDATE_SINGLE_BULB, update));
+
+            //only this thread changes bulbs of the bridge, so the bulb is still held
+            Map<Integer,Lightbulb> bulbs = new LinkedHashMap<>();
+            bulbs.put(bulbId, bridge.getBulb(bulbId));
+            _dm.addGroup(new Group(1 + i % 5, "Group " + i, bulbs, ACTIVE_BRIDGE_ID, false, false));
+
+            if(i % 3 == 0)
+            {
+                _dm.onRemoveBulb(new BulbMessage(BulbMessage.MSG_REMOVE_BULB, bulb(bulbId)));
+                held.remove(bulbId);
+            }
+        }
+    }
+
+    /**
+     * Adds and removes groups of a bridge with bulbs the bridge holds
+     * @param bridgeId id of the bridge
+     */
+    private void changeGroups(int bridgeId)
+    {
+        Bridge bridge = _dm.getBridgeCollection().get(bridgeId);
+        for(int i = 0; i < ITERATIONS; i++)
+        {
+            Map<Integer,Lightbulb> bulbs = new LinkedHashMap<>();
+            for(int n = i % 10; n < 10; n += 3)
+                bulbs.put(bridgeId * BULB_ID_BASE + n, bridge.getBulb(bridgeId * BULB_ID_BASE + n));
+            Group group = new Group(1 + i % 7, "Group " + i, bulbs, bridgeId, false, false);
+            _dm.addGroup(group);
+            if(i % 4 == 0)
+                _dm.removeGroup(group);
+        }
+    }
+
+    /**
+     * Reads the model until writers are done. Generations must be consistent and never go back
+     */
+    private void read()
+    {
+        long version = -1;
+        int i = 0;
+        while(_writing.get())
+        {
+            ModelGeneration generation = _dm.getGeneration();
+            assertTrue(generation.getVersion() >= version);
+            version = generation.getVersion();
+            assertConsistent(generation);
+
+            int bulbId = (1 + i % BRIDGES) * BULB_ID_BASE + i % 20;
+            for(Group group : _dm.getGroupsWithBulb(bulbId))
+                assertEquals(bulbId / BULB_ID_BASE, group.getBridgeId());
+            Lightbulb bulb = _dm.getBulbById(ACTIVE_BRIDGE_ID * BULB_ID_BASE + i % 20);
+            if(bulb != null)
+                assertNotNull(bulb.getTrait());
+            assertTrue(_dm.getBulbs(ACTIVE_BRIDGE_ID).size() <= 20);
+            assertTrue(_dm.getGroups(1 + i % BRIDGES).size() <= 7);
+            i++;
+        }
+    }
+
+    /**
+     * Checks that groups of a generation contain only bulbs their bridges hold
+     * @param generation generation to check
+     */
+    private static void assertConsistent(ModelGeneration generation)
+    {
+        assertEquals(BRIDGES, generation.getBridges().size());
+        for(Map.Entry<Integer,Map<Integer,ModelGeneration.GroupRecord>> e : generation.getGroups().entrySet())
+        {
+            ModelGeneration.BridgeRecord bridge = generation.getBridges().get(e.getKey());
+            assertNotNull(bridge);
+            for(ModelGeneration.GroupRecord group : e.getValue().values())
+            {
+                assertEquals(bridge._id, group._bridgeId);
+                for(Integer bulbId : group._bulbIds)
+                    assertTrue(bridge._bulbs.containsKey(bulbId));
+            }
+        }
+    }
+
+    /**
+     * Checks that the reverse index has exactly the groups that contain each bulb
+     */
+    private void assertIndexMatchesGroups()
+    {
+        for(int b = 1; b <= BRIDGES; b++)
+        {
+            for(int n = 0; n < 20; n++)
+            {
+                int bulbId = b * BULB_ID_BASE + n;
+                Set<Group> expected = new HashSet<>();
+                for(Group group : _dm.getGroups(b))
+                {
+                    if(group.getBulbMap().containsKey(bulbId))
+                    {
+                        expected.add(group);
+                        assertTrue(group.containsBulb(bulbId));
+                    }
+                }
+                assertEquals(expected, new HashSet<>(_dm.getGroupsWithBulb(bulbId)));
+            }
+        }
+    }
+
+    /**
+     * Creates a thread that records errors instead of losing them
+     * @param task work of the thread
+     * @return new thread, not started
+     */
+    private Thread thread(final Runnable task)
+    {
+        return new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                catch (Throwable t)
+                {
+                    _errors.add(t);
+                }
+            }
+        });
+    }
+
+    private static Lightbulb bulb(int id)
+    {
+        return new Lightbulb(id, "LCT001", "Bulb " + id, null, Lightbulb.States.OFF);
+    }
+
+    /******************** end of class********************************/
+}
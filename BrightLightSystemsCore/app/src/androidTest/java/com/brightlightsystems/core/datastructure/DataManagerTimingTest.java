@@ -0,0 +1,142 @@
+package com.brightlightsystems.core.datastructure;
+
+import com.brightlightsystems.core.TimingTestCase;
+import com.brightlightsystems.core.utilities.notificationsystem.BulbMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Throughput of the data manager at 1, 4 and 8 threads. Every thread works on a bridge of its own,
+ * 80% of its operations read the bulbs of the bridge and 20% update a bulb of it.
+ */
+public class DataManagerTimingTest extends TimingTestCase
+{
+    private static final int MAX_THREADS = 8;
+    private static final int BULBS = 10;
+    private static final int OPS_PER_THREAD = 20000;
+    /**Bulbs of bridge b have ids b * BULB_ID_BASE + n*/
+    private static final int BULB_ID_BASE = 100;
+
+    private DataManager _dm;
+    private final ConcurrentLinkedQueue<Throwable> _errors = new ConcurrentLinkedQueue<>();
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _dm = DataManager.getInstance();
+        _dm.removeAll();
+        for(int b = 1; b <= MAX_THREADS; b++)
+        {
+            Bridge bridge = new Bridge(b, "Bridge " + b, "BSB00" + b);
+            for(int n = 0; n < BULBS; n++)
+                assertTrue(bridge.addBulb(bulb(b * BULB_ID_BASE + n, 0)));
+            _dm.addBridge(bridge);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _dm.removeAll();
+        super.tearDown();
+    }
+
+    public void testThroughputAt1To8Threads()
+    {
+        double single = 0;
+        for(final int threads : new int[]{1, 4, 8})
+        {
+            double nanos = measure("threads: " + threads, threads * OPS_PER_THREAD, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runThreads(threads);
+                }
+            });
+            if(threads == 1)
+                single = nanos;
+            report("threads: " + threads + ", " + String.format("%.0f", 1e6 / nanos) + " ops/ms, " +
+                   "throughput / 1 thread: " + String.format("%.2f", single / nanos));
+        }
+
+        assertTrue(_errors.isEmpty());
+        for(int b = 1; b <= MAX_THREADS; b++)
+            assertEquals(BULBS, _dm.getBulbs(b).size());
+    }
+
+    /**
+     * Runs the threads, each on its own bridge, and waits for them
+     * @param threads amount of threads
+     */
+    private void runThreads(int threads)
+    {
+        List<Thread> workers = new ArrayList<>();
+        for(int t = 1; t <= threads; t++)
+        {
+            final int bridgeId = t;
+            workers.add(new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        work(bridgeId);
+                    }
+                    catch (Throwable e)
+                    {
+                        _errors.add(e);
+                    }
+                }
+            }));
+        }
+        for(Thread t : workers)
+            t.start();
+        try
+        {
+            for(Thread t : workers)
+                t.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if(!_errors.isEmpty())
+        {
+            AssertionError error = new AssertionError("Failed with " + _errors.size() + " errors");
+            error.initCause(_errors.peek());
+            throw error;
+        }
+    }
+
+    /**
+     * Reads the bulbs of the bridge and updates one of them in every fifth operation
+     * @param bridgeId id of the bridge
+     */
+    private void work(int bridgeId)
+    {
+        for(int i = 0; i < OPS_PER_THREAD; i++)
+        {
+            if(i % 5 == 4)
+            {
+                Lightbulb update = bulb(bridgeId * BULB_ID_BASE + i % BULBS, i % 256);
+                _dm.onUpdateBulb(new BulbMessage(BulbMessage.MSG_UPDATE_SINGLE_BULB, update, bridgeId));
+            }
+            else if(_dm.getBulbs(bridgeId).size() != BULBS)
+                throw new AssertionError("Bridge " + bridgeId + " lost bulbs");
+        }
+    }
+
+    private static Lightbulb bulb(int id, int brightness)
+    {
+        return new Lightbulb(id, "LCT001", "Bulb " + id,
+                             Trait.valueOf(BulbColor.valueOf(brightness, 0, 0, 100), brightness), Lightbulb.States.ON);
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,133 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.content.res.AssetManager;
+import android.test.InstrumentationTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Tests of the installation of the preloaded database: the installed file is the asset,
+ * files of a previous database are removed, and a failed installation keeps the previous
+ * database and leaves no temporary file behind.
+ */
+public class DatabaseInstallerTest extends InstrumentationTestCase
+{
+    private static final String ASSET_NAME = "core_data_base";
+
+    private AssetManager _assets;
+    private File _directory;
+    private File _target;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _assets = getInstrumentation().getTargetContext().getAssets();
+        _directory = new File(getInstrumentation().getTargetContext().getCacheDir(), "DatabaseInstallerTest");
+        _target = new File(_directory, ASSET_NAME);
+        deleteDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    public void testInstallCopiesTheAsset() throws IOException
+    {
+        DatabaseInstaller.install(_assets, ASSET_NAME, _target);
+
+        assertTrue(Arrays.equals(read(_assets.open(ASSET_NAME)), read(new FileInputStream(_target))));
+        assertFalse(new File(_target.getPath() + ".tmp").exists());
+    }
+
+    public void testReinstallReplacesTheDatabaseAndItsJournal() throws IOException
+    {
+        assertTrue(_directory.mkdirs());
+        write(_target, "previous database");
+        write(new File(_target.getPath() + "-journal"), "journal");
+        write(new File(_target.getPath() + "-wal"), "wal");
+
+        DatabaseInstaller.install(_assets, ASSET_NAME, _target);
+
+        assertTrue(Arrays.equals(read(_assets.open(ASSET_NAME)), read(new FileInputStream(_target))));
+        assertFalse(new File(_target.getPath() + "-journal").exists());
+        assertFalse(new File(_target.getPath() + "-wal").exists());
+    }
+
+    public void testFailedInstallKeepsTheDatabase() throws IOException
+    {
+        assertTrue(_directory.mkdirs());
+        write(_target, "previous database");
+
+        try
+        {
+            DatabaseInstaller.install(_assets, "missing_" + ASSET_NAME, _target);
+            fail("Missing asset is installed");
+        }
+        catch (IOException e)
+        {
+            //expected
+        }
+
+        assertEquals("previous database", new String(read(new FileInputStream(_target)), "UTF-8"));
+        assertFalse(new File(_target.getPath() + ".tmp").exists());
+    }
+
+    private void deleteDirectory()
+    {
+        File[] files = _directory.listFiles();
+        if(files != null)
+        {
+            for(File file : files)
+                assertTrue(file.delete());
+        }
+        _directory.delete();
+    }
+
+    private static void write(File file, String content) throws IOException
+    {
+        FileOutputStream output = new FileOutputStream(file);
+        try
+        {
+            output.write(content.getBytes("UTF-8"));
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    /**
+     * Reads the whole stream and closes it
+     * @param input stream to read
+     * @return content of the stream
+     * @throws IOException if failed to read
+     */
+    private static byte[] read(InputStream input) throws IOException
+    {
+        try
+        {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while((length = input.read(buffer)) > 0)
+                content.write(buffer, 0, length);
+            return content.toByteArray();
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /******************** end of class********************************/
+}
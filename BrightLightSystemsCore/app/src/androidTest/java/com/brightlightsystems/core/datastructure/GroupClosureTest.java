@@ -0,0 +1,180 @@
+package com.brightlightsystems.core.datastructure;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tests of the closure of a group, all bulbs of the group and of its subgroups at any depth:
+ * it has bulbs with and without slots, it is recomputed when any group below changes,
+ * and nesting never makes a cycle.
+ */
+public class GroupClosureTest extends TestCase
+{
+    private static final int BRIDGE_ID = 1;
+
+    private Bridge _bridge;
+    private Group _top;
+    private Group _middle;
+    private Group _bottom;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _bridge = new Bridge(BRIDGE_ID, "Home", "BSB001");
+        for(int id = 1; id <= 6; id++)
+            assertTrue(_bridge.addBulb(bulb(id)));
+        _top = group(1, 1);
+        _middle = group(2, 2, 3);
+        _bottom = group(3, 3, 4);
+        _top.addGroup(_middle);
+        _middle.addGroup(_bottom);
+    }
+
+    public void testClosureHasBulbsOfSubgroupsAtAnyDepth()
+    {
+        assertTrue(Arrays.equals(new int[]{1, 2, 3, 4}, sorted(_top.getAllBulbIds())));
+        assertEquals(4, _top.countAllBulbs());
+        assertEquals(3, _middle.countAllBulbs());
+        assertEquals(4, Long.bitCount(_top.getAllBulbsMask()));
+    }
+
+    public void testClosureHasBulbsWithoutSlots()
+    {
+        //bulbs of no bridge have no slots
+        _bottom.addBulb(bulb(100));
+        _bottom.addBulb(bulb(101));
+
+        assertEquals(4, Long.bitCount(_top.getAllBulbsMask()));
+        assertTrue(Arrays.equals(new int[]{1, 2, 3, 4, 100, 101}, sorted(_top.getAllBulbIds())));
+        assertEquals(6, _top.countAllBulbs());
+
+        _bottom.removeBulb(100);
+        assertEquals(5, _top.countAllBulbs());
+        _bottom.removeBulb(101);
+        assertTrue(Arrays.equals(new int[]{1, 2, 3, 4}, sorted(_top.getAllBulbIds())));
+    }
+
+    public void testReturnedIdsDoNotChangeTheClosure()
+    {
+        _bottom.addBulb(bulb(100));
+        int[] ids = _top.getAllBulbIds();
+        Arrays.fill(ids, 0);
+
+        assertTrue(Arrays.equals(new int[]{1, 2, 3, 4, 100}, sorted(_top.getAllBulbIds())));
+    }
+
+    public void testChangesBelowInvalidateAllParents()
+    {
+        assertEquals(4, _top.countAllBulbs());
+
+        _bottom.addBulb(_bridge.getBulb(5));
+        assertEquals(5, _top.countAllBulbs());
+        assertEquals(4, _middle.countAllBulbs());
+
+        _bottom.removeBulb(4);
+        assertEquals(4, _top.countAllBulbs());
+
+        _bottom.updateBulbs(mapOf(6));
+        assertTrue(Arrays.equals(new int[]{1, 2, 3, 6}, sorted(_top.getAllBulbIds())));
+
+        _bottom.clearAll();
+        assertTrue(Arrays.equals(new int[]{1, 2, 3}, sorted(_top.getAllBulbIds())));
+    }
+
+    public void testSharedSubgroupIsCountedOnce()
+    {
+        //the bottom group is reached through two paths
+        _top.addGroup(_bottom);
+        assertEquals(4, _top.countAllBulbs());
+
+        _bottom.addBulb(bulb(100));
+        assertEquals(5, _top.countAllBulbs());
+        assertEquals(2, _bottom.getParents().size());
+    }
+
+    public void testRemovedSubgroupNoLongerChangesTheParent()
+    {
+        _middle.removeGroup(_bottom.getId());
+        assertEquals(2, _middle.countAllBulbs());
+        assertTrue(_bottom.getParents().isEmpty());
+
+        _bottom.addBulb(_bridge.getBulb(5));
+        assertEquals(2, _middle.countAllBulbs());
+        assertEquals(3, _top.countAllBulbs());
+    }
+
+    public void testCyclesAreRejected()
+    {
+        assertFalse(_bottom.canAddGroup(_top));
+        assertFalse(_bottom.canAddGroup(_bottom));
+        assertTrue(_top.containsGroup(_bottom));
+        try
+        {
+            _bottom.addGroup(_top);
+            fail("A cycle was accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+        try
+        {
+            _middle.updateGroup(Collections.singletonMap(_top.getId(), _top));
+            fail("A cycle was accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+
+        //rejected changes leave the nesting as it was
+        assertTrue(_bottom.getGroupMap().isEmpty());
+        assertTrue(_middle.containsGroup(_bottom));
+        assertEquals(4, _top.countAllBulbs());
+    }
+
+    /**
+     * Creates a group of bulbs of the bridge
+     * @param id id of the group
+     * @param bulbIds ids of the bulbs of the group
+     * @return new group
+     */
+    private Group group(int id, int... bulbIds)
+    {
+        Group group = new Group(id, "Group " + id, BRIDGE_ID, false, false);
+        for(int bulbId : bulbIds)
+            group.addBulb(_bridge.getBulb(bulbId));
+        return group;
+    }
+
+    /**
+     * Get bulbs of the bridge as a map in the order of ids
+     * @param bulbIds ids of the bulbs
+     * @return map of the bulbs, where K is a bulb id
+     */
+    private Map<Integer,Lightbulb> mapOf(int... bulbIds)
+    {
+        Map<Integer,Lightbulb> bulbs = new LinkedHashMap<>();
+        for(int bulbId : bulbIds)
+            bulbs.put(bulbId, _bridge.getBulb(bulbId));
+        return bulbs;
+    }
+
+    private static Lightbulb bulb(int id)
+    {
+        return new Lightbulb(id, "LCT001", "Bulb " + id, null, Lightbulb.States.ON);
+    }
+
+    private static int[] sorted(int[] ids)
+    {
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,100 @@
+package com.brightlightsystems.core.datastructure;
+
+import com.brightlightsystems.core.TimingTestCase;
+
+/**
+ * Timing of the set operations of groups of 50 bulbs: on masks of bulb slots, when the bridge
+ * holds all bulbs, against the lookups of bulb ids, when the bulbs have no slots.
+ */
+public class GroupMaskTimingTest extends TimingTestCase
+{
+    private static final int BRIDGE_ID = 1;
+    private static final int BULBS = 50;
+    private static final int RUNS = 10000;
+
+    private Group _masked;
+    private Group _maskedSubset;
+    private Group _unmasked;
+    private Group _unmaskedSubset;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Bridge bridge = new Bridge(BRIDGE_ID, "Home", "BSB001");
+        _masked = new Group(1, "Masked", BRIDGE_ID, false, false);
+        _maskedSubset = new Group(2, "Masked subset", BRIDGE_ID, false, false);
+        _unmasked = new Group(3, "Unmasked", BRIDGE_ID, false, false);
+        _unmaskedSubset = new Group(4, "Unmasked subset", BRIDGE_ID, false, false);
+        for(int id = 1; id <= BULBS; id++)
+        {
+            assertTrue(bridge.addBulb(bulb(id)));
+            //bulbs of no bridge have no slots
+            Lightbulb detached = bulb(1000 + id);
+            _masked.addBulb(bridge.getBulb(id));
+            _unmasked.addBulb(detached);
+            if(id % 5 != 0)
+            {
+                _maskedSubset.addBulb(bridge.getBulb(id));
+                _unmaskedSubset.addBulb(detached);
+            }
+        }
+        _masked.addGroup(_maskedSubset);
+        _unmasked.addGroup(_unmaskedSubset);
+    }
+
+    public void testSetOperationsOf50Bulbs()
+    {
+        final int[] masked = new int[1];
+        final int[] unmasked = new int[1];
+        double byMask = measure("operations on masks", RUNS, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                masked[0] = apply(_masked, _maskedSubset);
+            }
+        });
+        double byIds = measure("operations on bulb ids", RUNS, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                unmasked[0] = apply(_unmasked, _unmaskedSubset);
+            }
+        });
+        report("time per run, bulb ids / masks: " + String.format("%.2f", byIds / byMask));
+
+        assertEquals(BULBS, Long.bitCount(_masked.getAllBulbsMask()));
+        assertEquals(0, _unmasked.getAllBulbsMask());
+        assertEquals(masked[0], unmasked[0]);
+        assertEquals(RUNS * (2 + BULBS), masked[0]);
+    }
+
+    /**
+     * Runs containsAll, intersects and countAllBulbs over the groups
+     * @param group group of all bulbs
+     * @param subset subgroup of the group
+     * @return sum of the results, to compare runs
+     */
+    private static int apply(Group group, Group subset)
+    {
+        int sum = 0;
+        for(int i = 0; i < RUNS; i++)
+        {
+            if(group.containsAll(subset))
+                sum++;
+            if(subset.intersects(group))
+                sum++;
+            sum += group.countAllBulbs();
+        }
+        return sum;
+    }
+
+    private static Lightbulb bulb(int id)
+    {
+        return new Lightbulb(id, "LCT001", "Bulb " + id, null, Lightbulb.States.ON);
+    }
+
+    /******************** end of class********************************/
+}
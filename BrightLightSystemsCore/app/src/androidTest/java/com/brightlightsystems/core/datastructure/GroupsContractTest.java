@@ -0,0 +1,121 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the single transaction update of a group with its bulb and subgroup links
+ */
+public class GroupsContractTest extends TestCase
+{
+    private SQLiteDatabase _db;
+    private StatementCache _statements;
+    private Bridge _bridge;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _db = TestDatabase.create();
+        _statements = new StatementCache(_db);
+        DataManager.setActiveBridgeId(1);
+        _bridge = new Bridge(1, "Home", "BSB001");
+        for(int id = 1; id <= 3; id++)
+        {
+            Lightbulb bulb = new Lightbulb(id, "LCT001", "Bulb " + id, null, Lightbulb.States.OFF);
+            _bridge.addBulb(bulb);
+            TestDatabase.insertBulb(_db, bulb);
+        }
+        TestDatabase.insertGroup(_db, 10, "Kitchen");
+        TestDatabase.insertGroup(_db, 11, "Counter");
+        TestDatabase.insertGroup(_db, 12, "Table");
+        _db.execSQL("INSERT INTO bulbs_groups (group_id, bulb_id) VALUES (10, 1)");
+        _db.execSQL("INSERT INTO bulbs_groups (group_id, bulb_id) VALUES (10, 2)");
+        _db.execSQL("INSERT INTO groups_subgroups (group_id, subgroup_id) VALUES (10, 11)");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _statements.clear();
+        _db.close();
+        super.tearDown();
+    }
+
+    public void testUpdateReplacesRowAndLinks()
+    {
+        Group group = new Group(10, "Kitchen and table", 1, true, false);
+        group.addBulb(_bridge.getBulb(2));
+        group.addBulb(_bridge.getBulb(3));
+        group.addGroup(new Group(12, "Table", 1, false, false));
+
+        GroupsContract.update(group, _db, _statements);
+
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT favorite FROM groups WHERE _id = 10"));
+        assertEquals(2, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM bulbs_groups WHERE group_id = 10"));
+        assertEquals(0, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM bulbs_groups WHERE group_id = 10 AND bulb_id = 1"));
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM bulbs_groups WHERE group_id = 10 AND bulb_id = 3"));
+        assertEquals(12, TestDatabase.queryLong(_db, "SELECT subgroup_id FROM groups_subgroups WHERE group_id = 10"));
+        assertFalse(_db.inTransaction());
+    }
+
+    public void testUpdateOfEmptyGroupRemovesAllLinks()
+    {
+        GroupsContract.update(new Group(10, "Kitchen", 1, false, false), _db, _statements);
+
+        assertEquals(0, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM bulbs_groups WHERE group_id = 10"));
+        assertEquals(0, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM groups_subgroups WHERE group_id = 10"));
+    }
+
+    public void testFailedUpdateChangesNothing()
+    {
+        //bulb 42 is not in the bulbs table, so its link breaks the foreign key after the row is updated
+        Group group = new Group(10, "Renamed", 1, true, false);
+        group.addBulb(_bridge.getBulb(3));
+        group.addBulb(new Lightbulb(42, "LCT001", "Bulb 42", null, Lightbulb.States.OFF));
+
+        try
+        {
+            GroupsContract.update(group, _db, _statements);
+            fail("Update with a link to a missing bulb must fail");
+        }
+        catch (RuntimeException e)
+        {
+            //expected
+        }
+
+        assertEquals(0, TestDatabase.queryLong(_db, "SELECT favorite FROM groups WHERE _id = 10"));
+        assertEquals(2, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM bulbs_groups WHERE group_id = 10"));
+        assertEquals(0, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM bulbs_groups WHERE bulb_id = 3"));
+        assertFalse(_db.inTransaction());
+    }
+
+    public void testUpdateOfMissingGroupFails()
+    {
+        try
+        {
+            GroupsContract.update(new Group(99, "Missing", 1, false, false), _db, _statements);
+            fail("Update of a missing row must fail");
+        }
+        catch (Error e)
+        {
+            //expected
+        }
+        assertFalse(_db.inTransaction());
+    }
+
+    public void testRemoveFromParentsKeepsTheGroup()
+    {
+        _db.execSQL("INSERT INTO groups_subgroups (group_id, subgroup_id) VALUES (12, 11)");
+        _db.execSQL("INSERT INTO groups_subgroups (group_id, subgroup_id) VALUES (11, 12)");
+
+        GroupsContract.removeFromParents(11, _db);
+
+        assertEquals(0, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM groups_subgroups WHERE subgroup_id = 11"));
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM groups_subgroups WHERE group_id = 11"));
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM groups WHERE _id = 11"));
+    }
+
+    /******************** end of class********************************/
+}
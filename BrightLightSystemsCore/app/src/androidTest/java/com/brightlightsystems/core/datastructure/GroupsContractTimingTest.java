@@ -0,0 +1,86 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.brightlightsystems.core.TimingTestCase;
+
+/**
+ * Timing of the update of a group of 50 bulbs: the single transaction with bound statements
+ * against the former path, where every link was a separate SQL string in its own transaction.
+ */
+public class GroupsContractTimingTest extends TimingTestCase
+{
+    private static final int GROUP_ID = 10;
+
+    private SQLiteDatabase _db;
+    private StatementCache _statements;
+    private Group _group;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _db = TestDatabase.create();
+        _statements = new StatementCache(_db);
+        Bridge bridge = new Bridge(1, "Home", "BSB001");
+        _group = new Group(GROUP_ID, "Kitchen", 1, false, false);
+        for(int id = 1; id <= Bridge.INIT_BULB_COUNT; id++)
+        {
+            Lightbulb bulb = new Lightbulb(id, "LCT001", "Bulb " + id, null, Lightbulb.States.OFF);
+            bridge.addBulb(bulb);
+            TestDatabase.insertBulb(_db, bulb);
+            _group.addBulb(bulb);
+        }
+        TestDatabase.insertGroup(_db, GROUP_ID, "Kitchen");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _statements.clear();
+        _db.close();
+        super.tearDown();
+    }
+
+    public void testUpdateOfGroupWith50Bulbs()
+    {
+        double former = measure("statement per link", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                updateWithStatementPerLink();
+            }
+        });
+        double current = measure("single transaction", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                GroupsContract.update(_group, _db, _statements);
+            }
+        });
+        report("time of an update, statement per link / single transaction: " + String.format("%.2f", former / current));
+
+        assertEquals(Bridge.INIT_BULB_COUNT,
+                     TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM bulbs_groups WHERE group_id = " + GROUP_ID));
+    }
+
+    /**
+     * The former write path of a group update: the row and every link in a statement of its own,
+     * each committed separately. Links are executed, which the former code meant to do.
+     */
+    private void updateWithStatementPerLink()
+    {
+        _db.execSQL("UPDATE groups SET group_name = '" + _group.getName() + "' WHERE _id = " + GROUP_ID);
+        String ids = "";
+        for(Lightbulb bulb : _group.getBulbCollection())
+        {
+            _db.execSQL("INSERT OR IGNORE INTO bulbs_groups (group_id, bulb_id) VALUES (" + GROUP_ID + ", " + bulb.getId() + ")");
+            ids += (ids.isEmpty() ? "" : ",") + bulb.getId();
+        }
+        _db.execSQL("DELETE FROM bulbs_groups WHERE group_id = " + GROUP_ID + " AND bulb_id NOT IN (" + ids + ")");
+    }
+
+    /******************** end of class********************************/
+}
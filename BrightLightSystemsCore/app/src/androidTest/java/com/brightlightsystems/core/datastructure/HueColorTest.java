@@ -0,0 +1,245 @@
+package com.brightlightsystems.core.datastructure;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the conversion of colors into xy of Hue bulbs: known colors against reference
+ * values of the wide gamut conversion, clamping into the gamuts A, B and C, and the agreement
+ * of the table based conversion with the double precision one.
+ */
+public class HueColorTest extends TestCase
+{
+    /**Allowed error of a coordinate*/
+    private static final float EPSILON = 0.001f;
+    /**Allowed distance of a clamped point from the gamut, a couple of quantization steps*/
+    private static final float EDGE = 3f / 0xFFFF;
+
+    public void testColorsInsideOfTheGamutMatchReference()
+    {
+        //r, g, b, x, y
+        float[][] reference =
+        {
+            {255, 255, 255, 0.3227f, 0.3290f},
+            {128, 128, 128, 0.3227f, 0.3290f},
+            {255, 192, 203, 0.3948f, 0.3114f},
+            {200, 150, 100, 0.4640f, 0.3842f},
+            {180, 160, 255, 0.2674f, 0.2121f},
+            {230, 230, 150, 0.3824f, 0.4212f},
+            {210, 200, 170, 0.3621f, 0.3656f},
+            {255, 100, 100, 0.5801f, 0.3088f},
+        };
+        for(HueColor.Gamut gamut : HueColor.Gamut.values())
+        {
+            for(float[] c : reference)
+            {
+                assertTrue(gamut.contains(c[3], c[4]));
+                assertXy(c[3], c[4], HueColor.toXy((int) c[0], (int) c[1], (int) c[2], gamut));
+                assertXy(c[3], c[4], HueColor.toXyExact((int) c[0], (int) c[1], (int) c[2], gamut));
+            }
+        }
+    }
+
+    public void testBlackIsWhitePoint()
+    {
+        int xy = HueColor.toXy(0, 0, 0, HueColor.Gamut.C);
+
+        assertXy(HueColor.WHITE_X, HueColor.WHITE_Y, xy);
+        assertEquals(xy, HueColor.toXy(BulbColor.valueOf(0, 0, 0, 100), HueColor.Gamut.C));
+    }
+
+    public void testTransparencyIsIgnored()
+    {
+        assertEquals(HueColor.toXy(BulbColor.valueOf(255, 165, 0, 0), HueColor.Gamut.B),
+                     HueColor.toXy(BulbColor.valueOf(255, 165, 0, 255), HueColor.Gamut.B));
+    }
+
+    public void testSaturatedColorsAreClampedIntoGamutA()
+    {
+        HueColor.Gamut a = HueColor.Gamut.A;
+        assertXy(0.7004f, 0.2991f, HueColor.toXy(255, 0, 0, a));
+        assertXy(0.2151f, 0.7106f, HueColor.toXy(0, 255, 0, a));
+        assertXy(0.1380f, 0.0800f, HueColor.toXy(0, 0, 255, a));
+        assertXy(0.5620f, 0.4164f, HueColor.toXy(255, 165, 0, a));
+        assertXy(0.1698f, 0.3402f, HueColor.toXy(0, 128, 128, a));
+        assertXy(0.3789f, 0.1719f, HueColor.toXy(128, 0, 128, a));
+        assertXy(0.4441f, 0.5164f, HueColor.toXy(255, 255, 0, a));
+    }
+
+    public void testSaturatedColorsAreClampedIntoGamutB()
+    {
+        HueColor.Gamut b = HueColor.Gamut.B;
+        assertXy(0.6750f, 0.3220f, HueColor.toXy(255, 0, 0, b));
+        assertXy(0.4090f, 0.5180f, HueColor.toXy(0, 255, 0, b));
+        assertXy(0.1670f, 0.0400f, HueColor.toXy(0, 0, 255, b));
+        assertXy(0.5567f, 0.4091f, HueColor.toXy(255, 165, 0, b));
+        assertXy(0.2857f, 0.2745f, HueColor.toXy(0, 128, 128, b));
+        assertXy(0.3827f, 0.1597f, HueColor.toXy(128, 0, 128, b));
+        assertXy(0.4325f, 0.5007f, HueColor.toXy(255, 255, 0, b));
+    }
+
+    public void testSaturatedColorsAreClampedIntoGamutC()
+    {
+        HueColor.Gamut c = HueColor.Gamut.C;
+        assertXy(0.6920f, 0.3080f, HueColor.toXy(255, 0, 0, c));
+        assertXy(0.1700f, 0.7000f, HueColor.toXy(0, 255, 0, c));
+        assertXy(0.1530f, 0.0480f, HueColor.toXy(0, 0, 255, c));
+        assertXy(0.5569f, 0.4095f, HueColor.toXy(255, 165, 0, c));
+        assertXy(0.1607f, 0.3423f, HueColor.toXy(0, 128, 128, c));
+        assertXy(0.3833f, 0.1591f, HueColor.toXy(128, 0, 128, c));
+        assertXy(0.4334f, 0.5022f, HueColor.toXy(255, 255, 0, c));
+    }
+
+    public void testClampMovesPointsToTheClosestPointOfTheGamut()
+    {
+        for(HueColor.Gamut gamut : HueColor.Gamut.values())
+        {
+            for(int i = 0; i <= 20; i++)
+            {
+                for(int j = 0; j <= 20; j++)
+                {
+                    float x = i / 20f;
+                    float y = j / 20f;
+                    int xy = gamut.clamp(x, y);
+                    assertTrue(isInside(gamut, HueColor.x(xy), HueColor.y(xy)));
+                    if(gamut.contains(x, y))
+                        assertXy(x, y, xy);
+                    else
+                        assertEquals(closestDistance(gamut, x, y),
+                                     distance(HueColor.x(xy), HueColor.y(xy), x, y), EDGE);
+                }
+            }
+        }
+    }
+
+    public void testTablesAgreeWithExactConversion()
+    {
+        for(HueColor.Gamut gamut : HueColor.Gamut.values())
+        {
+            for(int r = 0; r < 256; r += 15)
+            {
+                for(int g = 0; g < 256; g += 15)
+                {
+                    for(int b = 0; b < 256; b += 15)
+                    {
+                        int xy = HueColor.toXy(r, g, b, gamut);
+                        assertXy(HueColor.x(HueColor.toXyExact(r, g, b, gamut)),
+                                 HueColor.y(HueColor.toXyExact(r, g, b, gamut)), xy);
+                        assertTrue(isInside(gamut, HueColor.x(xy), HueColor.y(xy)));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testGamutOfModels()
+    {
+        assertEquals(HueColor.Gamut.A, HueColor.Gamut.forModel("LST001"));
+        assertEquals(HueColor.Gamut.A, HueColor.Gamut.forModel("LLC010"));
+        assertEquals(HueColor.Gamut.B, HueColor.Gamut.forModel("LCT001"));
+        assertEquals(HueColor.Gamut.B, HueColor.Gamut.forModel("LLM001"));
+        assertEquals(HueColor.Gamut.C, HueColor.Gamut.forModel("LCT015"));
+        assertEquals(HueColor.Gamut.C, HueColor.Gamut.forModel("unknown"));
+        assertEquals(HueColor.Gamut.C, HueColor.Gamut.forModel(null));
+    }
+
+    public void testInvalidArgumentsAreRejected()
+    {
+        int[][] components = {{-1, 0, 0}, {0, 256, 0}, {0, 0, 1000}};
+        for(int[] c : components)
+        {
+            try
+            {
+                HueColor.toXy(c[0], c[1], c[2], HueColor.Gamut.C);
+                fail("Component out of range was accepted");
+            }
+            catch (IllegalArgumentException e)
+            {
+                //expected
+            }
+            try
+            {
+                HueColor.toXyExact(c[0], c[1], c[2], HueColor.Gamut.C);
+                fail("Component out of range was accepted");
+            }
+            catch (IllegalArgumentException e)
+            {
+                //expected
+            }
+        }
+        try
+        {
+            HueColor.toXy(0, 0, 0, null);
+            fail("Null gamut was accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+        try
+        {
+            HueColor.toXy(null, HueColor.Gamut.C);
+            fail("Null color was accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+    }
+
+    private static void assertXy(float x, float y, int xy)
+    {
+        assertEquals(x, HueColor.x(xy), EPSILON);
+        assertEquals(y, HueColor.y(xy), EPSILON);
+    }
+
+    /**
+     * Tests if the point is inside of the gamut, or close enough to an edge for the quantization
+     */
+    private static boolean isInside(HueColor.Gamut gamut, float x, float y)
+    {
+        return gamut.contains(x, y) || closestDistance(gamut, x, y) <= EDGE;
+    }
+
+    /**
+     * Finds the distance from the point to the closest of points sampled along the edges of the gamut
+     */
+    private static float closestDistance(HueColor.Gamut gamut, float x, float y)
+    {
+        //corners of the gamut: red, green, blue
+        float[] corners = corners(gamut);
+        float best = Float.MAX_VALUE;
+        for(int edge = 0; edge < 3; edge++)
+        {
+            float ax = corners[edge * 2];
+            float ay = corners[edge * 2 + 1];
+            float bx = corners[(edge * 2 + 2) % 6];
+            float by = corners[(edge * 2 + 3) % 6];
+            for(int i = 0; i <= 10000; i++)
+            {
+                float t = i / 10000f;
+                best = Math.min(best, distance(ax + t * (bx - ax), ay + t * (by - ay), x, y));
+            }
+        }
+        return best;
+    }
+
+    private static float[] corners(HueColor.Gamut gamut)
+    {
+        switch(gamut)
+        {
+            case A:
+                return new float[]{0.704f, 0.296f, 0.2151f, 0.7106f, 0.138f, 0.08f};
+            case B:
+                return new float[]{0.675f, 0.322f, 0.409f, 0.518f, 0.167f, 0.04f};
+            default:
+                return new float[]{0.692f, 0.308f, 0.17f, 0.7f, 0.153f, 0.048f};
+        }
+    }
+
+    private static float distance(float ax, float ay, float bx, float by)
+    {
+        return (float) Math.sqrt((ax - bx) * (ax - bx) + (ay - by) * (ay - by));
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,60 @@
+package com.brightlightsystems.core.datastructure;
+
+import com.brightlightsystems.core.TimingTestCase;
+
+import java.util.Random;
+
+/**
+ * Timing of the conversion of 4096 random colors into xy of gamut C: the table based conversion
+ * against the double precision one. Both must give the same points within the allowed error.
+ */
+public class HueColorTimingTest extends TimingTestCase
+{
+    private static final int COLORS = 4096;
+    /**Allowed error of a coordinate, the same as of the accuracy tests*/
+    private static final float EPSILON = 0.001f;
+
+    private final int[] _rgb = new int[COLORS];
+    private final int[] _table = new int[COLORS];
+    private final int[] _exact = new int[COLORS];
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Random random = new Random(25);
+        for(int i = 0; i < COLORS; i++)
+            _rgb[i] = random.nextInt(0x1000000);
+    }
+
+    public void testConversionOf4096Colors()
+    {
+        double table = measure("table", COLORS, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for(int i = 0; i < COLORS; i++)
+                    _table[i] = HueColor.toXy(_rgb[i] >> 16, (_rgb[i] >> 8) & 0xFF, _rgb[i] & 0xFF, HueColor.Gamut.C);
+            }
+        });
+        double exact = measure("double precision", COLORS, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for(int i = 0; i < COLORS; i++)
+                    _exact[i] = HueColor.toXyExact(_rgb[i] >> 16, (_rgb[i] >> 8) & 0xFF, _rgb[i] & 0xFF, HueColor.Gamut.C);
+            }
+        });
+        report("time per color, double precision / table: " + String.format("%.2f", exact / table));
+
+        for(int i = 0; i < COLORS; i++)
+        {
+            assertEquals(HueColor.x(_exact[i]), HueColor.x(_table[i]), EPSILON);
+            assertEquals(HueColor.y(_exact[i]), HueColor.y(_table[i]), EPSILON);
+        }
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,126 @@
+package com.brightlightsystems.core.datastructure;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of lazily loaded themes: the content is requested from the source exactly once,
+ * and a theme is reported as materialized only when the whole content is in memory.
+ */
+public class LazyThemeTest extends TestCase
+{
+    private static final int TRAIT_COUNT = 50;
+    private static final int THREAD_COUNT = 8;
+
+    public void testContentIsRequestedOnce() throws InterruptedException
+    {
+        final CountingSource source = new CountingSource();
+        final Theme theme = new Theme(1, "Evening", false, false);
+        theme.setSource(source);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger wrongCounts = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < THREAD_COUNT; i++)
+        {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    if(theme.traitCount() != TRAIT_COUNT)
+                        wrongCounts.incrementAndGet();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for(Thread thread : threads)
+            thread.join();
+
+        assertEquals(1, source._calls.get());
+        assertEquals(0, wrongCounts.get());
+        assertTrue(theme.isMaterialized());
+    }
+
+    public void testThemeIsNotMaterializedWhileLoading()
+    {
+        final boolean[] materializedWhileLoading = {true};
+        Theme theme = new Theme(1, "Evening", false, false);
+        theme.setSource(new ThemeSource()
+        {
+            @Override
+            public void materialize(Theme theme)
+            {
+                theme.addTrait(1, new Trait());
+                materializedWhileLoading[0] = theme.isMaterialized();
+            }
+        });
+
+        assertFalse(theme.isMaterialized());
+        assertEquals(1, theme.traitCount());
+        assertFalse(materializedWhileLoading[0]);
+        assertTrue(theme.isMaterialized());
+    }
+
+    public void testFailedSourceIsAskedAgain()
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        Theme theme = new Theme(1, "Evening", false, false);
+        theme.setSource(new ThemeSource()
+        {
+            @Override
+            public void materialize(Theme theme)
+            {
+                if(calls.incrementAndGet() == 1)
+                    throw new IllegalStateException("Database is busy");
+                theme.addTrait(1, new Trait());
+            }
+        });
+
+        try
+        {
+            theme.traitCount();
+            fail("Failure of the source must reach the caller");
+        }
+        catch (IllegalStateException e)
+        {
+            //expected
+        }
+        assertFalse(theme.isMaterialized());
+        assertEquals(1, theme.traitCount());
+        assertEquals(2, calls.get());
+    }
+
+    /**Source that adds TRAIT_COUNT traits slowly and counts the requests*/
+    private static final class CountingSource implements ThemeSource
+    {
+        private final AtomicInteger _calls = new AtomicInteger();
+
+        @Override
+        public void materialize(Theme theme)
+        {
+            _calls.incrementAndGet();
+            for(int bulbId = 1; bulbId <= TRAIT_COUNT; bulbId++)
+            {
+                theme.addTrait(bulbId, Trait.valueOf(BulbColor.valueOf(bulbId, 0, 0, 100), bulbId));
+                Thread.yield();
+            }
+        }
+    }
+
+    /******************** end of class********************************/
+}
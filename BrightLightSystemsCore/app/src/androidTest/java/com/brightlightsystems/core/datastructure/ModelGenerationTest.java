@@ -0,0 +1,115 @@
+package com.brightlightsystems.core.datastructure;
+
+import junit.framework.TestCase;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tests of generations of the model: a generation is shared until the model changes, it is rebuilt
+ * only after a change is recorded, and it never changes after it is published.
+ */
+public class ModelGenerationTest extends TestCase
+{
+    private static final int BRIDGE_ID = 1;
+
+    private DataManager _dm;
+    private Bridge _bridge;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _dm = DataManager.getInstance();
+        _dm.removeAll();
+        _bridge = new Bridge(BRIDGE_ID, "Home", "BSB001");
+        for(int id = 1; id <= 3; id++)
+            assertTrue(_bridge.addBulb(new Lightbulb(id, "LCT001", "Bulb " + id, trait(id), Lightbulb.States.ON)));
+        _dm.addBridge(_bridge);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _dm.removeAll();
+        super.tearDown();
+    }
+
+    public void testGenerationIsSharedUntilTheModelChanges()
+    {
+        ModelGeneration generation = _dm.getGeneration();
+
+        assertSame(generation, _dm.getGeneration());
+        assertSame(generation, _dm.getGeneration());
+    }
+
+    public void testGenerationIsNotRebuiltUntilMarkChanged()
+    {
+        ModelGeneration generation = _dm.getGeneration();
+
+        //changes of model objects that bypass the data manager, as loaders make them
+        _bridge.getBulb(1).setTrait(trait(100));
+
+        assertSame(generation, _dm.getGeneration());
+        assertEquals(trait(1), bulbTrait(_dm.getGeneration(), 1));
+
+        DataManager.markChanged();
+
+        ModelGeneration rebuilt = _dm.getGeneration();
+        assertNotSame(generation, rebuilt);
+        assertTrue(rebuilt.getVersion() > generation.getVersion());
+        assertEquals(trait(100), bulbTrait(rebuilt, 1));
+        assertSame(rebuilt, _dm.getGeneration());
+    }
+
+    public void testChangesThroughTheDataManagerRebuildTheGeneration()
+    {
+        ModelGeneration generation = _dm.getGeneration();
+        Map<Integer,Lightbulb> bulbs = new LinkedHashMap<>();
+        bulbs.put(2, _bridge.getBulb(2));
+
+        _dm.addGroup(new Group(1, "Group", bulbs, BRIDGE_ID, false, false));
+
+        ModelGeneration rebuilt = _dm.getGeneration();
+        assertNotSame(generation, rebuilt);
+        assertNull(generation.getGroups().get(BRIDGE_ID));
+        assertEquals(1, rebuilt.getGroups().get(BRIDGE_ID).size());
+    }
+
+    public void testPublishedGenerationCanNotBeChanged()
+    {
+        ModelGeneration generation = _dm.getGeneration();
+
+        try
+        {
+            generation.getBridges().get(BRIDGE_ID)._bulbs.remove(1);
+            fail("Bulbs of a generation can be changed");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            //expected
+        }
+        try
+        {
+            generation.getBridges().clear();
+            fail("Bridges of a generation can be changed");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            //expected
+        }
+        assertEquals(3, generation.getBridges().get(BRIDGE_ID)._bulbs.size());
+    }
+
+    private static Trait bulbTrait(ModelGeneration generation, int bulbId)
+    {
+        return generation.getBridges().get(BRIDGE_ID)._bulbs.get(bulbId)._trait;
+    }
+
+    private static Trait trait(int brightness)
+    {
+        return Trait.valueOf(BulbColor.valueOf(brightness, 0, 0, 100), brightness);
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,204 @@
+package com.brightlightsystems.core.datastructure;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests of the binary snapshot of the model: a loaded snapshot restores the model that was written,
+ * lazy themes stay lazy, and snapshots of another schema version or corrupted ones are rejected
+ * without touching the data manager.
+ */
+public class ModelSnapshotTest extends TestCase
+{
+    private static final int SCHEMA_VERSION = 1;
+    private static final int BRIDGE_ID = 1;
+
+    private DataManager _dm;
+    private File _file;
+    private RecordingSource _source;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _dm = DataManager.getInstance();
+        _dm.removeAll();
+        _file = File.createTempFile("ModelSnapshotTest", ".bin");
+        _source = new RecordingSource();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _dm.removeAll();
+        _file.delete();
+        super.tearDown();
+    }
+
+    public void testLoadedSnapshotRestoresTheModel() throws IOException
+    {
+        buildModel();
+        String written = describe(_dm.getGeneration());
+        new ModelSnapshot(_file, SCHEMA_VERSION).write();
+        _dm.removeAll();
+
+        assertTrue(new ModelSnapshot(_file, SCHEMA_VERSION).load(_source));
+
+        assertEquals(written, describe(_dm.getGeneration()));
+        assertEquals(BRIDGE_ID, DataManager.getActiveBridgeId());
+        assertEquals(3, _dm.getBulbs(BRIDGE_ID).size());
+        assertEquals(2, _dm.getGroups(BRIDGE_ID).size());
+        assertEquals(2, _dm.getTheme(1).getTraitMap().size());
+        assertTrue(_dm.getTheme(1).containsTheme(_dm.getTheme(2)));
+    }
+
+    public void testLazyThemeStaysLazy() throws IOException
+    {
+        buildModel();
+        Theme lazy = new Theme(3, "Lazy", false, false);
+        lazy.setSource(new RecordingSource());
+        _dm.addTheme(lazy);
+        new ModelSnapshot(_file, SCHEMA_VERSION).write();
+        _dm.removeAll();
+
+        assertTrue(new ModelSnapshot(_file, SCHEMA_VERSION).load(_source));
+
+        Theme loaded = _dm.getTheme(3);
+        assertFalse(loaded.isMaterialized());
+        assertTrue(_dm.getTheme(1).isMaterialized());
+        loaded.getTraitMap();
+        assertEquals(1, _source._requests);
+    }
+
+    public void testSnapshotOfAnotherSchemaVersionIsRejected() throws IOException
+    {
+        buildModel();
+        new ModelSnapshot(_file, SCHEMA_VERSION).write();
+        _dm.removeAll();
+
+        assertFalse(new ModelSnapshot(_file, SCHEMA_VERSION + 1).load(_source));
+
+        assertTrue(_dm.getGeneration().getBridges().isEmpty());
+        assertTrue(_dm.getGeneration().getThemes().isEmpty());
+    }
+
+    public void testTruncatedSnapshotIsRejected() throws IOException
+    {
+        buildModel();
+        new ModelSnapshot(_file, SCHEMA_VERSION).write();
+        _dm.removeAll();
+        RandomAccessFile file = new RandomAccessFile(_file, "rw");
+        try
+        {
+            file.setLength(file.length() / 2);
+        }
+        finally
+        {
+            file.close();
+        }
+
+        assertFalse(new ModelSnapshot(_file, SCHEMA_VERSION).load(_source));
+
+        assertTrue(_dm.getGeneration().getBridges().isEmpty());
+    }
+
+    public void testMissingSnapshotIsNotLoaded()
+    {
+        assertTrue(_file.delete());
+
+        assertFalse(new ModelSnapshot(_file, SCHEMA_VERSION).load(_source));
+    }
+
+    /**
+     * Links a bridge with three bulbs, two nested groups and two nested themes, as loaders do
+     */
+    private static void buildModel()
+    {
+        List<Bridge> bridges = new ArrayList<>();
+        bridges.add(new Bridge(BRIDGE_ID, "Home", "BSB001"));
+        BridgeContract.link(bridges, BRIDGE_ID);
+
+        Map<Integer,List<Lightbulb>> bulbs = new HashMap<>();
+        List<Lightbulb> bridgeBulbs = new ArrayList<>();
+        bridgeBulbs.add(new Lightbulb(1, "LCT001", "Kitchen", trait(10, 20, 30, 40), Lightbulb.States.ON));
+        bridgeBulbs.add(new Lightbulb(2, "LCT001", "Stairs", trait(50, 60, 70, 80), Lightbulb.States.OFF));
+        bridgeBulbs.add(new Lightbulb(3, "LWB004", "Hall", trait(90, 100, 110, 120), Lightbulb.States.ON));
+        bulbs.put(BRIDGE_ID, bridgeBulbs);
+        BulbsContract.link(bulbs);
+
+        List<Group> groups = new ArrayList<>();
+        groups.add(new Group(1, "Downstairs", BRIDGE_ID, true, false));
+        groups.add(new Group(2, "Kitchen", BRIDGE_ID, false, true));
+        GroupsContract.link(groups, new int[]{1, 3, 2, 1, 2, 2}, new int[]{1, 2});
+
+        List<Theme> themes = new ArrayList<>();
+        themes.add(new Theme(1, "Evening", false, true));
+        themes.add(new Theme(2, "Reading", true, false));
+        Map<Integer,Map<Integer,Trait>> traits = new HashMap<>();
+        traits.put(1, new HashMap<Integer,Trait>());
+        traits.get(1).put(1, trait(1, 2, 3, 4));
+        traits.get(1).put(3, trait(5, 6, 7, 8));
+        traits.put(2, new HashMap<Integer,Trait>());
+        traits.get(2).put(2, trait(9, 10, 11, 12));
+        ThemesContract.link(themes, traits, new int[]{1, 2});
+    }
+
+    private static Trait trait(int r, int g, int b, int brightness)
+    {
+        return Trait.valueOf(BulbColor.valueOf(r, g, b, 100), brightness);
+    }
+
+    /**
+     * Describes everything a generation holds, in its order
+     * @param generation generation to describe
+     * @return description of the generation
+     */
+    private static String describe(ModelGeneration generation)
+    {
+        StringBuilder text = new StringBuilder();
+        text.append("active ").append(generation.getActiveBridgeId()).append('\n');
+        for(ModelGeneration.BridgeRecord bridge : generation.getBridges().values())
+        {
+            text.append("bridge ").append(bridge._id).append(' ').append(bridge._name).append(' ')
+                .append(bridge._factoryName).append('\n');
+            for(ModelGeneration.BulbRecord bulb : bridge._bulbs.values())
+                text.append(" bulb ").append(bulb._id).append(' ').append(bulb._name).append(' ')
+                    .append(bulb._factoryName).append(' ').append(bulb._state).append(' ').append(bulb._trait).append('\n');
+        }
+        for(Map<Integer,ModelGeneration.GroupRecord> groups : generation.getGroups().values())
+        {
+            for(ModelGeneration.GroupRecord group : groups.values())
+                text.append("group ").append(group._id).append(' ').append(group._name).append(' ')
+                    .append(group._bridgeId).append(' ').append(group._favorite).append(' ').append(group._activated)
+                    .append(' ').append(group._bulbIds).append(' ').append(group._subgroupIds).append('\n');
+        }
+        for(ModelGeneration.ThemeRecord theme : generation.getThemes().values())
+            text.append("theme ").append(theme._id).append(' ').append(theme._name).append(' ')
+                .append(theme._activated).append(' ').append(theme._favorite).append(' ').append(theme._loaded)
+                .append(' ').append(theme._traits).append(' ').append(theme._subthemeIds).append('\n');
+        return text.toString();
+    }
+
+    /**
+     * Source of lazy themes that counts requests and provides no content
+     */
+    private static final class RecordingSource implements ThemeSource
+    {
+        private int _requests;
+
+        @Override
+        public void materialize(Theme theme)
+        {
+            _requests++;
+        }
+    }
+
+    /******************** end of class********************************/
+}
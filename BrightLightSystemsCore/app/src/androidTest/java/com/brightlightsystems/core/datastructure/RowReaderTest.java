@@ -0,0 +1,133 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests of the readers that decode rows of the tables: columns are resolved by name,
+ * so rows decode the same whatever the order of the columns is.
+ */
+public class RowReaderTest extends TestCase
+{
+    private SQLiteDatabase _db;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _db = TestDatabase.create();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _db.close();
+        super.tearDown();
+    }
+
+    public void testBridgeReaderUsesDefaultName()
+    {
+        _db.execSQL("INSERT INTO bridges (factory_name, user_def_name, active) VALUES ('BSB002', NULL, 0)");
+
+        List<Bridge> bridges = BridgeContract.read(_db, "Bridge");
+        assertEquals(2, bridges.size());
+        assertEquals(1, bridges.get(0).getId());
+        assertEquals("Home", bridges.get(0).getName());
+        assertEquals("BSB001", bridges.get(0)._factoryName);
+        assertEquals(2, bridges.get(1).getId());
+        assertEquals("Bridge", bridges.get(1).getName());
+        assertEquals(1, BridgeContract.readActiveId(_db));
+    }
+
+    public void testBulbReaderDecodesTraitAndState()
+    {
+        Trait trait = Trait.valueOf(BulbColor.valueOf(10, 20, 30, 40), 50);
+        TestDatabase.insertBulb(_db, new Lightbulb(3, "LCT001", "Desk", trait, Lightbulb.States.OFF));
+        _db.execSQL("INSERT INTO bulbs (_id, factory_name, user_def_name, bulb_color, bulb_brightness, bridge_id, " +
+                    "state_id, color_transparency) VALUES (4, 'LCT001', NULL, 0, 0, 1, 1, 100)");
+
+        Map<Integer,List<Lightbulb>> bulbs = BulbsContract.read(_db, "Bulb");
+        assertEquals(1, bulbs.size());
+        List<Lightbulb> bridgeBulbs = bulbs.get(1);
+        assertEquals(2, bridgeBulbs.size());
+
+        Lightbulb desk = bridgeBulbs.get(0);
+        assertEquals(3, desk.getId());
+        assertEquals("Desk", desk.getName());
+        assertEquals("LCT001", desk.getFactoryName());
+        assertEquals(trait, desk.getTrait());
+        assertEquals(Lightbulb.States.OFF, desk.getState());
+        assertEquals("Bulb", bridgeBulbs.get(1).getName());
+    }
+
+    public void testReadersDoNotDependOnColumnOrder()
+    {
+        Trait trait = Trait.valueOf(BulbColor.valueOf(200, 100, 0, 90), 7);
+        TestDatabase.insertBulb(_db, new Lightbulb(3, "LCT001", "Desk", trait, Lightbulb.States.ON));
+
+        Cursor cursor = _db.rawQuery("SELECT color_transparency, state_id, bulb_brightness, bridge_id, bulb_color, " +
+                                     "user_def_name, factory_name, _id FROM bulbs", null);
+        try
+        {
+            BulbsContract.BulbReader reader = new BulbsContract.BulbReader(cursor, "Bulb");
+            assertTrue(cursor.moveToFirst());
+            Lightbulb bulb = reader.read();
+            assertEquals(3, bulb.getId());
+            assertEquals("Desk", bulb.getName());
+            assertEquals(trait, bulb.getTrait());
+            assertEquals(Lightbulb.States.ON, bulb.getState());
+            assertEquals(1, reader.bridgeId());
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    public void testTraitReaderReadsAllThemes()
+    {
+        TestDatabase.insertBulb(_db, new Lightbulb(3, "LCT001", "Desk", new Trait(), Lightbulb.States.ON));
+        TestDatabase.insertBulb(_db, new Lightbulb(4, "LCT001", "Lamp", new Trait(), Lightbulb.States.ON));
+        TestDatabase.insertTheme(_db, 1, "Evening");
+        TestDatabase.insertTheme(_db, 2, "Morning");
+        _db.execSQL("INSERT INTO traits (bulb_color, bulb_brightness, color_transparency, bulb_id, theme_id) " +
+                    "VALUES (255, 10, 50, 3, 2)");
+        _db.execSQL("INSERT INTO traits (bulb_color, bulb_brightness, color_transparency, bulb_id, theme_id) " +
+                    "VALUES (65280, 20, 60, 4, 1)");
+        _db.execSQL("INSERT INTO traits (bulb_color, bulb_brightness, color_transparency, bulb_id, theme_id) " +
+                    "VALUES (0, 30, 70, 4, 2)");
+
+        Map<Integer,Map<Integer,Trait>> traits = TraitContract.readAll(_db);
+        assertEquals(2, traits.size());
+        assertEquals(1, traits.get(1).size());
+        assertEquals(Trait.valueOf(BulbColor.valueOf(0, 255, 0, 60), 20), traits.get(1).get(4));
+        assertEquals(2, traits.get(2).size());
+        assertEquals(Trait.valueOf(BulbColor.valueOf(0, 0, 255, 50), 10), traits.get(2).get(3));
+        assertEquals(Trait.valueOf(BulbColor.valueOf(0, 0, 0, 70), 30), traits.get(2).get(4));
+    }
+
+    public void testMissingColumnIsRejected()
+    {
+        Cursor cursor = _db.rawQuery("SELECT _id, factory_name FROM bridges", null);
+        try
+        {
+            new BridgeContract.BridgeReader(cursor, "Bridge");
+            fail("Reader accepted a cursor without user_def_name");
+        }
+        catch(IllegalArgumentException e)
+        {
+            //expected
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,119 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.brightlightsystems.core.TimingTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timing of reading a synthetic bulbs table of 10k rows: the row reader, that resolves columns
+ * once per cursor, against the former loop, that looked every column up by name in every row.
+ */
+public class RowReaderTimingTest extends TimingTestCase
+{
+    private static final int ROWS = 10000;
+
+    private SQLiteDatabase _db;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _db = TestDatabase.create();
+        _db.beginTransaction();
+        try
+        {
+            for(int id = 1; id <= ROWS; id++)
+            {
+                String name = (id % 10 == 0) ? null : "Bulb " + id;
+                _db.execSQL("INSERT INTO bulbs (_id, factory_name, user_def_name, bulb_color, bulb_brightness, " +
+                            "bridge_id, state_id, color_transparency) VALUES (?, 'LCT001', ?, ?, ?, 1, ?, 100)",
+                            new Object[]{id, name, id & 0xFFFFFF, id % 256, 1 + id % 4});
+            }
+            _db.setTransactionSuccessful();
+        }
+        finally
+        {
+            _db.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _db.close();
+        super.tearDown();
+    }
+
+    public void testReadOf10kRows()
+    {
+        final List<Lightbulb> former = new ArrayList<>();
+        final List<Lightbulb> current = new ArrayList<>();
+        double byName = measure("lookup by name per row", ROWS, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                former.clear();
+                former.addAll(readByName());
+            }
+        });
+        double reader = measure("row reader", ROWS, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                current.clear();
+                for(List<Lightbulb> bulbs : BulbsContract.read(_db, "Bulb").values())
+                    current.addAll(bulbs);
+            }
+        });
+        report("time per row, lookup by name / row reader: " + String.format("%.2f", byName / reader));
+
+        assertEquals(ROWS, current.size());
+        assertEquals(former.size(), current.size());
+        for(int i = 0; i < ROWS; i++)
+        {
+            assertEquals(former.get(i).getId(), current.get(i).getId());
+            assertEquals(former.get(i).getName(), current.get(i).getName());
+            assertEquals(former.get(i).getTrait(), current.get(i).getTrait());
+            assertEquals(former.get(i).getState(), current.get(i).getState());
+        }
+    }
+
+    /**
+     * The former loop of the bulbs loader, that resolved every column by name in every row
+     * @return bulbs of all rows
+     */
+    private List<Lightbulb> readByName()
+    {
+        List<Lightbulb> bulbs = new ArrayList<>(ROWS);
+        Cursor cursor = _db.rawQuery("select * from bulbs", null);
+        try
+        {
+            while(cursor.moveToNext())
+            {
+                String name = cursor.getString(cursor.getColumnIndex("user_def_name"));
+                if(name == null)
+                    name = "Bulb";
+                Trait trait = Trait.valueOf(BulbColor.valueOf(cursor.getInt(cursor.getColumnIndex("bulb_color")),
+                                                              cursor.getInt(cursor.getColumnIndex("color_transparency"))),
+                                            cursor.getInt(cursor.getColumnIndex("bulb_brightness")));
+                cursor.getInt(cursor.getColumnIndex("bridge_id"));
+                bulbs.add(new Lightbulb(cursor.getInt(cursor.getColumnIndex("_id")),
+                                        cursor.getString(cursor.getColumnIndex("factory_name")), name, trait,
+                                        Lightbulb.intToState(cursor.getInt(cursor.getColumnIndex("state_id")))));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        return bulbs;
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,122 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * In-memory database with the schema of core_data_base, for tests of contract classes.
+ */
+final class TestDatabase
+{
+    /**Schema of core_data_base, without the android_metadata table*/
+    private static final String[] SCHEMA =
+    {
+        "CREATE TABLE states (_id INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, state_name TEXT NOT NULL)",
+        "CREATE TABLE bridges (_id INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, factory_name TEXT NOT NULL, " +
+            "user_def_name TEXT, active INTEGER NOT NULL)",
+        "CREATE TABLE groups (_id INTEGER NOT NULL, group_name TEXT, bridge_id INTEGER NOT NULL, activated INTEGER, " +
+            "favorite INTEGER, PRIMARY KEY(_id), FOREIGN KEY(bridge_id) REFERENCES bridges(_id))",
+        "CREATE TABLE bulbs (_id INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, factory_name TEXT NOT NULL, " +
+            "user_def_name TEXT, bulb_color INTEGER NOT NULL, bulb_brightness INTEGER NOT NULL, " +
+            "bridge_id INTEGER NOT NULL, state_id INTEGER NOT NULL, color_transparency INTEGER NOT NULL, " +
+            "FOREIGN KEY(bridge_id) REFERENCES bridges(_id), FOREIGN KEY(state_id) REFERENCES states(_id))",
+        "CREATE TABLE bulbs_groups (group_id INTEGER NOT NULL, bulb_id INTEGER NOT NULL, theme_id INTEGER, " +
+            "PRIMARY KEY(group_id, bulb_id), FOREIGN KEY(group_id) REFERENCES groups(_id) ON DELETE CASCADE, " +
+            "FOREIGN KEY(bulb_id) REFERENCES bulbs(_id) ON DELETE CASCADE, " +
+            "FOREIGN KEY(theme_id) REFERENCES themes(_id) ON DELETE CASCADE)",
+        "CREATE TABLE themes (_id INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, theme_name TEXT, " +
+            "activated INTEGER NOT NULL, favorite INTEGER NOT NULL)",
+        "CREATE TABLE groups_subgroups (group_id INTEGER NOT NULL, subgroup_id INTEGER NOT NULL, " +
+            "PRIMARY KEY(group_id, subgroup_id), FOREIGN KEY(group_id) REFERENCES groups(_id) ON DELETE CASCADE, " +
+            "FOREIGN KEY(subgroup_id) REFERENCES groups(_id) ON DELETE CASCADE)",
+        "CREATE TABLE themes_subthemes (theme_id INTEGER NOT NULL, subtheme_id INTEGER NOT NULL, " +
+            "PRIMARY KEY(theme_id, subtheme_id), FOREIGN KEY(theme_id) REFERENCES themes(_id) ON DELETE CASCADE, " +
+            "FOREIGN KEY(subtheme_id) REFERENCES themes(_id) ON DELETE CASCADE)",
+        "CREATE TABLE traits (bulb_color INTEGER NOT NULL, bulb_brightness INTEGER NOT NULL, " +
+            "color_transparency INTEGER NOT NULL, bulb_id INTEGER NOT NULL, theme_id INTEGER NOT NULL, " +
+            "PRIMARY KEY(bulb_id, theme_id), FOREIGN KEY(bulb_id) REFERENCES bulbs(_id) ON DELETE CASCADE, " +
+            "FOREIGN KEY(theme_id) REFERENCES themes(_id) ON DELETE CASCADE)",
+        "INSERT INTO states (state_name) VALUES ('on')",
+        "INSERT INTO states (state_name) VALUES ('off')",
+        "INSERT INTO states (state_name) VALUES ('disconnected')",
+        "INSERT INTO states (state_name) VALUES ('undefined')",
+        "INSERT INTO bridges (factory_name, user_def_name, active) VALUES ('BSB001', 'Home', 1)"
+    };
+
+    /**Empty constructor to prevent from instantiating */
+    private TestDatabase(){}
+
+    /**
+     * Creates an in-memory database with the schema and a single active bridge with id 1
+     * @return open database, close it when done
+     */
+    static SQLiteDatabase create()
+    {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        db.execSQL("PRAGMA foreign_keys = ON");
+        for(String statement : SCHEMA)
+            db.execSQL(statement);
+        return db;
+    }
+
+    /**
+     * Runs a query that returns a single number
+     * @param db database to query
+     * @param sql query
+     * @return value of the first column of the first row
+     */
+    static long queryLong(SQLiteDatabase db, String sql)
+    {
+        Cursor cursor = db.rawQuery(sql, null);
+        try
+        {
+            if(!cursor.moveToFirst())
+                throw new AssertionError("No rows: " + sql);
+            return cursor.getLong(0);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds a bulb row to the bulbs table of bridge 1
+     * @param db database to modify
+     * @param bulb bulb to add, its id is used as the row id
+     */
+    static void insertBulb(SQLiteDatabase db, Lightbulb bulb)
+    {
+        db.execSQL("INSERT INTO bulbs (_id, factory_name, user_def_name, bulb_color, bulb_brightness, bridge_id, " +
+                   "state_id, color_transparency) VALUES (?, ?, ?, ?, ?, 1, ?, ?)",
+                   new Object[]{bulb.getId(), bulb.getFactoryName(), bulb.getName(),
+                                bulb.getTrait().getColor().getColor(), bulb.getTrait().getBrightness(),
+                                Lightbulb.stateToInt(bulb.getState()), bulb.getTrait().getColor().getTransparency()});
+    }
+
+    /**
+     * Adds a group row of bridge 1
+     * @param db database to modify
+     * @param groupId id of the group
+     * @param name name of the group
+     */
+    static void insertGroup(SQLiteDatabase db, int groupId, String name)
+    {
+        db.execSQL("INSERT INTO groups (_id, group_name, bridge_id, activated, favorite) VALUES (?, ?, 1, 0, 0)",
+                   new Object[]{groupId, name});
+    }
+
+    /**
+     * Adds a theme row
+     * @param db database to modify
+     * @param themeId id of the theme
+     * @param name name of the theme
+     */
+    static void insertTheme(SQLiteDatabase db, int themeId, String name)
+    {
+        db.execSQL("INSERT INTO themes (_id, theme_name, activated, favorite) VALUES (?, ?, 0, 0)",
+                   new Object[]{themeId, name});
+    }
+
+    /******************** end of class********************************/
+}
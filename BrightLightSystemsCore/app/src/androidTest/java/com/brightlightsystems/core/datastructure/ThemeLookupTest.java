@@ -0,0 +1,74 @@
+package com.brightlightsystems.core.datastructure;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of the lookup of themes by bulb: lazy themes are loaded once, and the model
+ * is reported as changed only when a theme was loaded.
+ */
+public class ThemeLookupTest extends TestCase
+{
+    private static final int BULB_ID = 5;
+
+    private DataManager _dm;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _dm = DataManager.getInstance();
+        _dm.removeAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _dm.removeAll();
+        super.tearDown();
+    }
+
+    public void testLookupWithoutLazyThemesDoesNotChangeTheModel()
+    {
+        Theme theme = new Theme(1, "Evening", false, false);
+        theme.addTrait(BULB_ID, new Trait());
+        _dm.addTheme(theme);
+        long version = _dm.getGeneration().getVersion();
+
+        List<Theme> themes = _dm.getThemesWithBulb(BULB_ID);
+
+        assertEquals(1, themes.size());
+        assertSame(theme, themes.get(0));
+        assertEquals(version, _dm.getGeneration().getVersion());
+    }
+
+    public void testLazyThemesAreLoadedOnce()
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        Theme lazy = new Theme(2, "Morning", false, false);
+        lazy.setSource(new ThemeSource()
+        {
+            @Override
+            public void materialize(Theme theme)
+            {
+                calls.incrementAndGet();
+                theme.addTrait(BULB_ID, new Trait());
+            }
+        });
+        _dm.addTheme(lazy);
+        long version = _dm.getGeneration().getVersion();
+
+        assertEquals(1, _dm.getThemesWithBulb(BULB_ID).size());
+        assertTrue(lazy.isMaterialized());
+        long loaded = _dm.getGeneration().getVersion();
+        assertTrue(loaded > version);
+
+        assertEquals(1, _dm.getThemesWithBulb(BULB_ID).size());
+        assertEquals(1, calls.get());
+        assertEquals(loaded, _dm.getGeneration().getVersion());
+    }
+
+    /******************** end of class********************************/
+}
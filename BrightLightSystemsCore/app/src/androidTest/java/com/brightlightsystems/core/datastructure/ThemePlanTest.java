@@ -0,0 +1,78 @@
+package com.brightlightsystems.core.datastructure;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+/**
+ * Tests of applying a theme plan to a bridge: changes are copies, and the bridge applies them
+ * to the bulbs it holds, so groups never keep stale bulbs.
+ */
+public class ThemePlanTest extends TestCase
+{
+    private static final Trait RED = Trait.valueOf(BulbColor.valueOf(255, 0, 0, 100), 200);
+    private static final Trait BLUE = Trait.valueOf(BulbColor.valueOf(0, 0, 255, 100), 50);
+
+    private Bridge _bridge;
+    private Group _group;
+    private Theme _theme;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _bridge = new Bridge(1, "Home", "BSB001");
+        for(int id = 1; id <= 3; id++)
+            _bridge.addBulb(new Lightbulb(id, "LCT001", "Bulb " + id, null, Lightbulb.States.OFF));
+        _group = new Group(1, "Kitchen", 1, false, false);
+        _group.addBulb(_bridge.getBulb(1));
+        _group.addBulb(_bridge.getBulb(2));
+        _theme = new Theme(1, "Evening", false, false);
+        _theme.addTrait(1, RED);
+        _theme.addTrait(2, BLUE);
+    }
+
+    public void testChangesAreCopies()
+    {
+        Map<Integer,Lightbulb> changes = _theme.getPlan().changesFor(_bridge);
+
+        assertEquals(2, changes.size());
+        assertNotSame(_bridge.getBulb(1), changes.get(1));
+        assertEquals(RED, changes.get(1).getTrait());
+        //the model is not changed until the changes are applied
+        assertEquals(Lightbulb.States.OFF, _bridge.getBulb(1).getState());
+    }
+
+    public void testAppliedChangesReachBulbsOfGroups()
+    {
+        Lightbulb held = _bridge.getBulb(1);
+
+        assertEquals(2, _bridge.update(_theme.getPlan().changesFor(_bridge)));
+
+        assertSame(held, _bridge.getBulb(1));
+        assertSame(held, _group.getBulbMap().get(1));
+        assertEquals(RED, _group.getBulbMap().get(1).getTrait());
+        assertEquals(Lightbulb.States.ON, _group.getBulbMap().get(1).getState());
+        assertEquals(BLUE, _group.getBulbMap().get(2).getTrait());
+        assertEquals(Lightbulb.States.OFF, _bridge.getBulb(3).getState());
+        assertTrue(_theme.getPlan().changesFor(_bridge).isEmpty());
+    }
+
+    public void testUpdateKeepsTheHeldBulb()
+    {
+        Lightbulb held = _bridge.getBulb(2);
+        Lightbulb copy = new Lightbulb(held);
+        copy.setName("Desk");
+        copy.setTrait(RED);
+
+        assertTrue(_bridge.update(copy));
+
+        assertSame(held, _bridge.getBulb(2));
+        assertEquals("Desk", held.getName());
+        assertEquals(RED, held.getTrait());
+        assertEquals(2, _group.countAllBulbs());
+        assertTrue(_group.containsBulb(2));
+    }
+
+    /******************** end of class********************************/
+}
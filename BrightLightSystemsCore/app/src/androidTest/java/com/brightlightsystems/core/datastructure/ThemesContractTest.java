@@ -0,0 +1,139 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the single transaction update of a theme with its traits and subtheme links
+ */
+public class ThemesContractTest extends TestCase
+{
+    private SQLiteDatabase _db;
+    private StatementCache _statements;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _db = TestDatabase.create();
+        _statements = new StatementCache(_db);
+        DataManager.setActiveBridgeId(1);
+        for(int id = 1; id <= 3; id++)
+            TestDatabase.insertBulb(_db, new Lightbulb(id, "LCT001", "Bulb " + id, null, Lightbulb.States.OFF));
+        TestDatabase.insertTheme(_db, 20, "Evening");
+        TestDatabase.insertTheme(_db, 21, "Dinner");
+        TestDatabase.insertTheme(_db, 22, "Reading");
+        _db.execSQL("INSERT INTO traits (bulb_color, bulb_brightness, color_transparency, bulb_id, theme_id) " +
+                    "VALUES (255, 10, 100, 1, 20)");
+        _db.execSQL("INSERT INTO traits (bulb_color, bulb_brightness, color_transparency, bulb_id, theme_id) " +
+                    "VALUES (255, 10, 100, 2, 20)");
+        _db.execSQL("INSERT INTO themes_subthemes (theme_id, subtheme_id) VALUES (20, 21)");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _statements.clear();
+        _db.close();
+        super.tearDown();
+    }
+
+    public void testUpdateReplacesRowTraitsAndLinks()
+    {
+        Theme theme = new Theme(20, "Late evening", true, false);
+        theme.addTrait(2, Trait.valueOf(BulbColor.valueOf(0, 0, 255, 100), 80));
+        theme.addTrait(3, Trait.valueOf(BulbColor.valueOf(0, 255, 0, 100), 40));
+        theme.addTheme(new Theme(22, "Reading", false, false));
+
+        ThemesContract.update(theme, _db, _statements);
+
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT activated FROM themes WHERE _id = 20"));
+        assertEquals(2, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM traits WHERE theme_id = 20"));
+        assertEquals(0, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM traits WHERE theme_id = 20 AND bulb_id = 1"));
+        assertEquals(80, TestDatabase.queryLong(_db, "SELECT bulb_brightness FROM traits WHERE theme_id = 20 AND bulb_id = 2"));
+        assertEquals(22, TestDatabase.queryLong(_db, "SELECT subtheme_id FROM themes_subthemes WHERE theme_id = 20"));
+        assertFalse(_db.inTransaction());
+    }
+
+    public void testFailedUpdateChangesNothing()
+    {
+        //bulb 42 is not in the bulbs table, so its trait breaks the foreign key after the row is updated
+        Theme theme = new Theme(20, "Renamed", true, false);
+        theme.addTrait(3, Trait.valueOf(BulbColor.valueOf(0, 255, 0, 100), 40));
+        theme.addTrait(42, Trait.valueOf(BulbColor.valueOf(0, 255, 0, 100), 40));
+
+        try
+        {
+            ThemesContract.update(theme, _db, _statements);
+            fail("Update with a trait of a missing bulb must fail");
+        }
+        catch (RuntimeException e)
+        {
+            //expected
+        }
+
+        assertEquals(0, TestDatabase.queryLong(_db, "SELECT activated FROM themes WHERE _id = 20"));
+        assertEquals(2, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM traits WHERE theme_id = 20"));
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM themes_subthemes WHERE theme_id = 20"));
+        assertFalse(_db.inTransaction());
+    }
+
+    public void testUpdateOfLazyThemeKeepsTraitsAndLinks()
+    {
+        Theme theme = new Theme(20, "Evening", true, false);
+        theme.setSource(new ThemeSource()
+        {
+            @Override
+            public void materialize(Theme theme)
+            {
+                fail("Writing a theme must not load its content");
+            }
+        });
+
+        ThemesContract.update(theme, _db, _statements);
+
+        assertFalse(theme.isMaterialized());
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT activated FROM themes WHERE _id = 20"));
+        assertEquals(2, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM traits WHERE theme_id = 20"));
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM themes_subthemes WHERE theme_id = 20"));
+    }
+
+    public void testTraitsOfLazyThemeAreNotWritten()
+    {
+        Theme theme = new Theme(20, "Evening", false, false);
+        theme.setSource(new ThemeSource()
+        {
+            @Override
+            public void materialize(Theme theme)
+            {
+                fail("Writing a theme must not load its content");
+            }
+        });
+
+        try
+        {
+            TraitContract.update(theme, _db, _statements);
+            fail("Traits of a lazy theme are not in memory");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+        assertEquals(2, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM traits WHERE theme_id = 20"));
+    }
+
+    public void testRemoveFromParentsKeepsTheTheme()
+    {
+        _db.execSQL("INSERT INTO themes_subthemes (theme_id, subtheme_id) VALUES (22, 21)");
+        _db.execSQL("INSERT INTO themes_subthemes (theme_id, subtheme_id) VALUES (21, 22)");
+
+        ThemesContract.removeFromParents(21, _db);
+
+        assertEquals(0, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM themes_subthemes WHERE subtheme_id = 21"));
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM themes_subthemes WHERE theme_id = 21"));
+        assertEquals(1, TestDatabase.queryLong(_db, "SELECT COUNT(*) FROM themes WHERE _id = 21"));
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,88 @@
+package com.brightlightsystems.core.datastructure;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of traits as values: equal traits are equal and shared by valueOf,
+ * invalid arguments get defaults, and the default trait never changes.
+ */
+public class TraitTest extends TestCase
+{
+    public void testEqualTraitsAreShared()
+    {
+        Trait trait = Trait.valueOf(BulbColor.valueOf(10, 20, 30, 40), 50);
+
+        assertSame(trait, Trait.valueOf(BulbColor.valueOf(10, 20, 30, 40), 50));
+        assertSame(trait, Trait.valueOf(new BulbColor(10, 20, 30, 40), 50));
+        assertNotSame(trait, Trait.valueOf(BulbColor.valueOf(10, 20, 30, 40), 51));
+        assertSame(BulbColor.valueOf(10, 20, 30, 40), trait.getColor());
+    }
+
+    public void testInvalidArgumentsGetDefaults()
+    {
+        Trait trait = Trait.valueOf(null, -7);
+
+        assertEquals(Trait.Default_Trait, trait);
+        assertEquals(Trait.Default_Brightness, trait.getBrightness());
+        assertEquals(new BulbColor(), trait.getColor());
+        assertEquals(trait, new Trait(null, -7));
+        assertEquals(new Trait(), new Trait(new BulbColor()));
+    }
+
+    public void testDefaultTraitIsUnchanged()
+    {
+        int color = Trait.Default_Trait.getColor().getColor();
+
+        Lightbulb bulb = new Lightbulb(1, "LCT001", "Bulb", null, Lightbulb.States.ON);
+        bulb.setTrait(Trait.valueOf(BulbColor.valueOf(255, 0, 0, 100), 200));
+        Trait.valueOf(null, 10);
+
+        assertEquals(color, Trait.Default_Trait.getColor().getColor());
+        assertEquals(Trait.Default_Brightness, Trait.Default_Trait.getBrightness());
+        assertEquals(new Trait(), Trait.Default_Trait);
+    }
+
+    public void testEqualsAndHashCode()
+    {
+        Trait trait = new Trait(new BulbColor(1, 2, 3, 4), 5);
+        Trait same = new Trait(new BulbColor(1, 2, 3, 4), 5);
+
+        assertNotSame(trait, same);
+        assertEquals(trait, same);
+        assertEquals(trait.hashCode(), same.hashCode());
+        assertEquals(trait, Trait.valueOf(new BulbColor(1, 2, 3, 4), 5));
+        assertFalse(trait.equals(new Trait(new BulbColor(1, 2, 3, 4), 6)));
+        assertFalse(trait.equals(new Trait(new BulbColor(1, 2, 3, 5), 5)));
+        assertFalse(trait.equals(null));
+        assertFalse(trait.equals(trait.getColor()));
+    }
+
+    public void testBulbsShareTheirTraits()
+    {
+        Trait trait = Trait.valueOf(BulbColor.valueOf(0, 0, 255, 100), 80);
+        Lightbulb first = new Lightbulb(1, "LCT001", "First", trait, Lightbulb.States.ON);
+        Lightbulb second = new Lightbulb(2, "LCT001", "Second", trait, Lightbulb.States.ON);
+
+        first.setTrait(Trait.valueOf(BulbColor.valueOf(255, 0, 0, 100), 80));
+
+        assertSame(trait, second.getTrait());
+        assertEquals(255, second.getTrait().getColor().getBlue());
+    }
+
+    public void testBulbOfABridgeReturnsTheStoredTrait()
+    {
+        Trait trait = new Trait(new BulbColor(10, 20, 30, 100), 40);
+        Bridge bridge = new Bridge(1, "Home", "BSB001");
+        Lightbulb bulb = new Lightbulb(1, "LCT001", "Bulb", trait, Lightbulb.States.ON);
+        assertTrue(bridge.addBulb(bulb));
+
+        assertSame(trait, bridge.getBulb(1).getTrait());
+        assertSame(bridge.getBulb(1).getTrait(), bridge.getBulb(1).getTrait());
+
+        Trait update = new Trait(new BulbColor(50, 60, 70, 100), 80);
+        bridge.getBulb(1).setTrait(update);
+        assertSame(update, bridge.getBulb(1).getTrait());
+    }
+
+    /******************** end of class********************************/
+}
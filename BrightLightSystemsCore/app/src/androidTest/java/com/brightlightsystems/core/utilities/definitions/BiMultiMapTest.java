@@ -0,0 +1,194 @@
+package com.brightlightsystems.core.utilities.definitions;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests of the BiMultiMap: the reverse index follows every change of the map, returned sets
+ * can't be changed, and the map behaves like a MultiMap.
+ */
+public class BiMultiMapTest extends TestCase
+{
+    private static final int KEYS = 8;
+    private static final int VALUES = 12;
+
+    private BiMultiMap<Integer,Integer> _map;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _map = new BiMultiMap<>();
+    }
+
+    public void testPutAndRemoveUpdateReverseIndex()
+    {
+        _map.put(1, 10);
+        _map.put(2, 10);
+        _map.put(2, 20);
+
+        assertEquals(set(1, 2), _map.getKeys(10));
+        assertEquals(set(2), _map.getKeys(20));
+        assertEquals(set(10, 20), _map.valueSet());
+
+        assertTrue(_map.remove(2, 10));
+        assertFalse(_map.remove(2, 10));
+        assertEquals(set(1), _map.getKeys(10));
+
+        assertTrue(_map.remove(1, 10));
+        assertNull(_map.getKeys(10));
+        assertFalse(_map.containsValue(10));
+        assertTrue(_map.containsValue(20));
+    }
+
+    public void testRemoveAllAndReplaceUpdateReverseIndex()
+    {
+        _map.put(1, set(10, 20));
+        _map.put(2, set(20, 30));
+
+        assertEquals(set(10, 20), _map.removeAll(1));
+        assertNull(_map.removeAll(1));
+        assertNull(_map.getKeys(10));
+        assertEquals(set(2), _map.getKeys(20));
+
+        assertEquals(set(20, 30), _map.replace(2, set(40)));
+        assertNull(_map.getKeys(20));
+        assertNull(_map.getKeys(30));
+        assertEquals(set(2), _map.getKeys(40));
+        assertEquals(set(40), _map.get(2));
+    }
+
+    public void testDissociateAllRemovesValueFromEveryKey()
+    {
+        _map.put(1, set(10, 20));
+        _map.put(2, set(10));
+        _map.put(3, set(30));
+
+        MultiMap<Integer,Integer> removed = _map.dissociateAll(10);
+
+        assertEquals(set(1, 2), removed.get(10));
+        assertNull(_map.getKeys(10));
+        assertEquals(set(20), _map.get(1));
+        assertTrue(_map.get(2).isEmpty());
+        assertEquals(set(1), _map.getKeys(20));
+        assertNull(_map.dissociateAll(10));
+    }
+
+    public void testClearEmptiesBothIndexes()
+    {
+        _map.put(1, set(10, 20));
+        _map.clear();
+
+        assertTrue(_map.isEmpty());
+        assertNull(_map.getKeys(10));
+        assertTrue(_map.valueSet().isEmpty());
+    }
+
+    public void testPutCopiesTheSet()
+    {
+        Set<Integer> values = set(10);
+        _map.put(1, values);
+        values.add(20);
+
+        assertEquals(set(10), _map.get(1));
+        assertNull(_map.getKeys(20));
+    }
+
+    public void testReturnedSetsAreUnmodifiable()
+    {
+        _map.put(1, set(10, 20));
+
+        assertUnmodifiable(_map.get(1));
+        assertUnmodifiable(_map.getKeys(10));
+        assertUnmodifiable(_map.valueSet());
+        assertUnmodifiable(_map.keySet());
+        assertUnmodifiable(_map.entrySet().iterator().next().getValue());
+        assertUnmodifiable(_map.values().iterator().next());
+    }
+
+    public void testBehavesLikeMultiMap()
+    {
+        Random random = new Random(7);
+        MultiMap<Integer,Integer> expected = new MultiMap<>();
+        for(int i = 0; i < 5000; i++)
+        {
+            int k = random.nextInt(KEYS);
+            int v = random.nextInt(VALUES);
+            switch(random.nextInt(7))
+            {
+                case 0:
+                case 1:
+                    expected.put(k, v);
+                    _map.put(k, v);
+                    break;
+                case 2:
+                    expected.put(k, set(v, v + 1));
+                    _map.put(k, set(v, v + 1));
+                    break;
+                case 3:
+                    if(expected.containsKey(k))
+                        assertEquals(expected.remove(k, v), _map.remove(k, v));
+                    break;
+                case 4:
+                    assertEquals(expected.removeAll(k), _map.removeAll(k));
+                    break;
+                case 5:
+                    assertEquals(expected.replace(k, set(v)), _map.replace(k, set(v)));
+                    break;
+                default:
+                    MultiMap<Integer,Integer> a = expected.dissociateAll(v);
+                    MultiMap<Integer,Integer> b = _map.dissociateAll(v);
+                    assertEquals(a == null, b == null);
+                    if(a != null)
+                        assertEquals(a.get(v), b.get(v));
+                    break;
+            }
+            assertSameContent(expected);
+        }
+    }
+
+    /**
+     * Checks that both indexes of the tested map match the content of a MultiMap
+     * @param expected map with expected content
+     */
+    private void assertSameContent(MultiMap<Integer,Integer> expected)
+    {
+        assertEquals(expected.size(), _map.size());
+        for(int k = 0; k < KEYS; k++)
+            assertEquals(expected.get(k), _map.get(k));
+        Set<Integer> values = new HashSet<>();
+        for(int v = 0; v <= VALUES; v++)
+        {
+            Set<Integer> keys = expected.getKeys(v);
+            assertEquals(keys, _map.getKeys(v));
+            assertEquals(keys != null, _map.containsValue(v));
+            if(keys != null)
+                values.add(v);
+        }
+        assertEquals(values, _map.valueSet());
+    }
+
+    private static void assertUnmodifiable(Set<Integer> set)
+    {
+        try
+        {
+            set.add(-1);
+            fail("Set can be changed");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            //expected
+        }
+    }
+
+    private static Set<Integer> set(Integer... values)
+    {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,75 @@
+package com.brightlightsystems.core.utilities.definitions;
+
+import com.brightlightsystems.core.TimingTestCase;
+
+import java.util.Set;
+
+/**
+ * Timing of reverse lookups and dissociation of values, by the BiMultiMap against the MultiMap,
+ * at 10^3 to 10^6 associations. Every key has 10 values and every value has 10 keys.
+ * The heap a map takes is logged as well, it is approximate since it depends on the collector;
+ * at 10^6 associations the BiMultiMap takes about 130 MB of heap.
+ */
+public class BiMultiMapTimingTest extends TimingTestCase
+{
+    private static final int VALUES_PER_KEY = 10;
+    private static final int LOOKUPS = 20;
+
+    public void testReverseLookupsFrom1kTo1mAssociations()
+    {
+        for(int associations = 1000; associations <= 1000000; associations *= 10)
+        {
+            double multi = measureLookups(new MultiMap<Integer,Integer>(), associations);
+            double bi = measureLookups(new BiMultiMap<Integer,Integer>(), associations);
+            report(associations + " associations, time per lookup, MultiMap / BiMultiMap: " +
+                   String.format("%.2f", multi / bi));
+        }
+    }
+
+    /**
+     * Fills the map and measures getKeys and dissociateAll of values, that are put back after
+     * @param map map to fill
+     * @param associations amount of associations to put into the map
+     * @return time of a lookup and dissociation, in nanoseconds
+     */
+    private double measureLookups(final MultiMap<Integer,Integer> map, int associations)
+    {
+        final int keys = associations / VALUES_PER_KEY;
+        long heap = usedHeap();
+        for(int k = 0; k < keys; k++)
+        {
+            for(int j = 0; j < VALUES_PER_KEY; j++)
+                map.put(k, (k * VALUES_PER_KEY + j) % keys);
+        }
+        String name = map.getClass().getSimpleName() + ", " + associations + " associations";
+        report(name + ", heap: " + (usedHeap() - heap) / 1024 + " KB");
+
+        double nanos = measure(name, LOOKUPS, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for(int i = 0; i < LOOKUPS; i++)
+                {
+                    Integer v = (i * 7919) % keys;
+                    assertEquals(VALUES_PER_KEY, map.getKeys(v).size());
+                    Set<Integer> dissociated = map.dissociateAll(v).get(v);
+                    assertEquals(VALUES_PER_KEY, dissociated.size());
+                    for(Integer k : dissociated)
+                        map.put(k, v);
+                }
+            }
+        });
+        assertEquals(keys, map.size());
+        return nanos;
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /******************** end of class********************************/
+}
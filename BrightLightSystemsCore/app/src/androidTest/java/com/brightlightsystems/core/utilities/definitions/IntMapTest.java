@@ -0,0 +1,209 @@
+package com.brightlightsystems.core.utilities.definitions;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests of the IntMap: it keeps the order of insertion like LinkedHashMap through growth
+ * and removals, and its Map view is backed by the map.
+ */
+public class IntMapTest extends TestCase
+{
+    private IntMap<String> _map;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _map = new IntMap<>(2);
+    }
+
+    public void testKeepsOrderOfInsertion()
+    {
+        _map.put(5, "five");
+        _map.put(-3, "minus three");
+        _map.put(0, "zero");
+        _map.put(Integer.MIN_VALUE, "min");
+        _map.put(Integer.MAX_VALUE, "max");
+        //an existing key keeps its place
+        assertEquals("five", _map.put(5, "FIVE"));
+
+        assertTrue(Arrays.equals(new int[]{5, -3, 0, Integer.MIN_VALUE, Integer.MAX_VALUE}, _map.keys()));
+        assertEquals(Arrays.asList(5, -3, 0, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                     new ArrayList<>(_map.keySet()));
+        assertEquals("FIVE", _map.get(5));
+        assertEquals("minus three", _map.get(-3));
+        assertEquals("zero", _map.get(0));
+        assertEquals(5, _map.size());
+    }
+
+    public void testGrowsAndRemovesKeepingMappings()
+    {
+        for(int key = -500; key < 500; key++)
+            assertNull(_map.put(key * 7, "v" + key));
+        assertEquals(1000, _map.size());
+        for(int key = -500; key < 500; key += 2)
+            assertEquals("v" + key, _map.remove(key * 7));
+        assertNull(_map.remove(-500 * 7));
+        assertEquals(500, _map.size());
+
+        for(int key = -500; key < 500; key++)
+        {
+            assertEquals(key % 2 != 0, _map.containsKey(key * 7));
+            assertEquals(key % 2 != 0 ? "v" + key : null, _map.get(key * 7));
+        }
+        int[] keys = _map.keys();
+        assertEquals(500, keys.length);
+        for(int i = 1; i < keys.length; i++)
+            assertTrue(keys[i - 1] < keys[i]);
+    }
+
+    public void testNullValueIsAMapping()
+    {
+        _map.put(1, null);
+
+        assertTrue(_map.containsKey(1));
+        assertNull(_map.get(1));
+        assertEquals(1, _map.size());
+        assertTrue(_map.asMap().containsKey(1));
+    }
+
+    public void testClearEmptiesTheMap()
+    {
+        for(int key = 0; key < 20; key++)
+            _map.put(key, "v" + key);
+        _map.clear();
+
+        assertTrue(_map.isEmpty());
+        assertFalse(_map.containsKey(3));
+        assertEquals(0, _map.keys().length);
+        _map.put(3, "three");
+        assertTrue(Arrays.equals(new int[]{3}, _map.keys()));
+    }
+
+    public void testViewIsBackedByTheMap()
+    {
+        Map<Integer,String> view = _map.asMap();
+        assertSame(view, _map.asMap());
+
+        _map.put(1, "one");
+        assertEquals("one", view.get(1));
+        view.put(2, "two");
+        assertEquals("two", _map.get(2));
+        assertEquals("one", view.remove(1));
+        assertFalse(_map.containsKey(1));
+        assertNull(view.get("2"));
+        assertNull(view.remove("2"));
+
+        view.entrySet().iterator().next().setValue("TWO");
+        assertEquals("TWO", _map.get(2));
+
+        Map<Integer,String> expected = new LinkedHashMap<>();
+        expected.put(2, "TWO");
+        assertEquals(expected, view);
+        assertEquals(expected.hashCode(), view.hashCode());
+        assertEquals(expected.entrySet(), view.entrySet());
+    }
+
+    public void testRemovalDuringIteration()
+    {
+        for(int key = 0; key < 10; key++)
+            _map.put(key, "v" + key);
+
+        Iterator<Integer> keys = _map.keySet().iterator();
+        while(keys.hasNext())
+        {
+            if(keys.next() % 3 == 0)
+                keys.remove();
+        }
+        assertTrue(Arrays.equals(new int[]{1, 2, 4, 5, 7, 8}, _map.keys()));
+
+        Iterator<String> values = _map.values().iterator();
+        while(values.hasNext())
+        {
+            values.next();
+            values.remove();
+        }
+        assertTrue(_map.isEmpty());
+        _map.put(1, "one");
+        assertEquals("one", _map.get(1));
+    }
+
+    public void testIteratorIsFailFast()
+    {
+        _map.put(1, "one");
+        _map.put(2, "two");
+        Iterator<Integer> keys = _map.keySet().iterator();
+        keys.next();
+        _map.put(3, "three");
+        try
+        {
+            keys.next();
+            fail("Iterator did not detect the change");
+        }
+        catch (ConcurrentModificationException e)
+        {
+            //expected
+        }
+    }
+
+    public void testBehavesLikeLinkedHashMap()
+    {
+        Random random = new Random(11);
+        Map<Integer,String> expected = new LinkedHashMap<>();
+        for(int i = 0; i < 20000; i++)
+        {
+            int key = random.nextInt(64) - 32;
+            switch(random.nextInt(10))
+            {
+                case 0:
+                case 1:
+                case 2:
+                    assertEquals(expected.remove(key), _map.remove(key));
+                    break;
+                case 3:
+                    if(random.nextInt(50) == 0)
+                    {
+                        expected.clear();
+                        _map.clear();
+                    }
+                    break;
+                default:
+                    assertEquals(expected.put(key, "v" + i), _map.put(key, "v" + i));
+                    break;
+            }
+            assertEquals(expected.size(), _map.size());
+            assertEquals(expected.containsKey(key), _map.containsKey(key));
+            assertEquals(expected.get(key), _map.get(key));
+        }
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(_map.keySet()));
+        List<String> values = new ArrayList<>(_map.values());
+        assertEquals(new ArrayList<>(expected.values()), values);
+        assertEquals(expected, _map.asMap());
+    }
+
+    public void testPutAllRejectsNullKeys()
+    {
+        Map<Integer,String> map = new LinkedHashMap<>();
+        map.put(null, "null");
+        try
+        {
+            _map.putAll(map);
+            fail("Null key was accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,261 @@
+package com.brightlightsystems.core.utilities.notificationsystem;
+
+import com.brightlightsystems.core.datastructure.Theme;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of the asynchronous mode of the dispatcher: messages are delivered in post order,
+ * flush waits for them, and turning the mode off delivers queued messages before later ones.
+ * Tests post MSG_SYNC_THEMES, which the listeners of the model ignore, to a recording INLINE listener.
+ */
+public class DispatcherTest extends TestCase
+{
+    private static final int MESSAGES = 200;
+    /**Id of the theme of a message that makes the listener post another one*/
+    private static final int REPOST_ID = 10000;
+
+    private static final RecordingListener LISTENER = new RecordingListener();
+
+    static
+    {
+        //the dispatcher is a singleton and listeners can't be removed, so the listener is added once
+        Dispatcher.getInstance().addThemeListener(LISTENER, DeliveryLane.INLINE);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        LISTENER.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        LISTENER.open();
+        Dispatcher.getInstance().setAsynchronous(false);
+        super.tearDown();
+    }
+
+    public void testAsynchronousDeliveryKeepsPostOrder() throws InterruptedException
+    {
+        Dispatcher.getInstance().setAsynchronous(true);
+        for(int i = 1; i <= MESSAGES; i++)
+            post(i);
+
+        Dispatcher.getInstance().flush();
+
+        assertEquals(ids(MESSAGES), LISTENER.ids());
+        assertFalse(LISTENER.deliveredOn(Thread.currentThread()));
+    }
+
+    public void testFlushWaitsForMessagesPostedBefore() throws InterruptedException
+    {
+        Dispatcher.getInstance().setAsynchronous(true);
+        LISTENER.close();
+        post(1);
+        post(2);
+        openLater(50);
+
+        Dispatcher.getInstance().flush();
+
+        assertEquals(ids(2), LISTENER.ids());
+    }
+
+    public void testTurningOffDeliversQueuedMessagesFirst() throws InterruptedException
+    {
+        Dispatcher.getInstance().setAsynchronous(true);
+        LISTENER.close();
+        for(int i = 1; i <= MESSAGES; i++)
+            post(i);
+        //posts while the loop is blocked or draining
+        Thread poster = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sleep(20);
+                post(MESSAGES + 1);
+            }
+        });
+        poster.start();
+        openLater(100);
+
+        Dispatcher.getInstance().setAsynchronous(false);
+        poster.join();
+
+        assertFalse(Dispatcher.getInstance().isAsynchronous());
+        assertEquals(ids(MESSAGES + 1), LISTENER.ids());
+        post(MESSAGES + 2);
+        assertEquals(ids(MESSAGES + 2), LISTENER.ids());
+        assertTrue(LISTENER.deliveredOn(Thread.currentThread()));
+    }
+
+    public void testListenerOfTheLoopCanPostWhileTurningOff() throws InterruptedException
+    {
+        Dispatcher.getInstance().setAsynchronous(true);
+        LISTENER.close();
+        post(REPOST_ID);
+        openLater(50);
+
+        Thread switcher = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Dispatcher.getInstance().setAsynchronous(false);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        switcher.start();
+        switcher.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertFalse("Turning asynchronous mode off is stuck", switcher.isAlive());
+        List<Integer> expected = new ArrayList<>();
+        expected.add(REPOST_ID);
+        expected.add(REPOST_ID + 1);
+        assertEquals(expected, LISTENER.ids());
+    }
+
+    private static void post(int themeId)
+    {
+        Dispatcher.getInstance().notifyThemeListeners(new ThemeMessage(ThemeMessage.MSG_SYNC_THEMES,
+                                                                       new Theme(themeId, "Theme " + themeId, false, false)));
+    }
+
+    /**
+     * Lets the listener go on after a delay, on another thread
+     * @param millis delay in milliseconds
+     */
+    private static void openLater(final long millis)
+    {
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sleep(millis);
+                LISTENER.open();
+            }
+        }).start();
+    }
+
+    /**
+     * Get ids of themes of the first messages
+     * @param count amount of messages
+     * @return ids from 1 to count
+     */
+    private static List<Integer> ids(int count)
+    {
+        List<Integer> ids = new ArrayList<>();
+        for(int i = 1; i <= count; i++)
+            ids.add(i);
+        return ids;
+    }
+
+    private static void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records ids of themes of MSG_SYNC_THEMES messages and the threads they are delivered on.
+     * Can be closed, then it waits with the first delivery until it is opened.
+     */
+    private static final class RecordingListener implements ThemeListener
+    {
+        private final List<Integer> _ids = new ArrayList<>();
+        private final List<Thread> _threads = new ArrayList<>();
+        private volatile CountDownLatch _gate = new CountDownLatch(0);
+
+        synchronized void reset()
+        {
+            _ids.clear();
+            _threads.clear();
+            _gate = new CountDownLatch(0);
+        }
+
+        void close()
+        {
+            _gate = new CountDownLatch(1);
+        }
+
+        void open()
+        {
+            _gate.countDown();
+        }
+
+        synchronized List<Integer> ids()
+        {
+            return new ArrayList<>(_ids);
+        }
+
+        synchronized boolean deliveredOn(Thread thread)
+        {
+            return _threads.contains(thread);
+        }
+
+        @Override
+        public void onSyncThemes(ThemeMessage message)
+        {
+            try
+            {
+                _gate.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            int id = message._theme.getId();
+            synchronized (this)
+            {
+                _ids.add(id);
+                _threads.add(Thread.currentThread());
+            }
+            if(id == REPOST_ID)
+                post(REPOST_ID + 1);
+        }
+
+        @Override
+        public void onAddTheme(ThemeMessage message){}
+
+        @Override
+        public void onRemoveTheme(ThemeMessage message){}
+
+        @Override
+        public void onUpdateTheme(ThemeMessage message){}
+
+        @Override
+        public void onUpdateMultiThemes(ThemeMessage message){}
+
+        @Override
+        public void onActivatedTheme(ThemeMessage message){}
+
+        @Override
+        public void onDeactivateTheme(ThemeMessage message){}
+
+        @Override
+        public void onRemoveSubthemes(ThemeMessage message){}
+    }
+
+    /******************** end of class********************************/
+}
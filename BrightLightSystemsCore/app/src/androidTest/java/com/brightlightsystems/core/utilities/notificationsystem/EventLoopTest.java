@@ -0,0 +1,163 @@
+package com.brightlightsystems.core.utilities.notificationsystem;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of the event loop: tasks run in the order they were posted, flush waits for every task
+ * posted before it, and shutdown delivers what was accepted and rejects the rest.
+ */
+public class EventLoopTest extends TestCase
+{
+    private static final int TASKS = 1000;
+
+    private EventLoop _loop;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _loop = new EventLoop("EventLoopTest");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _loop.shutdown(true);
+        super.tearDown();
+    }
+
+    public void testTasksRunInPostOrder() throws InterruptedException
+    {
+        //written by the loop thread only, flush makes the writes visible
+        final List<Integer> order = new ArrayList<>();
+        for(int i = 0; i < TASKS; i++)
+        {
+            final int task = i;
+            assertTrue(_loop.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    order.add(task);
+                }
+            }));
+        }
+
+        _loop.flush();
+
+        assertEquals(TASKS, order.size());
+        for(int i = 0; i < TASKS; i++)
+            assertEquals(i, order.get(i).intValue());
+    }
+
+    public void testFlushWaitsForEarlierTasks() throws InterruptedException
+    {
+        final AtomicBoolean done = new AtomicBoolean();
+        _loop.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sleep(50);
+                done.set(true);
+            }
+        });
+
+        _loop.flush();
+
+        assertTrue(done.get());
+    }
+
+    public void testFlushOnTheLoopThreadReturns() throws InterruptedException
+    {
+        final AtomicBoolean flushed = new AtomicBoolean();
+        _loop.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    _loop.flush();
+                    flushed.set(true);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        _loop.flush();
+
+        assertTrue(flushed.get());
+    }
+
+    public void testFailingTaskDoesNotStopTheLoop() throws InterruptedException
+    {
+        final AtomicBoolean done = new AtomicBoolean();
+        _loop.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new IllegalStateException("Failing task");
+            }
+        });
+        _loop.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                done.set(true);
+            }
+        });
+
+        _loop.flush();
+
+        assertTrue(done.get());
+    }
+
+    public void testShutdownRunsAcceptedTasksAndRejectsNewOnes() throws InterruptedException
+    {
+        final AtomicInteger count = new AtomicInteger();
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sleep(1);
+                count.incrementAndGet();
+            }
+        };
+        for(int i = 0; i < 100; i++)
+            _loop.post(task);
+
+        _loop.shutdown(true);
+
+        assertEquals(100, count.get());
+        assertFalse(_loop.post(task));
+        //flush of a loop that is shut down waits for the loop to finish
+        _loop.flush();
+        assertEquals(100, count.get());
+    }
+
+    private static void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,216 @@
+package com.brightlightsystems.core.utilities.notificationsystem;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests of delivery lanes: a lane delivers in post order, lanes never wait for each other,
+ * queued updates of the same element are coalesced, and a message that can't be coalesced is a barrier.
+ */
+public class LaneTest extends TestCase
+{
+    private static final int DELIVERIES = 1000;
+
+    private EventLoop _ioLoop;
+    private EventLoop _computeLoop;
+    private Lane _io;
+    private Lane _compute;
+    /**Deliveries in the order they were executed. Guarded by itself*/
+    private final List<Integer> _delivered = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _ioLoop = new EventLoop("LaneTest-IO");
+        _computeLoop = new EventLoop("LaneTest-COMPUTE");
+        _io = new Lane(_ioLoop);
+        _compute = new Lane(_computeLoop);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        _ioLoop.shutdown(true);
+        _computeLoop.shutdown(true);
+        super.tearDown();
+    }
+
+    public void testDeliveriesKeepPostOrder() throws InterruptedException
+    {
+        for(int i = 0; i < DELIVERIES; i++)
+            _io.post(null, record(i));
+
+        _io.flush();
+
+        assertEquals(range(DELIVERIES), delivered());
+    }
+
+    public void testUpdatesOfDifferentElementsKeepPostOrder() throws InterruptedException
+    {
+        Object listener = new Object();
+        for(int i = 0; i < DELIVERIES; i++)
+            _io.post(new Lane.CoalescingKey(listener, BulbMessage.class, i), record(i));
+
+        _io.flush();
+
+        assertEquals(range(DELIVERIES), delivered());
+        assertEquals(0, _io.coalescedCount());
+    }
+
+    public void testLanesDoNotWaitForEachOther() throws InterruptedException
+    {
+        CountDownLatch gate = block(_io);
+        _io.post(null, record(-1));
+        for(int i = 0; i < DELIVERIES; i++)
+            _compute.post(null, record(i));
+
+        //returns while the IO lane is still blocked
+        _compute.flush();
+        assertEquals(range(DELIVERIES), delivered());
+
+        gate.countDown();
+        _io.flush();
+        assertEquals(DELIVERIES + 1, delivered().size());
+        assertEquals(-1, delivered().get(DELIVERIES).intValue());
+    }
+
+    public void testUpdatesOfTheSameElementAreCoalesced() throws InterruptedException
+    {
+        Object listener = new Object();
+        CountDownLatch gate = block(_io);
+        for(int i = 0; i < 3; i++)
+            _io.post(new Lane.CoalescingKey(listener, BulbMessage.class, 1), record(i));
+        _io.post(new Lane.CoalescingKey(listener, BulbMessage.class, 2), record(3));
+        //same element, other listener
+        _io.post(new Lane.CoalescingKey(new Object(), BulbMessage.class, 1), record(4));
+
+        gate.countDown();
+        _io.flush();
+
+        List<Integer> expected = new ArrayList<>();
+        expected.add(2);
+        expected.add(3);
+        expected.add(4);
+        assertEquals(expected, delivered());
+        assertEquals(2, _io.coalescedCount());
+    }
+
+    public void testMessageThatCantBeCoalescedIsABarrier() throws InterruptedException
+    {
+        Lane.CoalescingKey key = new Lane.CoalescingKey(new Object(), BulbMessage.class, 1);
+        CountDownLatch gate = block(_io);
+        _io.post(key, record(0));
+        _io.post(null, record(1));
+        _io.post(key, record(2));
+        _io.post(key, record(3));
+
+        gate.countDown();
+        _io.flush();
+
+        List<Integer> expected = new ArrayList<>();
+        expected.add(0);
+        expected.add(1);
+        expected.add(3);
+        assertEquals(expected, delivered());
+        assertEquals(1, _io.coalescedCount());
+    }
+
+    public void testPostToALaneThatIsShutDownFails() throws InterruptedException
+    {
+        Lane.CoalescingKey key = new Lane.CoalescingKey(new Object(), BulbMessage.class, 1);
+        _ioLoop.shutdown(true);
+
+        for(int i = 0; i < 2; i++)
+        {
+            try
+            {
+                //the second update must not be merged into the first one, that is never delivered
+                _io.post(key, record(i));
+                fail("Update is accepted by a lane that is shut down");
+            }
+            catch (IllegalStateException e)
+            {
+                //expected
+            }
+        }
+        try
+        {
+            _io.post(null, record(2));
+            fail("Message is accepted by a lane that is shut down");
+        }
+        catch (IllegalStateException e)
+        {
+            //expected
+        }
+        assertEquals(0, _io.coalescedCount());
+        assertTrue(delivered().isEmpty());
+    }
+
+    /**
+     * Blocks the lane until the returned gate is opened
+     * @param lane lane to block
+     * @return gate that unblocks the lane when it is counted down
+     */
+    private static CountDownLatch block(Lane lane)
+    {
+        final CountDownLatch gate = new CountDownLatch(1);
+        lane.post(null, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    gate.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return gate;
+    }
+
+    /**
+     * Get a delivery that records its number
+     * @param number number of the delivery
+     * @return delivery
+     */
+    private Runnable record(final int number)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (_delivered)
+                {
+                    _delivered.add(number);
+                }
+            }
+        };
+    }
+
+    private List<Integer> delivered()
+    {
+        synchronized (_delivered)
+        {
+            return new ArrayList<>(_delivered);
+        }
+    }
+
+    private static List<Integer> range(int count)
+    {
+        List<Integer> numbers = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+            numbers.add(i);
+        return numbers;
+    }
+
+    /******************** end of class********************************/
+}
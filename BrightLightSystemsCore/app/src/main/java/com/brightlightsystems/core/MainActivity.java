@@ -6,6 +6,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 
 import com.brightlightsystems.core.datastructure.DatabaseManager;
+import com.brightlightsystems.core.datastructure.StorageProfile;
 import com.brightlightsystems.core.utilities.definitions.DataStructureHelper;
 
 import java.io.IOException;
@@ -18,7 +19,7 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        DatabaseManager dm = new DatabaseManager(this,1);
+        DatabaseManager dm = new DatabaseManager(this,1, StorageProfile.BALANCED);
         try {
             dm.createDataBase();
         } catch (IOException e) {
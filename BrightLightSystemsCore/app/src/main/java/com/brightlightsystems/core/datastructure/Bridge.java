@@ -1,5 +1,8 @@
 package com.brightlightsystems.core.datastructure;
+import com.brightlightsystems.core.utilities.definitions.IntMap;
+
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -19,7 +22,13 @@ public class Bridge extends HueElement
      * Set of light bulbs they this bridge controls. Can't be null, can't contains nulls.
      * K is an Integer value of light bulb id that maps to the actual Lightbulb object
      */
-    private Map<Integer, Lightbulb> _bulbs;
+    private IntMap<Lightbulb> _bulbs;
+    /**Read only view of _bulbs*/
+    private final Map<Integer,Lightbulb> _bulbsView;
+    /**Slots of the bulbs of this bridge, retained by groups of the bridge*/
+    private final BulbSlots _slots;
+    /**Trait and state of the bulbs of this bridge by slot. Bulbs in _bulbs are views over it*/
+    private final BulbStateStore _states;
 
 
     /**
@@ -32,7 +41,10 @@ public class Bridge extends HueElement
     {
         super(id, name);
         _factoryName = factoryName;
-        _bulbs = new LinkedHashMap<>(INIT_BULB_COUNT);
+        _bulbs = new IntMap<>(INIT_BULB_COUNT);
+        _bulbsView = Collections.unmodifiableMap(_bulbs.asMap());
+        _slots = new BulbSlots(id);
+        _states = new BulbStateStore(_slots);
         repOk();
     }
 
@@ -52,7 +64,12 @@ public class Bridge extends HueElement
         if(bulbs == null || bulbs.containsKey(null)|| bulbs.containsValue(null)||bulbs.size()>INIT_BULB_COUNT)
                 throw new IllegalArgumentException("Can't create bridge.Invalid parameter");
         _factoryName = factoryName;
-        _bulbs = new LinkedHashMap<>(bulbs);
+        _bulbs = new IntMap<>(INIT_BULB_COUNT);
+        _bulbsView = Collections.unmodifiableMap(_bulbs.asMap());
+        _slots = new BulbSlots(id);
+        _states = new BulbStateStore(_slots);
+        for(Lightbulb bulb : bulbs.values())
+            hold(bulb);
         repOk();
     }
 
@@ -67,10 +84,10 @@ public class Bridge extends HueElement
     }
 
     /**
-     * Get a map of light bulbs that are controlled by this bridge
-     * @return
+     * Get bulbs of the bridge. Use methods of the bridge to change them
+     * @return read only map of bulbs, where K is a bulb id
      */
-    public Map<Integer,Lightbulb> getBulbsMap(){return _bulbs;}
+    public Map<Integer,Lightbulb> getBulbsMap(){return _bulbsView;}
 
     /**
      * Adds new light bulb to the set of bulbs.If the bulb is already present in the set,
@@ -87,7 +104,7 @@ public class Bridge extends HueElement
         assert(_bulbs != null);
         if(_bulbs.size()==INIT_BULB_COUNT)
             return false;
-        _bulbs.put(bulb.getId(),bulb);
+        hold(bulb);
         return true;
     }
 
@@ -107,13 +124,15 @@ public class Bridge extends HueElement
         assert(_bulbs != null);
         if(_bulbs.size() + bulbs.size() > INIT_BULB_COUNT)
             return false;
-        _bulbs.putAll(bulbs);
+        for(Lightbulb bulb : bulbs.values())
+            hold(bulb);
         return true;
     }
 
     /**
-     * Updates a light bulb state.
-     * @param bulb bulb that is to be updated within the set
+     * Updates a light bulb state. Name, trait and state are copied into the bulb the bridge holds,
+     * so groups that contain that bulb see the update as well. The parameter is not held.
+     * @param bulb bulb that is to be updated within the set, e.g. an updated copy
      * @return true on success, false if the bulb is not present in the set
      * @throws IllegalArgumentException if bulb is null
      */
@@ -122,12 +141,38 @@ public class Bridge extends HueElement
         if(bulb == null)
             throw new IllegalArgumentException("Can't add bulb. Parameter is null.");
         assert(_bulbs != null);
-        if(!_bulbs.containsKey(bulb.getId()))
+        Lightbulb held = _bulbs.get(bulb.getId());
+        if(held == null)
             return false;
-        _bulbs.put(bulb.getId(), bulb);
+        copy(bulb, held);
         return true;
     }
 
+    /**
+     * Updates state of multiple light bulbs in one pass, see {@link #update(Lightbulb)}.
+     * Bulbs that are not controlled by this bridge are skipped.
+     * @param bulbs bulbs that are to be updated within the bridge.
+     * @return amount of updated bulbs
+     * @throws IllegalArgumentException if bulbs is null or contain nulls
+     */
+    public int update(Map<Integer,Lightbulb> bulbs)
+    {
+        if(bulbs == null || bulbs.containsKey(null) || bulbs.containsValue(null))
+            throw new IllegalArgumentException("Can't update bulbs. Parameter is invalid.");
+        assert(_bulbs != null);
+        int updated = 0;
+        for(Lightbulb bulb : bulbs.values())
+        {
+            Lightbulb held = _bulbs.get(bulb.getId());
+            if(held != null)
+            {
+                copy(bulb, held);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
     /**
      * Updates all light bulbs state. Bulbs that are not present in the new collecion, but
      * are present in the old will be removed
@@ -141,20 +186,36 @@ public class Bridge extends HueElement
         if(bulbs== null || bulbs.containsKey(null)||bulbs.containsValue(null))
             throw new IllegalArgumentException("Can't add bulb. Parameter is null.");
         assert(_bulbs != null);
+        //the parameter may be the map of this bridge itself
+        Map<Integer,Lightbulb> update = new LinkedHashMap<>(bulbs);
+        for(Lightbulb bulb : _bulbs.values())
+        {
+            if(update.get(bulb.getId()) != bulb)
+                bulb.detach();
+            if(!update.containsKey(bulb.getId()))
+                _slots.drop(bulb.getId());
+        }
         _bulbs.clear();
-        _bulbs.putAll(bulbs);
+        for(Lightbulb bulb : update.values())
+            hold(bulb);
         return true;
     }
 
     /**
-     * Removes bulb from the set
+     * Removes bulb from the set. Its slot is freed once groups of the bridge drop the bulb as well.
      * @param bulbId bulb to be removed
      * @return true on success, false otherwise
      */
     public Lightbulb removeBulb(int bulbId)
     {
         assert(_bulbs != null);
-        return _bulbs.remove(bulbId);
+        Lightbulb bulb = _bulbs.remove(bulbId);
+        if(bulb != null)
+        {
+            bulb.detach();
+            _slots.drop(bulbId);
+        }
+        return bulb;
     }
 
     /**
@@ -168,14 +229,67 @@ public class Bridge extends HueElement
         return _bulbs.get(bulbId);
     }
 
+    /**
+     * Get slot of the bulb in the state store of the bridge
+     * @param bulbId id of the bulb
+     * @return slot of the bulb, or -1 if the bridge does not hold the bulb
+     */
+    int slotOf(int bulbId)
+    {
+        Lightbulb bulb = _bulbs.get(bulbId);
+        if(bulb == null)
+            return -1;
+        return bulb.slotIn(_states);
+    }
+
+    /**
+     * Get the state store of the bulbs of the bridge, for scans over all bulbs
+     * @return state store, indexed by {@link #slotOf(int)}
+     */
+    BulbStateStore getStateStore()
+    {
+        return _states;
+    }
+
+    /**
+     * Copies name, trait and state of a bulb into the bulb the bridge holds
+     * @param from updated bulb
+     * @param to held bulb with the same id
+     */
+    private static void copy(Lightbulb from, Lightbulb to)
+    {
+        assert(from.getId() == to.getId());
+        if(from == to)
+            return;
+        to.setName(from.getName());
+        to.setTrait(from.getTrait());
+        to.setState(from.getState());
+    }
+
+    /**
+     * Puts the bulb into the bridge and attaches it to the state store.
+     * A bulb replaced by another instance with the same id gets its own state back.
+     * @param bulb bulb to hold
+     */
+    private void hold(Lightbulb bulb)
+    {
+        int slot = _slots.hold(bulb.getId());
+        Lightbulb previous = _bulbs.put(bulb.getId(), bulb);
+        if(previous != null && previous != bulb)
+            previous.detach();
+        bulb.attach(_states, slot);
+    }
+
 
     private void repOk()
     {
         assert(_bulbs != null);
         assert(_bulbs.size() <= INIT_BULB_COUNT);
+        assert(INIT_BULB_COUNT <= BulbSlots.CAPACITY);
         for(Map.Entry<Integer,Lightbulb> e: _bulbs.entrySet())
         {
             assert (e.getValue() != null);
+            assert (_slots.slotOf(e.getKey()) >= 0);
         }
     }
 
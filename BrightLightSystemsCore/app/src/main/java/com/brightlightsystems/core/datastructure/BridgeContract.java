@@ -1,14 +1,15 @@
 package com.brightlightsystems.core.datastructure;
 
-import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.provider.BaseColumns;
 
-import com.brightlightsystems.core.R;
 import com.brightlightsystems.core.datastructure.Bridge;
 import com.brightlightsystems.core.datastructure.DataManager;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * This class is a contract class for the table Bridges in the database
@@ -20,41 +21,97 @@ abstract class BridgeContract
     private BridgeContract(){}
 
     /**
-     * Method loads data from the bridges table
-     * @param db data base to read the data frim
+     * Reads all bridges from the bridges table without adding them to the data manager.
+     * Does not touch shared state, so it may run concurrently with reads of other tables.
+     * @param db data base to read the data from
+     * @param defaultName name for bridges that don't have user defined name
+     * @return all bridges in the order of the table
      */
-    static void load(SQLiteDatabase db, Context context)
+    static List<Bridge> read(SQLiteDatabase db, String defaultName)
     {
         assert (db != null);
-        assert (context != null);
         Cursor cursor = db.rawQuery("select * from " + BridgeEntry.TABLE_NAME, null);
-
-        if (cursor .moveToFirst())
+        try
         {
-            Bridge bridge;
-
-            while (!cursor.isAfterLast())
-            {
-                int id = cursor.getInt(cursor.getColumnIndex(BridgeEntry.COLUMN_NAME_BRIDGE_ID));
-                String userDefName = cursor.getString(cursor.getColumnIndex(BridgeEntry.COLUMN_NAME_USER_DEF_NAME));
-                if(userDefName == null)
-                    userDefName = context.getResources().getString(R.string.default_bridge);
-                bridge = new Bridge(id, userDefName, cursor.getString(cursor.getColumnIndex(BridgeEntry.COLUMN_NAME_FACTORY_NAME)));
-
-                DataManager.getInstance().addBridge(bridge);
-                if(cursor.getInt(cursor.getColumnIndex(BridgeEntry.COLUMN_NAME_ACTIVE)) == 1)
-                    DataManager.getInstance().setActiveBridgeId(id);
-
-
-                cursor.moveToNext();
-            }
+            List<Bridge> bridges = new ArrayList<>(cursor.getCount());
+            BridgeReader reader = new BridgeReader(cursor, defaultName);
+            while (cursor.moveToNext())
+                bridges.add(reader.read());
+            return bridges;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
 
+    /**
+     * Reads id of the bridge that is controlled by the application
+     * @param db data base to read the data from
+     * @return id of the active bridge, or 0 if none of the bridges is active
+     */
+    static int readActiveId(SQLiteDatabase db)
+    {
+        assert (db != null);
+        Cursor cursor = db.rawQuery("select " + BridgeEntry.COLUMN_NAME_BRIDGE_ID + " from " +
+                                    BridgeEntry.TABLE_NAME + " where " + BridgeEntry.COLUMN_NAME_ACTIVE + " = 1", null);
+        try
+        {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+        finally
+        {
             cursor.close();
         }
+    }
 
+    /**
+     * Adds bridges that were read from the database to the data manager
+     * @param bridges bridges to add
+     * @param activeId id of the active bridge, 0 if none is active
+     */
+    static void link(List<Bridge> bridges, int activeId)
+    {
+        assert (bridges != null);
+        DataManager dm = DataManager.getInstance();
+        for(Bridge bridge : bridges)
+            dm.addBridge(bridge);
+        if(activeId > 0)
+            DataManager.setActiveBridgeId(activeId);
     }
 
+    /**Reader that decodes rows of the bridges table into bridges*/
+    static final class BridgeReader extends RowReader<Bridge>
+    {
+        /**Name for bridges that don't have user defined name*/
+        private final String _defaultName;
+        private final int _idColumn;
+        private final int _factoryNameColumn;
+        private final int _userDefNameColumn;
+
+        /**
+         * Constructs a reader and resolves column positions of the cursor
+         * @param cursor cursor over the bridges table
+         * @param defaultName name for bridges that don't have user defined name
+         */
+        BridgeReader(Cursor cursor, String defaultName)
+        {
+            super(cursor);
+            _defaultName = defaultName;
+            _idColumn          = column(BridgeEntry.COLUMN_NAME_BRIDGE_ID);
+            _factoryNameColumn = column(BridgeEntry.COLUMN_NAME_FACTORY_NAME);
+            _userDefNameColumn = column(BridgeEntry.COLUMN_NAME_USER_DEF_NAME);
+        }
 
+        @Override
+        Bridge read()
+        {
+            String userDefName = _cursor.getString(_userDefNameColumn);
+            if(userDefName == null)
+                userDefName = _defaultName;
+            return new Bridge(_cursor.getInt(_idColumn), userDefName, _cursor.getString(_factoryNameColumn));
+        }
+    }
 
     /**Inner class that defines table content*/
     abstract class BridgeEntry implements BaseColumns
@@ -0,0 +1,94 @@
+package com.brightlightsystems.core.datastructure;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks of the {@link DataManager}. Bridges are spread over a fixed set of read-write lock stripes
+ * by bridge id: a stripe guards the bulbs and groups of its bridges, so readers and writers of
+ * different bridges rarely meet. Themes are not bound to a bridge and have a lock of their own.
+ * To avoid deadlocks locks are always acquired in this order: stripes in ascending order,
+ * then the theme lock. A read lock is never upgraded to a write lock.
+ */
+final class BridgeLocks
+{
+    /**Amount of stripes, power of two*/
+    private static final int STRIPES = 16;
+
+    /**Stripes by bridge id modulo STRIPES*/
+    private final ReentrantReadWriteLock[] _stripes;
+    /**Lock of the theme collection and of all themes*/
+    private final ReentrantReadWriteLock _themes;
+
+    /**
+     * Constructs unlocked locks
+     */
+    BridgeLocks()
+    {
+        _stripes = new ReentrantReadWriteLock[STRIPES];
+        for(int i = 0; i < STRIPES; i++)
+            _stripes[i] = new ReentrantReadWriteLock();
+        _themes = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Get the lock of the bridge, its bulbs and its groups
+     * @param bridgeId id of the bridge
+     * @return lock of the stripe of the bridge
+     */
+    ReadWriteLock forBridge(int bridgeId)
+    {
+        return _stripes[bridgeId & (STRIPES - 1)];
+    }
+
+    /**
+     * Get the lock of themes
+     * @return theme lock
+     */
+    ReadWriteLock forThemes()
+    {
+        return _themes;
+    }
+
+    /**
+     * Acquires write locks of all stripes and the theme lock, for changes of the whole model
+     */
+    void lockAll()
+    {
+        for(ReentrantReadWriteLock stripe : _stripes)
+            stripe.writeLock().lock();
+        _themes.writeLock().lock();
+    }
+
+    /**
+     * Acquires read locks of all stripes and the theme lock, for reads of the whole model at once
+     */
+    void lockAllRead()
+    {
+        for(ReentrantReadWriteLock stripe : _stripes)
+            stripe.readLock().lock();
+        _themes.readLock().lock();
+    }
+
+    /**
+     * Releases all locks acquired by {@link #lockAllRead()}
+     */
+    void unlockAllRead()
+    {
+        _themes.readLock().unlock();
+        for(int i = STRIPES - 1; i >= 0; i--)
+            _stripes[i].readLock().unlock();
+    }
+
+    /**
+     * Releases all locks acquired by {@link #lockAll()}
+     */
+    void unlockAll()
+    {
+        _themes.writeLock().unlock();
+        for(int i = STRIPES - 1; i >= 0; i--)
+            _stripes[i].writeLock().unlock();
+    }
+
+    /******************** end of class********************************/
+}
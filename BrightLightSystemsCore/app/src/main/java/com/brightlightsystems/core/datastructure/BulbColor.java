@@ -4,12 +4,15 @@ package com.brightlightsystems.core.datastructure;
 import android.graphics.Color;
 
 /**
- * Class describes a color of a light bulb
+ * Class describes a color of a light bulb. Colors are immutable values:
+ * red, green, blue and transparency are packed into a single ARGB int, a byte per component.
+ * Components out of 0..255 are replaced with the default if negative and with 255 if greater.
+ * Use {@link #valueOf(int, int)} and {@link #valueOf(int, int, int, int)} to share instances of equal colors.
  * TODO: Add color rules for the light bulbs
  * @author Michael Gulenko
  */
 
-public class BulbColor
+public final class BulbColor
 {
     /**Default red component value */
     public static final int DEF_RED_COMPONENT = 0;
@@ -20,14 +23,18 @@ public class BulbColor
     /**Default transparency value */
     public static final int DEF_TRANSPARENCY  = 100;
 
-    /**Red component of the color*/
-    private int _red;
-    /**Blue component of the color*/
-    private int _blue;
-    /**Green component of he color*/
-    private int _green;
-    /**Color transparency*/
-    private int _transparency;
+    /**Size of the cache of shared instances, power of two*/
+    private static final int CACHE_SIZE = 1024;
+    /**Amount of slots a color may take in the cache, starting from its hash. Power of two*/
+    private static final int CACHE_WAYS = 4;
+    /**
+     * Shared instances by hash of their value. A color is looked for in CACHE_WAYS slots,
+     * so equal colors usually share an instance. Races only cost an extra instance, colors are immutable
+     */
+    private static final BulbColor[] CACHE = new BulbColor[CACHE_SIZE];
+
+    /**Packed color: transparency, red, green and blue, a byte each*/
+    private final int _argb;
 
 
     /**
@@ -35,28 +42,17 @@ public class BulbColor
      */
     public BulbColor()
     {
-        _red   = DEF_RED_COMPONENT;
-        _green = DEF_GREEN_COMPONENT;
-        _blue  = DEF_BLUE_COMPONENT;
-        _transparency = DEF_TRANSPARENCY;
-        repOk();
+        this(DEF_RED_COMPONENT, DEF_GREEN_COMPONENT, DEF_BLUE_COMPONENT, DEF_TRANSPARENCY);
     }
 
+    /**
+     * Constructs color from a color value and transparency.
+     * @param color color value, red, green and blue are taken from it. If < 0 default components are used
+     * @param transparency color transparency value
+     */
     public BulbColor(int color, int transparency)
     {
-        if(color < 0 )
-        {
-            _red   = DEF_RED_COMPONENT;
-            _green = DEF_GREEN_COMPONENT;
-            _blue  = DEF_BLUE_COMPONENT;
-        }
-        else
-        {
-            _red   = Color.red(color);
-            _green = Color.green(color);
-            _blue  = Color.blue(color);
-        }
-        _transparency = transparency;
+        this(pack(color, transparency));
     }
 
     /**
@@ -68,11 +64,7 @@ public class BulbColor
      */
     public BulbColor(int r, int g, int b)
     {
-        _red   = (r > -1) ? r: DEF_RED_COMPONENT;
-        _green = (g > -1) ? g: DEF_GREEN_COMPONENT;
-        _blue  = (b > -1) ? b: DEF_BLUE_COMPONENT;
-        _transparency = DEF_TRANSPARENCY;
-        repOk();
+        this(r, g, b, DEF_TRANSPARENCY);
     }
 
     /**
@@ -85,17 +77,106 @@ public class BulbColor
      */
     public BulbColor(int r, int g, int b, int transparency)
     {
-        this(r,g,b);
-        _transparency = (transparency > -1) ? transparency : DEF_TRANSPARENCY;
-        repOk();
+        this(pack(r, g, b, transparency));
+    }
+
+    /**
+     * Constructs color from a packed value
+     * @param argb packed transparency, red, green and blue
+     */
+    private BulbColor(int argb)
+    {
+        _argb = argb;
+    }
+
+    /**
+     * Get a shared color from a color value and transparency, see {@link #BulbColor(int, int)}
+     * @param color color value, red, green and blue are taken from it. If < 0 default components are used
+     * @param transparency color transparency value
+     * @return color, possibly shared with other callers
+     */
+    public static BulbColor valueOf(int color, int transparency)
+    {
+        return fromArgb(pack(color, transparency));
+    }
+
+    /**
+     * Get a shared color with specified components, see {@link #BulbColor(int, int, int, int)}
+     * @param r - value for red component
+     * @param g - value for green component
+     * @param b - value for blue component
+     * @param transparency - color transparency value.
+     * @return color, possibly shared with other callers
+     */
+    public static BulbColor valueOf(int r, int g, int b, int transparency)
+    {
+        return fromArgb(pack(r, g, b, transparency));
+    }
+
+    /**
+     * Get a shared color from a packed value
+     * @param argb packed color, as returned by {@link #getColor()}
+     * @return color, possibly shared with other callers
+     */
+    static BulbColor fromArgb(int argb)
+    {
+        int hash = (argb * 0x9E3779B9) >>> 22;
+        int free = -1;
+        for(int i = 0; i < CACHE_WAYS; i++)
+        {
+            int slot = (hash + i) & (CACHE_SIZE - 1);
+            BulbColor color = CACHE[slot];
+            if(color == null)
+                free = (free < 0) ? slot : free;
+            else if(color._argb == argb)
+                return color;
+        }
+        //all slots are taken: replace one of them, chosen by the value
+        if(free < 0)
+            free = (hash + (argb & (CACHE_WAYS - 1))) & (CACHE_SIZE - 1);
+        BulbColor color = new BulbColor(argb);
+        CACHE[free] = color;
+        return color;
     }
 
-    private void repOk()
+    /**
+     * Packs a color value and transparency, see {@link #BulbColor(int, int)}
+     * @param color color value. If < 0 default components are used
+     * @param transparency color transparency value
+     * @return packed color
+     */
+    private static int pack(int color, int transparency)
+    {
+        if(color < 0)
+            return pack(DEF_RED_COMPONENT, DEF_GREEN_COMPONENT, DEF_BLUE_COMPONENT, transparency);
+        return pack(Color.red(color), Color.green(color), Color.blue(color), transparency);
+    }
+
+    /**
+     * Packs components, see {@link #BulbColor(int, int, int, int)}
+     * @param r value for red component
+     * @param g value for green component
+     * @param b value for blue component
+     * @param transparency color transparency value
+     * @return packed color
+     */
+    private static int pack(int r, int g, int b, int transparency)
     {
-        assert(_red < 0);
-        assert(_green < 0);
-        assert(_blue < 0);
-        assert( _transparency < 0);
+        return component(transparency, DEF_TRANSPARENCY) << 24 | component(r, DEF_RED_COMPONENT) << 16 |
+               component(g, DEF_GREEN_COMPONENT) << 8 | component(b, DEF_BLUE_COMPONENT);
+    }
+
+    /**
+     * Brings a component into 0..255
+     * @param value value of the component
+     * @param def value to use if value is negative
+     * @return component value
+     */
+    private static int component(int value, int def)
+    {
+        if(value < 0)
+            return def;
+        return Math.min(value, 255);
     }
 
     /**
@@ -103,7 +184,7 @@ public class BulbColor
      * @return - red component value
      */
     public int getRed() {
-        return _red;
+        return Color.red(_argb);
     }
 
     /**
@@ -111,7 +192,7 @@ public class BulbColor
      * @return - blue component value
      */
     public int getBlue() {
-        return _blue;
+        return Color.blue(_argb);
     }
 
     /**
@@ -119,66 +200,57 @@ public class BulbColor
      * @return - green component value
      */
     public int getGreen() {
-        return _green;
+        return Color.green(_argb);
     }
 
     /**
      * Get color from rgb and alpha components.
-     * @return color value of the light bulb
+     * @return color value of the light bulb, with the transparency as alpha
      */
     public int getColor()
     {
-        return Color.argb(_transparency,_red,_green,_blue);
+        return _argb;
     }
     /**
-     * Returns value for the transparency component
-     * @return - transparency component value
+     * Converts the color into xy of a Hue bulb, see {@link HueColor}. Transparency is ignored
+     * @param gamut gamut of the bulb
+     * @return packed xy
+     * @throws IllegalArgumentException if gamut is null
      */
-    public int getTransparency() {
-        return _transparency;
+    public int toXy(HueColor.Gamut gamut)
+    {
+        return HueColor.toXy(this, gamut);
     }
 
     /**
-     * Sets red component value.
-     * @param r - specified red component value.
-     *            If < 0, then it'll be substituted with the default.
+     * Returns value for the transparency component
+     * @return - transparency component value
      */
-    public void setRed(int r) {
-        _red   = (r > -1) ? r: DEF_RED_COMPONENT;
+    public int getTransparency() {
+        return _argb >>> 24;
     }
 
-    /**
-     * Sets blue component value.
-     * @param b - specified red component value.
-     *            If < 0, then it'll be substituted with the default.
-     */
-    public void setBlue(int b) {
-        _blue  = (b > -1) ? b: DEF_BLUE_COMPONENT;
-    }
 
-    /**
-     * Sets green component value.
-     * @param g - specified red component value.
-     *            If < 0, then it'll be substituted with the default.
-     */
-    public void setGreen(int g) {
-        _green = (g > -1) ? g: DEF_GREEN_COMPONENT;
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o)
+            return true;
+        if(!(o instanceof BulbColor))
+            return false;
+        return _argb == ((BulbColor) o)._argb;
     }
 
-    /**
-     * Sets transparency value
-     * @param alfa - specified transparency value.
-     *            If < 0, then it'll be substituted with the default.
-     */
-    public void setTransparency(int alfa) {
-        _transparency = (alfa > -1) ? alfa : DEF_TRANSPARENCY;
+    @Override
+    public int hashCode()
+    {
+        return _argb;
     }
 
-
     @Override
     public String toString()
     {
-        return "R: " + _red + "  G:" + _green + "  B: " + _blue + "  Transparency: " + _transparency +"\n";
+        return "R: " + getRed() + "  G:" + getGreen() + "  B: " + getBlue() + "  Transparency: " + getTransparency() +"\n";
     }
     /******************** end of class********************************/
-}
\ No newline at end of file
+}
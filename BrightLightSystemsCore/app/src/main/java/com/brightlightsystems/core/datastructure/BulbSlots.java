@@ -0,0 +1,160 @@
+package com.brightlightsystems.core.datastructure;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Allocator of bulb slots of a single bridge. A bridge controls at most {@link Bridge#INIT_BULB_COUNT}
+ * bulbs, so every bulb of the bridge gets a slot in 0..63 and any set of its bulbs fits into
+ * a single long, where bit i is set if the bulb in slot i belongs to the set.
+ * Groups keep such masks next to their bulb maps, which turns union, intersection and
+ * containment of groups into bit operations.
+ * Every bridge has its own allocator. Slots are allocated only for bulbs the bridge holds,
+ * groups retain slots of such bulbs for as long as the bulbs are in their masks. A slot is freed
+ * once the bridge drops the bulb and no group retains it, so a mask never refers to another bulb.
+ * Not thread safe.
+ */
+final class BulbSlots
+{
+    /**Amount of slots, one per bit of a long*/
+    static final int CAPACITY = 64;
+
+    /**Id of the bridge the slots belong to*/
+    private final int _bridgeId;
+    /**Slots of bulbs, where K is a bulb id and V is its slot*/
+    private final Map<Integer,Integer> _slots;
+    /**Bulb ids by slot. Valid only for used slots*/
+    private final int[] _bulbIds;
+    /**Amount of groups that retain a slot, by slot*/
+    private final int[] _retained;
+    /**Mask of slots of the bulbs the bridge holds*/
+    private long _held;
+    /**Mask of used slots: held by the bridge or retained by groups*/
+    private long _used;
+
+    /**
+     * Constructs an empty allocator
+     * @param bridgeId id of the bridge the slots belong to
+     */
+    BulbSlots(int bridgeId)
+    {
+        _bridgeId = bridgeId;
+        _slots = new HashMap<>(CAPACITY);
+        _bulbIds = new int[CAPACITY];
+        _retained = new int[CAPACITY];
+    }
+
+    /**
+     * Get id of the bridge the slots belong to
+     * @return bridge id
+     */
+    int getBridgeId()
+    {
+        return _bridgeId;
+    }
+
+    /**
+     * Marks the bulb as held by the bridge. Allocates the lowest free slot if the bulb does not have one yet
+     * @param bulbId id of the bulb
+     * @return slot of the bulb
+     * @throws IllegalStateException if all slots are used
+     */
+    int hold(int bulbId)
+    {
+        Integer slot = _slots.get(bulbId);
+        if(slot == null)
+        {
+            if(_used == -1L)
+                throw new IllegalStateException("No free bulb slots");
+            slot = Long.numberOfTrailingZeros(~_used);
+            _used |= 1L << slot;
+            _bulbIds[slot] = bulbId;
+            _slots.put(bulbId, slot);
+        }
+        _held |= 1L << slot;
+        return slot;
+    }
+
+    /**
+     * Marks the bulb as no longer held by the bridge. The slot is freed unless groups still retain it
+     * @param bulbId id of the bulb
+     */
+    void drop(int bulbId)
+    {
+        Integer slot = _slots.get(bulbId);
+        if(slot == null)
+            return;
+        _held &= ~(1L << slot);
+        freeIfUnused(slot);
+    }
+
+    /**
+     * Retains the slot of a bulb the bridge holds, so it is not freed while a group refers to it.
+     * Every retain must be followed by a single {@link #release(int)}.
+     * @param bulbId id of the bulb
+     * @return slot of the bulb, or -1 if the bridge does not hold the bulb
+     */
+    int retain(int bulbId)
+    {
+        Integer slot = _slots.get(bulbId);
+        if(slot == null || (_held & (1L << slot)) == 0)
+            return -1;
+        _retained[slot]++;
+        return slot;
+    }
+
+    /**
+     * Releases a slot retained by {@link #retain(int)}
+     * @param slot retained slot
+     */
+    void release(int slot)
+    {
+        assert(_retained[slot] > 0);
+        _retained[slot]--;
+        freeIfUnused(slot);
+    }
+
+    /**
+     * Get the slot of the bulb. Does not allocate
+     * @param bulbId id of the bulb
+     * @return slot of the bulb, or -1 if the bulb does not have one
+     */
+    int slotOf(int bulbId)
+    {
+        Integer slot = _slots.get(bulbId);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Get ids of the bulbs in the mask
+     * @param mask set of slots
+     * @return bulb ids in the order of slots
+     */
+    int[] bulbIds(long mask)
+    {
+        mask &= _used;
+        int[] ids = new int[Long.bitCount(mask)];
+        for(int i = 0; mask != 0; i++)
+        {
+            int slot = Long.numberOfTrailingZeros(mask);
+            ids[i] = _bulbIds[slot];
+            mask &= mask - 1;
+        }
+        return ids;
+    }
+
+    /**
+     * Frees the slot if the bridge does not hold its bulb and no group retains it
+     * @param slot slot to check
+     */
+    private void freeIfUnused(int slot)
+    {
+        long bit = 1L << slot;
+        if((_held & bit) != 0 || _retained[slot] != 0 || (_used & bit) == 0)
+            return;
+        _used &= ~bit;
+        _slots.remove(_bulbIds[slot]);
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,148 @@
+package com.brightlightsystems.core.datastructure;
+
+/**
+ * Columnar store of the state of the bulbs of a single bridge. Packed ARGB color, brightness
+ * and state of a bulb are kept in parallel arrays at the slot of the bulb, see {@link BulbSlots},
+ * so scans over the whole bridge read a few arrays instead of three objects per bulb.
+ * Bulbs held by a bridge are views over the store of the bridge, see Lightbulb.attach.
+ * The store keeps the slot allocator of its bridge, so a held bulb knows the slots of its bridge.
+ * Colors are kept as packed by {@link BulbColor#getColor()}. The trait of each slot is kept as well,
+ * so reading the trait of a bulb neither builds it nor can mix the color and brightness of two writes.
+ * Not thread safe.
+ */
+final class BulbStateStore
+{
+    /**Packed ARGB colors by slot*/
+    private final int[] _colors;
+    /**Brightness by slot*/
+    private final int[] _brightness;
+    /**States by slot, as returned by Lightbulb.stateToInt*/
+    private final int[] _states;
+    /**Traits by slot, the last ones that were stored. Traits are immutable*/
+    private final Trait[] _traits;
+    /**Slot allocator of the bridge*/
+    private final BulbSlots _slots;
+
+    /**
+     * Constructs a store for all slots of a bridge
+     * @param slots slot allocator of the bridge, not null
+     */
+    BulbStateStore(BulbSlots slots)
+    {
+        assert(slots != null);
+        _slots = slots;
+        _colors = new int[BulbSlots.CAPACITY];
+        _brightness = new int[BulbSlots.CAPACITY];
+        _states = new int[BulbSlots.CAPACITY];
+        _traits = new Trait[BulbSlots.CAPACITY];
+    }
+
+    /**
+     * Get slot allocator of the bridge of the store
+     * @return slots of the bridge
+     */
+    BulbSlots getSlots()
+    {
+        return _slots;
+    }
+
+    /**
+     * Stores trait and state of a bulb
+     * @param slot slot of the bulb
+     * @param trait trait of the bulb, not null
+     * @param state state of the bulb, not null
+     */
+    void write(int slot, Trait trait, Lightbulb.States state)
+    {
+        setTrait(slot, trait);
+        setState(slot, state);
+    }
+
+    /**
+     * Stores trait of a bulb
+     * @param slot slot of the bulb
+     * @param trait trait of the bulb, not null
+     */
+    void setTrait(int slot, Trait trait)
+    {
+        assert(trait != null);
+        _colors[slot] = trait.getColor().getColor();
+        _brightness[slot] = trait.getBrightness();
+        _traits[slot] = trait;
+    }
+
+    /**
+     * Stores state of a bulb
+     * @param slot slot of the bulb
+     * @param state state of the bulb, not null
+     */
+    void setState(int slot, Lightbulb.States state)
+    {
+        assert(state != null);
+        _states[slot] = Lightbulb.stateToInt(state);
+    }
+
+    /**
+     * Get trait of a bulb
+     * @param slot slot of the bulb
+     * @return stored trait
+     */
+    Trait trait(int slot)
+    {
+        return _traits[slot];
+    }
+
+    /**
+     * Get state of a bulb
+     * @param slot slot of the bulb
+     * @return stored state
+     */
+    Lightbulb.States state(int slot)
+    {
+        return Lightbulb.intToState(_states[slot]);
+    }
+
+    /**
+     * Get packed ARGB color of a bulb
+     * @param slot slot of the bulb
+     * @return packed color
+     */
+    int color(int slot)
+    {
+        return _colors[slot];
+    }
+
+    /**
+     * Get brightness of a bulb
+     * @param slot slot of the bulb
+     * @return brightness
+     */
+    int brightness(int slot)
+    {
+        return _brightness[slot];
+    }
+
+    /**
+     * Tests if the bulb has the trait, without building the trait of the bulb
+     * @param slot slot of the bulb
+     * @param trait trait to compare with, not null
+     * @return true if color and brightness are equal, false otherwise
+     */
+    boolean matches(int slot, Trait trait)
+    {
+        return _brightness[slot] == trait.getBrightness() && _colors[slot] == trait.getColor().getColor();
+    }
+
+    /**
+     * Tests if the bulb is in the state
+     * @param slot slot of the bulb
+     * @param state state to compare with
+     * @return true if the bulb is in the state, false otherwise
+     */
+    boolean is(int slot, Lightbulb.States state)
+    {
+        return _states[slot] == Lightbulb.stateToInt(state);
+    }
+
+    /******************** end of class********************************/
+}
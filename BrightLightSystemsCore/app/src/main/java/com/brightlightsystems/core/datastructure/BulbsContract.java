@@ -1,84 +1,108 @@
 package com.brightlightsystems.core.datastructure;
 
 import android.content.ContentValues;
-import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 
-import com.brightlightsystems.core.R;
 import com.brightlightsystems.core.datastructure.BulbColor;
 import com.brightlightsystems.core.datastructure.DataManager;
 import com.brightlightsystems.core.datastructure.Lightbulb;
 import com.brightlightsystems.core.datastructure.Trait;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * This class is a contract class for the table Bulbs in the database
  * @author Michael Gulenko. Created on 10/20/2015.
  */
 abstract class BulbsContract
 {
+    /**Update statement for a single row. Parameters are in the order of bindValues*/
+    private static final String UPDATE_STATEMENT = "UPDATE " + BulbsEntry.TABLE_NAME + " SET " +
+                                                   BulbsEntry.COLUMN_NAME_FACTORY_NAME    + " = ?, " +
+                                                   BulbsEntry.COLUMN_NAME_USER_DEF_NAME   + " = ?, " +
+                                                   BulbsEntry.COLUMN_NAME_STATE_ID        + " = ?, " +
+                                                   BulbsEntry.COLUMN_NAME_BRIDGE_ID       + " = ?, " +
+                                                   BulbsEntry.COLUMN_NAME_BULB_COLOR      + " = ?, " +
+                                                   BulbsEntry.COLUMN_NAME_BULB_BRIGHTNESS + " = ?, " +
+                                                   BulbsEntry.COLUMN_NAME_TRANSPARENCY    + " = ? " +
+                                                   "WHERE " + BulbsEntry.COLUMN_NAME_BULB_ID + " = ?";
+
     /**Empty constructor to prevent from instantiating */
     private BulbsContract(){}
 
     /**
-     * Method loads data from the bridges table
+     * Reads all light bulbs from the bulbs table without adding them to their bridges.
+     * Does not touch shared state, so it may run concurrently with reads of other tables.
      * @param db data base to read the data from
-     * @param context context of the application to access resources
-     * @throws IllegalArgumentException when db or context == null
+     * @param defaultName name for bulbs that don't have user defined name
+     * @return light bulbs by id of the bridge that controls them
      */
-    static void load(SQLiteDatabase db, Context context)
+    static Map<Integer,List<Lightbulb>> read(SQLiteDatabase db, String defaultName)
     {
-        if(context == null || db == null)
-            throw new IllegalArgumentException("Incorrect parameters");
+        assert(db != null);
+        Map<Integer,List<Lightbulb>> bulbs = new HashMap<>();
         Cursor cursor = db.rawQuery("select * from " + BulbsEntry.TABLE_NAME, null);
-
-        if (cursor .moveToFirst())
+        try
         {
-            Lightbulb bulb;
-
-            while (!cursor.isAfterLast())
+            BulbReader reader = new BulbReader(cursor, defaultName);
+            while (cursor.moveToNext())
             {
-                int id = cursor.getInt(cursor.getColumnIndex(BulbsEntry.COLUMN_NAME_BULB_ID));
-                String factoryName = cursor.getString(cursor.getColumnIndex(BulbsEntry.COLUMN_NAME_FACTORY_NAME));
-                String userDefName = cursor.getString(cursor.getColumnIndex(BulbsEntry.COLUMN_NAME_USER_DEF_NAME));
-                int stateId  = cursor.getInt(cursor.getColumnIndex(BulbsEntry.COLUMN_NAME_STATE_ID));
-                int bridgeId = cursor.getInt(cursor.getColumnIndex(BulbsEntry.COLUMN_NAME_BRIDGE_ID));
-                int color = cursor.getInt(cursor.getColumnIndex(BulbsEntry.COLUMN_NAME_BULB_COLOR));
-                int brightness = cursor.getInt(cursor.getColumnIndex(BulbsEntry.COLUMN_NAME_BULB_BRIGHTNESS));
-                int transparency = cursor.getInt(cursor.getColumnIndex(BulbsEntry.COLUMN_NAME_TRANSPARENCY));
-
-                if(userDefName == null)
-                  userDefName = context.getResources().getString(R.string.default_lightbulb);
-
-                Lightbulb.synchNextId(id);
-                Trait trait = new Trait(new BulbColor(color,transparency),brightness);
-                bulb = new Lightbulb(id, factoryName, userDefName, trait, Lightbulb.intToState(stateId));
-
-                DataManager.getInstance().getBridgeCollection().get(bridgeId).addBulb(bulb);
-                cursor.moveToNext();
+                List<Lightbulb> bridgeBulbs = bulbs.get(reader.bridgeId());
+                if(bridgeBulbs == null)
+                {
+                    bridgeBulbs = new ArrayList<>();
+                    bulbs.put(reader.bridgeId(), bridgeBulbs);
+                }
+                bridgeBulbs.add(reader.read());
             }
+        }
+        finally
+        {
             cursor.close();
         }
+        return bulbs;
+    }
+
+    /**
+     * Adds light bulbs that were read from the database to their bridges.
+     * Bridges must be linked before light bulbs.
+     * @param bulbs light bulbs by id of the bridge that controls them
+     */
+    static void link(Map<Integer,List<Lightbulb>> bulbs)
+    {
+        assert(bulbs != null);
+        Map<Integer,Bridge> bridges = DataManager.getInstance().getBridgeCollection();
+        for(Map.Entry<Integer,List<Lightbulb>> entry : bulbs.entrySet())
+        {
+            Bridge bridge = bridges.get(entry.getKey());
+            for(Lightbulb bulb : entry.getValue())
+                bridge.addBulb(bulb);
+        }
     }
 
     /**
      * Method adds new lightbulb into the database.
      * @param bulb lightbulb to add.
+     * @param bridgeId id of the bridge of the bulb
      * @param db data base to read the data from
      * @throws IllegalArgumentException when bulb or db == null
      * @throws Error if was not able to add the entry
      */
-    static void add(Lightbulb bulb, SQLiteDatabase db)
+    static void add(Lightbulb bulb, int bridgeId, SQLiteDatabase db)
     {
         if(bulb == null || db == null)
             throw new IllegalArgumentException("Incorrect parameters");
 
-        ContentValues values = initValues(bulb);
+        ContentValues values = initValues(bulb, bridgeId);
         if(db.insert(BulbsEntry.TABLE_NAME, null, values) == -1)
             throw new Error("Failed to add data into bulbs");
-
-        db.close();
     }
 
     /**
@@ -94,38 +118,93 @@ abstract class BulbsContract
             throw new IllegalArgumentException("Incorrect parameters");
         if (db.delete(BulbsEntry.TABLE_NAME, BulbsEntry.COLUMN_NAME_BULB_ID + "=" + id, null) != 1)
             throw new Error("Failed while removing data");
-
-        db.close();
     }
 
     /**
      * Updates a bulb in the database
      * @param bulb light bulb to update.
+     * @param bridgeId id of the bridge of the bulb
      * @param db database to modify
-     * @throws IllegalArgumentException when bulb or db == null
+     * @param statements compiled statements of the db connection
+     * @throws IllegalArgumentException when bulb, db or statements == null
      * @throws Error if was not able to update the entry
      */
-    static void update(Lightbulb bulb, SQLiteDatabase db)
+    static void update(Lightbulb bulb, int bridgeId, SQLiteDatabase db, StatementCache statements)
     {
-        if(bulb == null || db == null)
+        if(bulb == null || db == null || statements == null)
             throw new IllegalArgumentException("Incorrect parameters");
+        assert(statements.isFor(db));
 
-        int id = bulb.getId();
-
-        ContentValues values = initValues(bulb);
-        if(db.update(BulbsEntry.TABLE_NAME, values, "_id = " + id, null) < 1)
+        SQLiteStatement statement = statements.get(UPDATE_STATEMENT);
+        bindValues(statement, bulb, bridgeId);
+        if(statement.executeUpdateDelete() < 1)
             throw new Error("Something went wrong while updating");
+    }
 
-        db.close();
+    /**
+     * Updates multiple bulbs in the database in a single transaction.
+     * Uses one compiled statement for all rows.
+     * @param bulbs light bulbs to update.
+     * @param bridgeId id of the bridge of the bulbs
+     * @param db database to modify
+     * @param statements compiled statements of the db connection
+     * @throws IllegalArgumentException when bulbs, db or statements == null
+     * @throws Error if was not able to update one of the entries. Nothing is updated in that case.
+     */
+    static void update(Collection<Lightbulb> bulbs, int bridgeId, SQLiteDatabase db, StatementCache statements)
+    {
+        if(bulbs == null || db == null || statements == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        assert(statements.isFor(db));
+
+        SQLiteStatement statement = statements.get(UPDATE_STATEMENT);
+        db.beginTransaction();
+        try
+        {
+            for(Lightbulb bulb : bulbs)
+            {
+                bindValues(statement, bulb, bridgeId);
+                if(statement.executeUpdateDelete() < 1)
+                    throw new Error("Something went wrong while updating");
+            }
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+        }
     }
 
+    /**
+     * Routine that binds bulb's values to the UPDATE_STATEMENT
+     * @param statement compiled update statement
+     * @param bulb a light bulb whose metadata is bound
+     * @param bridgeId id of the bridge of the bulb
+     */
+    private static void bindValues(SQLiteStatement statement, Lightbulb bulb, int bridgeId)
+    {
+        int stateId  = Lightbulb.stateToInt(bulb.getState());
+        if(stateId < 1)
+            throw new Error("Negative state identifier");
+
+        statement.clearBindings();
+        statement.bindString(1, bulb.getFactoryName());
+        statement.bindString(2, bulb.getName());
+        statement.bindLong(3, stateId);
+        statement.bindLong(4, bridgeId);
+        statement.bindLong(5, bulb.getTrait().getColor().getColor());
+        statement.bindLong(6, bulb.getTrait().getBrightness());
+        statement.bindLong(7, bulb.getTrait().getColor().getTransparency());
+        statement.bindLong(8, bulb.getId());
+    }
 
     /**
      * Routine that initializes content values.
      * @param bulb a light bulb whose metadata is used to fill up content values container
+     * @param bridgeId id of the bridge of the bulb
      * @return container that consists of values for the database query.
      */
-    private static ContentValues initValues(Lightbulb bulb)
+    private static ContentValues initValues(Lightbulb bulb, int bridgeId)
     {
         String factoryName = bulb.getFactoryName();
         String userDefName = bulb.getName();
@@ -133,7 +212,6 @@ abstract class BulbsContract
         if(stateId < 1)
             throw new Error("Negative state identifier");
 
-        int bridgeId = DataManager.getActiveBridgeId();
         int color = bulb.getTrait().getColor().getColor();
         int brightness = bulb.getTrait().getBrightness();
         int transparency = bulb.getTrait().getColor().getTransparency();
@@ -150,6 +228,62 @@ abstract class BulbsContract
     }
 
 
+    /**Reader that decodes rows of the bulbs table into light bulbs*/
+    static final class BulbReader extends RowReader<Lightbulb>
+    {
+        /**Name for bulbs that don't have user defined name*/
+        private final String _defaultName;
+        private final int _idColumn;
+        private final int _factoryNameColumn;
+        private final int _userDefNameColumn;
+        private final int _stateIdColumn;
+        private final int _bridgeIdColumn;
+        private final int _colorColumn;
+        private final int _brightnessColumn;
+        private final int _transparencyColumn;
+
+        /**
+         * Constructs a reader and resolves column positions of the cursor
+         * @param cursor cursor over the bulbs table
+         * @param defaultName name for bulbs that don't have user defined name
+         */
+        BulbReader(Cursor cursor, String defaultName)
+        {
+            super(cursor);
+            _defaultName = defaultName;
+            _idColumn           = column(BulbsEntry.COLUMN_NAME_BULB_ID);
+            _factoryNameColumn  = column(BulbsEntry.COLUMN_NAME_FACTORY_NAME);
+            _userDefNameColumn  = column(BulbsEntry.COLUMN_NAME_USER_DEF_NAME);
+            _stateIdColumn      = column(BulbsEntry.COLUMN_NAME_STATE_ID);
+            _bridgeIdColumn     = column(BulbsEntry.COLUMN_NAME_BRIDGE_ID);
+            _colorColumn        = column(BulbsEntry.COLUMN_NAME_BULB_COLOR);
+            _brightnessColumn   = column(BulbsEntry.COLUMN_NAME_BULB_BRIGHTNESS);
+            _transparencyColumn = column(BulbsEntry.COLUMN_NAME_TRANSPARENCY);
+        }
+
+        @Override
+        Lightbulb read()
+        {
+            String userDefName = _cursor.getString(_userDefNameColumn);
+            if(userDefName == null)
+                userDefName = _defaultName;
+
+            Trait trait = Trait.valueOf(BulbColor.valueOf(_cursor.getInt(_colorColumn), _cursor.getInt(_transparencyColumn)),
+                                        _cursor.getInt(_brightnessColumn));
+            return new Lightbulb(_cursor.getInt(_idColumn), _cursor.getString(_factoryNameColumn), userDefName,
+                                 trait, Lightbulb.intToState(_cursor.getInt(_stateIdColumn)));
+        }
+
+        /**
+         * Get id of the bridge that controls the bulb in the current row
+         * @return bridge id
+         */
+        int bridgeId()
+        {
+            return _cursor.getInt(_bridgeIdColumn);
+        }
+    }
+
     /**Inner class that defines table content*/
     static abstract class BulbsEntry implements BaseColumns
     {
@@ -0,0 +1,74 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Collection;
+
+/**
+ * Query builders and readers that are shared between contract classes.
+ */
+abstract class ContractQueries
+{
+    /**Empty constructor to prevent from instantiating */
+    private ContractQueries(){}
+
+    /**
+     * Builds a query that removes links of the owner to members that it does not contain anymore.
+     * Used for link tables such as bulbs_groups, groups_subgroups, themes_subthemes and traits.
+     * @param table link table
+     * @param ownerColumn column of the owner id
+     * @param memberColumn column of the member id
+     * @param ownerId id of the owner
+     * @param memberIds ids of the current members. If empty, all links of the owner are removed.
+     * @return delete query
+     */
+    static String deleteOldLinksQuery(String table, String ownerColumn, String memberColumn,
+                                      int ownerId, Collection<Integer> memberIds)
+    {
+        String query = "DELETE FROM " + table + " WHERE " + ownerColumn + " = " + ownerId;
+        if(memberIds.isEmpty())
+            return query;
+
+        StringBuilder ids = new StringBuilder();
+        for(int memberId : memberIds)
+        {
+            if(ids.length() > 0)
+                ids.append(',');
+            ids.append(memberId);
+        }
+        return query + " AND " + memberColumn + " NOT IN (" + ids + ")";
+    }
+
+    /**
+     * Reads the whole link table ordered by owner id.
+     * Used for link tables such as bulbs_groups, groups_subgroups and themes_subthemes.
+     * @param db database to read the data from
+     * @param table link table
+     * @param ownerColumn column of the owner id
+     * @param memberColumn column of the member id
+     * @return flat array of links, where owner id of the i-th link is at 2*i and its member id is at 2*i + 1
+     */
+    static int[] readLinks(SQLiteDatabase db, String table, String ownerColumn, String memberColumn)
+    {
+        assert(db != null);
+        Cursor cursor = db.rawQuery("SELECT " + ownerColumn + ", " + memberColumn + " FROM " + table +
+                                    " ORDER BY " + ownerColumn, null);
+        try
+        {
+            int[] links = new int[cursor.getCount() * 2];
+            for(int i = 0; cursor.moveToNext(); i += 2)
+            {
+                links[i] = cursor.getInt(0);
+                links[i + 1] = cursor.getInt(1);
+            }
+            return links;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /******************** end of class********************************/
+}
@@ -4,17 +4,32 @@ import com.brightlightsystems.core.utilities.notificationsystem.BulbListener;
 import com.brightlightsystems.core.utilities.notificationsystem.BulbMessage;
 import com.brightlightsystems.core.utilities.notificationsystem.GroupListener;
 import com.brightlightsystems.core.utilities.notificationsystem.GroupMessage;
+import com.brightlightsystems.core.utilities.notificationsystem.Publisher;
 import com.brightlightsystems.core.utilities.notificationsystem.Subscriber;
 import com.brightlightsystems.core.utilities.notificationsystem.ThemeListener;
 import com.brightlightsystems.core.utilities.notificationsystem.ThemeMessage;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Singleton class that holds all structural key components
- * and responsible for managing data flow within it
+ * and responsible for managing data flow within it.
+ * The data manager is safe to use from multiple threads: bulbs and groups of a bridge are guarded
+ * by the lock stripe of the bridge, themes by a lock of their own, see {@link BridgeLocks}.
+ * Reads of one bridge never wait for writes to bridges of other stripes.
+ * Maps returned by getThemeMap, getGroupCollection and getBridgeCollection are unmodifiable snapshots
+ * of the collections, while bridges, groups and themes in them are the live objects of the model:
+ * they must be changed only through this class. Readers that need a consistent copy of the whole
+ * model should use {@link #getGeneration()}, an immutable copy that is never changed by writers.
  * @author Michael Gulenko. Created on 10/30/2015.
  */
 public final class DataManager implements BulbListener,GroupListener,ThemeListener
@@ -22,19 +37,34 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     /**
      * Instance of this class
      */
-    private static DataManager _instance;
+    private static volatile DataManager _instance;
 
-    /**Map of themes, where K is a theme's id and V is the actual theme*/
-    private static Map<Integer,Theme>                    _themeCollection;
-    /**Map of groups, where K is a bridge id and V is another map of group id's to the V of the actual group*/
+    /**
+     * Map of themes, where K is a theme's id and V is the actual theme. Changes are guarded by the theme lock.
+     * Ordered by id like bridges, and safe to copy without the lock, see {@link #getThemeMap()}
+     */
+    private static volatile Map<Integer,Theme>           _themeCollection;
+    /**
+     * Map of groups, where K is a bridge id and V is another map of group id's to the V of the actual group.
+     * Inner maps are guarded by the stripes of their bridges
+     */
     private static Map<Integer, Map<Integer,Group>>      _groupCollection;
-    /**Map of bridges, where K is a bridge's id and V is the actual bridge*/
-    private static Map<Integer,Bridge>                    _bridgeCollection;
+    /**Map of bridges, where K is a bridge's id and V is the actual bridge. Bridges are guarded by their stripes*/
+    private static volatile Map<Integer,Bridge>           _bridgeCollection;
 
+    /**Locks of bridges and themes*/
+    private static BridgeLocks _locks;
 
+    /**Groups and themes by bulb id, for all groups and themes of the collections above*/
+    private static MembershipIndex _index;
 
     /**id of the current bridge that is controlled by the application.*/
-    private static int _activeBridgeId;
+    private static volatile int _activeBridgeId;
+
+    /**Version of the model, incremented by every change*/
+    private static final AtomicLong _version = new AtomicLong();
+    /**Last published generation of the model. null before the first request*/
+    private static final AtomicReference<ModelGeneration> _generation = new AtomicReference<>();
 
 
     /**
@@ -42,9 +72,12 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
      */
     private DataManager()
     {
-        _themeCollection  = new LinkedHashMap<>();
-        _groupCollection  = new LinkedHashMap<>();
-        _bridgeCollection = new LinkedHashMap<>();
+        _themeCollection  = new ConcurrentSkipListMap<>();
+        //bridges of different stripes change the outer maps concurrently
+        _groupCollection  = new ConcurrentSkipListMap<>();
+        _bridgeCollection = new ConcurrentSkipListMap<>();
+        _locks = new BridgeLocks();
+        _index = new MembershipIndex();
         _activeBridgeId = 0;
         subscribe();
     }
@@ -54,10 +87,20 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
      */
     public static DataManager getInstance()
     {
-
-        if(_instance == null)
-            _instance = new DataManager();
-        return _instance;
+        DataManager instance = _instance;
+        if(instance == null)
+        {
+            synchronized (DataManager.class)
+            {
+                instance = _instance;
+                if(instance == null)
+                {
+                    instance = new DataManager();
+                    _instance = instance;
+                }
+            }
+        }
+        return instance;
     }
 
     /**
@@ -78,22 +121,111 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
         if(activeBridgeId < 1)
             throw new IllegalArgumentException("Illegal argument for the bridge id");
         _activeBridgeId = activeBridgeId;
+        markChanged();
+    }
+
+    /**
+     * Get an immutable copy of the model at its current version.
+     * Between changes every call returns the same generation without copying anything,
+     * the first call after a change copies the model under read locks of all bridges and themes
+     * and publishes the copy for the following calls.
+     * @return current generation of the model
+     */
+    public ModelGeneration getGeneration()
+    {
+        ModelGeneration generation = _generation.get();
+        if(generation != null && generation.getVersion() == _version.get())
+            return generation;
+
+        _locks.lockAllRead();
+        try
+        {
+            //writers hold write locks while they change the version, so it is stable here
+            generation = new ModelGeneration(_version.get(), _activeBridgeId, _bridgeCollection,
+                                             _groupCollection, _themeCollection);
+        }
+        finally
+        {
+            _locks.unlockAllRead();
+        }
+
+        //a concurrent reader may have published the same or a later version already
+        while(true)
+        {
+            ModelGeneration published = _generation.get();
+            if(published != null && published.getVersion() >= generation.getVersion())
+                return published;
+            if(_generation.compareAndSet(published, generation))
+                return generation;
+        }
+    }
+
+    /**
+     * Records that the model has changed, so the next {@link #getGeneration()} copies it again.
+     * Called by every method of this class that changes the model. Code that changes model objects
+     * directly, e.g. loaders that link them, has to call it when it is done.
+     */
+    static void markChanged()
+    {
+        _version.incrementAndGet();
+    }
+
+    /**
+     * Get the read lock of the bridge, for code outside of this class that reads bulbs or groups
+     * of the bridge on its own thread, e.g. to persist them. Must be acquired before locks of the reader.
+     * @param bridgeId id of the bridge
+     * @return read lock of the stripe of the bridge
+     */
+    static Lock bridgeReadLock(int bridgeId)
+    {
+        getInstance();
+        return _locks.forBridge(bridgeId).readLock();
+    }
+
+    /**
+     * Get the read lock of themes, for code outside of this class that reads themes
+     * on its own thread, e.g. to persist them. Must be acquired before locks of the reader.
+     * @return read lock of themes
+     */
+    static Lock themesReadLock()
+    {
+        getInstance();
+        return _locks.forThemes().readLock();
+    }
+
+    /**
+     * Acquires write locks of the whole model, for code outside of this class that replaces the model,
+     * e.g. loaders. Must be acquired before locks of the caller and released by {@link #unlockModel()}.
+     */
+    static void lockModel()
+    {
+        getInstance();
+        _locks.lockAll();
+    }
+
+    /**
+     * Releases locks acquired by {@link #lockModel()}
+     */
+    static void unlockModel()
+    {
+        _locks.unlockAll();
     }
 
     /**
-     * Get a map representation of theme collection
-     * @return map of themes
+     * Get a map representation of theme collection. The map is copied without the theme lock,
+     * so the loader of a lazy theme can call it while it holds the monitor of the theme
+     * @return unmodifiable snapshot of the map of themes
      */
     public Map<Integer, Theme> getThemeMap() {
-        return _themeCollection;
+        return Collections.unmodifiableMap(new LinkedHashMap<>(_themeCollection));
     }
 
     /**
      * Get a collection representation of themes
-     * @return map of themes
+     * @return unmodifiable snapshot of the collection of themes
      */
     public Collection<Theme> getThemeCollection() {
-        return _themeCollection.values();
+        return Collections.unmodifiableList(new ArrayList<>(_themeCollection.values()));
     }
 
     /**
@@ -105,16 +237,46 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     {
         if(themeCollection == null || themeCollection.containsKey(null) || themeCollection.containsValue(null))
             throw new IllegalArgumentException("Failed to create collection of themes.");
-        _themeCollection = new LinkedHashMap<>(themeCollection);
+        Lock lock = _locks.forThemes().writeLock();
+        lock.lock();
+        try
+        {
+            for(Theme theme : _themeCollection.values())
+                theme.setIndex(null);
+            _themeCollection = new ConcurrentSkipListMap<>(themeCollection);
+            for(Theme theme : _themeCollection.values())
+                theme.setIndex(_index);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
         assert(_themeCollection != null);
     }
 
     /**
-     * Get a collection of groups
-     * @return - collection of groups
+     * Get a collection of groups. Groups of each bridge are copied under the read lock of the bridge
+     * @return - unmodifiable snapshot of the collection of groups, inner maps are unmodifiable too
      */
     public Map<Integer,Map<Integer,Group>> getGroupCollection() {
-        return _groupCollection;
+        Map<Integer,Map<Integer,Group>> snapshot = new LinkedHashMap<>();
+        for(Integer bridgeId : _groupCollection.keySet())
+        {
+            Lock lock = _locks.forBridge(bridgeId).readLock();
+            lock.lock();
+            try
+            {
+                Map<Integer,Group> groups = _groupCollection.get(bridgeId);
+                if(groups != null)
+                    snapshot.put(bridgeId, Collections.unmodifiableMap(new LinkedHashMap<>(groups)));
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        return Collections.unmodifiableMap(snapshot);
     }
 
     /**
@@ -128,16 +290,33 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
         if(groupCollection == null ||groupCollection.containsKey(null) ||groupCollection.containsValue(null))
             throw new IllegalArgumentException("Failed to create collection of groups.");
 
-        _groupCollection.put(bridgeId,groupCollection);
+        Lock lock = _locks.forBridge(bridgeId).writeLock();
+        lock.lock();
+        try
+        {
+            Map<Integer,Group> previous = _groupCollection.put(bridgeId,groupCollection);
+            if(previous != null)
+            {
+                for(Group group : previous.values())
+                    group.setIndex(null);
+            }
+            for(Group group : groupCollection.values())
+                group.setIndex(_index);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
         assert(_groupCollection != null);
     }
 
     /**
      * Get a collection of bridges
-     * @return - collection of bridges
+     * @return - unmodifiable snapshot of the collection of bridges
      */
     public Map<Integer,Bridge> getBridgeCollection() {
-        return _bridgeCollection;
+        return Collections.unmodifiableMap(new LinkedHashMap<>(_bridgeCollection));
     }
 
     /**
@@ -149,7 +328,16 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     {
         if(bridgeCollection == null ||bridgeCollection.containsKey(null) || bridgeCollection.containsValue(null))
             throw new IllegalArgumentException("Failed to create collection of groups.");
-        _bridgeCollection = new LinkedHashMap<>(bridgeCollection);
+        _locks.lockAll();
+        try
+        {
+            _bridgeCollection = new ConcurrentSkipListMap<>(bridgeCollection);
+        }
+        finally
+        {
+            markChanged();
+            _locks.unlockAll();
+        }
         assert (_bridgeCollection != null);
     }
 
@@ -162,17 +350,53 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
    {
        if(theme == null)
            throw new IllegalArgumentException("Failed to add theme");
-       _themeCollection.put(theme.getId(), theme);
+       Lock lock = _locks.forThemes().writeLock();
+       lock.lock();
+       try
+       {
+           Theme previous = _themeCollection.put(theme.getId(), theme);
+           if(previous != null && previous != theme)
+               previous.setIndex(null);
+           theme.setIndex(_index);
+       }
+       finally
+       {
+           markChanged();
+           lock.unlock();
+       }
    }
 
     /**
-     * Removes theme by specified id.
+     * Removes theme by specified id. The theme is also removed from all themes that contain it.
      * @param id theme id
      */
     void removeTheme(int id)
     {
-        _themeCollection.remove(id);
-        //TODO: add remove subthemes message
+        Lock lock = _locks.forThemes().writeLock();
+        lock.lock();
+        try
+        {
+            Theme theme = _themeCollection.remove(id);
+            if(theme == null)
+                return;
+            theme.setIndex(null);
+            removeFromParents(theme);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the theme from all themes that contain it as a subtheme
+     * @param theme theme to remove
+     */
+    private static void removeFromParents(Theme theme)
+    {
+        for(Theme parent : new ArrayList<>(theme.getParents()))
+            parent.removeTheme(theme.getId());
     }
 
     /**
@@ -185,18 +409,32 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
         if(group == null)
             throw new IllegalArgumentException("Failed to add group.");
         int bridgeId = group.getBridgeId();
-        if(_groupCollection.containsKey(bridgeId))
-           _groupCollection.get(bridgeId).put(group.getId(), group);
-        else
+        Lock lock = _locks.forBridge(bridgeId).writeLock();
+        lock.lock();
+        try
+        {
+            Group previous;
+            if(_groupCollection.containsKey(bridgeId))
+               previous = _groupCollection.get(bridgeId).put(group.getId(), group);
+            else
+            {
+                Map<Integer,Group> groups = new LinkedHashMap<>();
+                previous = groups.put(group.getId(),group);
+                _groupCollection.put(bridgeId,groups);
+            }
+            if(previous != null && previous != group)
+                previous.setIndex(null);
+            group.setIndex(_index);
+        }
+        finally
         {
-            Map<Integer,Group> groups = new LinkedHashMap<>();
-            groups.put(group.getId(),group);
-            _groupCollection.put(bridgeId,groups);
+            markChanged();
+            lock.unlock();
         }
     }
 
     /**
-     * Removes group.
+     * Removes group. The group is also removed from all groups that contain it.
      * @param group group to be removed
      * @throws IllegalArgumentException if null
      */
@@ -206,10 +444,36 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
             throw new IllegalArgumentException("Error removing the group");
 
         int bridgeId = group.getBridgeId();
-        _groupCollection.get(bridgeId).remove(group.getId());
-        if(_groupCollection.get(bridgeId).isEmpty())
-            _bridgeCollection.remove(bridgeId);
-        //TODO: add remove subgroups message
+        Lock lock = _locks.forBridge(bridgeId).writeLock();
+        lock.lock();
+        try
+        {
+            Map<Integer,Group> groups = _groupCollection.get(bridgeId);
+            if(groups == null)
+                return;
+            Group removed = groups.remove(group.getId());
+            if(groups.isEmpty())
+                _groupCollection.remove(bridgeId);
+            if(removed == null)
+                return;
+            removed.setIndex(null);
+            removeFromParents(removed);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the group from all groups that contain it as a subgroup
+     * @param group group to remove
+     */
+    private static void removeFromParents(Group group)
+    {
+        for(Group parent : new ArrayList<>(group.getParents()))
+            parent.removeGroup(group.getId());
     }
 
     /**
@@ -221,7 +485,17 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     {
         if(bridge == null)
             throw new IllegalArgumentException("Failed to add bridge.");
-        _bridgeCollection.put(bridge.getId(), bridge);
+        Lock lock = _locks.forBridge(bridge.getId()).writeLock();
+        lock.lock();
+        try
+        {
+            _bridgeCollection.put(bridge.getId(), bridge);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     /**
@@ -229,10 +503,27 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
      */
     void removeAll()
     {
-        _bridgeCollection.clear();;
-        _groupCollection.clear();
-        _themeCollection.clear();
-        _activeBridgeId = 0;
+        _locks.lockAll();
+        try
+        {
+            for(Map<Integer,Group> groups : _groupCollection.values())
+            {
+                for(Group group : groups.values())
+                    group.setIndex(null);
+            }
+            for(Theme theme : _themeCollection.values())
+                theme.setIndex(null);
+            _index.clear();
+            _bridgeCollection.clear();
+            _groupCollection.clear();
+            _themeCollection.clear();
+            _activeBridgeId = 0;
+        }
+        finally
+        {
+            markChanged();
+            _locks.unlockAll();
+        }
     }
 
     /**
@@ -241,7 +532,17 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
      */
     void removeBridge(int id)
     {
-        _bridgeCollection.remove(id);
+        Lock lock = _locks.forBridge(id).writeLock();
+        lock.lock();
+        try
+        {
+            _bridgeCollection.remove(id);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     /**
@@ -252,7 +553,201 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     public Lightbulb getBulbById(int id)
     {
         assert(_bridgeCollection != null);
-        return _bridgeCollection.get(_activeBridgeId).getBulb(id);
+        int bridgeId = _activeBridgeId;
+        Lock lock = _locks.forBridge(bridgeId).readLock();
+        lock.lock();
+        try
+        {
+            return _bridgeCollection.get(bridgeId).getBulb(id);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get light bulbs of the bridge
+     * @param bridgeId id of the bridge
+     * @return copy of the list of bulbs in the order of the bridge, empty if the bridge is unknown
+     */
+    public List<Lightbulb> getBulbs(int bridgeId)
+    {
+        Lock lock = _locks.forBridge(bridgeId).readLock();
+        lock.lock();
+        try
+        {
+            Bridge bridge = _bridgeCollection.get(bridgeId);
+            if(bridge == null)
+                return new ArrayList<>();
+            return new ArrayList<>(bridge.getBulbsCollection());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get groups of the bridge
+     * @param bridgeId id of the bridge
+     * @return copy of the list of groups, empty if the bridge has no groups
+     */
+    public List<Group> getGroups(int bridgeId)
+    {
+        Lock lock = _locks.forBridge(bridgeId).readLock();
+        lock.lock();
+        try
+        {
+            Map<Integer,Group> groups = _groupCollection.get(bridgeId);
+            if(groups == null)
+                return new ArrayList<>();
+            return new ArrayList<>(groups.values());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a theme by its id
+     * @param themeId id of the theme
+     * @return theme, or null if there is no such theme
+     */
+    public Theme getTheme(int themeId)
+    {
+        Lock lock = _locks.forThemes().readLock();
+        lock.lock();
+        try
+        {
+            return _themeCollection.get(themeId);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get groups that contain the bulb directly, not through subgroups
+     * @param bulbId id of the bulb
+     * @return groups that contain the bulb, empty if there are none
+     */
+    public List<Group> getGroupsWithBulb(int bulbId)
+    {
+        return _index.groupsOf(bulbId);
+    }
+
+    /**
+     * Get themes that have their own trait for the bulb, not through subthemes.
+     * Lazily loaded themes that are not in memory yet are loaded first.
+     * @param bulbId id of the bulb
+     * @return themes that use the bulb, empty if there are none
+     */
+    public List<Theme> getThemesWithBulb(int bulbId)
+    {
+        //themes report their traits to the index once they are loaded
+        if(hasLazyThemes())
+            materializeThemes();
+        return _index.themesOf(bulbId);
+    }
+
+    /**
+     * Checks if some of the themes are not in memory yet
+     * @return true if at least one theme is lazy, false otherwise
+     */
+    private boolean hasLazyThemes()
+    {
+        Lock lock = _locks.forThemes().readLock();
+        lock.lock();
+        try
+        {
+            for(Theme theme : _themeCollection.values())
+            {
+                if(!theme.isMaterialized())
+                    return true;
+            }
+            return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Loads all themes that are still lazy. The model is marked as changed only if a theme was loaded.
+     */
+    private void materializeThemes()
+    {
+        //loading a theme changes it, so the write lock
+        Lock lock = _locks.forThemes().writeLock();
+        lock.lock();
+        boolean loaded = false;
+        try
+        {
+            for(Theme theme : _themeCollection.values())
+            {
+                if(!theme.isMaterialized())
+                {
+                    loaded = true;
+                    theme.traitCount();
+                }
+            }
+        }
+        finally
+        {
+            if(loaded)
+                markChanged();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get groups that contain the group as a subgroup
+     * @param bridgeId id of the bridge of the group
+     * @param groupId id of the group
+     * @return parent groups, empty if there are none or the group is unknown
+     */
+    public List<Group> getParentGroups(int bridgeId, int groupId)
+    {
+        Lock lock = _locks.forBridge(bridgeId).readLock();
+        lock.lock();
+        try
+        {
+            Map<Integer,Group> groups = _groupCollection.get(bridgeId);
+            Group group = groups == null ? null : groups.get(groupId);
+            if(group == null)
+                return new ArrayList<>();
+            return new ArrayList<>(group.getParents());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get themes that contain the theme as a subtheme
+     * @param themeId id of the theme
+     * @return parent themes, empty if there are none or the theme is unknown
+     */
+    public List<Theme> getParentThemes(int themeId)
+    {
+        Lock lock = _locks.forThemes().readLock();
+        lock.lock();
+        try
+        {
+            Theme theme = _themeCollection.get(themeId);
+            if(theme == null)
+                return new ArrayList<>();
+            return new ArrayList<>(theme.getParents());
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     private void subscribe()
@@ -265,28 +760,82 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     @Override
     public void onAddBulb(BulbMessage message)
     {
-        _bridgeCollection.get(_activeBridgeId)
-                         .addBulb(message._bulb);
+        int bridgeId = message._bridgeId;
+        Lock lock = _locks.forBridge(bridgeId).writeLock();
+        lock.lock();
+        try
+        {
+            _bridgeCollection.get(bridgeId)
+                             .addBulb(message._bulb);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     @Override
     public void onRemoveBulb(BulbMessage message)
     {
-        _bridgeCollection.get(_activeBridgeId)
-                         .removeBulb(message._bulb.getId());
+        int bulbId = message._bulb.getId();
+        int bridgeId = message._bridgeId;
+        Lock lock = _locks.forBridge(bridgeId).writeLock();
+        Lock themes = _locks.forThemes().writeLock();
+        lock.lock();
+        themes.lock();
+        try
+        {
+            //groups drop the bulb before the bridge frees its slot
+            for(Group group : _index.groupsOf(bulbId))
+                group.removeBulb(bulbId);
+            for(Theme theme : _index.themesOf(bulbId))
+                theme.removeTrait(bulbId);
+            _bridgeCollection.get(bridgeId)
+                             .removeBulb(bulbId);
+        }
+        finally
+        {
+            markChanged();
+            themes.unlock();
+            lock.unlock();
+        }
     }
 
     @Override
     public void onUpdateBulb(BulbMessage message)
     {
-        _bridgeCollection.get(_activeBridgeId)
-                         .update( message._bulb);
+        int bridgeId = message._bridgeId;
+        Lock lock = _locks.forBridge(bridgeId).writeLock();
+        lock.lock();
+        try
+        {
+            _bridgeCollection.get(bridgeId)
+                             .update( message._bulb);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     @Override
     public void onUpdateMultiBulbs(BulbMessage message)
     {
-        //TODO: implement this message handler
+        int bridgeId = message._bridgeId;
+        Lock lock = _locks.forBridge(bridgeId).writeLock();
+        lock.lock();
+        try
+        {
+            _bridgeCollection.get(bridgeId)
+                             .update(message._bulbs);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     @Override
@@ -311,13 +860,23 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     public void onUpdateGroup(GroupMessage message)
     {
         Group g = message._group;
-        _groupCollection.get(g.getBridgeId())
-                        .get(g.getId())
-                        .updateBulbs(g.getBulbMap());
+        Lock lock = _locks.forBridge(g.getBridgeId()).writeLock();
+        lock.lock();
+        try
+        {
+            _groupCollection.get(g.getBridgeId())
+                            .get(g.getId())
+                            .updateBulbs(g.getBulbMap());
 
-        _groupCollection.get(g.getBridgeId())
-                        .get(g.getId())
-                        .updateGroup(g.getGroupMap());
+            _groupCollection.get(g.getBridgeId())
+                            .get(g.getId())
+                            .updateGroup(g.getGroupMap());
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     @Override
@@ -330,14 +889,34 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     public void onActivatedGroup(GroupMessage message)
     {
         Group g = message._group;
-        _groupCollection.get(g.getBridgeId()).get(g.getId()).activate();
+        Lock lock = _locks.forBridge(g.getBridgeId()).writeLock();
+        lock.lock();
+        try
+        {
+            _groupCollection.get(g.getBridgeId()).get(g.getId()).activate();
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     @Override
     public void onDeactivateGroup(GroupMessage message)
     {
         Group g = message._group;
-        _groupCollection.get(g.getBridgeId()).get(g.getId()).deactivate();
+        Lock lock = _locks.forBridge(g.getBridgeId()).writeLock();
+        lock.lock();
+        try
+        {
+            _groupCollection.get(g.getBridgeId()).get(g.getId()).deactivate();
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     @Override
@@ -349,13 +928,27 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     @Override
     public void onRemoveSubgroups(GroupMessage message)
     {
-        //TODO: implement message handler
+        Group g = message._group;
+        Lock lock = _locks.forBridge(g.getBridgeId()).writeLock();
+        lock.lock();
+        try
+        {
+            Map<Integer,Group> groups = _groupCollection.get(g.getBridgeId());
+            Group group = groups == null ? null : groups.get(g.getId());
+            if(group != null)
+                removeFromParents(group);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     @Override
     public void onAddTheme(ThemeMessage message)
     {
-        _themeCollection.put(message._theme.getId(),message._theme);
+        addTheme(message._theme);
     }
 
     @Override
@@ -368,9 +961,18 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     public void onUpdateTheme(ThemeMessage message)
     {
         Theme t = message._theme;
-        _themeCollection.get(t.getId()).updateTraits(t.getTraitMap());
-        _themeCollection.get(t.getId()).updateThemes(t.getThemeMap());
-
+        Lock lock = _locks.forThemes().writeLock();
+        lock.lock();
+        try
+        {
+            _themeCollection.get(t.getId()).updateTraits(t.getTraitMap());
+            _themeCollection.get(t.getId()).updateThemes(t.getThemeMap());
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     @Override
@@ -382,19 +984,65 @@ public final class DataManager implements BulbListener,GroupListener,ThemeListen
     @Override
     public void onActivatedTheme(ThemeMessage message)
     {
-        _themeCollection.get(message._theme.getId()).activate();
+        int bridgeId = _activeBridgeId;
+        Lock lock = _locks.forBridge(bridgeId).readLock();
+        Lock themes = _locks.forThemes().writeLock();
+        Map<Integer,Lightbulb> changes;
+        lock.lock();
+        themes.lock();
+        try
+        {
+            Theme theme = _themeCollection.get(message._theme.getId());
+            theme.activate();
+            Bridge bridge = _bridgeCollection.get(bridgeId);
+            if(bridge == null)
+                return;
+            //only bulbs that actually change are sent, in a single batch
+            changes = theme.getPlan().changesFor(bridge);
+        }
+        finally
+        {
+            markChanged();
+            themes.unlock();
+            lock.unlock();
+        }
+        //posted without locks, the update is handled by this class again
+        if(!changes.isEmpty())
+            Publisher.postBulbNotification(new BulbMessage(BulbMessage.MSG_UPDATE_MULTI_BULB, changes, bridgeId));
     }
 
     @Override
     public void onDeactivateTheme(ThemeMessage message)
     {
-        _themeCollection.get(message._theme.getId()).deactivate();
+        Lock lock = _locks.forThemes().writeLock();
+        lock.lock();
+        try
+        {
+            _themeCollection.get(message._theme.getId()).deactivate();
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     @Override
     public void onRemoveSubthemes(ThemeMessage message)
     {
-        //TODO: implement message handler
+        Lock lock = _locks.forThemes().writeLock();
+        lock.lock();
+        try
+        {
+            Theme theme = _themeCollection.get(message._theme.getId());
+            if(theme != null)
+                removeFromParents(theme);
+        }
+        finally
+        {
+            markChanged();
+            lock.unlock();
+        }
     }
 
     @Override
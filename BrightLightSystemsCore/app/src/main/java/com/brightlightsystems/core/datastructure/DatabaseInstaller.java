@@ -0,0 +1,256 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Copies the preloaded database from the assets to its place on the device.
+ * The database is written into a temporary file, synced to the disk, verified against
+ * the checksum of the asset and only then renamed to the database file, so an interrupted
+ * copy never leaves a partial database behind.
+ * Uncompressed assets are copied between file channels, compressed ones are streamed, both through
+ * a large buffer, so the checksum of the asset is computed while it is copied and the asset is read once.
+ * The copy is read back once to verify it, since checking what reached the disk is the point of the checksum.
+ */
+abstract class DatabaseInstaller
+{
+    /**Size of the buffer for streaming and checksums*/
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**Suffixes of files that SQLite keeps next to the database*/
+    private static final String[] SIDE_FILES = {"-journal", "-wal", "-shm"};
+
+    /**Empty constructor to prevent from instantiating */
+    private DatabaseInstaller(){}
+
+    /**
+     * Installs the asset as the database file, replacing the existing one.
+     * No connection to the database may be open.
+     * @param assets assets of the application
+     * @param assetName name of the database asset
+     * @param target database file
+     * @throws IOException if failed to copy, or the copy does not match the asset
+     */
+    static void install(AssetManager assets, String assetName, File target) throws IOException
+    {
+        File directory = target.getParentFile();
+        if(directory != null && !directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create " + directory);
+
+        File temp = new File(target.getPath() + ".tmp");
+        boolean installed = false;
+        try
+        {
+            long expected;
+            FileOutputStream output = new FileOutputStream(temp);
+            try
+            {
+                FileChannel out = output.getChannel();
+                expected = copy(assets, assetName, out);
+                out.force(true);
+            }
+            finally
+            {
+                //a failed close can't go unnoticed, the copy is verified below
+                closeQuietly(output);
+            }
+
+            if(checksum(temp) != expected)
+                throw new IOException("Copy of " + assetName + " does not match the asset");
+
+            //journal of a previous database must never be applied to the new one
+            for(String suffix : SIDE_FILES)
+                new File(target.getPath() + suffix).delete();
+            if(!temp.renameTo(target))
+                throw new IOException("Failed to rename " + temp + " to " + target);
+            installed = true;
+        }
+        finally
+        {
+            if(!installed)
+                temp.delete();
+        }
+    }
+
+    /**
+     * Copies the asset into the channel
+     * @param assets assets of the application
+     * @param assetName name of the asset
+     * @param out channel to write to
+     * @return checksum of the asset
+     * @throws IOException if failed to copy
+     */
+    private static long copy(AssetManager assets, String assetName, FileChannel out) throws IOException
+    {
+        AssetFileDescriptor descriptor;
+        try
+        {
+            descriptor = assets.openFd(assetName);
+        }
+        catch (FileNotFoundException e)
+        {
+            //compressed assets can't be accessed as files
+            descriptor = null;
+        }
+
+        if(descriptor == null)
+        {
+            InputStream input = assets.open(assetName);
+            try
+            {
+                return stream(input, out);
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+
+        try
+        {
+            return transfer(descriptor, out);
+        }
+        finally
+        {
+            descriptor.close();
+        }
+    }
+
+    /**
+     * Copies an uncompressed asset between file channels and computes its checksum on the way.
+     * A kernel transfer would not pass the data through the heap, but the checksum would need
+     * a second read of the asset
+     * @param descriptor descriptor of the asset inside the application package
+     * @param out channel to write to
+     * @return checksum of the asset
+     * @throws IOException if failed to copy
+     */
+    private static long transfer(AssetFileDescriptor descriptor, FileChannel out) throws IOException
+    {
+        FileInputStream input = descriptor.createInputStream();
+        try
+        {
+            FileChannel in = input.getChannel();
+            long position = descriptor.getStartOffset();
+            long end = position + descriptor.getLength();
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while(position < end)
+            {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+                int count = in.read(buffer, position);
+                if(count < 0)
+                    throw new EOFException("Asset ended at " + position + " of " + end);
+                crc.update(buffer.array(), 0, count);
+                buffer.flip();
+                while(buffer.hasRemaining())
+                    out.write(buffer);
+                position += count;
+            }
+            return crc.getValue();
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Copies a compressed asset through a buffer and computes its checksum on the way
+     * @param input stream of the asset
+     * @param out channel to write to
+     * @return checksum of the asset
+     * @throws IOException if failed to copy
+     */
+    private static long stream(InputStream input, FileChannel out) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = input.read(buffer)) > 0)
+        {
+            crc.update(buffer, 0, length);
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, length);
+            while(data.hasRemaining())
+                out.write(data);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Computes checksum of the whole file
+     * @param file file to check
+     * @return CRC32 of the content
+     * @throws IOException if failed to read
+     */
+    private static long checksum(File file) throws IOException
+    {
+        FileInputStream input = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = input.getChannel();
+            return checksum(channel, 0, channel.size());
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Computes checksum of a region of the channel without moving its position
+     * @param channel channel to read
+     * @param start offset of the region
+     * @param length length of the region
+     * @return CRC32 of the region
+     * @throws IOException if failed to read, or the channel ends before the region
+     */
+    private static long checksum(FileChannel channel, long start, long length) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = start;
+        long end = start + length;
+        while(position < end)
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+            int count = channel.read(buffer, position);
+            if(count < 0)
+                throw new EOFException("File ended at " + position + " of " + end);
+            crc.update(buffer.array(), 0, count);
+            position += count;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Closes the stream, ignoring a failure
+     * @param stream stream to close
+     */
+    private static void closeQuietly(Closeable stream)
+    {
+        try
+        {
+            stream.close();
+        }
+        catch (IOException e)
+        {
+            //nothing to release any more
+        }
+    }
+
+    /******************** end of class********************************/
+}
@@ -4,136 +4,354 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 import com.brightlightsystems.core.utilities.notificationsystem.BulbListener;
 import com.brightlightsystems.core.utilities.notificationsystem.BulbMessage;
+import com.brightlightsystems.core.utilities.notificationsystem.DeliveryLane;
 import com.brightlightsystems.core.utilities.notificationsystem.GroupListener;
 import com.brightlightsystems.core.utilities.notificationsystem.GroupMessage;
+import com.brightlightsystems.core.utilities.notificationsystem.Publisher;
 import com.brightlightsystems.core.utilities.notificationsystem.Subscriber;
 import com.brightlightsystems.core.utilities.notificationsystem.ThemeListener;
 import com.brightlightsystems.core.utilities.notificationsystem.ThemeMessage;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Class that creates and handles connection with SQLite database.
  * It also responsible for any data modification in the database.
  * Since the database comes preloaded, it never creates it, but rather uses .db file path
  * to open connection.
+ * The manager keeps a single writable connection together with its compiled statements for the
+ * whole life of the process. Use {@link #open()}, {@link #pause()} and {@link #shutdown()} to
+ * control it. All access to the connection is synchronized on the manager.
+ * Locks of the {@link DataManager} are always acquired before the lock of the manager:
+ * loaders hold the whole model while they replace it, handlers of notifications hold the read locks
+ * of the objects they persist, see {@link #subscribe()}. A lazy theme is loaded while its own lock is held,
+ * so that lock is acquired before the lock of the manager too, and handlers never load themes.
  * Created by Michael on 11/6/2015.
  */
 public final class DatabaseManager extends SQLiteOpenHelper implements BulbListener,GroupListener,ThemeListener
 {
+    /**Tag for log messages*/
+    private static final String TAG = "DatabaseManager";
     /**Default path for the database*/
     private static  String CORE_DB_PATH;
     /**Data base name*/
     private static final String CORE_DB_NAME = "core_data_base";
-    /**An instance of the database on the device*/
+    /**Long lived connection to the database on the device. null while closed. Guarded by this.*/
     private SQLiteDatabase _database;
+    /**Compiled statements of the _database connection. null while closed. Guarded by this.*/
+    private StatementCache _statements;
+    /**Flag that indicates that the manager was shut down and does not accept writes any more*/
+    private boolean _shutdown;
     /**An instance of the context to access app resources and assets.*/
     private final Context _context;
+    /**Storage profile that is applied to every connection*/
+    private final StorageProfile _profile;
+    /**Durations of the stages of the last load. null until data is loaded. Guarded by this.*/
+    private LoadTimings _loadTimings;
+    /**Binary snapshot of the loaded data that makes the next startup skip the database*/
+    private final ModelSnapshot _snapshot;
+    /**Flag that indicates that the snapshot file matches the database. Guarded by this.*/
+    private boolean _snapshotValid;
+    /**Flag that indicates that traits and subthemes are loaded on demand. Guarded by this.*/
+    private boolean _lazyThemes;
+    /**Source of the content of lazily loaded themes*/
+    private final ThemeSource _themeSource = new ThemeLoader();
+    /**Amount of lazily loaded themes which content was requested*/
+    private final AtomicInteger _materializedThemes = new AtomicInteger();
 
     /**
-     * Creates a DatabaseManager with context for assets and resources as well as version
+     * Creates a DatabaseManager with context for assets and resources as well as version.
+     * Uses {@link StorageProfile#LEGACY} storage profile.
      * @param context context of the app
      * @param version version of the data base
      */
     public DatabaseManager(Context context, int version)
+    {
+        this(context, version, StorageProfile.LEGACY);
+    }
+
+    /**
+     * Creates a DatabaseManager with context for assets and resources, version and storage profile
+     * @param context context of the app
+     * @param version version of the data base
+     * @param profile storage profile that is applied to every connection
+     * @throws IllegalArgumentException if profile == null
+     */
+    public DatabaseManager(Context context, int version, StorageProfile profile)
     {
         super(context, CORE_DB_NAME, null, version);
+        if(profile == null)
+            throw new IllegalArgumentException("Incorrect parameters");
         _context = context;
+        _profile = profile;
         if(android.os.Build.VERSION.SDK_INT >= 17)
             CORE_DB_PATH = context.getApplicationInfo().dataDir + "/databases/";
         else
             CORE_DB_PATH = "/data/data/" + context.getPackageName() + "/databases/";
+        _snapshot = new ModelSnapshot(new File(CORE_DB_PATH + CORE_DB_NAME + ".snapshot"), version);
         subscribe();
     }
 
     /**
      * Attempts to connect to the data base. If database exists on the system, method
-     * will open read/write connection and loads the data.
+     * will load the data from the snapshot of the last session, or open read/write connection
+     * and load the data if there is no valid snapshot.
      * If it doesn't, then the method will create an empty database
      * and will copy the content provided in assets data base over, and then will load all data
      * @throws IOException if failed to copy the data base
      */
     public boolean createDataBase() throws IOException
     {
-        if(!openIfExists())
+        DataManager.lockModel();
+        try
+        {
+            synchronized (this)
+            {
+                if(!exists())
+                {
+                    copyDataBase();
+                    _snapshot.delete();
+                }
+
+                if(loadSnapshot())
+                    return true;
+
+                open();
+                loadData();
+                saveSnapshot();
+                return true;
+            }
+        }
+        finally
         {
-            _database = this.getReadableDatabase();
-            copyDataBase();
-            _database.close();
+            DataManager.unlockModel();
         }
+    }
 
-        assert(_database != null);
-        loadData();
+    /**
+     * Loads the data from the snapshot of the last session. The connection is opened lazily by the first write.
+     * @return true if loaded, false if the snapshot is missing or stale
+     */
+    private boolean loadSnapshot()
+    {
+        assert(Thread.holdsLock(this));
+        long start = System.nanoTime();
+        if(!_snapshot.load(_themeSource))
+            return false;
+
+        _snapshotValid = true;
+        _loadTimings = new LoadTimings();
+        _loadTimings.record(LoadTimings.SNAPSHOT, System.nanoTime() - start);
+        _loadTimings.record(LoadTimings.TOTAL, System.nanoTime() - start);
+        Log.i(TAG, "Data loaded from snapshot. " + _loadTimings);
         return true;
     }
 
+    /**
+     * Writes the snapshot of the loaded data. A failure only costs the next startup a database load.
+     */
+    private void saveSnapshot()
+    {
+        assert(Thread.holdsLock(this));
+        try
+        {
+            _snapshot.write();
+            _snapshotValid = true;
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Failed to write snapshot", e);
+            _snapshot.delete();
+            _snapshotValid = false;
+        }
+    }
+
 
     /**
-     * Opens the database if its already exists on the system.
+     * Checks if the database already exists on the system.
      * @return true if it exists, false otherwise
      */
-    private boolean openIfExists()
+    private boolean exists()
     {
+        SQLiteDatabase db = null;
         try
         {
-            _database = SQLiteDatabase.openDatabase(CORE_DB_PATH + CORE_DB_NAME, null, SQLiteDatabase.OPEN_READONLY);
+            db = SQLiteDatabase.openDatabase(CORE_DB_PATH + CORE_DB_NAME, null, SQLiteDatabase.OPEN_READONLY);
         }
         catch(SQLiteException e)
         {
             //database does not exist yet.
         }
 
-        return _database != null;
+        if(db == null)
+            return false;
+        db.close();
+        return true;
     }
 
+    /**
+     * Opens the long lived writable connection if it's not opened yet.
+     * @throws IllegalStateException if the manager was shut down
+     */
+    public synchronized void open()
+    {
+        if(_shutdown)
+            throw new IllegalStateException("Database manager is shut down");
+        if(_database != null && _database.isOpen())
+            return;
+        _database = this.getWritableDatabase();
+        _statements = new StatementCache(_database);
+    }
 
     /**
-     * Copies database from the asset folder to the empty database on the
-     * system folder.
+     * Releases the connection and its compiled statements, e.g. when the app goes to background.
+     * The connection is reopened by the next call to {@link #open()} or by the next write.
      */
-    private void copyDataBase() throws IOException
+    public synchronized void pause()
     {
-        //open in and out streams
-        InputStream  input  = _context.getAssets().open(CORE_DB_NAME);
-        OutputStream output = new FileOutputStream(CORE_DB_PATH + CORE_DB_NAME);
+        if(_statements != null)
+            _statements.clear();
+        _statements = null;
+        _database = null;
+        this.close();
+    }
 
-        //transfer data from the input to output
-        byte[] buffer = new byte[1024];
-        int length;
-        while ((length = input.read(buffer))>0)
+    /**
+     * Waits until all posted notifications are persisted, writes the snapshot of the data for the next
+     * startup and closes the connection for good.
+     * Writes that arrive afterwards are rejected with IllegalStateException.
+     * @throws InterruptedException if interrupted while waiting for notifications to be delivered
+     */
+    public void shutdown() throws InterruptedException
+    {
+        Publisher.flush();
+        DataManager.lockModel();
+        try
+        {
+            synchronized (this)
+            {
+                if(_loadTimings != null && !_snapshotValid)
+                    saveSnapshot();
+                pause();
+                _shutdown = true;
+            }
+        }
+        finally
         {
-            output.write(buffer, 0, length);
+            DataManager.unlockModel();
         }
+    }
 
-        //Close the streams
-        output.flush();
-        output.close();
-        input.close();
+    /**
+     * Get the long lived connection for a modification of the data. The snapshot is removed
+     * before the first modification, so it never outlives the data it was taken from.
+     * Must be called while holding the lock of this manager.
+     * @return writable connection
+     */
+    private SQLiteDatabase writeConnection()
+    {
+        SQLiteDatabase db = connection();
+        if(_snapshotValid)
+        {
+            _snapshot.delete();
+            _snapshotValid = false;
+        }
+        return db;
+    }
 
+    /**
+     * Get the long lived connection, opens it if needed.
+     * Must be called while holding the lock of this manager.
+     * @return writable connection
+     */
+    private SQLiteDatabase connection()
+    {
+        assert(Thread.holdsLock(this));
+        open();
+        return _database;
+    }
+
+
+    /**
+     * Copies database from the asset folder to the database file on the
+     * system folder. The database file appears only when the copy is complete and verified.
+     * @throws IOException if failed to copy the database
+     */
+    private void copyDataBase() throws IOException
+    {
+        assert(_database == null);
+        DatabaseInstaller.install(_context.getAssets(), CORE_DB_NAME, new File(CORE_DB_PATH + CORE_DB_NAME));
     }
 
     /**
      * Loads entire data base. Usually done on startup.
-     * IMPORTANT: THE INNER ORDER OF METHOD CALLS MATTERS.
+     * Tables are read concurrently if the storage profile uses write ahead logging,
+     * traits and subthemes are skipped if themes are loaded lazily,
+     * see {@link StartupLoader}. Durations of the stages are available from {@link #getLoadTimings()}.
      */
     public void loadData()
     {
-        _database = this.getReadableDatabase();
-        //loading bridges data
-        BridgeContract.load(_database, _context);
-        //loading light bulbs data
-        BulbsContract.load(_database, _context);
-        //loading groups data
-        GroupsContract.load(_database, _context);
-        //loading themes data
-        ThemesContract.load(_database,_context);
-        _database.close();
+        DataManager.lockModel();
+        try
+        {
+            synchronized (this)
+            {
+                boolean parallel = _profile._journalMode == StorageProfile.JournalMode.WAL;
+                ThemeSource lazyThemes = _lazyThemes ? _themeSource : null;
+                _loadTimings = new StartupLoader(connection(), _context, parallel, lazyThemes).load();
+                Log.i(TAG, "Data loaded. " + _loadTimings);
+            }
+        }
+        finally
+        {
+            DataManager.unlockModel();
+        }
+    }
+
+    /**
+     * Turns lazy loading of themes on or off. With lazy loading only headers of themes are loaded,
+     * traits and subthemes of a theme are loaded and cached the first time they are needed,
+     * e.g. when the theme is activated. Affects the next load.
+     * @param lazy true to load themes lazily, false to load everything on startup
+     */
+    public synchronized void setLazyThemeLoading(boolean lazy)
+    {
+        _lazyThemes = lazy;
+    }
+
+    /**
+     * Check if themes are loaded lazily
+     * @return true if traits and subthemes are loaded on demand, false otherwise
+     */
+    public synchronized boolean isLazyThemeLoading()
+    {
+        return _lazyThemes;
+    }
+
+    /**
+     * Get amount of lazily loaded themes which traits and subthemes were requested so far.
+     * Themes loaded eagerly are not counted.
+     * @return materialized theme count
+     */
+    public int getMaterializedThemeCount()
+    {
+        return _materializedThemes.get();
+    }
+
+    /**
+     * Get durations of the stages of the last {@link #loadData()}
+     * @return timings of the last load, or null if data was not loaded yet
+     */
+    public synchronized LoadTimings getLoadTimings()
+    {
+        return _loadTimings;
     }
 
     @Override
@@ -147,6 +365,16 @@ public final class DatabaseManager extends SQLiteOpenHelper implements BulbListe
     {
         assert (db != null);
         db.execSQL("PRAGMA foreign_keys = ON");
+        _profile.apply(db);
+    }
+
+    /**
+     * Get storage profile of the database
+     * @return storage profile that is applied to every connection
+     */
+    public StorageProfile getStorageProfile()
+    {
+        return _profile;
     }
 
     @Override
@@ -154,35 +382,77 @@ public final class DatabaseManager extends SQLiteOpenHelper implements BulbListe
 
     }
 
+    /**
+     * Subscribes to all notifications on the IO lane, so disk writes never delay
+     * in-memory listeners. Handlers run on the lane thread while {@link DataManager} keeps changing
+     * the model, so a handler that reads model objects holds the read lock of the bridge or of themes
+     * of the DataManager while it persists them.
+     */
     public void subscribe()
     {
-        Subscriber.addBulbListener(this);
-        Subscriber.addGroupListener(this);
-        Subscriber.addThemeListener(this);
+        Subscriber.addBulbListener(this, DeliveryLane.IO);
+        Subscriber.addGroupListener(this, DeliveryLane.IO);
+        Subscriber.addThemeListener(this, DeliveryLane.IO);
     }
 
     @Override
     public void onAddBulb(BulbMessage message)
     {
-        BulbsContract.add(message._bulb, this.getWritableDatabase());
+        Lock lock = DataManager.bridgeReadLock(message._bridgeId);
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                BulbsContract.add(message._bulb, message._bridgeId, writeConnection());
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
-    public void onRemoveBulb(BulbMessage message)
+    public synchronized void onRemoveBulb(BulbMessage message)
     {
-        BulbsContract.remove(message._bulb.getId(), this.getWritableDatabase());
+        BulbsContract.remove(message._bulb.getId(), writeConnection());
     }
 
     @Override
     public void onUpdateBulb(BulbMessage message)
     {
-        BulbsContract.update(message._bulb, this.getWritableDatabase());
+        Lock lock = DataManager.bridgeReadLock(message._bridgeId);
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                BulbsContract.update(message._bulb, message._bridgeId, writeConnection(), _statements);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
     public void onUpdateMultiBulbs(BulbMessage message)
     {
-        //TODO: implement message handler
+        Lock lock = DataManager.bridgeReadLock(message._bridgeId);
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                BulbsContract.update(message._bulbs.values(), message._bridgeId, writeConnection(), _statements);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -194,19 +464,43 @@ public final class DatabaseManager extends SQLiteOpenHelper implements BulbListe
     @Override
     public void onAddGroup(GroupMessage message)
     {
-        GroupsContract.add(message._group, this.getWritableDatabase());
+        Lock lock = DataManager.bridgeReadLock(message._group.getBridgeId());
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                GroupsContract.add(message._group, writeConnection());
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
-    public void onRemoveGroup(GroupMessage message)
+    public synchronized void onRemoveGroup(GroupMessage message)
     {
-        GroupsContract.remove(message._group.getId(), this.getWritableDatabase());
+        GroupsContract.remove(message._group.getId(), writeConnection());
     }
 
     @Override
     public void onUpdateGroup(GroupMessage message)
     {
-        GroupsContract.update(message._group, this.getWritableDatabase());
+        Lock lock = DataManager.bridgeReadLock(message._group.getBridgeId());
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                GroupsContract.update(message._group, writeConnection(), _statements);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -218,13 +512,37 @@ public final class DatabaseManager extends SQLiteOpenHelper implements BulbListe
     @Override
     public void onActivatedGroup(GroupMessage message)
     {
-        GroupsContract.update(message._group, this.getWritableDatabase());
+        Lock lock = DataManager.bridgeReadLock(message._group.getBridgeId());
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                GroupsContract.update(message._group, writeConnection(), _statements);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
     public void onDeactivateGroup(GroupMessage message)
     {
-        GroupsContract.update(message._group, this.getWritableDatabase());
+        Lock lock = DataManager.bridgeReadLock(message._group.getBridgeId());
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                GroupsContract.update(message._group, writeConnection(), _statements);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -234,27 +552,51 @@ public final class DatabaseManager extends SQLiteOpenHelper implements BulbListe
     }
 
     @Override
-    public void onRemoveSubgroups(GroupMessage message)
+    public synchronized void onRemoveSubgroups(GroupMessage message)
     {
-        //TODO: implement messaeg handler
+        GroupsContract.removeFromParents(message._group.getId(), writeConnection());
     }
 
     @Override
     public void onAddTheme(ThemeMessage message)
     {
-        ThemesContract.add(message._theme, this.getWritableDatabase());
+        Lock lock = DataManager.themesReadLock();
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                ThemesContract.add(message._theme, writeConnection());
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
-    public void onRemoveTheme(ThemeMessage message)
+    public synchronized void onRemoveTheme(ThemeMessage message)
     {
-        ThemesContract.remove(message._theme.getId(),  this.getWritableDatabase());
+        ThemesContract.remove(message._theme.getId(), writeConnection());
     }
 
     @Override
     public void onUpdateTheme(ThemeMessage message)
     {
-        ThemesContract.update(message._theme, this.getWritableDatabase());
+        Lock lock = DataManager.themesReadLock();
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                ThemesContract.update(message._theme, writeConnection(), _statements);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -266,19 +608,43 @@ public final class DatabaseManager extends SQLiteOpenHelper implements BulbListe
     @Override
     public void onActivatedTheme(ThemeMessage message)
     {
-        ThemesContract.update(message._theme, this.getWritableDatabase());
+        Lock lock = DataManager.themesReadLock();
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                ThemesContract.update(message._theme, writeConnection(), _statements);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
     public void onDeactivateTheme(ThemeMessage message)
     {
-        ThemesContract.update(message._theme, this.getWritableDatabase());
+        Lock lock = DataManager.themesReadLock();
+        lock.lock();
+        try
+        {
+            synchronized (this)
+            {
+                ThemesContract.update(message._theme, writeConnection(), _statements);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
-    public void onRemoveSubthemes(ThemeMessage message)
+    public synchronized void onRemoveSubthemes(ThemeMessage message)
     {
-        //TODO: implement message handler
+        ThemesContract.removeFromParents(message._theme.getId(), writeConnection());
     }
 
     @Override
@@ -286,4 +652,21 @@ public final class DatabaseManager extends SQLiteOpenHelper implements BulbListe
     {
         //TODO: implement message handler
     }
+
+    /**
+     * Loads content of lazy themes through the connection of the manager
+     */
+    private final class ThemeLoader implements ThemeSource
+    {
+        @Override
+        public void materialize(Theme theme)
+        {
+            synchronized (DatabaseManager.this)
+            {
+                ThemesContract.materialize(connection(), theme);
+            }
+            DataManager.markChanged();
+            _materializedThemes.incrementAndGet();
+        }
+    }
 }
@@ -1,8 +1,14 @@
 package com.brightlightsystems.core.datastructure;
 
+import com.brightlightsystems.core.utilities.definitions.IntMap;
+
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This class describes a group of light bulbs.
@@ -11,9 +17,6 @@ import java.util.Map;
  */
 public class Group extends HueElement
 {
-    /**Initial indicator how much elemnts to store in the _collection*/
-    private static final byte INIT_GROUP_COUNT = 16;
-
     /**Id that will be used for the next bulb. IMPORTANT: value must be in sync with the database.*/
      // TODO: Add mechanism that validates synchronization
     private static int NEXT_GROUP_ID = 1;
@@ -22,13 +25,53 @@ public class Group extends HueElement
      * Map of the light bulbs that are stored in this group.Can't be null, can't contains nulls.
      * Key of the map is the light bulb Integer id to the Lightbulb object
      */
-    private Map<Integer,Lightbulb> _bulbs;
+    private IntMap<Lightbulb> _bulbs;
+
+    /**
+     * Set of the light bulbs of this group as a mask of slots of the bridge, see {@link BulbSlots}.
+     * Has the bulbs of _bulbs the bridge holds, _bulbs keeps the display order. Bulbs the bridge
+     * does not hold have no slots. The group retains the slots in the mask until it drops the bulbs.
+     */
+    private long _mask;
+
+    /**Slots of the bulbs of the bridge that contains this group. null until the group gets a bulb the bridge holds*/
+    private BulbSlots _slots;
+
+    /**
+     * Groups that contain this group as a subgroup. Used to invalidate their cached closures
+     * when this group changes.
+     */
+    private final Set<Group> _parents;
+
+    /**Cached mask of all bulbs of this group and all of its subgroups at any depth*/
+    private long _closure;
+
+    /**
+     * Flag that indicates that every bulb of this group and of its subgroups has a slot,
+     * so _closure has all of them. Valid together with _closure.
+     */
+    private boolean _closureMasked;
+
+    /**
+     * Cached ids of all bulbs of this group and of its subgroups, for closures with bulbs without slots.
+     * null until requested. Valid together with _closure.
+     */
+    private int[] _closureIds;
+
+    /**
+     * Flag that indicates that _closure is up to date.
+     * If a group is invalid, all groups that contain it are invalid as well.
+     */
+    private boolean _closureValid;
 
     /**
      * List of groups that represent this group. Can't be null, can't contains nulls
      * Key of the map is the light bulb Integer id to the Group object
      */
-    private Map<Integer,Group> _groups;
+    private IntMap<Group> _groups;
+
+    /**Reverse index of the data manager that holds this group. null if the group is not held there*/
+    private MembershipIndex _index;
 
     /**Flag that indicates if this group is active*/
     private boolean _activated;
@@ -59,12 +102,13 @@ public class Group extends HueElement
     public Group(int id, String name, int bridgeId, boolean favorite,boolean activated)
     {
         super(id, name);
-        _bulbs  = new LinkedHashMap<>(Bridge.INIT_BULB_COUNT);
-        _groups = new LinkedHashMap<>(INIT_GROUP_COUNT);
+        _bulbs  = new IntMap<>();
+        _groups = new IntMap<>();
         _activated = false;
         _bridgeID = bridgeId;
         _favorite = favorite;
         _activated = activated;
+        _parents = Collections.newSetFromMap(new IdentityHashMap<Group,Boolean>());
         assert(_bulbs  != null);
         assert(_groups != null);
         synchNextId(id);
@@ -83,12 +127,16 @@ public class Group extends HueElement
         if(bulbs == null || bulbs.containsKey(null) || bulbs.containsValue(null))
             throw new IllegalArgumentException("Can't create a group.Wrong parameter.");
 
-        _bulbs  = new LinkedHashMap<>(bulbs);
-        _groups = new LinkedHashMap<>(INIT_GROUP_COUNT);
+        _bulbs  = new IntMap<>(bulbs.size());
+        _bulbs.putAll(bulbs);
+        _groups = new IntMap<>();
         _activated = false;
         _bridgeID = bridgeId;
         _favorite = favorite;
         _activated = activated;
+        _parents = Collections.newSetFromMap(new IdentityHashMap<Group,Boolean>());
+        for(Lightbulb bulb : _bulbs.values())
+            _mask |= retainSlot(bulb);
         assert(_bulbs  != null);
         assert(_groups != null);
         synchNextId(id);
@@ -98,6 +146,12 @@ public class Group extends HueElement
     {
         assert(_bulbs != null);
         assert(_bulbs.size() <= Bridge.INIT_BULB_COUNT);
+        assert(_slots != null || _mask == 0);
+        if(_slots != null)
+        {
+            for(int bulbId : _slots.bulbIds(_mask))
+                assert(_bulbs.containsKey(bulbId));
+        }
         for(Map.Entry<Integer,Lightbulb> e: _bulbs.entrySet())
         {
             assert (e.getValue() != null);
@@ -129,6 +183,10 @@ public class Group extends HueElement
             throw new IllegalArgumentException("Can't add bulb. Parameter is null.");
         assert(_bulbs != null);
         _bulbs.put(bulb.getId(), bulb);
+        _mask |= retainSlot(bulb);
+        if(_index != null)
+            _index.add(bulb.getId(), this);
+        invalidate();
     }
 
     /**
@@ -143,21 +201,27 @@ public class Group extends HueElement
             throw new IllegalArgumentException("Can't add bulbs. Parameter is invalid.");
         assert(_bulbs != null);
         _bulbs.putAll(bulbs);
-
+        for(Lightbulb bulb : bulbs.values())
+            _mask |= retainSlot(bulb);
+        indexBulbs();
+        invalidate();
     }
 
     /**
      * Adds new group to the list of groups. If the group already exists, then its value will be
      * replaced with a new one.
      * @param group new group to be added into existing list.
-     * @throws IllegalArgumentException if group is null.
+     * @throws IllegalArgumentException if group is null, is on another bridge or contains this group,
+     * see {@link #canAddGroup(Group)}.
      */
     public void addGroup(Group group)
     {
-        if(group == null)
-            throw new IllegalArgumentException("Can't add bulb. Parameter is null.");
+        if(!canAddGroup(group))
+            throw new IllegalArgumentException("Can't add group. Parameter is null, on another bridge or makes a cycle.");
         assert(_groups != null);
-        _groups.put(group.getId(), group);
+        detach(_groups.put(group.getId(), group));
+        group._parents.add(this);
+        invalidate();
     }
 
     /**
@@ -165,14 +229,61 @@ public class Group extends HueElement
      * replaced with a new one.
      * @param groups new collection of groups to be added into existing list. Mst be LinkedHashMap,
      *               since we care about the order.
-     * @throws IllegalArgumentException if group is null or contains null.
+     * @throws IllegalArgumentException if group is null or contains null, or one of the groups can't be added.
      */
     public void addGroups(Map<Integer,Group> groups)
     {
         if(groups == null || groups.containsKey(null) ||groups.containsValue(null))
             throw new IllegalArgumentException("Can't create a group.Wrong parameter.");
-        assert(_groups != null);
-        _groups.putAll(groups);
+        for(Group group : groups.values())
+        {
+            if(!canAddGroup(group))
+                throw new IllegalArgumentException("Can't add group. It is on another bridge or makes a cycle.");
+        }
+        for(Group group : groups.values())
+            addGroup(group);
+    }
+
+    /**
+     * Checks if the group can become a subgroup of this group. Subgroups must be on the same bridge
+     * and must not contain this group at any depth, so the nesting never has cycles.
+     * @param group group to check
+     * @return true if the group can be added, false otherwise
+     */
+    public boolean canAddGroup(Group group)
+    {
+        if(group == null || group._bridgeID != _bridgeID || !sharesSlots(group))
+            return false;
+        return group != this && !group.containsGroup(this);
+    }
+
+    /**
+     * Checks if the group is a subgroup of this group at any depth
+     * @param group group to look for
+     * @return true if the group is nested in this group, false otherwise
+     */
+    public boolean containsGroup(Group group)
+    {
+        Set<Group> visited = Collections.newSetFromMap(new IdentityHashMap<Group,Boolean>());
+        return containsGroup(group, visited);
+    }
+
+    /**
+     * Depth first search of the group among subgroups
+     * @param group group to look for
+     * @param visited groups that were already searched
+     * @return true if found, false otherwise
+     */
+    private boolean containsGroup(Group group, Set<Group> visited)
+    {
+        for(Group g : _groups.values())
+        {
+            if(g == group)
+                return true;
+            if(visited.add(g) && g.containsGroup(group, visited))
+                return true;
+        }
+        return false;
     }
 
     /**
@@ -202,7 +313,7 @@ public class Group extends HueElement
     public Map<Integer,Lightbulb> getBulbMap()
     {
         assert (_bulbs != null);
-        return _bulbs;
+        return _bulbs.asMap();
     }
 
     /**
@@ -212,7 +323,7 @@ public class Group extends HueElement
     public Map<Integer, Group> getGroupMap()
     {
         assert(_groups != null);
-        return _groups;
+        return _groups.asMap();
     }
 
     /**
@@ -223,7 +334,12 @@ public class Group extends HueElement
     public void removeBulb(int bulbId)
     {
         assert(_bulbs != null);
-        _bulbs.remove(bulbId);
+        if(_bulbs.remove(bulbId) == null)
+            return;
+        if(_index != null)
+            _index.remove(bulbId, this);
+        releaseSlot(bulbId);
+        invalidate();
     }
 
     /**
@@ -233,7 +349,12 @@ public class Group extends HueElement
     public void removeGroup(int groupId)
     {
         assert(_groups != null);
-        _groups.remove(groupId);
+        Group group = _groups.remove(groupId);
+        if(group != null)
+        {
+            detach(group);
+            invalidate();
+        }
 
     }
 
@@ -244,8 +365,13 @@ public class Group extends HueElement
     {
         assert(_bulbs != null);
         assert(_groups != null);
+        unindexBulbs();
         _bulbs.clear();
+        releaseSlots();
+        for(Group group : _groups.values())
+            detach(group);
         _groups.clear();
+        invalidate();
     }
 
     /**
@@ -253,7 +379,8 @@ public class Group extends HueElement
      * Does nothing if groups == null. Values that arre not in the new map will be removed
      * from the old map.
      * @param groups new map of groups. Must be LinkedHashMap since we care about the order
-     * @throws IllegalArgumentException if new list contains nulls
+     * @throws IllegalArgumentException if new list contains nulls or groups that can't be added,
+     * see {@link #canAddGroup(Group)}
      */
     public void updateGroup(Map<Integer,Group>groups)
     {
@@ -262,8 +389,19 @@ public class Group extends HueElement
         if(groups.containsKey(null) || groups.containsValue((null)))
             throw new IllegalArgumentException("Can't update the group. parameter contains nulls");
         assert(_groups != null);
+        for(Group group : groups.values())
+        {
+            if(!canAddGroup(group))
+                throw new IllegalArgumentException("Can't update the group. Group is on another bridge or makes a cycle");
+        }
+        //the parameter may be the map of this group itself
+        Map<Integer,Group> update = new LinkedHashMap<>(groups);
+        for(Group group : _groups.values())
+            detach(group);
         _groups.clear();
-        _groups.putAll(groups);
+        invalidate();
+        for(Group group : update.values())
+            addGroup(group);
     }
 
     /**
@@ -279,8 +417,16 @@ public class Group extends HueElement
         if(bulbs.containsKey(null) || bulbs.containsValue(null))
             throw new IllegalArgumentException("Can't update bulbs. parameter contains nulls");
         assert(_bulbs != null);
+        //the parameter may be the map of this group itself
+        Map<Integer,Lightbulb> update = new LinkedHashMap<>(bulbs);
+        unindexBulbs();
         _bulbs.clear();
-        _bulbs.putAll(bulbs);
+        releaseSlots();
+        _bulbs.putAll(update);
+        for(Lightbulb bulb : update.values())
+            _mask |= retainSlot(bulb);
+        indexBulbs();
+        invalidate();
     }
 
     /**
@@ -304,16 +450,333 @@ public class Group extends HueElement
     }
 
     /**
-     * Counts all bulbs including bulbs in sub groups.
+     * Counts all bulbs including bulbs in sub groups at any depth. A bulb that is in several of them is counted once.
      * @return total count of all bulbs in this group and groups within the group
      */
     public int countAllBulbs()
     {
-        assert(_groups != null);
-        int total = bulbCount();
-        for(Map.Entry<Integer,Group> g:_groups.entrySet())
-            total += g.getValue().bulbCount();
-        return total;
+        long closure = getAllBulbsMask();
+        if(_closureMasked)
+            return Long.bitCount(closure);
+        return closureIds().length;
+    }
+
+    /**
+     * Get all bulbs of this group and of its subgroups at any depth that have slots, see {@link BulbSlots}.
+     * Bulbs the bridge does not hold are not in the mask, use {@link #getAllBulbIds()} to get all of them.
+     * The result is cached until this group or one of its subgroups changes.
+     * @return mask of bulb slots of the bridge, see {@link #getBulbIds(long)}
+     */
+    public long getAllBulbsMask()
+    {
+        if(!_closureValid)
+        {
+            //nesting is acyclic, see canAddGroup, so the recursion ends
+            long closure = _mask;
+            boolean masked = hasAllSlots();
+            for(Group g : _groups.values())
+            {
+                closure |= g.getAllBulbsMask();
+                masked &= g._closureMasked;
+            }
+            _closure = closure;
+            //ids of the closure are taken from the slots of this group
+            _closureMasked = masked && (closure == 0 || _slots != null);
+            _closureIds = null;
+            _closureValid = true;
+        }
+        return _closure;
+    }
+
+    /**
+     * Get ids of all bulbs of the closure from the bulb maps, for closures with bulbs without slots.
+     * Cached until this group or one of its subgroups changes.
+     * @return bulb ids, in the order of the groups. Must not be changed
+     */
+    private int[] closureIds()
+    {
+        getAllBulbsMask();
+        if(_closureIds == null)
+        {
+            Set<Integer> ids = new LinkedHashSet<>();
+            collectBulbIds(ids);
+            int[] array = new int[ids.size()];
+            int i = 0;
+            for(Integer id : ids)
+                array[i++] = id;
+            _closureIds = array;
+        }
+        return _closureIds;
+    }
+
+    /**
+     * Adds ids of all bulbs of this group and of its subgroups at any depth
+     * @param ids set to add the ids to
+     */
+    private void collectBulbIds(Set<Integer> ids)
+    {
+        for(int bulbId : _bulbs.keys())
+            ids.add(bulbId);
+        for(Group g : _groups.values())
+            g.collectBulbIds(ids);
+    }
+
+    /**
+     * Checks if every bulb of this group has a slot, so the mask has all of them
+     * @return true if the mask has all bulbs, false otherwise
+     */
+    private boolean hasAllSlots()
+    {
+        return Long.bitCount(_mask) == _bulbs.size();
+    }
+
+    /**
+     * Get ids of all bulbs of this group and of its subgroups at any depth, without duplicates
+     * @return bulb ids
+     */
+    public int[] getAllBulbIds()
+    {
+        long closure = getAllBulbsMask();
+        if(_closureMasked)
+            return getBulbIds(closure);
+        return closureIds().clone();
+    }
+
+    /**
+     * Drops the cached closure of this group and of all groups that contain it.
+     * Stops at groups that are already invalid, since groups that contain them are invalid too.
+     */
+    private void invalidate()
+    {
+        if(!_closureValid)
+            return;
+        _closureValid = false;
+        for(Group parent : _parents)
+            parent.invalidate();
+    }
+
+    /**
+     * Get groups that contain this group as a subgroup
+     * @return unmodifiable view of the parent groups
+     */
+    Set<Group> getParents()
+    {
+        return Collections.unmodifiableSet(_parents);
+    }
+
+    /**
+     * Makes the group report its bulbs to the reverse index. Bulbs are moved
+     * from the previous index, if any. A group that is no longer held by the data manager
+     * releases its slots, since it is not told when the bridge drops its bulbs.
+     * @param index index of the data manager, or null if the group is no longer held there
+     */
+    void setIndex(MembershipIndex index)
+    {
+        unindexBulbs();
+        _index = index;
+        indexBulbs();
+        releaseSlots();
+        if(index != null)
+        {
+            for(Lightbulb bulb : _bulbs.values())
+                _mask |= retainSlot(bulb);
+        }
+        invalidate();
+    }
+
+    /**
+     * Adds all bulbs of this group to the reverse index
+     */
+    private void indexBulbs()
+    {
+        if(_index == null)
+            return;
+        for(Integer bulbId : _bulbs.keySet())
+            _index.add(bulbId, this);
+    }
+
+    /**
+     * Removes all bulbs of this group from the reverse index
+     */
+    private void unindexBulbs()
+    {
+        if(_index == null)
+            return;
+        for(Integer bulbId : _bulbs.keySet())
+            _index.remove(bulbId, this);
+    }
+
+    /**
+     * Unlinks this group from the subgroup that is no longer in the group
+     * @param group former subgroup, can be null
+     */
+    private void detach(Group group)
+    {
+        if(group != null)
+            group._parents.remove(this);
+    }
+
+    /**
+     * Get the set of bulbs of this group as a mask of slots of its bridge
+     * @return mask of bulb slots
+     */
+    public long getBulbMask()
+    {
+        return _mask;
+    }
+
+    /**
+     * Checks if the bulb is in this group
+     * @param bulbId id of the bulb
+     * @return true if the group contains the bulb, false otherwise
+     */
+    public boolean containsBulb(int bulbId)
+    {
+        return _bulbs.containsKey(bulbId);
+    }
+
+    /**
+     * Checks if every bulb of the other group is in this group
+     * @param group group to check. Must be on the same bridge
+     * @return true if this group contains all bulbs of the other group, false otherwise
+     * @throws IllegalArgumentException if group is null or on another bridge
+     */
+    public boolean containsAll(Group group)
+    {
+        long mask = maskOf(group);
+        if(hasAllSlots() && group.hasAllSlots())
+            return (mask & ~_mask) == 0;
+        for(int bulbId : group._bulbs.keys())
+        {
+            if(!_bulbs.containsKey(bulbId))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if this group and the other group have common bulbs
+     * @param group group to check. Must be on the same bridge
+     * @return true if at least one bulb is in both groups, false otherwise
+     * @throws IllegalArgumentException if group is null or on another bridge
+     */
+    public boolean intersects(Group group)
+    {
+        long mask = maskOf(group);
+        if(hasAllSlots() && group.hasAllSlots())
+            return (mask & _mask) != 0;
+        for(int bulbId : group._bulbs.keys())
+        {
+            if(_bulbs.containsKey(bulbId))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get bulbs that are in this group or in the other group
+     * @param group other group. Must be on the same bridge
+     * @return mask of bulb slots of the union. Bulbs the bridge does not hold have no slots and are not in it
+     * @throws IllegalArgumentException if group is null or on another bridge
+     */
+    public long unionMask(Group group)
+    {
+        return maskOf(group) | _mask;
+    }
+
+    /**
+     * Get bulbs that are in both this group and the other group
+     * @param group other group. Must be on the same bridge
+     * @return mask of bulb slots of the intersection. Bulbs the bridge does not hold have no slots and are not in it
+     * @throws IllegalArgumentException if group is null or on another bridge
+     */
+    public long intersectionMask(Group group)
+    {
+        return maskOf(group) & _mask;
+    }
+
+    /**
+     * Converts a mask of bulb slots of the bridge of this group into bulb ids
+     * @param mask mask of bulb slots, e.g. from {@link #unionMask(Group)}
+     * @return ids of the bulbs in the mask
+     */
+    public int[] getBulbIds(long mask)
+    {
+        if(_slots == null)
+            return new int[0];
+        return _slots.bulbIds(mask);
+    }
+
+    /**
+     * Get mask of the other group to combine with this one
+     * @param group other group
+     * @return mask of bulbs of the other group
+     * @throws IllegalArgumentException if group is null or on another bridge
+     */
+    private long maskOf(Group group)
+    {
+        if(group == null || group._bridgeID != _bridgeID || !sharesSlots(group))
+            throw new IllegalArgumentException("Incorrect parameters");
+        //the result may be converted into bulb ids by this group
+        if(_slots == null)
+            _slots = group._slots;
+        return group._mask;
+    }
+
+    /**
+     * Checks if masks of the other group are in the same slots as masks of this group
+     * @param group other group, not null
+     * @return true if the masks can be combined, false otherwise
+     */
+    private boolean sharesSlots(Group group)
+    {
+        return _slots == null || group._slots == null || _slots == group._slots;
+    }
+
+    /**
+     * Retains the slot of the bulb if the bridge of this group holds the bulb.
+     * The first such bulb binds the group to the slots of its bridge.
+     * @param bulb bulb of this group
+     * @return mask with the slot of the bulb, or 0 if the bulb has no slot or is already in the mask
+     */
+    private long retainSlot(Lightbulb bulb)
+    {
+        BulbSlots slots = (_slots != null) ? _slots : bulb.getBridgeSlots();
+        if(slots == null || slots.getBridgeId() != _bridgeID)
+            return 0;
+        int slot = slots.slotOf(bulb.getId());
+        if(slot >= 0 && (_mask & (1L << slot)) != 0)
+            return 0;
+        slot = slots.retain(bulb.getId());
+        if(slot < 0)
+            return 0;
+        _slots = slots;
+        return 1L << slot;
+    }
+
+    /**
+     * Removes the bulb from the mask and releases its slot
+     * @param bulbId id of the bulb
+     */
+    private void releaseSlot(int bulbId)
+    {
+        if(_slots == null)
+            return;
+        int slot = _slots.slotOf(bulbId);
+        if(slot < 0 || (_mask & (1L << slot)) == 0)
+            return;
+        _mask &= ~(1L << slot);
+        _slots.release(slot);
+    }
+
+    /**
+     * Empties the mask and releases all of its slots
+     */
+    private void releaseSlots()
+    {
+        for(long mask = _mask; mask != 0; mask &= mask - 1)
+            _slots.release(Long.numberOfTrailingZeros(mask));
+        _mask = 0;
     }
 
     /**
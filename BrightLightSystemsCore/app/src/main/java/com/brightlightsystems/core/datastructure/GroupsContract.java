@@ -1,16 +1,18 @@
 package com.brightlightsystems.core.datastructure;
 
 import android.content.ContentValues;
-import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 
-import com.brightlightsystems.core.R;
 import com.brightlightsystems.core.datastructure.DataManager;
 import com.brightlightsystems.core.datastructure.Group;
 import com.brightlightsystems.core.datastructure.Lightbulb;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -19,101 +21,142 @@ import java.util.Map;
  */
 abstract class GroupsContract
 {
+    /**Statement that links a bulb to a group. Parameters: group id, bulb id*/
+    private static final String INSERT_BULB_STATEMENT = "INSERT OR IGNORE INTO " + BulbGroupEntry.TABLE_NAME + "(" +
+                                                        BulbGroupEntry.COLUMN_NAME_GROUP_ID + ", " +
+                                                        BulbGroupEntry.COLUMN_NAME_BULB_ID + ") VALUES(?, ?)";
+
+    /**Statement that links a subgroup to a group. Parameters: group id, subgroup id*/
+    private static final String INSERT_SUBGROUP_STATEMENT = "INSERT OR IGNORE INTO " + SubGroupEntry.TABLE_NAME + "(" +
+                                                            SubGroupEntry.COLUMN_NAME_GROUP_ID + ", " +
+                                                            SubGroupEntry.COLUMN_NAME_SUBGROUP_ID + ") VALUES(?, ?)";
+
     /**Empty constructor to prevent from instantiating */
     private GroupsContract(){}
 
     /**
-     * Method loads data from the group table
+     * Reads all groups from the group table without adding them to the data manager.
+     * Groups are empty, their bulbs and subgroups are added by {@link #link(List, int[], int[])}.
+     * Does not touch shared state, so it may run concurrently with reads of other tables.
      * @param db data base to read the data from
-     * @param context context of the application to access resources
-     * @throws IllegalArgumentException when db or context == null
+     * @param defaultName name for groups that don't have a name
+     * @return all groups in the order of the table
      */
-    static void load(SQLiteDatabase db, Context context)
+    static List<Group> read(SQLiteDatabase db, String defaultName)
     {
-        if(context == null || db == null)
-            throw new IllegalArgumentException("Incorrect parameters");
-
-        //container for
-
-        DataManager dm = DataManager.getInstance();
-        //selecting  groups
+        assert(db != null);
         Cursor cursor = db.rawQuery("SELECT * FROM  " + GroupEntry.TABLE_NAME, null);
-        if (cursor .moveToFirst())
+        try
+        {
+            List<Group> groups = new ArrayList<>(cursor.getCount());
+            GroupReader reader = new GroupReader(cursor, defaultName);
+            while (cursor.moveToNext())
+                groups.add(reader.read());
+            return groups;
+        }
+        finally
         {
-            Group group;
-            while (!cursor.isAfterLast())
-            {
-                int id = cursor.getInt(cursor.getColumnIndex(GroupEntry.COLUMN_NAME_GROUP_ID));
-                String name = cursor.getString(cursor.getColumnIndex(GroupEntry.COLUMN_NAME_GROUP_NAME));
-                int bridgeId = cursor.getInt(cursor.getColumnIndex(GroupEntry.COLUMN_NAME_BRIDGE_ID));
-                int favorites = cursor.getInt(cursor.getColumnIndex(GroupEntry.COLUMN_NAME_FAVORITES));
-                int activated = cursor.getInt(cursor.getColumnIndex(GroupEntry.COLUMN_NAME_ACTIVATED));
-
-                if(name == null)
-                    name = context.getResources().getString(R.string.default_group);
-
-                group = new Group(id, name, bridgeId, (favorites == 1), activated == 1);
-                String selectBulbQuery =    "SELECT " + BulbGroupEntry.COLUMN_NAME_BULB_ID +
-                                            " FROM " + BulbGroupEntry.TABLE_NAME +
-                                            " WHERE " + BulbGroupEntry.COLUMN_NAME_GROUP_ID + " = " + id;
-
-                //selecting bulb ids
-                Cursor bulbCursor = db.rawQuery(selectBulbQuery, null);
-                if (bulbCursor.moveToFirst())
-                {
-                    while (!bulbCursor.isAfterLast())
-                    {
-                        //adding to the group
-                        int bulbId = bulbCursor.getInt(bulbCursor.getColumnIndex(BulbGroupEntry.COLUMN_NAME_BULB_ID));
-                        Lightbulb bulb = dm.getBulbById(bulbId);
-                        if (bulb != null)
-                            group.addBulb(bulb);
-                        bulbCursor.moveToNext();
-                    }
-                    bulbCursor.close();
-                }
-
-                dm.addGroup(group);
-                cursor.moveToNext();
-            }
             cursor.close();
         }
+    }
 
-        //Loading sub groups for home edition version.
-        processHomeEditionSG(db);
-        //TODO: Add multi bridge support here:
+    /**
+     * Reads the whole bulbs_groups table ordered by group id
+     * @param db database to read the data from
+     * @return flat array of (group id, bulb id) pairs
+     */
+    static int[] readBulbLinks(SQLiteDatabase db)
+    {
+        return ContractQueries.readLinks(db, BulbGroupEntry.TABLE_NAME, BulbGroupEntry.COLUMN_NAME_GROUP_ID,
+                                         BulbGroupEntry.COLUMN_NAME_BULB_ID);
     }
 
     /**
-     * Load all subgroups for home edition version. Because, home edition does not require multiple
-     * bridges support, the read of subgroup data and setting up data structure will differ from
-     * the corporate edition.
+     * Reads the whole groups_subgroups table ordered by group id
      * @param db database to read the data from
+     * @return flat array of (group id, subgroup id) pairs
      */
-    private static void processHomeEditionSG(SQLiteDatabase db)
+    static int[] readSubgroupLinks(SQLiteDatabase db)
     {
+        return ContractQueries.readLinks(db, SubGroupEntry.TABLE_NAME, SubGroupEntry.COLUMN_NAME_GROUP_ID,
+                                         SubGroupEntry.COLUMN_NAME_SUBGROUP_ID);
+    }
+
+    /**
+     * Adds groups that were read from the database to the data manager, then fills them with
+     * their bulbs and subgroups. Bridges and light bulbs must be linked before groups.
+     * @param groups groups to add
+     * @param bulbLinks flat array of (group id, bulb id) pairs ordered by group id
+     * @param subgroupLinks flat array of (group id, subgroup id) pairs ordered by group id
+     */
+    static void link(List<Group> groups, int[] bulbLinks, int[] subgroupLinks)
+    {
+        assert(groups != null && bulbLinks != null && subgroupLinks != null);
         DataManager dm = DataManager.getInstance();
-        Map<Integer, Group> map = dm.getGroupCollection().get(DataManager.getActiveBridgeId());
+        //all loaded groups of all bridges by group id
+        Map<Integer,Group> groupMap = new HashMap<>();
+        for(Group group : groups)
+        {
+            groupMap.put(group.getId(), group);
+            dm.addGroup(group);
+        }
 
-        for(Map.Entry<Integer,Group> e: map.entrySet())
+        linkBulbs(groupMap, dm.getBridgeCollection(), bulbLinks);
+        linkSubgroups(groupMap, subgroupLinks);
+    }
+
+    /**
+     * Adds bulbs to their groups. Links of the same group come together,
+     * so the group and its bridge are looked up once per group.
+     * @param groups all loaded groups by group id
+     * @param bridges all loaded bridges by bridge id
+     * @param links flat array of (group id, bulb id) pairs ordered by group id
+     */
+    private static void linkBulbs(Map<Integer,Group> groups, Map<Integer,Bridge> bridges, int[] links)
+    {
+        int currentId = -1;
+        Group group = null;
+        Bridge bridge = null;
+        for(int i = 0; i < links.length; i += 2)
+        {
+            int groupId = links[i];
+            if(groupId != currentId)
+            {
+                currentId = groupId;
+                group = groups.get(groupId);
+                bridge = (group == null) ? null : bridges.get(group.getBridgeId());
+            }
+            if(bridge == null)
+                continue;
+
+            //adding to the group
+            Lightbulb bulb = bridge.getBulb(links[i + 1]);
+            if (bulb != null)
+                group.addBulb(bulb);
+        }
+    }
+
+    /**
+     * Links subgroups to their groups
+     * @param groups all loaded groups by group id
+     * @param links flat array of (group id, subgroup id) pairs ordered by group id
+     */
+    private static void linkSubgroups(Map<Integer,Group> groups, int[] links)
+    {
+        int currentId = -1;
+        Group group = null;
+        for(int i = 0; i < links.length; i += 2)
         {
-            int id = e.getKey();
-            //selecting subgroups
-            String selectSubgroupsQuery =   "SELECT " + SubGroupEntry.COLUMN_NAME_SUBGROUP_ID +
-                                            " FROM "  + SubGroupEntry.TABLE_NAME +
-                                            " WHERE " + SubGroupEntry.COLUMN_NAME_GROUP_ID + " = " + id;
-
-            Cursor subGroupCursor = db.rawQuery(selectSubgroupsQuery, null);
-            if (subGroupCursor .moveToFirst())
+            int groupId = links[i];
+            if(groupId != currentId)
             {
-                while(!subGroupCursor.isAfterLast())
-                {
-                    int subgroupId = subGroupCursor.getInt(subGroupCursor.getColumnIndex(SubGroupEntry.COLUMN_NAME_SUBGROUP_ID));
-                    map.get(id).addGroup(map.get(subgroupId));
-                    subGroupCursor.moveToNext();
-                }
-                subGroupCursor.close();
+                currentId = groupId;
+                group = groups.get(groupId);
             }
+            //links that cross bridges or make a cycle are skipped
+            Group subgroup = groups.get(links[i + 1]);
+            if(group != null && group.canAddGroup(subgroup))
+                group.addGroup(subgroup);
         }
     }
 
@@ -160,8 +203,6 @@ abstract class GroupsContract
                 values.clear();
             }
         }
-
-        db.close();
     }
 
     /**
@@ -177,82 +218,73 @@ abstract class GroupsContract
             throw new IllegalArgumentException("Incorrect parameters");
         if (db.delete(GroupEntry.TABLE_NAME, GroupEntry.COLUMN_NAME_GROUP_ID + "=" + id, null) != 1)
             throw new Error("Failed while removing data");
+    }
 
-        db.close();
+    /**
+     * Removes a group from all groups that contain it as a subgroup. The group itself is kept.
+     * @param id id of the subgroup
+     * @param db database to modify
+     * @throws IllegalArgumentException if db == null
+     */
+    static void removeFromParents(int id, SQLiteDatabase db)
+    {
+        if(db == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        db.delete(SubGroupEntry.TABLE_NAME, SubGroupEntry.COLUMN_NAME_SUBGROUP_ID + "=" + id, null);
     }
 
     /**
-     * Updates a group in the database
+     * Updates a group in the database. The group row and all its bulb and subgroup links
+     * are written in a single transaction.
      * @param group a group to update.
      * @param db database to modify
-     * @throws IllegalArgumentException when bulb or db == null
-     * @throws Error if was not able to update the entry
+     * @param statements compiled statements of the db connection
+     * @throws IllegalArgumentException when group, db or statements == null
+     * @throws Error if was not able to update the entry. Nothing is updated in that case.
      */
-    static void update(Group group, SQLiteDatabase db)
+    static void update(Group group, SQLiteDatabase db, StatementCache statements)
     {
-        if(group == null || db == null)
+        if(group == null || db == null || statements == null)
             throw new IllegalArgumentException("Incorrect parameters");
+        assert(statements.isFor(db));
 
         int id = group.getId();
-
         ContentValues values = initValues(group);
-        if(db.update(GroupEntry.TABLE_NAME, values, "_id = " + id, null) < 1)
-            throw new Error("Something went wrong while updating");
-
-        //First create a string of of bulb ids for the remove query
-        //insert new rows if needed
-        String bulbIds = "(";
-        String insertStatement = "INSERT OR IGNORE INTO " + BulbGroupEntry.TABLE_NAME +"(" +
-                                     BulbGroupEntry.COLUMN_NAME_GROUP_ID + ", " +
-                                     BulbGroupEntry.COLUMN_NAME_BULB_ID +") VALUES(";
-        for(Lightbulb b: group.getBulbCollection())
-        {
-            String query = insertStatement + group.getId() +", " + b.getId() + ")";
-            db.rawQuery(query,null);
-            bulbIds += (b.getId() + ",");
-        }
+        SQLiteStatement insertBulb = statements.get(INSERT_BULB_STATEMENT);
+        SQLiteStatement insertSubgroup = statements.get(INSERT_SUBGROUP_STATEMENT);
 
-        //remove old entries
-        bulbIds = bulbIds.substring(0,bulbIds.length() - 1);
-        String query  = "DELETE FROM " + BulbGroupEntry.TABLE_NAME +
-                        " WHERE " + BulbGroupEntry.COLUMN_NAME_GROUP_ID + " = " + group.getId()+
-                        " AND " +
-                        BulbGroupEntry.COLUMN_NAME_BULB_ID + " NOT IN " + bulbIds + ")";
-        db.rawQuery(query, null);
-
-        //update complex group table
-
-        //First create a string of of group ids for the remove query
-        //insert new rows if needed
-        String groupIds = "(";
-        insertStatement = "INSERT OR IGNORE INTO " + SubGroupEntry.TABLE_NAME +"(" +
-                          SubGroupEntry.COLUMN_NAME_GROUP_ID + ", " +
-                          SubGroupEntry.COLUMN_NAME_SUBGROUP_ID +") VALUES(";
-        for(Group g: group.getGroupCollection())
+        db.beginTransaction();
+        try
         {
-            query = insertStatement + group.getId()+", " + g.getId() + ")";
-            db.rawQuery(query,null);
-            groupIds += (g.getId() + ",");
-        }
+            if(db.update(GroupEntry.TABLE_NAME, values, "_id = " + id, null) < 1)
+                throw new Error("Something went wrong while updating");
 
-        //remove old entries
-        groupIds = groupIds.substring(0,groupIds.length() - 1);
-        if(groupIds.isEmpty())
-        {
-            query  = "DELETE FROM " + SubGroupEntry.TABLE_NAME +
-                    " WHERE " + SubGroupEntry.COLUMN_NAME_GROUP_ID + " = " + group.getId();
-            db.rawQuery(query, null);
-            db.close();
-            return;
-        }
+            //insert new bulb rows if needed, then remove old entries
+            insertBulb.bindLong(1, id);
+            for(Lightbulb b: group.getBulbCollection())
+            {
+                insertBulb.bindLong(2, b.getId());
+                insertBulb.execute();
+            }
+            db.execSQL(ContractQueries.deleteOldLinksQuery(BulbGroupEntry.TABLE_NAME, BulbGroupEntry.COLUMN_NAME_GROUP_ID,
+                                                           BulbGroupEntry.COLUMN_NAME_BULB_ID, id, group.getBulbMap().keySet()));
 
-        query  = "DELETE FROM " + SubGroupEntry.TABLE_NAME +
-                        " WHERE " + SubGroupEntry.COLUMN_NAME_GROUP_ID + " = " + group.getId()+
-                        " AND " +
-                        SubGroupEntry.COLUMN_NAME_SUBGROUP_ID + " NOT IN " + groupIds + ")";
-        db.rawQuery(query, null);
+            //same for complex group table
+            insertSubgroup.bindLong(1, id);
+            for(Group g: group.getGroupCollection())
+            {
+                insertSubgroup.bindLong(2, g.getId());
+                insertSubgroup.execute();
+            }
+            db.execSQL(ContractQueries.deleteOldLinksQuery(SubGroupEntry.TABLE_NAME, SubGroupEntry.COLUMN_NAME_GROUP_ID,
+                                                           SubGroupEntry.COLUMN_NAME_SUBGROUP_ID, id, group.getGroupMap().keySet()));
 
-        db.close();
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+        }
     }
 
     /**
@@ -276,6 +308,44 @@ abstract class GroupsContract
     }
 
 
+    /**Reader that decodes rows of the groups table into empty groups*/
+    static final class GroupReader extends RowReader<Group>
+    {
+        /**Name for groups that don't have a name*/
+        private final String _defaultName;
+        private final int _idColumn;
+        private final int _nameColumn;
+        private final int _bridgeIdColumn;
+        private final int _favoritesColumn;
+        private final int _activatedColumn;
+
+        /**
+         * Constructs a reader and resolves column positions of the cursor
+         * @param cursor cursor over the groups table
+         * @param defaultName name for groups that don't have a name
+         */
+        GroupReader(Cursor cursor, String defaultName)
+        {
+            super(cursor);
+            _defaultName = defaultName;
+            _idColumn        = column(GroupEntry.COLUMN_NAME_GROUP_ID);
+            _nameColumn      = column(GroupEntry.COLUMN_NAME_GROUP_NAME);
+            _bridgeIdColumn  = column(GroupEntry.COLUMN_NAME_BRIDGE_ID);
+            _favoritesColumn = column(GroupEntry.COLUMN_NAME_FAVORITES);
+            _activatedColumn = column(GroupEntry.COLUMN_NAME_ACTIVATED);
+        }
+
+        @Override
+        Group read()
+        {
+            String name = _cursor.getString(_nameColumn);
+            if(name == null)
+                name = _defaultName;
+            return new Group(_cursor.getInt(_idColumn), name, _cursor.getInt(_bridgeIdColumn),
+                             _cursor.getInt(_favoritesColumn) == 1, _cursor.getInt(_activatedColumn) == 1);
+        }
+    }
+
     /**Inner class that defines table content*/
     abstract class GroupEntry implements BaseColumns
     {
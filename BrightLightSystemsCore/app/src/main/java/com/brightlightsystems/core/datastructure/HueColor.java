@@ -0,0 +1,272 @@
+package com.brightlightsystems.core.datastructure;
+
+/**
+ * Conversion of colors into the color space of Hue bulbs. Hue bulbs take a CIE 1931 xy chromaticity,
+ * which is computed from sRGB: gamma is removed, linear RGB is turned into XYZ by the wide gamut
+ * D65 matrix, then x = X / (X + Y + Z) and y = Y / (X + Y + Z). A bulb can only show colors inside
+ * of its gamut, so points outside are moved to the closest point of the gamut triangle.
+ * Components of colors are bytes, so removing the gamma is a lookup in a table computed once,
+ * and the whole conversion does not call Math.pow. {@link #toXyExact(int, int, int, Gamut)}
+ * does the same math in double precision and is kept as the reference.
+ * Coordinates are returned quantized to 16 bits each and packed into an int, x in the high half,
+ * see {@link #x(int)} and {@link #y(int)}.
+ */
+public final class HueColor
+{
+    /**x of the D65 white point. Black has no chromaticity and is converted into white*/
+    public static final float WHITE_X = 0.3127f;
+    /**y of the D65 white point*/
+    public static final float WHITE_Y = 0.3290f;
+
+    /**Quantized value of the coordinate 1.0*/
+    private static final float XY_SCALE = 0xFFFF;
+    /**Linear values of 8 bit sRGB components*/
+    private static final float[] LINEAR = new float[256];
+
+    static
+    {
+        for(int i = 0; i < LINEAR.length; i++)
+            LINEAR[i] = (float) linearize(i / 255.0);
+    }
+
+    /**Empty constructor to prevent from instantiating */
+    private HueColor(){}
+
+    /**
+     * Converts a color into xy of the gamut. Transparency of the color is ignored
+     * @param color color to convert
+     * @param gamut gamut of the bulb
+     * @return packed xy
+     * @throws IllegalArgumentException if color or gamut is null
+     */
+    public static int toXy(BulbColor color, Gamut gamut)
+    {
+        if(color == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        return toXy(color.getRed(), color.getGreen(), color.getBlue(), gamut);
+    }
+
+    /**
+     * Converts sRGB components into xy of the gamut
+     * @param r red component, 0..255
+     * @param g green component, 0..255
+     * @param b blue component, 0..255
+     * @param gamut gamut of the bulb
+     * @return packed xy
+     * @throws IllegalArgumentException if a component is out of range or gamut is null
+     */
+    public static int toXy(int r, int g, int b, Gamut gamut)
+    {
+        if(((r | g | b) & ~0xFF) != 0 || gamut == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        float red = LINEAR[r];
+        float green = LINEAR[g];
+        float blue = LINEAR[b];
+        float x = red * 0.664511f + green * 0.154324f + blue * 0.162028f;
+        float y = red * 0.283881f + green * 0.668433f + blue * 0.047685f;
+        float z = red * 0.000088f + green * 0.072310f + blue * 0.986039f;
+        float sum = x + y + z;
+        if(sum == 0)
+            return gamut.clamp(WHITE_X, WHITE_Y);
+        return gamut.clamp(x / sum, y / sum);
+    }
+
+    /**
+     * Converts sRGB components into xy of the gamut in double precision, without lookup tables.
+     * Slower than {@link #toXy(int, int, int, Gamut)}, which it is the reference of.
+     * @param r red component, 0..255
+     * @param g green component, 0..255
+     * @param b blue component, 0..255
+     * @param gamut gamut of the bulb
+     * @return packed xy
+     * @throws IllegalArgumentException if a component is out of range or gamut is null
+     */
+    public static int toXyExact(int r, int g, int b, Gamut gamut)
+    {
+        if(((r | g | b) & ~0xFF) != 0 || gamut == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        double red = linearize(r / 255.0);
+        double green = linearize(g / 255.0);
+        double blue = linearize(b / 255.0);
+        double x = red * 0.664511 + green * 0.154324 + blue * 0.162028;
+        double y = red * 0.283881 + green * 0.668433 + blue * 0.047685;
+        double z = red * 0.000088 + green * 0.072310 + blue * 0.986039;
+        double sum = x + y + z;
+        if(sum == 0)
+            return gamut.clamp(WHITE_X, WHITE_Y);
+        return gamut.clamp((float) (x / sum), (float) (y / sum));
+    }
+
+    /**
+     * Get x of packed xy
+     * @param xy packed xy
+     * @return x coordinate, 0..1
+     */
+    public static float x(int xy)
+    {
+        return (xy >>> 16) / XY_SCALE;
+    }
+
+    /**
+     * Get y of packed xy
+     * @param xy packed xy
+     * @return y coordinate, 0..1
+     */
+    public static float y(int xy)
+    {
+        return (xy & 0xFFFF) / XY_SCALE;
+    }
+
+    /**
+     * Packs coordinates, quantizing them to 16 bits
+     * @param x x coordinate, 0..1
+     * @param y y coordinate, 0..1
+     * @return packed xy
+     */
+    private static int pack(float x, float y)
+    {
+        return Math.round(x * XY_SCALE) << 16 | Math.round(y * XY_SCALE);
+    }
+
+    /**
+     * Removes sRGB gamma
+     * @param value component, 0..1
+     * @return linear component, 0..1
+     */
+    private static double linearize(double value)
+    {
+        if(value > 0.04045)
+            return Math.pow((value + 0.055) / 1.055, 2.4);
+        return value / 12.92;
+    }
+
+    /**
+     * Color gamuts of Hue bulbs: triangles of xy that a bulb can show, given by their red,
+     * green and blue corners
+     */
+    public enum Gamut
+    {
+        A(0.704f, 0.296f, 0.2151f, 0.7106f, 0.138f, 0.08f),     // LivingColors, LightStrips
+        B(0.675f, 0.322f, 0.409f, 0.518f, 0.167f, 0.04f),       // first generation Hue bulbs
+        C(0.692f, 0.308f, 0.17f, 0.7f, 0.153f, 0.048f);         // later Hue bulbs and LightStrips
+
+        private final float _redX;
+        private final float _redY;
+        private final float _greenX;
+        private final float _greenY;
+        private final float _blueX;
+        private final float _blueY;
+
+        Gamut(float redX, float redY, float greenX, float greenY, float blueX, float blueY)
+        {
+            _redX = redX;
+            _redY = redY;
+            _greenX = greenX;
+            _greenY = greenY;
+            _blueX = blueX;
+            _blueY = blueY;
+        }
+
+        /**
+         * Get gamut of a bulb model
+         * @param modelId model id reported by the bridge, e.g. "LCT001"
+         * @return gamut of the model. C if the model is unknown or null
+         */
+        public static Gamut forModel(String modelId)
+        {
+            if(modelId == null)
+                return C;
+            switch(modelId)
+            {
+                case "LLC001": case "LLC005": case "LLC006": case "LLC007": case "LLC010":
+                case "LLC011": case "LLC012": case "LLC013": case "LLC014": case "LST001":
+                    return A;
+                case "LCT001": case "LCT002": case "LCT003": case "LCT007": case "LLM001":
+                    return B;
+            }
+            return C;
+        }
+
+        /**
+         * Tests if the point is inside of the gamut, edges included
+         * @param x x coordinate
+         * @param y y coordinate
+         * @return true if the bulb can show the point, false otherwise
+         */
+        public boolean contains(float x, float y)
+        {
+            float toGreen = cross(_redX, _redY, _greenX, _greenY, x, y);
+            float toBlue = cross(_greenX, _greenY, _blueX, _blueY, x, y);
+            float toRed = cross(_blueX, _blueY, _redX, _redY, x, y);
+            return (toGreen >= 0 && toBlue >= 0 && toRed >= 0) || (toGreen <= 0 && toBlue <= 0 && toRed <= 0);
+        }
+
+        /**
+         * Moves the point into the gamut: a point outside is replaced with the closest point of the edges
+         * @param x x coordinate
+         * @param y y coordinate
+         * @return packed xy inside of the gamut
+         */
+        int clamp(float x, float y)
+        {
+            if(contains(x, y))
+                return pack(x, y);
+
+            float t = project(_redX, _redY, _greenX, _greenY, x, y);
+            float bestX = _redX + t * (_greenX - _redX);
+            float bestY = _redY + t * (_greenY - _redY);
+            float best = distance(bestX, bestY, x, y);
+
+            t = project(_greenX, _greenY, _blueX, _blueY, x, y);
+            float pointX = _greenX + t * (_blueX - _greenX);
+            float pointY = _greenY + t * (_blueY - _greenY);
+            float point = distance(pointX, pointY, x, y);
+            if(point < best)
+            {
+                bestX = pointX;
+                bestY = pointY;
+                best = point;
+            }
+
+            t = project(_blueX, _blueY, _redX, _redY, x, y);
+            pointX = _blueX + t * (_redX - _blueX);
+            pointY = _blueY + t * (_redY - _blueY);
+            if(distance(pointX, pointY, x, y) < best)
+            {
+                bestX = pointX;
+                bestY = pointY;
+            }
+            return pack(bestX, bestY);
+        }
+
+        /**
+         * Cross product of (b - a) and (p - a), its sign tells the side of the line ab the point p is on
+         */
+        private static float cross(float ax, float ay, float bx, float by, float px, float py)
+        {
+            return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+        }
+
+        /**
+         * Projects p onto the segment ab
+         * @return position of the closest point of the segment, 0 at a and 1 at b
+         */
+        private static float project(float ax, float ay, float bx, float by, float px, float py)
+        {
+            float dx = bx - ax;
+            float dy = by - ay;
+            float t = ((px - ax) * dx + (py - ay) * dy) / (dx * dx + dy * dy);
+            return Math.max(0, Math.min(1, t));
+        }
+
+        /**
+         * Squared distance between two points
+         */
+        private static float distance(float ax, float ay, float bx, float by)
+        {
+            return (ax - bx) * (ax - bx) + (ay - by) * (ay - by);
+        }
+    }
+
+    /******************** end of class********************************/
+}
@@ -16,13 +16,22 @@ public class Lightbulb extends HueElement
      */
     private final String _factoryName;
     /**
-     * Current trait of the lightbulb. Can't be null.
+     * Current trait of the lightbulb. Can't be null, unless the bulb is attached to a store.
      */
     private Trait        _trait;
     /**
-     * Flag that indicates current state of the lightbulb
+     * Flag that indicates current state of the lightbulb. Can't be null, unless the bulb is attached to a store.
      */
     private States      _state;
+    /**
+     * Store of the bridge that holds the bulb, null if no bridge holds it.
+     * While attached, trait and state of the bulb live in the store
+     */
+    private BulbStateStore _store;
+    /**
+     * Slot of the bulb in the store
+     */
+    private int _slot;
 
     /**
      * Synch next bulb id with the last value in data base.
@@ -93,15 +102,20 @@ public class Lightbulb extends HueElement
      */
     public States getState()
     {
+        if(_store != null)
+            return _store.state(_slot);
         return _state;
     }
 
     /**
-     * Get current trait of the bulb
+     * Get current trait of the bulb. While a bridge holds the bulb the trait is taken
+     * from the store of the bridge.
      * @return current trait of the bulb.
      */
     public Trait getTrait()
     {
+        if(_store != null)
+            return _store.trait(_slot);
         return _trait;
     }
 
@@ -113,7 +127,9 @@ public class Lightbulb extends HueElement
     public void setTrait(Trait trait)
     {
         if(trait == null)
-            _trait = Trait.Default_Trait;
+            trait = Trait.Default_Trait;
+        if(_store != null)
+            _store.setTrait(_slot, trait);
         else
             _trait = trait;
     }
@@ -127,7 +143,61 @@ public class Lightbulb extends HueElement
     {
         if(state == null)
             throw new IllegalArgumentException("Can't change current state. parameter is null");
-        _state = state;
+        if(_store != null)
+            _store.setState(_slot, state);
+        else
+            _state = state;
+    }
+
+    /**
+     * Moves trait and state of the bulb into the store of a bridge. The bulb becomes a view
+     * over the store until it is detached. A bulb is attached to at most one store at a time.
+     * @param store store of the bridge that holds the bulb
+     * @param slot slot of the bulb in the store
+     */
+    void attach(BulbStateStore store, int slot)
+    {
+        assert(store != null && slot >= 0);
+        if(_store == store && _slot == slot)
+            return;
+        detach();
+        store.write(slot, _trait, _state);
+        _store = store;
+        _slot = slot;
+        _trait = null;
+        _state = null;
+    }
+
+    /**
+     * Get slot of the bulb in the store
+     * @param store store of a bridge
+     * @return slot of the bulb, or -1 if the bulb is not attached to the store
+     */
+    int slotIn(BulbStateStore store)
+    {
+        return _store == store ? _slot : -1;
+    }
+
+    /**
+     * Get slots of the bridge that holds the bulb
+     * @return slot allocator of the bridge, or null if the bulb is not attached to a store
+     */
+    BulbSlots getBridgeSlots()
+    {
+        return _store == null ? null : _store.getSlots();
+    }
+
+    /**
+     * Moves trait and state of the bulb back from the store. Does nothing if the bulb is not attached.
+     */
+    void detach()
+    {
+        if(_store == null)
+            return;
+        _trait = _store.trait(_slot);
+        _state = _store.state(_slot);
+        _store = null;
+        repOk();
     }
 
 
@@ -137,8 +207,8 @@ public class Lightbulb extends HueElement
     private void repOk()
     {
         assert(_factoryName != null);
-        assert(_trait       != null);
-        assert(_state       != null);
+        assert(_store != null || _trait != null);
+        assert(_store != null || _state != null);
     }
 
     /**
@@ -186,7 +256,7 @@ public class Lightbulb extends HueElement
     public String toString()
     {
         String state = "UNDEFINED";
-        switch(_state)
+        switch(getState())
         {
             case ON:
                 state = "ON";
@@ -198,7 +268,7 @@ public class Lightbulb extends HueElement
                 state = "DISCONNECTED";
         }
         return "Bulb: " + _factoryName +"\n" + super.toString() +
-                "\n\nTrait: \n" + _trait.toString() + "\n State: " + state +"\n\n";
+                "\n\nTrait: \n" + getTrait().toString() + "\n State: " + state +"\n\n";
     }
 
 
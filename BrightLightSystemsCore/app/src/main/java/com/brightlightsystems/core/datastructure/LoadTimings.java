@@ -0,0 +1,78 @@
+package com.brightlightsystems.core.datastructure;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of the stages of a single startup load, see {@link DatabaseManager#loadData()}
+ * and {@link DatabaseManager#createDataBase()}.
+ * Stages are kept in the order they finished. Thread safe.
+ */
+public final class LoadTimings
+{
+    /**Total time of the load*/
+    public static final String TOTAL = "total";
+    /**Time spent reading all tables, while tables are read concurrently*/
+    public static final String READ = "read";
+    /**Time spent building the object graph from the rows that were read*/
+    public static final String LINK = "link";
+    /**Time spent loading the snapshot of the last session instead of the database*/
+    public static final String SNAPSHOT = "snapshot";
+
+    /**Duration of every stage in nanoseconds, where K is the name of the stage. Guarded by this.*/
+    private final Map<String,Long> _stages;
+
+    /**
+     * Constructs empty timings
+     */
+    LoadTimings()
+    {
+        _stages = new LinkedHashMap<>();
+    }
+
+    /**
+     * Records duration of the stage
+     * @param stage name of the stage
+     * @param nanos duration in nanoseconds
+     */
+    synchronized void record(String stage, long nanos)
+    {
+        assert(stage != null);
+        _stages.put(stage, nanos);
+    }
+
+    /**
+     * Get duration of the stage
+     * @param stage name of the stage, e.g. {@link #TOTAL}
+     * @return duration in nanoseconds, or -1 if the stage was not recorded
+     */
+    public synchronized long getNanos(String stage)
+    {
+        Long nanos = _stages.get(stage);
+        return nanos == null ? -1 : nanos;
+    }
+
+    /**
+     * Get durations of all recorded stages
+     * @return copy of durations in nanoseconds by stage name, in the order stages finished
+     */
+    public synchronized Map<String,Long> getStages()
+    {
+        return new LinkedHashMap<>(_stages);
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        for(Map.Entry<String,Long> entry : _stages.entrySet())
+        {
+            builder.append(entry.getKey()).append(": ")
+                   .append(TimeUnit.NANOSECONDS.toMicros(entry.getValue()) / 1000.0).append("ms  ");
+        }
+        return builder.append("\n").toString();
+    }
+
+    /******************** end of class********************************/
+}
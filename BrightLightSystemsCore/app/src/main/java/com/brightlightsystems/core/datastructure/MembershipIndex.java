@@ -0,0 +1,135 @@
+package com.brightlightsystems.core.datastructure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse index of the model: for every bulb id it keeps the groups that contain the bulb
+ * and the themes that have a trait for it.
+ * Groups and themes that are held by {@link DataManager} report their changes here,
+ * see Group.setIndex and Theme.setIndex, so finding everything that uses a bulb
+ * costs as much as the answer, not as much as the whole model.
+ * Parents of groups and themes are not kept here, since groups and themes already track them.
+ * Thread safe: groups of different bridges report here under different locks of the data manager.
+ */
+final class MembershipIndex
+{
+    /**Groups by bulb id*/
+    private final Map<Integer,Set<Group>> _groups;
+    /**Themes by bulb id*/
+    private final Map<Integer,Set<Theme>> _themes;
+
+    /**
+     * Constructs an empty index
+     */
+    MembershipIndex()
+    {
+        _groups = new HashMap<>();
+        _themes = new HashMap<>();
+    }
+
+    /**
+     * Records that the group contains the bulb
+     * @param bulbId id of the bulb
+     * @param group group that contains the bulb
+     */
+    synchronized void add(int bulbId, Group group)
+    {
+        add(_groups, bulbId, group);
+    }
+
+    /**
+     * Records that the group no longer contains the bulb
+     * @param bulbId id of the bulb
+     * @param group group that contained the bulb
+     */
+    synchronized void remove(int bulbId, Group group)
+    {
+        remove(_groups, bulbId, group);
+    }
+
+    /**
+     * Records that the theme has a trait for the bulb
+     * @param bulbId id of the bulb
+     * @param theme theme that uses the bulb
+     */
+    synchronized void add(int bulbId, Theme theme)
+    {
+        add(_themes, bulbId, theme);
+    }
+
+    /**
+     * Records that the theme no longer has a trait for the bulb
+     * @param bulbId id of the bulb
+     * @param theme theme that used the bulb
+     */
+    synchronized void remove(int bulbId, Theme theme)
+    {
+        remove(_themes, bulbId, theme);
+    }
+
+    /**
+     * Get groups that contain the bulb
+     * @param bulbId id of the bulb
+     * @return copy of the groups, empty if there are none
+     */
+    synchronized List<Group> groupsOf(int bulbId)
+    {
+        return copy(_groups, bulbId);
+    }
+
+    /**
+     * Get themes that have a trait for the bulb
+     * @param bulbId id of the bulb
+     * @return copy of the themes, empty if there are none
+     */
+    synchronized List<Theme> themesOf(int bulbId)
+    {
+        return copy(_themes, bulbId);
+    }
+
+    /**
+     * Removes all entries
+     */
+    synchronized void clear()
+    {
+        _groups.clear();
+        _themes.clear();
+    }
+
+    private static <T> void add(Map<Integer,Set<T>> index, int bulbId, T element)
+    {
+        Set<T> elements = index.get(bulbId);
+        if(elements == null)
+        {
+            elements = Collections.newSetFromMap(new IdentityHashMap<T,Boolean>());
+            index.put(bulbId, elements);
+        }
+        elements.add(element);
+    }
+
+    private static <T> void remove(Map<Integer,Set<T>> index, int bulbId, T element)
+    {
+        Set<T> elements = index.get(bulbId);
+        if(elements == null)
+            return;
+        elements.remove(element);
+        if(elements.isEmpty())
+            index.remove(bulbId);
+    }
+
+    private static <T> List<T> copy(Map<Integer,Set<T>> index, int bulbId)
+    {
+        Set<T> elements = index.get(bulbId);
+        if(elements == null)
+            return new ArrayList<>();
+        return new ArrayList<>(elements);
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,219 @@
+package com.brightlightsystems.core.datastructure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable copy of the whole model at a single version: bridges with their bulbs,
+ * groups and themes. The data manager publishes a new generation after the model changes,
+ * see {@link DataManager#getGeneration()}, so readers can iterate a generation without locks
+ * while writers keep changing the model.
+ * Records of a generation never change. Traits are immutable and shared with the model.
+ * Content of lazily loaded themes that are not in memory yet is not part of a generation.
+ */
+public final class ModelGeneration
+{
+    /**Version of the model this generation was taken at. Grows with every change*/
+    private final long _version;
+    /**Id of the active bridge*/
+    private final int _activeBridgeId;
+    /**Bridges by id*/
+    private final Map<Integer,BridgeRecord> _bridges;
+    /**Groups by bridge id, then by group id*/
+    private final Map<Integer,Map<Integer,GroupRecord>> _groups;
+    /**Themes by id*/
+    private final Map<Integer,ThemeRecord> _themes;
+
+    /**
+     * Copies the model. The caller must hold all locks of the model for reading
+     * @param version version of the model
+     * @param activeBridgeId id of the active bridge
+     * @param bridges bridges of the model
+     * @param groups groups of the model by bridge id
+     * @param themes themes of the model
+     */
+    ModelGeneration(long version, int activeBridgeId, Map<Integer,Bridge> bridges,
+                    Map<Integer,Map<Integer,Group>> groups, Map<Integer,Theme> themes)
+    {
+        _version = version;
+        _activeBridgeId = activeBridgeId;
+
+        Map<Integer,BridgeRecord> bridgeRecords = new LinkedHashMap<>(bridges.size());
+        for(Bridge bridge : bridges.values())
+            bridgeRecords.put(bridge.getId(), new BridgeRecord(bridge));
+        _bridges = Collections.unmodifiableMap(bridgeRecords);
+
+        Map<Integer,Map<Integer,GroupRecord>> groupRecords = new LinkedHashMap<>(groups.size());
+        for(Map.Entry<Integer,Map<Integer,Group>> entry : groups.entrySet())
+        {
+            Map<Integer,GroupRecord> records = new LinkedHashMap<>(entry.getValue().size());
+            for(Group group : entry.getValue().values())
+                records.put(group.getId(), new GroupRecord(group));
+            groupRecords.put(entry.getKey(), Collections.unmodifiableMap(records));
+        }
+        _groups = Collections.unmodifiableMap(groupRecords);
+
+        Map<Integer,ThemeRecord> themeRecords = new LinkedHashMap<>(themes.size());
+        for(Theme theme : themes.values())
+            themeRecords.put(theme.getId(), new ThemeRecord(theme));
+        _themes = Collections.unmodifiableMap(themeRecords);
+    }
+
+    /**
+     * Get version of the model this generation was taken at
+     * @return version, greater for later generations
+     */
+    public long getVersion()
+    {
+        return _version;
+    }
+
+    /**
+     * Get id of the bridge that was active
+     * @return bridge id
+     */
+    public int getActiveBridgeId()
+    {
+        return _activeBridgeId;
+    }
+
+    /**
+     * Get bridges
+     * @return unmodifiable map of bridges, where K is a bridge id
+     */
+    public Map<Integer,BridgeRecord> getBridges()
+    {
+        return _bridges;
+    }
+
+    /**
+     * Get groups of all bridges
+     * @return unmodifiable map, where K is a bridge id and V is a map of its groups by group id
+     */
+    public Map<Integer,Map<Integer,GroupRecord>> getGroups()
+    {
+        return _groups;
+    }
+
+    /**
+     * Get themes
+     * @return unmodifiable map of themes, where K is a theme id
+     */
+    public Map<Integer,ThemeRecord> getThemes()
+    {
+        return _themes;
+    }
+
+    /**
+     * Copy of a light bulb
+     */
+    public static final class BulbRecord
+    {
+        public final int _id;
+        public final String _name;
+        public final String _factoryName;
+        public final Trait _trait;
+        public final Lightbulb.States _state;
+
+        private BulbRecord(Lightbulb bulb)
+        {
+            _id = bulb.getId();
+            _name = bulb.getName();
+            _factoryName = bulb.getFactoryName();
+            _trait = bulb.getTrait();
+            _state = bulb.getState();
+        }
+    }
+
+    /**
+     * Copy of a bridge with its light bulbs
+     */
+    public static final class BridgeRecord
+    {
+        public final int _id;
+        public final String _name;
+        public final String _factoryName;
+        /**Unmodifiable map of bulbs, where K is a bulb id*/
+        public final Map<Integer,BulbRecord> _bulbs;
+
+        private BridgeRecord(Bridge bridge)
+        {
+            _id = bridge.getId();
+            _name = bridge.getName();
+            _factoryName = bridge._factoryName;
+            Map<Integer,BulbRecord> bulbs = new LinkedHashMap<>(bridge.getBulbsMap().size());
+            for(Lightbulb bulb : bridge.getBulbsCollection())
+                bulbs.put(bulb.getId(), new BulbRecord(bulb));
+            _bulbs = Collections.unmodifiableMap(bulbs);
+        }
+    }
+
+    /**
+     * Copy of a group. Bulbs and subgroups are referred to by id
+     */
+    public static final class GroupRecord
+    {
+        public final int _id;
+        public final String _name;
+        public final int _bridgeId;
+        public final boolean _favorite;
+        public final boolean _activated;
+        /**Unmodifiable list of ids of the bulbs of the group, in the order of the group*/
+        public final List<Integer> _bulbIds;
+        /**Unmodifiable list of ids of the subgroups, in the order of the group*/
+        public final List<Integer> _subgroupIds;
+
+        private GroupRecord(Group group)
+        {
+            _id = group.getId();
+            _name = group.getName();
+            _bridgeId = group.getBridgeId();
+            _favorite = group.isFavorite();
+            _activated = group.isActivated();
+            _bulbIds = Collections.unmodifiableList(new ArrayList<>(group.getBulbMap().keySet()));
+            _subgroupIds = Collections.unmodifiableList(new ArrayList<>(group.getGroupMap().keySet()));
+        }
+    }
+
+    /**
+     * Copy of a theme. Subthemes are referred to by id
+     */
+    public static final class ThemeRecord
+    {
+        public final int _id;
+        public final String _name;
+        public final boolean _activated;
+        public final boolean _favorite;
+        /**Flag that indicates that traits and subthemes are in this record*/
+        public final boolean _loaded;
+        /**Unmodifiable map of traits, where K is a bulb id. Empty if the theme was not loaded*/
+        public final Map<Integer,Trait> _traits;
+        /**Unmodifiable list of ids of the subthemes. Empty if the theme was not loaded*/
+        public final List<Integer> _subthemeIds;
+
+        private ThemeRecord(Theme theme)
+        {
+            _id = theme.getId();
+            _name = theme.getName();
+            _activated = theme.isActivated();
+            _favorite = theme.isFavorite();
+            //the content of a lazy theme is not requested, a generation must not change the model
+            _loaded = theme.isMaterialized();
+            if(_loaded)
+            {
+                _traits = Collections.unmodifiableMap(new LinkedHashMap<>(theme.getTraitMap()));
+                _subthemeIds = Collections.unmodifiableList(new ArrayList<>(theme.getThemeMap().keySet()));
+            }
+            else
+            {
+                _traits = Collections.<Integer,Trait>emptyMap();
+                _subthemeIds = Collections.<Integer>emptyList();
+            }
+        }
+    }
+
+    /******************** end of class********************************/
+}
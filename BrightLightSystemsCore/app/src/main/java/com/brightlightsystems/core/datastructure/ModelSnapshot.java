@@ -0,0 +1,427 @@
+package com.brightlightsystems.core.datastructure;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the whole in-memory model: bridges, light bulbs, groups and themes.
+ * Loading a snapshot maps the file into memory and decodes it straight into objects,
+ * which is much cheaper than querying every table of the database.
+ * Layout, all numbers are big endian:
+ * header (magic, format version, schema version, active bridge id), bridges, light bulbs,
+ * groups, group bulbs, subgroups, themes, traits, subthemes, trailer (magic).
+ * Every section starts with the amount of its records. Strings are stored as UTF-8 bytes
+ * prefixed with their length, -1 for null.
+ * Themes that were never materialized are stored without their traits and subthemes
+ * and stay lazy after loading.
+ * The snapshot is only valid while the database is not modified, so the owner has to
+ * {@link #delete()} it before the first write.
+ */
+final class ModelSnapshot
+{
+    /**Marks the beginning and the end of the file: "BLSS"*/
+    private static final int MAGIC = 0x424C5353;
+    /**Version of the layout. Has to be incremented on any change of the layout*/
+    private static final int FORMAT_VERSION = 2;
+    /**Encoding of strings*/
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**Snapshot file*/
+    private final File _file;
+    /**Version of the database schema the snapshot was taken from*/
+    private final int _schemaVersion;
+
+    /**
+     * Constructs a snapshot that is stored in the specified file
+     * @param file snapshot file
+     * @param schemaVersion version of the database schema. Snapshots of other versions are stale.
+     * @throws IllegalArgumentException if file == null
+     */
+    ModelSnapshot(File file, int schemaVersion)
+    {
+        if(file == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        _file = file;
+        _schemaVersion = schemaVersion;
+    }
+
+    /**
+     * Removes the snapshot file, so the next startup loads from the database
+     */
+    void delete()
+    {
+        if(_file.exists() && !_file.delete())
+            throw new Error("Failed to delete snapshot " + _file);
+    }
+
+    /**
+     * Writes the current content of the {@link DataManager}.
+     * The data is written into a temporary file first, which replaces the snapshot only when complete,
+     * so a crash never leaves a partial snapshot behind.
+     * @throws IOException if failed to write the file
+     */
+    void write() throws IOException
+    {
+        File temp = new File(_file.getPath() + ".tmp");
+        FileOutputStream file = new FileOutputStream(temp);
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            writeModel(out);
+            out.flush();
+            file.getFD().sync();
+        }
+        finally
+        {
+            file.close();
+        }
+
+        if(!temp.renameTo(_file))
+        {
+            temp.delete();
+            throw new IOException("Failed to replace snapshot " + _file);
+        }
+    }
+
+    /**
+     * Loads the snapshot into the {@link DataManager}.
+     * The whole file is decoded before anything is added, so the data manager is left untouched
+     * if the snapshot is missing, stale or corrupted.
+     * @param source source of the content of themes that were stored without it
+     * @return true if the snapshot was loaded, false if the data has to be loaded from the database
+     * @throws IllegalArgumentException if source == null
+     */
+    boolean load(ThemeSource source)
+    {
+        if(source == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        if(!_file.isFile())
+            return false;
+
+        ByteBuffer in;
+        try
+        {
+            FileInputStream file = new FileInputStream(_file);
+            try
+            {
+                FileChannel channel = file.getChannel();
+                in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+
+        try
+        {
+            return readModel(in, source);
+        }
+        catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e)
+        {
+            //truncated or corrupted file
+            return false;
+        }
+    }
+
+    /**
+     * Writes all sections of the snapshot
+     * @param out stream to write to
+     * @throws IOException if failed to write
+     */
+    private void writeModel(DataOutputStream out) throws IOException
+    {
+        //a single generation, so the snapshot is consistent even if the model changes meanwhile
+        ModelGeneration generation = DataManager.getInstance().getGeneration();
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(_schemaVersion);
+        out.writeInt(generation.getActiveBridgeId());
+
+        //bridges and their bulbs
+        Collection<ModelGeneration.BridgeRecord> bridges = generation.getBridges().values();
+        int bulbCount = 0;
+        out.writeInt(bridges.size());
+        for(ModelGeneration.BridgeRecord bridge : bridges)
+        {
+            out.writeInt(bridge._id);
+            writeString(out, bridge._name);
+            writeString(out, bridge._factoryName);
+            bulbCount += bridge._bulbs.size();
+        }
+        out.writeInt(bulbCount);
+        for(ModelGeneration.BridgeRecord bridge : bridges)
+        {
+            for(ModelGeneration.BulbRecord bulb : bridge._bulbs.values())
+            {
+                out.writeInt(bridge._id);
+                out.writeInt(bulb._id);
+                writeString(out, bulb._factoryName);
+                writeString(out, bulb._name);
+                out.writeInt(Lightbulb.stateToInt(bulb._state));
+                writeTrait(out, bulb._trait);
+            }
+        }
+
+        //groups of all bridges and their links
+        List<ModelGeneration.GroupRecord> groups = new ArrayList<>();
+        for(Map<Integer,ModelGeneration.GroupRecord> bridgeGroups : generation.getGroups().values())
+            groups.addAll(bridgeGroups.values());
+        out.writeInt(groups.size());
+        int bulbLinkCount = 0;
+        int subgroupLinkCount = 0;
+        for(ModelGeneration.GroupRecord group : groups)
+        {
+            out.writeInt(group._id);
+            writeString(out, group._name);
+            out.writeInt(group._bridgeId);
+            out.writeBoolean(group._favorite);
+            out.writeBoolean(group._activated);
+            bulbLinkCount += group._bulbIds.size();
+            subgroupLinkCount += group._subgroupIds.size();
+        }
+        out.writeInt(bulbLinkCount);
+        for(ModelGeneration.GroupRecord group : groups)
+        {
+            for(int bulbId : group._bulbIds)
+            {
+                out.writeInt(group._id);
+                out.writeInt(bulbId);
+            }
+        }
+        out.writeInt(subgroupLinkCount);
+        for(ModelGeneration.GroupRecord group : groups)
+        {
+            for(int subgroupId : group._subgroupIds)
+            {
+                out.writeInt(group._id);
+                out.writeInt(subgroupId);
+            }
+        }
+
+        //themes and their links
+        Collection<ModelGeneration.ThemeRecord> themes = generation.getThemes().values();
+        out.writeInt(themes.size());
+        int traitCount = 0;
+        int subthemeLinkCount = 0;
+        //content of lazy themes is not in the generation, it stays in the database
+        for(ModelGeneration.ThemeRecord theme : themes)
+        {
+            out.writeInt(theme._id);
+            writeString(out, theme._name);
+            out.writeBoolean(theme._activated);
+            out.writeBoolean(theme._favorite);
+            out.writeBoolean(theme._loaded);
+            traitCount += theme._traits.size();
+            subthemeLinkCount += theme._subthemeIds.size();
+        }
+        out.writeInt(traitCount);
+        for(ModelGeneration.ThemeRecord theme : themes)
+        {
+            for(Map.Entry<Integer,Trait> entry : theme._traits.entrySet())
+            {
+                out.writeInt(theme._id);
+                out.writeInt(entry.getKey());
+                writeTrait(out, entry.getValue());
+            }
+        }
+        out.writeInt(subthemeLinkCount);
+        for(ModelGeneration.ThemeRecord theme : themes)
+        {
+            for(int subthemeId : theme._subthemeIds)
+            {
+                out.writeInt(theme._id);
+                out.writeInt(subthemeId);
+            }
+        }
+
+        out.writeInt(MAGIC);
+    }
+
+    /**
+     * Decodes all sections of the snapshot and links them into the {@link DataManager}
+     * @param in content of the snapshot file
+     * @param source source of the content of lazy themes
+     * @return true if loaded, false if the snapshot is stale or corrupted
+     */
+    private boolean readModel(ByteBuffer in, ThemeSource source)
+    {
+        if(in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION || in.getInt() != _schemaVersion)
+            return false;
+        int activeBridgeId = in.getInt();
+
+        int count = in.getInt();
+        List<Bridge> bridges = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+            bridges.add(new Bridge(in.getInt(), readString(in), readString(in)));
+
+        count = in.getInt();
+        Map<Integer,List<Lightbulb>> bulbs = new HashMap<>();
+        for(int i = 0; i < count; i++)
+        {
+            int bridgeId = in.getInt();
+            List<Lightbulb> bridgeBulbs = bulbs.get(bridgeId);
+            if(bridgeBulbs == null)
+            {
+                bridgeBulbs = new ArrayList<>();
+                bulbs.put(bridgeId, bridgeBulbs);
+            }
+            int id = in.getInt();
+            String factoryName = readString(in);
+            String name = readString(in);
+            Lightbulb.States state = Lightbulb.intToState(in.getInt());
+            bridgeBulbs.add(new Lightbulb(id, factoryName, name, readTrait(in), state));
+        }
+
+        count = in.getInt();
+        List<Group> groups = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+            groups.add(new Group(in.getInt(), readString(in), in.getInt(), readBoolean(in), readBoolean(in)));
+        int[] groupBulbLinks = readLinks(in);
+        int[] subgroupLinks = readLinks(in);
+
+        count = in.getInt();
+        List<Theme> themes = new ArrayList<>(count);
+        List<Theme> lazy = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+        {
+            Theme theme = new Theme(in.getInt(), readString(in), readBoolean(in), readBoolean(in));
+            themes.add(theme);
+            if(!readBoolean(in))
+                lazy.add(theme);
+        }
+
+        count = in.getInt();
+        Map<Integer,Map<Integer,Trait>> traits = new HashMap<>();
+        for(int i = 0; i < count; i++)
+        {
+            int themeId = in.getInt();
+            Map<Integer,Trait> themeTraits = traits.get(themeId);
+            if(themeTraits == null)
+            {
+                themeTraits = new HashMap<>();
+                traits.put(themeId, themeTraits);
+            }
+            themeTraits.put(in.getInt(), readTrait(in));
+        }
+        int[] subthemeLinks = readLinks(in);
+
+        if(in.getInt() != MAGIC)
+            return false;
+
+        //IMPORTANT: THE ORDER OF LINKING MATTERS.
+        BridgeContract.link(bridges, activeBridgeId);
+        BulbsContract.link(bulbs);
+        GroupsContract.link(groups, groupBulbLinks, subgroupLinks);
+        ThemesContract.link(themes, traits, subthemeLinks);
+        //lazy themes have no content in the snapshot, so linking did not touch them
+        for(Theme theme : lazy)
+            theme.setSource(source);
+        DataManager.markChanged();
+        return true;
+    }
+
+    /**
+     * Writes a trait in the same form it is stored in the database
+     * @param out stream to write to
+     * @param trait trait to write
+     * @throws IOException if failed to write
+     */
+    private static void writeTrait(DataOutputStream out, Trait trait) throws IOException
+    {
+        out.writeInt(trait.getColor().getColor());
+        out.writeInt(trait.getColor().getTransparency());
+        out.writeInt(trait.getBrightness());
+    }
+
+    /**
+     * Reads a trait written by {@link #writeTrait(DataOutputStream, Trait)}
+     * @param in buffer to read from
+     * @return decoded trait
+     */
+    private static Trait readTrait(ByteBuffer in)
+    {
+        BulbColor color = BulbColor.valueOf(in.getInt(), in.getInt());
+        return Trait.valueOf(color, in.getInt());
+    }
+
+    /**
+     * Writes a string as its length followed by UTF-8 bytes
+     * @param out stream to write to
+     * @param value string to write, can be null
+     * @throws IOException if failed to write
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        if(value == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}
+     * @param in buffer to read from
+     * @return decoded string, or null
+     */
+    private static String readString(ByteBuffer in)
+    {
+        int length = in.getInt();
+        if(length < 0)
+            return null;
+        if(length > in.remaining())
+            throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Reads a boolean written by DataOutputStream
+     * @param in buffer to read from
+     * @return decoded value
+     */
+    private static boolean readBoolean(ByteBuffer in)
+    {
+        return in.get() != 0;
+    }
+
+    /**
+     * Reads a section of links in the form that contracts link them
+     * @param in buffer to read from
+     * @return flat array of (owner id, member id) pairs
+     */
+    private static int[] readLinks(ByteBuffer in)
+    {
+        int count = in.getInt();
+        if(count < 0 || count > in.remaining() / 8)
+            throw new BufferUnderflowException();
+        int[] links = new int[count * 2];
+        in.asIntBuffer().get(links);
+        in.position(in.position() + links.length * 4);
+        return links;
+    }
+
+    /******************** end of class********************************/
+}
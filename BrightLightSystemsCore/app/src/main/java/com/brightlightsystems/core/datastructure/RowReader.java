@@ -0,0 +1,46 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.Cursor;
+
+/**
+ * Decodes rows of a cursor into objects of the data structure.
+ * Subclasses resolve positions of their columns once, when the reader is created for a cursor,
+ * so reading a row does not involve any lookups by column name.
+ * @param <T> type of the object that a row is decoded into
+ */
+abstract class RowReader<T>
+{
+    /**Cursor that rows are read from. Never null*/
+    protected final Cursor _cursor;
+
+    /**
+     * Constructs a reader for the specified cursor
+     * @param cursor cursor to read rows from
+     * @throws IllegalArgumentException if cursor == null
+     */
+    protected RowReader(Cursor cursor)
+    {
+        if(cursor == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        _cursor = cursor;
+    }
+
+    /**
+     * Resolves position of the column in the cursor
+     * @param name name of the column
+     * @return position of the column
+     * @throws IllegalArgumentException if the cursor does not have such column
+     */
+    protected final int column(String name)
+    {
+        return _cursor.getColumnIndexOrThrow(name);
+    }
+
+    /**
+     * Decodes the row the cursor is currently positioned at
+     * @return decoded object, never null
+     */
+    abstract T read();
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,273 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.brightlightsystems.core.R;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the entire database into the {@link DataManager} in two stages.
+ * Read stage: every table is read into plain objects, none of them depend on each other.
+ * With write ahead logging the framework keeps a pool of read connections, so tables are read
+ * concurrently, each query on its own connection.
+ * Link stage: the object graph is built on the calling thread. Here the order matters:
+ * bridges, then light bulbs, then groups, then themes.
+ * With lazy themes only theme headers are read, traits and subthemes are left to the {@link ThemeSource}.
+ * Durations of both stages and of every table are reported as {@link LoadTimings}.
+ */
+final class StartupLoader
+{
+    /**Maximum amount of tables that are read at the same time*/
+    private static final int MAX_READERS = 4;
+
+    /**Connection to read from*/
+    private final SQLiteDatabase _db;
+    /**Context of the application to access resources*/
+    private final Context _context;
+    /**Flag that indicates that tables are read concurrently*/
+    private final boolean _parallel;
+    /**Source of the content of lazily loaded themes, null to load themes eagerly*/
+    private final ThemeSource _lazyThemes;
+
+    /**
+     * Constructs a loader
+     * @param db connection to read from
+     * @param context context of the application to access resources
+     * @param parallel true to read tables concurrently. Only useful with write ahead logging,
+     *                 otherwise the connection serializes the queries anyway.
+     * @param lazyThemes source of the content of themes to load them lazily, or null to load them eagerly
+     * @throws IllegalArgumentException when db or context == null
+     */
+    StartupLoader(SQLiteDatabase db, Context context, boolean parallel, ThemeSource lazyThemes)
+    {
+        if(db == null || context == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        _db = db;
+        _context = context;
+        _parallel = parallel;
+        _lazyThemes = lazyThemes;
+    }
+
+    /**
+     * Loads all data
+     * @return durations of the stages
+     * @throws Error if failed to read the data or was interrupted
+     */
+    LoadTimings load()
+    {
+        LoadTimings timings = new LoadTimings();
+        long start = System.nanoTime();
+
+        Resources resources = _context.getResources();
+        final String bridgeName = resources.getString(R.string.default_bridge);
+        final String bulbName = resources.getString(R.string.default_lightbulb);
+        final String groupName = resources.getString(R.string.default_group);
+        final String themeName = resources.getString(R.string.default_theme);
+
+        ExecutorService executor = _parallel ? Executors.newFixedThreadPool(MAX_READERS, new ReaderFactory()) : null;
+        try
+        {
+            Future<List<Bridge>> bridges = submit(executor, timings, "bridges", new Callable<List<Bridge>>()
+            {
+                @Override
+                public List<Bridge> call()
+                {
+                    return BridgeContract.read(_db, bridgeName);
+                }
+            });
+            Future<Integer> activeBridgeId = submit(executor, timings, "active bridge", new Callable<Integer>()
+            {
+                @Override
+                public Integer call()
+                {
+                    return BridgeContract.readActiveId(_db);
+                }
+            });
+            Future<Map<Integer,List<Lightbulb>>> bulbs = submit(executor, timings, "bulbs",
+                                                                new Callable<Map<Integer,List<Lightbulb>>>()
+            {
+                @Override
+                public Map<Integer,List<Lightbulb>> call()
+                {
+                    return BulbsContract.read(_db, bulbName);
+                }
+            });
+            Future<List<Group>> groups = submit(executor, timings, "groups", new Callable<List<Group>>()
+            {
+                @Override
+                public List<Group> call()
+                {
+                    return GroupsContract.read(_db, groupName);
+                }
+            });
+            Future<int[]> groupBulbs = submit(executor, timings, "group bulbs", new Callable<int[]>()
+            {
+                @Override
+                public int[] call()
+                {
+                    return GroupsContract.readBulbLinks(_db);
+                }
+            });
+            Future<int[]> subgroups = submit(executor, timings, "subgroups", new Callable<int[]>()
+            {
+                @Override
+                public int[] call()
+                {
+                    return GroupsContract.readSubgroupLinks(_db);
+                }
+            });
+            Future<List<Theme>> themes = submit(executor, timings, "themes", new Callable<List<Theme>>()
+            {
+                @Override
+                public List<Theme> call()
+                {
+                    return ThemesContract.read(_db, themeName);
+                }
+            });
+            Future<Map<Integer,Map<Integer,Trait>>> traits = null;
+            Future<int[]> subthemes = null;
+            if(_lazyThemes == null)
+            {
+                traits = submit(executor, timings, "traits", new Callable<Map<Integer,Map<Integer,Trait>>>()
+                {
+                    @Override
+                    public Map<Integer,Map<Integer,Trait>> call()
+                    {
+                        return TraitContract.readAll(_db);
+                    }
+                });
+                subthemes = submit(executor, timings, "subthemes", new Callable<int[]>()
+                {
+                    @Override
+                    public int[] call()
+                    {
+                        return ThemesContract.readSubthemeLinks(_db);
+                    }
+                });
+            }
+
+            //waiting for every read first, so the link stage does not include any disk access
+            List<Bridge> bridgeRows = get(bridges);
+            int activeId = get(activeBridgeId);
+            Map<Integer,List<Lightbulb>> bulbRows = get(bulbs);
+            List<Group> groupRows = get(groups);
+            int[] groupBulbLinks = get(groupBulbs);
+            int[] subgroupLinks = get(subgroups);
+            List<Theme> themeRows = get(themes);
+            Map<Integer,Map<Integer,Trait>> traitRows = (traits == null) ? null : get(traits);
+            int[] subthemeLinks = (subthemes == null) ? null : get(subthemes);
+            long readEnd = System.nanoTime();
+            timings.record(LoadTimings.READ, readEnd - start);
+
+            //IMPORTANT: THE ORDER OF LINKING MATTERS.
+            BridgeContract.link(bridgeRows, activeId);
+            BulbsContract.link(bulbRows);
+            GroupsContract.link(groupRows, groupBulbLinks, subgroupLinks);
+            if(_lazyThemes == null)
+                ThemesContract.link(themeRows, traitRows, subthemeLinks);
+            else
+                ThemesContract.linkLazy(themeRows, _lazyThemes);
+            DataManager.markChanged();
+            long end = System.nanoTime();
+            timings.record(LoadTimings.LINK, end - readEnd);
+            timings.record(LoadTimings.TOTAL, end - start);
+            return timings;
+        }
+        finally
+        {
+            if(executor != null)
+                executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts reading a table. Without an executor the table is read right away on the calling thread.
+     * @param executor executor to read on, or null to read on the calling thread
+     * @param timings timings to record duration of the read to
+     * @param stage name of the stage
+     * @param read read operation
+     * @param <T> type of the result of the read
+     * @return result of the read
+     */
+    private static <T> Future<T> submit(ExecutorService executor, final LoadTimings timings, final String stage,
+                                        final Callable<T> read)
+    {
+        Callable<T> timed = new Callable<T>()
+        {
+            @Override
+            public T call() throws Exception
+            {
+                long start = System.nanoTime();
+                T result = read.call();
+                timings.record(stage, System.nanoTime() - start);
+                return result;
+            }
+        };
+
+        if(executor != null)
+            return executor.submit(timed);
+
+        FutureTask<T> task = new FutureTask<>(timed);
+        task.run();
+        return task;
+    }
+
+    /**
+     * Waits for the result of the read
+     * @param future pending read
+     * @param <T> type of the result
+     * @return result of the read
+     * @throws Error if the read failed or the thread was interrupted
+     */
+    private static <T> T get(Future<T> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new Error("Interrupted while loading data", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error)
+                throw (Error) cause;
+            throw new Error("Failed to load data", cause);
+        }
+    }
+
+    /**
+     * Creates daemon threads for reading tables
+     */
+    private static final class ReaderFactory implements ThreadFactory
+    {
+        private final AtomicInteger _count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "StartupLoader-" + _count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,76 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of compiled statements of a single database connection.
+ * Statements are keyed by their SQL, which is a constant of the contract operation that uses it,
+ * so every operation compiles its statement once per connection.
+ * Not thread safe, the owner of the connection is responsible for synchronization.
+ */
+final class StatementCache
+{
+    /**Connection that statements are compiled for*/
+    private final SQLiteDatabase _database;
+    /**Compiled statements, where K is the SQL of the statement*/
+    private final Map<String, SQLiteStatement> _statements;
+
+    /**
+     * Constructs an empty cache for the specified connection
+     * @param database connection to compile statements for
+     * @throws IllegalArgumentException if database == null
+     */
+    StatementCache(SQLiteDatabase database)
+    {
+        if(database == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        _database = database;
+        _statements = new HashMap<>();
+    }
+
+    /**
+     * Get a compiled statement for the specified SQL. Compiles it on the first request.
+     * Bindings of a returned statement are cleared.
+     * @param sql SQL of the statement. Has to be one of the contract constants.
+     * @return compiled statement, never null
+     */
+    SQLiteStatement get(String sql)
+    {
+        assert(sql != null);
+        SQLiteStatement statement = _statements.get(sql);
+        if(statement == null)
+        {
+            statement = _database.compileStatement(sql);
+            _statements.put(sql, statement);
+        }
+        else
+            statement.clearBindings();
+        return statement;
+    }
+
+    /**
+     * Checks if the cache belongs to the specified connection
+     * @param database connection to check
+     * @return true if statements are compiled for that connection, false otherwise
+     */
+    boolean isFor(SQLiteDatabase database)
+    {
+        return _database == database;
+    }
+
+    /**
+     * Closes and removes all statements
+     */
+    void clear()
+    {
+        for(SQLiteStatement statement : _statements.values())
+            statement.close();
+        _statements.clear();
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,139 @@
+package com.brightlightsystems.core.datastructure;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Describes how SQLite stores the core database: journal mode, synchronous level, page cache size,
+ * memory mapped I/O size, and where temporary tables are kept.
+ * A profile is chosen once, when {@link DatabaseManager} is constructed, and is applied to every
+ * connection it opens.
+ */
+public final class StorageProfile
+{
+    /**
+     * Rollback journal with full sync and SQLite defaults for everything else.
+     * Readers and writers block each other.
+     */
+    public static final StorageProfile LEGACY = new StorageProfile(JournalMode.DELETE, Synchronous.FULL, 0, 0,
+                                                                   TempStore.DEFAULT);
+    /**
+     * Write ahead log, so readers don't block on the writer. Syncs on checkpoints only,
+     * which is still safe against corruption.
+     */
+    public static final StorageProfile BALANCED = new StorageProfile(JournalMode.WAL, Synchronous.NORMAL, 2048, 0,
+                                                                     TempStore.DEFAULT);
+    /**
+     * Write ahead log with a larger page cache, memory mapped reads and in-memory temporary storage.
+     * Trades memory for throughput.
+     */
+    public static final StorageProfile THROUGHPUT = new StorageProfile(JournalMode.WAL, Synchronous.NORMAL, 8192,
+                                                                       32 * 1024 * 1024, TempStore.MEMORY);
+
+    /**Journal mode of the database*/
+    public final JournalMode _journalMode;
+    /**Synchronous level of the database*/
+    public final Synchronous _synchronous;
+    /**Page cache size in KiB. 0 keeps SQLite default*/
+    public final int _cacheSizeKb;
+    /**Maximum amount of the database file in bytes that is accessed through memory mapping. 0 disables it*/
+    public final long _mmapSize;
+    /**Where temporary tables and indices are stored*/
+    public final TempStore _tempStore;
+
+    /**
+     * Constructs a storage profile
+     * @param journalMode journal mode
+     * @param synchronous synchronous level
+     * @param cacheSizeKb page cache size in KiB. 0 keeps SQLite default
+     * @param mmapSize memory mapped I/O size in bytes. 0 disables memory mapping
+     * @param tempStore storage of temporary tables
+     * @throws IllegalArgumentException if one of the parameters is null or negative
+     */
+    public StorageProfile(JournalMode journalMode, Synchronous synchronous, int cacheSizeKb, long mmapSize,
+                          TempStore tempStore)
+    {
+        if(journalMode == null || synchronous == null || tempStore == null || cacheSizeKb < 0 || mmapSize < 0)
+            throw new IllegalArgumentException("Can't create storage profile. Wrong arguments.");
+        _journalMode = journalMode;
+        _synchronous = synchronous;
+        _cacheSizeKb = cacheSizeKb;
+        _mmapSize = mmapSize;
+        _tempStore = tempStore;
+    }
+
+    /**
+     * Applies the profile to the specified connection. Has to be called before
+     * any transaction is started on the connection, e.g. from SQLiteOpenHelper.onConfigure
+     * @param db connection to configure
+     */
+    void apply(SQLiteDatabase db)
+    {
+        assert(db != null);
+        //WAL is enabled through the framework, so that it can give readers their own connections
+        if(_journalMode == JournalMode.WAL)
+            db.enableWriteAheadLogging();
+        else
+            pragma(db, "journal_mode", _journalMode.name());
+
+        pragma(db, "synchronous", _synchronous.name());
+        //negative value is a size in KiB rather than in pages
+        if(_cacheSizeKb > 0)
+            pragma(db, "cache_size", String.valueOf(-_cacheSizeKb));
+        pragma(db, "mmap_size", String.valueOf(_mmapSize));
+        pragma(db, "temp_store", _tempStore.name());
+    }
+
+    /**
+     * Sets a pragma. Some pragmas return the new value as a row,
+     * so they have to be executed as a query.
+     * @param db connection to configure
+     * @param name name of the pragma
+     * @param value new value
+     */
+    private static void pragma(SQLiteDatabase db, String name, String value)
+    {
+        Cursor cursor = db.rawQuery("PRAGMA " + name + " = " + value, null);
+        cursor.moveToFirst();
+        cursor.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "journal_mode: " + _journalMode + "  synchronous: " + _synchronous + "  cache_size: " +
+               _cacheSizeKb + "KiB  mmap_size: " + _mmapSize + "  temp_store: " + _tempStore + "\n";
+    }
+
+    /**
+     * Journal modes that are supported by the core database
+     */
+    public enum JournalMode
+    {
+        DELETE,             // rollback journal that is deleted after each transaction
+        TRUNCATE,           // rollback journal that is truncated after each transaction
+        WAL                 // write ahead log
+    }
+
+    /**
+     * Defines how often SQLite waits for the data to reach the disk
+     */
+    public enum Synchronous
+    {
+        OFF,                // never syncs, data may be lost or corrupted on power loss
+        NORMAL,             // syncs at critical moments, with WAL only on checkpoints
+        FULL                // syncs on every commit
+    }
+
+    /**
+     * Defines where temporary tables and indices are stored
+     */
+    public enum TempStore
+    {
+        DEFAULT,            // compile time default
+        FILE,               // temporary files
+        MEMORY              // memory
+    }
+
+    /******************** end of class********************************/
+}
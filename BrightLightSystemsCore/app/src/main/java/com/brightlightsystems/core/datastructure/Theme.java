@@ -1,28 +1,32 @@
 package com.brightlightsystems.core.datastructure;
 
+import com.brightlightsystems.core.utilities.definitions.IntMap;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Class describes a single theme. A theme on its very
  * basic level is a collection of traits for light bulbs.
  * A theme can also contain another themes or collection of themes and traits.
  * Currently, if a light bulb is already present in one of other themes,
- * we allow to have the same bulb in other themes. The conflict will be resolved by the bridge
- * the trait for that light bulb stored in the last theme will be applied to that bulb.
- * TODO: Do we need better solution for that?
- * TODO: Implement thread safe features
+ * we allow to have the same bulb in other themes. The conflict is resolved when the theme
+ * is compiled into a {@link ThemePlan}: the trait for that light bulb stored in the last theme
+ * will be applied to that bulb.
+ * Themes can't contain themselves at any depth, see {@link #canAddTheme(Theme)}.
+ * Not thread safe, except for the loading of the content of a lazy theme, which is guarded by the monitor
+ * of the theme. Themes of the model are changed only by the data manager under its theme lock, other threads
+ * read them under that lock or through {@link DataManager#getGeneration()}.
  * @author Micahel Gulenko
  */
 public class Theme extends HueElement
 {
-    /**
-     * Initial indicator how much elements to store in themes
-     */
-    private static final byte INIT_THEME_COUNT = 16;
-
     /**
      * Id that will be used for the next theme. IMPORTANT: value must be in sync with the database.
      * TODO: Add mechanism that validates synchronization
@@ -33,12 +37,12 @@ public class Theme extends HueElement
      * Collection of bulbs with traits.Can't be null, can't contains nulls
      * K is  an Integer id of the Lightbulb to the trait.
      */
-    private Map<Integer,Trait> _traits;
+    private IntMap<Trait> _traits;
     /**
      * Collection of themes.Can't be null, can't contains nulls.
      * K is an Integer id of the Theme
      */
-    private Map<Integer, Theme> _themes;
+    private IntMap<Theme> _themes;
     /**
      * Flag that indicates if the current theme has been selected and applied to physical bulbs.
      */
@@ -47,6 +51,33 @@ public class Theme extends HueElement
     /**Flag that indicates whether this theme belongs to favorite category or not*/
     private boolean _favorite;
 
+    /**
+     * Source of traits and subthemes of the lazily loaded theme. null once the content is in memory.
+     * Cleared only after the content is loaded, so a thread that sees null sees the whole content.
+     */
+    private volatile ThemeSource _source;
+
+    /**Flag that indicates that the content is being added by the source. Guarded by this theme*/
+    private boolean _loading;
+
+    /**
+     * Themes that contain this theme as a subtheme. Used to invalidate their cached plans
+     * when this theme changes.
+     */
+    private final Set<Theme> _parents = Collections.newSetFromMap(new IdentityHashMap<Theme,Boolean>());
+
+    /**
+     * Cached plan of this theme and all of its subthemes. null if it has to be compiled again.
+     * If a theme has no plan, all themes that contain it have no plan as well.
+     */
+    private ThemePlan _plan;
+
+    /**Flag that indicates that the plan of this theme is being compiled*/
+    private boolean _compiling;
+
+    /**Reverse index of the data manager that holds this theme. null if the theme is not held there*/
+    private MembershipIndex _index;
+
     /**
      * Synch next bulb id with the last value in data base.
      * @param id next id
@@ -69,8 +100,8 @@ public class Theme extends HueElement
     public Theme(int id, String name, boolean activated, boolean favorite)
     {
         super(id, name);
-        _traits = new LinkedHashMap<>(Bridge.INIT_BULB_COUNT);
-        _themes = new LinkedHashMap<>(INIT_THEME_COUNT);
+        _traits = new IntMap<>();
+        _themes = new IntMap<>();
         _activated = activated;
         _favorite = favorite;
         synchNextId(id);
@@ -91,14 +122,67 @@ public class Theme extends HueElement
         if(traits == null || traits.containsKey(null) || traits.containsValue(null))
             throw new IllegalArgumentException("Can't create theme due to incorrect argument");
 
-        _traits = new LinkedHashMap<>(traits);
-        _themes = new LinkedHashMap<>(INIT_THEME_COUNT);
+        _traits = new IntMap<>(traits.size());
+        _traits.putAll(traits);
+        _themes = new IntMap<>();
         _activated = activated;
         _favorite = favorite;
         synchNextId(id);
     }
 
 
+    /**
+     * Makes the theme lazy: its traits and subthemes will be requested from the source
+     * the first time they are needed.
+     * @param source source of the content
+     * @throws IllegalArgumentException if source == null
+     */
+    void setSource(ThemeSource source)
+    {
+        if(source == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        _source = source;
+    }
+
+    /**
+     * Check if traits and subthemes of the theme are in memory. A theme that is not materialized
+     * has empty content, which must not be taken for the content of the theme.
+     * @return true if the content is loaded, false if it is still to be requested from the source
+     */
+    boolean isMaterialized()
+    {
+        return _source == null;
+    }
+
+    /**
+     * Requests traits and subthemes from the source if they are not in memory yet.
+     * Called by every method that reads or modifies the content of the theme.
+     * The content is requested once: other threads wait until it is loaded, and calls made
+     * by the source while it adds the content return at once. If the source fails,
+     * the theme stays lazy and the content is requested again by the next call.
+     */
+    private void materialize()
+    {
+        if(_source == null)
+            return;
+        synchronized (this)
+        {
+            ThemeSource source = _source;
+            if(source == null || _loading)
+                return;
+            _loading = true;
+            try
+            {
+                source.materialize(this);
+                _source = null;
+            }
+            finally
+            {
+                _loading = false;
+            }
+        }
+    }
+
     /**
      * Check if current theme is activated
      * @return true if activated, false otherwise
@@ -113,6 +197,7 @@ public class Theme extends HueElement
      */
     public void activate()
     {
+        materialize();
         _activated = true;
     }
 
@@ -128,18 +213,62 @@ public class Theme extends HueElement
      * Adds specified theme to a collection of themes within the theme
      * @param theme specified theme to add.
      * @return true if the theme was successfully added
-     * @throws IllegalArgumentException if theme == null or contains nulls
+     * @throws IllegalArgumentException if theme == null, contains nulls or contains this theme,
+     * see {@link #canAddTheme(Theme)}
      */
     public boolean addTheme(Theme theme)
     {
+        materialize();
         assert(_themes != null);
-        if(!validateTheme(theme))
+        if(!validateTheme(theme) || !canAddTheme(theme))
             throw new IllegalArgumentException("Can't create theme due to incorrect argument");
 
-        _themes.put(theme.getId(), theme);
+        detach(_themes.put(theme.getId(), theme));
+        theme._parents.add(this);
+        invalidate();
         return true;
     }
 
+    /**
+     * Checks if the theme can become a subtheme of this theme. Subthemes must not contain
+     * this theme at any depth, so a theme never has to be applied as a part of itself.
+     * @param theme theme to check
+     * @return true if the theme can be added, false otherwise
+     */
+    public boolean canAddTheme(Theme theme)
+    {
+        return theme != null && theme != this && !theme.containsTheme(this);
+    }
+
+    /**
+     * Checks if the theme is a subtheme of this theme at any depth
+     * @param theme theme to look for
+     * @return true if the theme is nested in this theme, false otherwise
+     */
+    public boolean containsTheme(Theme theme)
+    {
+        Set<Theme> visited = Collections.newSetFromMap(new IdentityHashMap<Theme,Boolean>());
+        return containsTheme(theme, visited);
+    }
+
+    /**
+     * Depth first search of the theme among subthemes
+     * @param theme theme to look for
+     * @param visited themes that were already searched
+     * @return true if found, false otherwise
+     */
+    private boolean containsTheme(Theme theme, Set<Theme> visited)
+    {
+        for(Theme t : getThemeCollection())
+        {
+            if(t == theme)
+                return true;
+            if(visited.add(t) && t.containsTheme(theme, visited))
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Removes theme from the list of theme by specified id
      * @param id specified id of the theme in the collection of themes.
@@ -149,8 +278,14 @@ public class Theme extends HueElement
      */
     public boolean removeTheme(int id)
     {
+        materialize();
         assert(_themes != null);
-        return _themes.remove(id) != null;
+        Theme theme = _themes.remove(id);
+        if(theme == null)
+            return false;
+        detach(theme);
+        invalidate();
+        return true;
     }
 
     /**
@@ -161,8 +296,9 @@ public class Theme extends HueElement
      */
     public boolean removeTheme(Theme theme)
     {
+        materialize();
         assert(_themes !=null);
-        return _themes.remove(theme.getId())!= null;
+        return removeTheme(theme.getId());
     }
 
 
@@ -171,10 +307,15 @@ public class Theme extends HueElement
      */
     public void clearAll()
     {
+        materialize();
         assert(_traits != null);
         assert(_themes != null);
+        unindexTraits();
         _traits.clear();
+        for(Theme theme : _themes.values())
+            detach(theme);
         _themes.clear();
+        invalidate();
     }
 
     /**
@@ -183,6 +324,7 @@ public class Theme extends HueElement
      */
     public int themeCount()
     {
+        materialize();
         assert(_themes != null);
         return _themes.size();
     }
@@ -193,10 +335,15 @@ public class Theme extends HueElement
      */
     public Collection<Theme> getThemeCollection()
     {
+        materialize();
         return _themes.values();
     }
 
-    public Map<Integer,Theme> getThemeMap(){return _themes;}
+    public Map<Integer,Theme> getThemeMap()
+    {
+        materialize();
+        return _themes.asMap();
+    }
 
     /**
      * Stores specified trait with into this theme. If the bulb is already exists
@@ -208,11 +355,34 @@ public class Theme extends HueElement
      */
     public Trait addTrait(int bulbId, Trait trait)
     {
+        materialize();
         assert(_traits != null);
         if(trait == null)
             throw new IllegalArgumentException("Can't add trait. One or more parameters is null");
 
-        return _traits.put(bulbId, trait);
+        Trait previous = _traits.put(bulbId, trait);
+        if(_index != null)
+            _index.add(bulbId, this);
+        invalidate();
+        return previous;
+    }
+
+    /**
+     * Removes the trait of the bulb from this theme
+     * @param bulbId id of the bulb
+     * @return removed trait, or null if the theme had no trait for the bulb
+     */
+    public Trait removeTrait(int bulbId)
+    {
+        materialize();
+        assert(_traits != null);
+        Trait trait = _traits.remove(bulbId);
+        if(trait == null)
+            return null;
+        if(_index != null)
+            _index.remove(bulbId, this);
+        invalidate();
+        return trait;
     }
 
     /**
@@ -222,10 +392,13 @@ public class Theme extends HueElement
      */
     public void addTraits(Map<Integer,Trait> traits)
     {
+        materialize();
         assert(_traits != null);
         if(traits == null || traits.containsKey(null) || traits.containsValue(null))
             throw new IllegalArgumentException("Can't add trait. Parameter is null or contains nulls");
         _traits.putAll(traits);
+        indexTraits();
+        invalidate();
     }
 
     /**
@@ -234,7 +407,8 @@ public class Theme extends HueElement
      */
     public Map<Integer,Trait> getTraitMap()
     {
-        return _traits;
+        materialize();
+        return _traits.asMap();
     }
 
     /**
@@ -243,6 +417,7 @@ public class Theme extends HueElement
      */
     public int traitCount()
     {
+        materialize();
         assert(_traits != null);
         return _traits.size();
     }
@@ -253,6 +428,7 @@ public class Theme extends HueElement
      */
     public int countAllTraits()
     {
+        materialize();
         assert(_themes != null);
         int total = traitCount();
         for(Map.Entry<Integer,Theme> t: _themes.entrySet())
@@ -268,26 +444,142 @@ public class Theme extends HueElement
      */
     public void updateTraits(Map<Integer,Trait> traits)
     {
+        materialize();
         if(traits == null)
             return;
+        if(traits.containsKey(null) || traits.containsValue(null))
+            throw new IllegalArgumentException("Can't add trait. Parameter is null or contains nulls");
+        //copy first, the parameter can be the map of this theme
+        Map<Integer,Trait> copy = new LinkedHashMap<>(traits);
+        unindexTraits();
         _traits.clear();
-        addTraits(traits);
+        addTraits(copy);
     }
 
     /**
      * Updates the theme collection. If value does not exist, then it will be added into the map
      * @param themes collection of theme that is used for update. Must be LinkedHashMap
-     * @throws IllegalArgumentException if the parameter is null or contains nulls
+     * @throws IllegalArgumentException if the parameter contains nulls or themes that contain this theme
      */
     public void updateThemes(Map<Integer, Theme> themes)
     {
+        materialize();
         if(themes == null)
             return;
-        if(themes.containsKey(null)||themes.containsKey(null))
+        if(themes.containsKey(null)||themes.containsValue(null))
             throw new IllegalArgumentException("Error while updating themes");
+        for(Theme theme : themes.values())
+        {
+            if(!canAddTheme(theme))
+                throw new IllegalArgumentException("Error while updating themes");
+        }
         assert(_themes != null);
+        //copy first, the parameter can be the map of this theme
+        Map<Integer,Theme> copy = new LinkedHashMap<>(themes);
+        for(Theme theme : _themes.values())
+            detach(theme);
         _themes.clear();
-        _themes.putAll(themes);
+        _themes.putAll(copy);
+        for(Theme theme : _themes.values())
+            theme._parents.add(this);
+        invalidate();
+    }
+
+    /**
+     * Get the compiled plan of this theme: one trait per bulb, with traits of subthemes
+     * at any depth resolved by the last-writer-wins rule, see {@link ThemePlan}.
+     * The plan is cached until this theme or one of its subthemes changes, then only the
+     * changed themes and the themes that contain them are compiled again.
+     * @return plan of the theme
+     * @throws IllegalStateException if the theme contains itself
+     */
+    public ThemePlan getPlan()
+    {
+        materialize();
+        if(_plan != null)
+            return _plan;
+        if(_compiling)
+            throw new IllegalStateException("Theme " + getId() + " contains itself");
+
+        _compiling = true;
+        try
+        {
+            List<ThemePlan> subplans = new ArrayList<>(_themes.size());
+            for(Theme theme : _themes.values())
+                subplans.add(theme.getPlan());
+            _plan = ThemePlan.compile(_traits.asMap(), subplans);
+        }
+        finally
+        {
+            _compiling = false;
+        }
+        return _plan;
+    }
+
+    /**
+     * Drops the cached plan of this theme and of all themes that contain it.
+     * Stops at themes without a plan, since themes that contain them have no plan either.
+     */
+    private void invalidate()
+    {
+        if(_plan == null)
+            return;
+        _plan = null;
+        for(Theme parent : _parents)
+            parent.invalidate();
+    }
+
+    /**
+     * Get themes that contain this theme as a subtheme
+     * @return unmodifiable view of the parent themes
+     */
+    Set<Theme> getParents()
+    {
+        return Collections.unmodifiableSet(_parents);
+    }
+
+    /**
+     * Makes the theme report bulbs of its traits to the reverse index. Bulbs are moved
+     * from the previous index, if any. A lazily loaded theme reports them once it is loaded.
+     * @param index index of the data manager, or null if the theme is no longer held there
+     */
+    void setIndex(MembershipIndex index)
+    {
+        unindexTraits();
+        _index = index;
+        indexTraits();
+    }
+
+    /**
+     * Adds bulbs of all traits of this theme to the reverse index
+     */
+    private void indexTraits()
+    {
+        if(_index == null)
+            return;
+        for(Integer bulbId : _traits.keySet())
+            _index.add(bulbId, this);
+    }
+
+    /**
+     * Removes bulbs of all traits of this theme from the reverse index
+     */
+    private void unindexTraits()
+    {
+        if(_index == null)
+            return;
+        for(Integer bulbId : _traits.keySet())
+            _index.remove(bulbId, this);
+    }
+
+    /**
+     * Unlinks this theme from the subtheme that is no longer in the theme
+     * @param theme former subtheme, can be null
+     */
+    private void detach(Theme theme)
+    {
+        if(theme != null)
+            theme._parents.remove(this);
     }
 
 
@@ -300,8 +592,8 @@ public class Theme extends HueElement
     {
         if(theme == null)
             return false;
-        Map<Integer, Trait> bulbs = theme._traits;
-        if(bulbs == null || bulbs.containsKey(null) || bulbs.containsValue(null))
+        IntMap<Trait> bulbs = theme._traits;
+        if(bulbs == null || bulbs.values().contains(null))
             return false;
         return true;
     }
@@ -309,6 +601,7 @@ public class Theme extends HueElement
     @Override
     public String toString()
     {
+        materialize();
         String str = "\nTheme: " + getId() + "   Name: "+ getName() + "\n\n" +
                 "Contains following Traits: \n\n\t\t";
         for(Map.Entry<Integer, Trait> e: _traits.entrySet())
@@ -0,0 +1,168 @@
+package com.brightlightsystems.core.datastructure;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Flat, immutable result of compiling a theme together with all of its subthemes:
+ * exactly one trait per bulb, ordered by bulb id.
+ * Conflicts are resolved by the order in which a theme is applied: first its own traits,
+ * then its subthemes in the order they were added, each of them compiled the same way.
+ * The last trait for a bulb wins.
+ * Plans are built by {@link Theme#getPlan()}, which caches them.
+ */
+public final class ThemePlan
+{
+    /**Plan of a theme without traits*/
+    public static final ThemePlan EMPTY = new ThemePlan(new int[0], new Trait[0]);
+
+    /**Bulb ids in ascending order*/
+    private final int[] _bulbIds;
+    /**Traits of the bulbs, _traits[i] is applied to the bulb _bulbIds[i]*/
+    private final Trait[] _traits;
+
+    /**
+     * Constructs a plan from parallel arrays
+     * @param bulbIds bulb ids in ascending order
+     * @param traits traits of the bulbs
+     */
+    private ThemePlan(int[] bulbIds, Trait[] traits)
+    {
+        assert(bulbIds.length == traits.length);
+        _bulbIds = bulbIds;
+        _traits = traits;
+    }
+
+    /**
+     * Compiles a plan from the own traits of a theme and compiled plans of its subthemes
+     * @param traits own traits of the theme by bulb id
+     * @param subplans plans of the subthemes in the order they are applied
+     * @return compiled plan
+     */
+    static ThemePlan compile(Map<Integer,Trait> traits, List<ThemePlan> subplans)
+    {
+        assert(traits != null && subplans != null);
+        if(subplans.isEmpty() && traits.isEmpty())
+            return EMPTY;
+
+        //later puts overwrite earlier ones, which is the last-writer-wins rule
+        Map<Integer,Trait> merged = new TreeMap<>(traits);
+        for(ThemePlan plan : subplans)
+        {
+            for(int i = 0; i < plan._bulbIds.length; i++)
+                merged.put(plan._bulbIds[i], plan._traits[i]);
+        }
+
+        int[] bulbIds = new int[merged.size()];
+        Trait[] resolved = new Trait[merged.size()];
+        int i = 0;
+        for(Map.Entry<Integer,Trait> entry : merged.entrySet())
+        {
+            bulbIds[i] = entry.getKey();
+            resolved[i] = entry.getValue();
+            i++;
+        }
+        return new ThemePlan(bulbIds, resolved);
+    }
+
+    /**
+     * Get amount of bulbs affected by the plan
+     * @return bulb count
+     */
+    public int size()
+    {
+        return _bulbIds.length;
+    }
+
+    /**
+     * Get id of the i-th bulb of the plan
+     * @param i position in the plan, 0 <= i < size()
+     * @return bulb id
+     */
+    public int bulbIdAt(int i)
+    {
+        return _bulbIds[i];
+    }
+
+    /**
+     * Get trait of the i-th bulb of the plan
+     * @param i position in the plan, 0 <= i < size()
+     * @return trait to apply
+     */
+    public Trait traitAt(int i)
+    {
+        return _traits[i];
+    }
+
+    /**
+     * Get trait of the bulb
+     * @param bulbId id of the bulb
+     * @return trait to apply, or null if the plan does not affect the bulb
+     */
+    public Trait traitOf(int bulbId)
+    {
+        int lo = 0;
+        int hi = _bulbIds.length - 1;
+        while(lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if(_bulbIds[mid] < bulbId)
+                lo = mid + 1;
+            else if(_bulbIds[mid] > bulbId)
+                hi = mid - 1;
+            else
+                return _traits[mid];
+        }
+        return null;
+    }
+
+    /**
+     * Get the plan as a map
+     * @return unmodifiable map of traits by bulb id, in the order of bulb ids
+     */
+    public Map<Integer,Trait> toMap()
+    {
+        Map<Integer,Trait> map = new LinkedHashMap<>(_bulbIds.length);
+        for(int i = 0; i < _bulbIds.length; i++)
+            map.put(_bulbIds[i], _traits[i]);
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Compares the plan with the current state of the bulbs of the bridge and collects
+     * the bulbs that have to change, so the plan is applied by touching only them.
+     * A bulb has to change if it is off or its trait differs from the planned one.
+     * Bulbs of other bridges and disconnected bulbs are skipped.
+     * @param bridge bridge the plan is applied to
+     * @return updated copies of the bulbs that have to change, where K is a bulb id,
+     *         in the order of bulb ids. Empty if the bridge already matches the plan.
+     *         {@link Bridge#update(Map)} copies them into the bulbs the bridge holds
+     * @throws IllegalArgumentException if bridge == null
+     */
+    public Map<Integer,Lightbulb> changesFor(Bridge bridge)
+    {
+        if(bridge == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        Map<Integer,Lightbulb> changes = new LinkedHashMap<>();
+        //compare against the state store of the bridge, bulbs are only read if they change
+        BulbStateStore states = bridge.getStateStore();
+        for(int i = 0; i < _bulbIds.length; i++)
+        {
+            int slot = bridge.slotOf(_bulbIds[i]);
+            if(slot < 0 || states.is(slot, Lightbulb.States.DISCONNECTED))
+                continue;
+            if(states.is(slot, Lightbulb.States.ON) && states.matches(slot, _traits[i]))
+                continue;
+            Lightbulb changed = new Lightbulb(bridge.getBulb(_bulbIds[i]));
+            changed.setTrait(_traits[i]);
+            changed.setState(Lightbulb.States.ON);
+            changes.put(changed.getId(), changed);
+        }
+        return changes;
+    }
+
+    /******************** end of class********************************/
+}
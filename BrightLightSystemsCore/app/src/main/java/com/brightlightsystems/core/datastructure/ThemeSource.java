@@ -0,0 +1,16 @@
+package com.brightlightsystems.core.datastructure;
+
+/**
+ * This interface describes a source of theme content for themes that are loaded lazily.
+ * A lazily loaded theme holds only its header until its traits or subthemes
+ * are needed for the first time, then it asks its source to fill them in.
+ */
+interface ThemeSource
+{
+    /**
+     * Occurs when the content of the theme is needed for the first time.
+     * Implementation adds traits and subthemes of the theme.
+     * @param theme theme to fill in. Never null
+     */
+    public void materialize(Theme theme);
+}
@@ -1,12 +1,16 @@
 package com.brightlightsystems.core.datastructure;
 
 import android.content.ContentValues;
-import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 
-import com.brightlightsystems.core.R;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This class is a contract class for the table Themes in the database
@@ -14,75 +18,141 @@ import com.brightlightsystems.core.R;
  */
 abstract class ThemesContract
 {
+    /**Statement that links a subtheme to a theme. Parameters: theme id, subtheme id*/
+    private static final String INSERT_SUBTHEME_STATEMENT = "INSERT OR IGNORE INTO " + SubThemeEntry.TABLE_NAME + "(" +
+                                                            SubThemeEntry.COLUMN_NAME_THEME_ID + ", " +
+                                                            SubThemeEntry.COLUMN_NAME_SUBTHEME_ID + ") VALUES(?, ?)";
+
     /**Empty constructor to prevent from instantiating */
     private ThemesContract(){}
 
     /**
-     * Method loads data from the theme table
+     * Reads all themes from the theme table without adding them to the data manager.
+     * Themes are empty, their traits and subthemes are added by {@link #link(List, Map, int[])}.
+     * Does not touch shared state, so it may run concurrently with reads of other tables.
      * @param db data base to read the data from
-     * @param context context of the application to access resources
-     * @throws IllegalArgumentException when db or context == null
+     * @param defaultName name for themes that don't have a name
+     * @return all themes in the order of the table
      */
-    static void load(SQLiteDatabase db, Context context)
+    static List<Theme> read(SQLiteDatabase db, String defaultName)
     {
-        if(context == null || db == null)
-            throw new IllegalArgumentException("Incorrect parameters");
+        assert(db != null);
+        Cursor cursor = db.rawQuery("SELECT * FROM  " + ThemeEntry.TABLE_NAME, null);
+        try
+        {
+            List<Theme> themes = new ArrayList<>(cursor.getCount());
+            ThemeReader reader = new ThemeReader(cursor, defaultName);
+            while (cursor.moveToNext())
+                themes.add(reader.read());
+            return themes;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
 
+    /**
+     * Adds themes that were read from the database to the data manager without their content.
+     * Traits and subthemes of every theme are requested from the source the first time they are needed.
+     * @param themes themes to add
+     * @param source source of the content of the themes
+     */
+    static void linkLazy(List<Theme> themes, ThemeSource source)
+    {
+        assert(themes != null && source != null);
         DataManager dm = DataManager.getInstance();
-        Cursor cursor = db.rawQuery("SELECT * FROM  " + ThemeEntry.TABLE_NAME, null);
-        if (cursor .moveToFirst())
+        for(Theme theme : themes)
+        {
+            theme.setSource(source);
+            dm.addTheme(theme);
+        }
+    }
+
+    /**
+     * Loads traits and subthemes of a single lazily loaded theme.
+     * Subthemes are resolved among the themes of the data manager.
+     * @param db data base to read the data from
+     * @param theme theme to fill in
+     * @throws IllegalArgumentException when db or theme == null
+     */
+    static void materialize(SQLiteDatabase db, Theme theme)
+    {
+        if(db == null || theme == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+
+        TraitContract.load(db, theme);
+
+        Map<Integer,Theme> themes = DataManager.getInstance().getThemeMap();
+        Cursor cursor = db.rawQuery("SELECT " + SubThemeEntry.COLUMN_NAME_SUBTHEME_ID + " FROM " +
+                                    SubThemeEntry.TABLE_NAME + " WHERE " + SubThemeEntry.COLUMN_NAME_THEME_ID +
+                                    " = " + theme.getId(), null);
+        try
         {
-            Theme theme;
-            while (!cursor.isAfterLast())
+            while (cursor.moveToNext())
             {
-                int id = cursor.getInt(cursor.getColumnIndex(ThemeEntry.COLUMN_NAME_THEME_ID));
-                String name = cursor.getString(cursor.getColumnIndex(ThemeEntry.COLUMN_NAME_THEME_NAME));
-                int favorite = cursor.getInt(cursor.getColumnIndex(ThemeEntry.COLUMN_NAME_FAVORITE));
-                int activated = cursor.getInt(cursor.getColumnIndex(ThemeEntry.COLUMN_NAME_ACTIVATED));
-
-                if(name == null)
-                    name = context.getResources().getString(R.string.default_theme);
-                theme = new Theme(id,name,(activated == 1),(favorite == 1));
-
-                dm.addTheme(theme);
-                TraitContract.load(db,theme.getId());
-                cursor.moveToNext();
+                Theme subtheme = themes.get(cursor.getInt(0));
+                //a link that would make a cycle is skipped, see Theme.canAddTheme
+                if(theme.canAddTheme(subtheme))
+                    theme.addTheme(subtheme);
             }
+        }
+        finally
+        {
             cursor.close();
         }
-        processHomeEditionST(db);
-        //TODO: Add multi bridge support here:
     }
 
     /**
-     * Load all subthemes for home edition version. Because, home edition does not require multiple
-     * bridges support, the read of subthemes data and setting up data structure will differ from
-     * the corporate edition.
+     * Reads the whole themes_subthemes table ordered by theme id
      * @param db database to read the data from
+     * @return flat array of (theme id, subtheme id) pairs
+     */
+    static int[] readSubthemeLinks(SQLiteDatabase db)
+    {
+        return ContractQueries.readLinks(db, SubThemeEntry.TABLE_NAME, SubThemeEntry.COLUMN_NAME_THEME_ID,
+                                         SubThemeEntry.COLUMN_NAME_SUBTHEME_ID);
+    }
+
+    /**
+     * Adds themes that were read from the database to the data manager, then fills them with
+     * their traits and subthemes.
+     * @param themes themes to add
+     * @param traits traits by theme id, see {@link TraitContract#readAll(SQLiteDatabase)}
+     * @param subthemeLinks flat array of (theme id, subtheme id) pairs ordered by theme id
      */
-    private static void processHomeEditionST(SQLiteDatabase db)
+    static void link(List<Theme> themes, Map<Integer,Map<Integer,Trait>> traits, int[] subthemeLinks)
     {
+        assert(themes != null && traits != null && subthemeLinks != null);
         DataManager dm = DataManager.getInstance();
+        //all loaded themes by theme id
+        Map<Integer,Theme> themeMap = new HashMap<>();
+        for(Theme theme : themes)
+        {
+            themeMap.put(theme.getId(), theme);
+            dm.addTheme(theme);
+        }
 
-        for(Theme t: dm.getThemeCollection())
+        for(Map.Entry<Integer,Map<Integer,Trait>> entry : traits.entrySet())
         {
-            int id = t.getId();
-            //selecting subgroups
-            String selectSubgroupsQuery =   "SELECT " + SubThemeEntry.COLUMN_NAME_SUBTHEME_ID +
-                    " FROM "  + SubThemeEntry.TABLE_NAME +
-                    " WHERE " + SubThemeEntry.COLUMN_NAME_THEME_ID + " = " + id;
-
-            Cursor subGroupCursor = db.rawQuery(selectSubgroupsQuery, null);
-            if (subGroupCursor .moveToFirst())
+            Theme theme = themeMap.get(entry.getKey());
+            if(theme != null)
+                theme.addTraits(entry.getValue());
+        }
+
+        int currentId = -1;
+        Theme theme = null;
+        for(int i = 0; i < subthemeLinks.length; i += 2)
+        {
+            int themeId = subthemeLinks[i];
+            if(themeId != currentId)
             {
-                while(!subGroupCursor.isAfterLast())
-                {
-                    int subgroupId = subGroupCursor.getInt(subGroupCursor.getColumnIndex(SubThemeEntry.COLUMN_NAME_SUBTHEME_ID));
-                    dm.getThemeMap().put(id,dm.getThemeMap().get(subgroupId));
-                    subGroupCursor.moveToNext();
-                }
-                subGroupCursor.close();
+                currentId = themeId;
+                theme = themeMap.get(themeId);
             }
+            Theme subtheme = themeMap.get(subthemeLinks[i + 1]);
+            if(theme != null && theme.canAddTheme(subtheme))
+                theme.addTheme(subtheme);
         }
     }
 
@@ -90,12 +160,12 @@ abstract class ThemesContract
      * Method adds new theme into the database.
      * @param theme new theme to add.
      * @param db data base to read the data from
-     * @throws IllegalArgumentException when bulb or db == null
+     * @throws IllegalArgumentException when theme or db == null, or the theme is not materialized
      * @throws Error if was not able to add the entry
      */
     static void add(Theme theme, SQLiteDatabase db)
     {
-        if(theme == null || db == null)
+        if(theme == null || db == null || !theme.isMaterialized())
             throw new IllegalArgumentException("Incorrect parameters");
 
         ContentValues values = initValues(theme);
@@ -117,8 +187,6 @@ abstract class ThemesContract
                 values.clear();
             }
         }
-
-        db.close();
     }
 
     /**
@@ -135,61 +203,70 @@ abstract class ThemesContract
 
         if (db.delete(ThemeEntry.TABLE_NAME, ThemeEntry.COLUMN_NAME_THEME_ID + "=" + id, null) != 1)
             throw new Error("Failed while removing data");
+    }
 
-        db.close();
+    /**
+     * Removes a theme from all themes that contain it as a subtheme. The theme itself is kept.
+     * @param id id of the subtheme
+     * @param db database to modify
+     * @throws IllegalArgumentException if db == null
+     */
+    static void removeFromParents(int id, SQLiteDatabase db)
+    {
+        if(db == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+        db.delete(SubThemeEntry.TABLE_NAME, SubThemeEntry.COLUMN_NAME_SUBTHEME_ID + "=" + id, null);
     }
 
     /**
-     * Updates a theme in the database
+     * Updates a theme in the database. The theme row, its traits and subtheme links
+     * are written in a single transaction. Traits and subtheme links of a theme that is not
+     * materialized are left as they are, see {@link Theme#isMaterialized()}.
      * @param theme theme to update.
      * @param db database to modify
-     * @throws IllegalArgumentException when bulb or db == null
-     * @throws Error if was not able to update the entry
+     * @param statements compiled statements of the db connection
+     * @throws IllegalArgumentException when theme, db or statements == null
+     * @throws Error if was not able to update the entry. Nothing is updated in that case.
      */
-    static void update(Theme theme, SQLiteDatabase db)
+    static void update(Theme theme, SQLiteDatabase db, StatementCache statements)
     {
-        if(theme == null || db == null)
+        if(theme == null || db == null || statements == null)
             throw new IllegalArgumentException("Incorrect parameters");
+        assert(statements.isFor(db));
 
         int id = theme.getId();
-
-        //update themes table
         ContentValues values = initValues(theme);
-        if(db.update(ThemeEntry.TABLE_NAME, values, "_id = " + id, null) < 1)
-            throw new Error("Something went wrong while updating");
-
-        //update them of themes table
-
-        //First create a string of of group ids for the remove query
-        //insert new rows if needed
-        String themeIds = "(";
-        String insertStatement = "INSERT OR IGNORE INTO " + SubThemeEntry.TABLE_NAME +"(" +
-                SubThemeEntry.COLUMN_NAME_THEME_ID + ", " +
-                SubThemeEntry.COLUMN_NAME_SUBTHEME_ID +") VALUES(";
-        for(Theme t: theme.getThemeCollection())
+        SQLiteStatement insertSubtheme = statements.get(INSERT_SUBTHEME_STATEMENT);
+
+        db.beginTransaction();
+        try
         {
-            String query = insertStatement + theme.getId()+", " + t.getId() + ")";
-            db.rawQuery(query,null);
-            themeIds += (t.getId() + ",");
+            //update themes table
+            if(db.update(ThemeEntry.TABLE_NAME, values, "_id = " + id, null) < 1)
+                throw new Error("Something went wrong while updating");
+
+            //content of a lazy theme is not in memory and has not changed, the rows are kept
+            if(theme.isMaterialized())
+            {
+                TraitContract.update(theme, db, statements);
+
+                //update theme of themes table: insert new rows if needed, then remove old entries
+                insertSubtheme.bindLong(1, id);
+                for(Theme t: theme.getThemeCollection())
+                {
+                    insertSubtheme.bindLong(2, t.getId());
+                    insertSubtheme.execute();
+                }
+                db.execSQL(ContractQueries.deleteOldLinksQuery(SubThemeEntry.TABLE_NAME, SubThemeEntry.COLUMN_NAME_THEME_ID,
+                                                               SubThemeEntry.COLUMN_NAME_SUBTHEME_ID, id,
+                                                               theme.getThemeMap().keySet()));
+            }
+            db.setTransactionSuccessful();
         }
-        //remove old entries
-        themeIds = themeIds.substring(0,themeIds.length() - 1);
-        if(themeIds.isEmpty())
+        finally
         {
-            String query  = "DELETE FROM " + SubThemeEntry.TABLE_NAME +
-                    " WHERE " + SubThemeEntry.COLUMN_NAME_THEME_ID + " = " + theme.getId();
-            db.rawQuery(query, null);
-            db.close();
-            return;
+            db.endTransaction();
         }
-
-       String  query  = "DELETE FROM " + SubThemeEntry.TABLE_NAME +
-                " WHERE " + SubThemeEntry.COLUMN_NAME_THEME_ID + " = " + theme.getId()+
-                " AND " +
-                SubThemeEntry.COLUMN_NAME_SUBTHEME_ID + " NOT IN " + themeIds + ")";
-        db.rawQuery(query, null);
-
-        db.close();
     }
 
     /**
@@ -210,6 +287,42 @@ abstract class ThemesContract
         return values;
     }
 
+    /**Reader that decodes rows of the themes table into empty themes*/
+    static final class ThemeReader extends RowReader<Theme>
+    {
+        /**Name for themes that don't have a name*/
+        private final String _defaultName;
+        private final int _idColumn;
+        private final int _nameColumn;
+        private final int _favoriteColumn;
+        private final int _activatedColumn;
+
+        /**
+         * Constructs a reader and resolves column positions of the cursor
+         * @param cursor cursor over the themes table
+         * @param defaultName name for themes that don't have a name
+         */
+        ThemeReader(Cursor cursor, String defaultName)
+        {
+            super(cursor);
+            _defaultName = defaultName;
+            _idColumn        = column(ThemeEntry.COLUMN_NAME_THEME_ID);
+            _nameColumn      = column(ThemeEntry.COLUMN_NAME_THEME_NAME);
+            _favoriteColumn  = column(ThemeEntry.COLUMN_NAME_FAVORITE);
+            _activatedColumn = column(ThemeEntry.COLUMN_NAME_ACTIVATED);
+        }
+
+        @Override
+        Theme read()
+        {
+            String name = _cursor.getString(_nameColumn);
+            if(name == null)
+                name = _defaultName;
+            return new Theme(_cursor.getInt(_idColumn), name, _cursor.getInt(_activatedColumn) == 1,
+                             _cursor.getInt(_favoriteColumn) == 1);
+        }
+    }
+
     /**Inner class that defines table content*/
     abstract class ThemeEntry implements BaseColumns
     {
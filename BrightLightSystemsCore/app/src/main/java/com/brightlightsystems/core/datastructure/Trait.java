@@ -1,25 +1,34 @@
 package com.brightlightsystems.core.datastructure;
 
-import android.graphics.Color;
-
 /**
  * This class describes a single trait of a lightbulb.
  * Trait is a collection of physical characteristics such as
- * color, brightness.
+ * color, brightness. Traits are immutable values, so a trait can be shared by any amount of bulbs
+ * and themes. Use {@link #valueOf(BulbColor, int)} to share instances of equal traits.
  * Created by Michael on 10/11/2015.
  */
-public class Trait
+public final class Trait
 {
+    /**Default brightness value*/
+    public static final int Default_Brightness = 0;
+
     /**Default trait value.*/
     public static final Trait Default_Trait = new Trait();
 
-    /**Default brightness value*/
-    public static final int Default_Brightness = 0;
+    /**Size of the cache of shared instances, power of two*/
+    private static final int CACHE_SIZE = 1024;
+    /**Amount of slots a trait may take in the cache, starting from its hash. Power of two*/
+    private static final int CACHE_WAYS = 4;
+    /**
+     * Shared instances by hash of their value. A trait is looked for in CACHE_WAYS slots,
+     * so equal traits usually share an instance. Races only cost an extra instance, traits are immutable
+     */
+    private static final Trait[] CACHE = new Trait[CACHE_SIZE];
 
     /**Current color of a light bulb. Can't be null*/
-    private BulbColor _color;
+    private final BulbColor _color;
     /**Brightness of a light bulb. Can't be < 0*/
-    private int _brightness;
+    private final int _brightness;
 
 
     /**
@@ -27,9 +36,7 @@ public class Trait
      */
     public Trait()
     {
-        _color = new BulbColor();
-        _brightness = Default_Brightness;
-        assert(_color != null);
+        this(null, Default_Brightness);
     }
 
     /**
@@ -38,14 +45,7 @@ public class Trait
      */
     public Trait(BulbColor color)
     {
-        if(color == null)
-            _color = new BulbColor();
-        else
-            _color = color;
-
-        _brightness = Default_Brightness;
-        assert(color != null);
-
+        this(color, Default_Brightness);
     }
 
     /**
@@ -64,35 +64,38 @@ public class Trait
         else
             _brightness = brightness;
 
-        assert(color != null);
-    }
-
-    /**
-     * Sets a new color for the trait.
-     * @param color new color value for the  trait. If null method does nothing.
-     * @return true if color was successfully changed, false otherwise.
-     */
-    public boolean setColor(BulbColor color)
-    {
-        if(color == null)
-            return false;
-
-        _color = color;
         assert(_color != null);
-        return true;
     }
 
     /**
-     * Sets a new brightness for the trait.
-     * @param brightness new brightness value for the  trait. If < 0 method does nothing.
-     * @return true if color was successfully changed, false otherwise.
+     * Get a shared trait with specified color and brightness, see {@link #Trait(BulbColor, int)}
+     * @param color color value for the trait. If null trait will have default color value
+     * @param brightness brightness value for the trait. If < 0 trait will have default brightness value
+     * @return trait, possibly shared with other callers
      */
-    public boolean setBrightness(int brightness)
+    public static Trait valueOf(BulbColor color, int brightness)
     {
+        int argb = (color == null) ? Default_Trait._color.getColor() : color.getColor();
         if(brightness < 0)
-            return false;
-        _brightness = brightness;
-        return true;
+            brightness = Default_Brightness;
+
+        int hash = ((argb * 31 + brightness) * 0x9E3779B9) >>> 22;
+        int free = -1;
+        for(int i = 0; i < CACHE_WAYS; i++)
+        {
+            int slot = (hash + i) & (CACHE_SIZE - 1);
+            Trait trait = CACHE[slot];
+            if(trait == null)
+                free = (free < 0) ? slot : free;
+            else if(trait._brightness == brightness && trait._color.getColor() == argb)
+                return trait;
+        }
+        //all slots are taken: replace one of them, chosen by the value
+        if(free < 0)
+            free = (hash + (brightness & (CACHE_WAYS - 1))) & (CACHE_SIZE - 1);
+        Trait trait = new Trait(BulbColor.fromArgb(argb), brightness);
+        CACHE[free] = trait;
+        return trait;
     }
 
     /**
@@ -114,6 +117,23 @@ public class Trait
         return _brightness;
     }
 
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o)
+            return true;
+        if(!(o instanceof Trait))
+            return false;
+        Trait trait = (Trait) o;
+        return _brightness == trait._brightness && _color.equals(trait._color);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return _color.hashCode() * 31 + _brightness;
+    }
+
     @Override
     public String toString()
     {
@@ -3,9 +3,10 @@ package com.brightlightsystems.core.datastructure;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -14,43 +15,80 @@ import java.util.Map;
  */
 abstract class TraitContract
 {
+    /**Statement that stores a trait. Parameters: theme id, bulb id, color, brightness, transparency*/
+    private static final String INSERT_TRAIT_STATEMENT = "INSERT OR REPLACE INTO " + TraitsEntry.TABLE_NAME + "(" +
+                                                         TraitsEntry.COLUMN_NAME_THEME_ID           + ", " +
+                                                         TraitsEntry.COLUMN_NAME_BULB_ID            + ", " +
+                                                         TraitsEntry.COLUMN_NAME_BULB_COLOR         + ", " +
+                                                         TraitsEntry.COLUMN_NAME_BULB_BRIGHTNESS    + ", " +
+                                                         TraitsEntry.COLUMN_NAME_COLOR_TRANSPARENCY + ") VALUES(?, ?, ?, ?, ?)";
+
     /**Empty constructor to prevent from instantiating */
     private TraitContract(){}
 
     /**
-     * Method loads data from the traits table
+     * Method loads traits of a single theme from the traits table
      * @param db data base to read the data from
-     * @param themeId theme id that is used to load appropriate traits
-     * @throws IllegalArgumentException when db or context == null
+     * @param theme theme to load traits of
+     * @throws IllegalArgumentException when db or theme == null
      */
-    static void load(SQLiteDatabase db, int themeId)
+    static void load(SQLiteDatabase db, Theme theme)
     {
-        if(db == null)
+        if(db == null || theme == null)
             throw new IllegalArgumentException("Incorrect parameters");
 
-        DataManager dm = DataManager.getInstance();
-
         Cursor cursor = db.rawQuery("SELECT * FROM  " + TraitsEntry.TABLE_NAME  + " WHERE " +
-                                    TraitsEntry.COLUMN_NAME_THEME_ID +" = " + themeId, null);
-        if (cursor .moveToFirst())
+                                    TraitsEntry.COLUMN_NAME_THEME_ID +" = " + theme.getId(), null);
+        try
+        {
+            TraitReader reader = new TraitReader(cursor);
+            while (cursor.moveToNext())
+                theme.addTrait(reader.bulbId(), reader.read());
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Method reads traits of all themes. Reads the whole traits table once, ordered by theme id,
+     * so the trait map is looked up once per theme rather than once per row.
+     * Does not touch shared state, so it may run concurrently with reads of other tables.
+     * @param db data base to read the data from
+     * @return traits by theme id, where traits of a theme are keyed by bulb id
+     * @throws IllegalArgumentException when db == null
+     */
+    static Map<Integer,Map<Integer,Trait>> readAll(SQLiteDatabase db)
+    {
+        if(db == null)
+            throw new IllegalArgumentException("Incorrect parameters");
+
+        Map<Integer,Map<Integer,Trait>> traits = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT * FROM  " + TraitsEntry.TABLE_NAME  + " ORDER BY " +
+                                    TraitsEntry.COLUMN_NAME_THEME_ID, null);
+        try
         {
-            Map<Integer,Trait> traits = new LinkedHashMap<>();
-            while (!cursor.isAfterLast())
+            TraitReader reader = new TraitReader(cursor);
+            int currentId = -1;
+            Map<Integer,Trait> themeTraits = null;
+            while (cursor.moveToNext())
             {
-                int bulbId = cursor.getInt(cursor.getColumnIndex(TraitsEntry.COLUMN_NAME_BULB_ID));
-                int color  = cursor.getInt(cursor.getColumnIndex(TraitsEntry.COLUMN_NAME_BULB_COLOR));
-                int brightness  = cursor.getInt(cursor.getColumnIndex(TraitsEntry.COLUMN_NAME_BULB_BRIGHTNESS));
-                int transparency  = cursor.getInt(cursor.getColumnIndex(TraitsEntry.COLUMN_NAME_COLOR_TRANSPARENCY));
-
-                BulbColor bulbColor = new BulbColor(color,transparency);
-                Trait trait = new Trait(bulbColor,brightness);
-                traits.put(bulbId, trait);
-                dm.getThemeMap().get(themeId).addTraits(traits);
-                cursor.moveToNext();
+                int themeId = reader.themeId();
+                if(themeId != currentId)
+                {
+                    currentId = themeId;
+                    themeTraits = new HashMap<>();
+                    traits.put(themeId, themeTraits);
+                }
+                themeTraits.put(reader.bulbId(), reader.read());
             }
+        }
+        finally
+        {
             cursor.close();
         }
-
+        return traits;
     }
 
     /**
@@ -103,46 +141,96 @@ abstract class TraitContract
     }
 
     /**
-     * Updates a theme in the database
-     * @param theme theme which traits are need to be update.
+     * Updates traits of a theme in the database in a single transaction.
+     * Traits that are not in the theme anymore are removed.
+     * @param theme theme which traits are need to be update. Must be materialized, the traits
+     *              of a lazy theme are not in memory yet
      * @param db database to modify
-     * @throws IllegalArgumentException when bulb or db == null
+     * @param statements compiled statements of the db connection
+     * @throws IllegalArgumentException when theme, db or statements == null, or the theme is not materialized
      * @throws Error if was not able to update the entry
      */
-    void update(Theme theme, SQLiteDatabase db)
+    static void update(Theme theme, SQLiteDatabase db, StatementCache statements)
     {
-        if( db == null)
+        if(theme == null || db == null || statements == null || !theme.isMaterialized())
             throw new IllegalArgumentException("Incorrect parameters");
+        assert(statements.isFor(db));
 
         Map<Integer,Trait> traits = theme.getTraitMap();
         assert(traits != null);
-        String bulbIds = "(";
-        String insertStatement = "INSERT OR REPLACE INTO " + TraitsEntry.TABLE_NAME + "(" +
-                                 TraitsEntry.COLUMN_NAME_THEME_ID           + ", " +
-                                 TraitsEntry.COLUMN_NAME_BULB_ID            + ", " +
-                                 TraitsEntry.COLUMN_NAME_BULB_COLOR         + ", " +
-                                 TraitsEntry.COLUMN_NAME_BULB_BRIGHTNESS    + ", " +
-                                 TraitsEntry.COLUMN_NAME_COLOR_TRANSPARENCY + ") VALUES(";
-
-        for(Map.Entry<Integer,Trait> e: traits.entrySet())
+        SQLiteStatement insertTrait = statements.get(INSERT_TRAIT_STATEMENT);
+
+        db.beginTransaction();
+        try
         {
-            String query = insertStatement + theme.getId() + ", " +
-                             e.getKey() + ", " + e.getValue().getColor().getColor() + ", "+
-                             e.getValue().getBrightness() + ", " +
-                             e.getValue().getColor().getTransparency() + ")";
+            insertTrait.bindLong(1, theme.getId());
+            for(Map.Entry<Integer,Trait> e: traits.entrySet())
+            {
+                insertTrait.bindLong(2, e.getKey());
+                insertTrait.bindLong(3, e.getValue().getColor().getColor());
+                insertTrait.bindLong(4, e.getValue().getBrightness());
+                insertTrait.bindLong(5, e.getValue().getColor().getTransparency());
+                insertTrait.execute();
+            }
 
-            db.rawQuery(query,null);
-            bulbIds += (e.getKey() + ",");
+            //remove old entries
+            db.execSQL(ContractQueries.deleteOldLinksQuery(TraitsEntry.TABLE_NAME, TraitsEntry.COLUMN_NAME_THEME_ID,
+                                                           TraitsEntry.COLUMN_NAME_BULB_ID, theme.getId(), traits.keySet()));
+            db.setTransactionSuccessful();
         }
+        finally
+        {
+            db.endTransaction();
+        }
+    }
 
+    /**Reader that decodes rows of the traits table into traits*/
+    static final class TraitReader extends RowReader<Trait>
+    {
+        private final int _themeIdColumn;
+        private final int _bulbIdColumn;
+        private final int _colorColumn;
+        private final int _brightnessColumn;
+        private final int _transparencyColumn;
+
+        /**
+         * Constructs a reader and resolves column positions of the cursor
+         * @param cursor cursor over the traits table
+         */
+        TraitReader(Cursor cursor)
+        {
+            super(cursor);
+            _themeIdColumn      = column(TraitsEntry.COLUMN_NAME_THEME_ID);
+            _bulbIdColumn       = column(TraitsEntry.COLUMN_NAME_BULB_ID);
+            _colorColumn        = column(TraitsEntry.COLUMN_NAME_BULB_COLOR);
+            _brightnessColumn   = column(TraitsEntry.COLUMN_NAME_BULB_BRIGHTNESS);
+            _transparencyColumn = column(TraitsEntry.COLUMN_NAME_COLOR_TRANSPARENCY);
+        }
 
-        //remove old entries
-        bulbIds = bulbIds.substring(0,bulbIds.length() - 1);
-        String  query  = "DELETE FROM " + TraitsEntry.TABLE_NAME +
-                " WHERE " + TraitsEntry.COLUMN_NAME_THEME_ID + " = " + theme.getId()+
-                " AND " +
-                TraitsEntry.COLUMN_NAME_BULB_ID + " NOT IN " + bulbIds + ")";
-        db.rawQuery(query, null);
+        @Override
+        Trait read()
+        {
+            BulbColor color = BulbColor.valueOf(_cursor.getInt(_colorColumn), _cursor.getInt(_transparencyColumn));
+            return Trait.valueOf(color, _cursor.getInt(_brightnessColumn));
+        }
+
+        /**
+         * Get id of the theme the trait in the current row belongs to
+         * @return theme id
+         */
+        int themeId()
+        {
+            return _cursor.getInt(_themeIdColumn);
+        }
+
+        /**
+         * Get id of the bulb the trait in the current row is assigned to
+         * @return bulb id
+         */
+        int bulbId()
+        {
+            return _cursor.getInt(_bulbIdColumn);
+        }
     }
 
     /**Inner class that defines table content*/
@@ -0,0 +1,238 @@
+package com.brightlightsystems.core.utilities.definitions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MultiMap that also keeps the reverse index from every value to the set of keys it is associated with.
+ * Both indexes are updated on every modification, so {@link #getKeys(Object)} and
+ * {@link #dissociateAll(Object)} cost time proportional to the number of keys of the value
+ * instead of the size of the whole map, at the price of the second index.
+ * Sets returned by this class are unmodifiable, all changes have to go through its methods.
+ * K - the type of keys. Can be mapped to multiple values.
+ * V - the type of associated values.
+ * Not thread safe, like MultiMap: a change updates both indexes in several steps, so a map shared
+ * by threads needs external synchronization of all calls, reads included.
+ */
+@SuppressWarnings( {"unused"})
+public class BiMultiMap<K,V> extends MultiMap<K,V>
+{
+    /**
+     * Reverse index, where K is a value and V is a set of keys associated with it.
+     * Never null. Never contains empty sets.
+     */
+    private final Map<V,Set<K>> _reverse;
+
+    public BiMultiMap()
+    {
+        super();
+        _reverse = new LinkedHashMap<>();
+    }
+
+    @Override
+    public void clear()
+    {
+        super.clear();
+        _reverse.clear();
+    }
+
+    /**
+     * Tests if the value is associated with any key
+     * @param v - value presence of which is to be tested
+     * @return - true if at least one key is associated with the value. false otherwise.
+     */
+    public boolean containsValue(V v)
+    {
+        return _reverse.containsKey(v);
+    }
+
+    @Override
+    public Set<Map.Entry<K,Set<V>>> entrySet()
+    {
+        Map<K,Set<V>> view = new LinkedHashMap<>(_map.size());
+        for(Map.Entry<K,Set<V>> e : _map.entrySet())
+            view.put(e.getKey(), Collections.unmodifiableSet(e.getValue()));
+        return Collections.unmodifiableMap(view).entrySet();
+    }
+
+    /**
+     * Get a set that is mapped to specified key
+     * @param k - key which mapped set is to be returned.
+     * @return - unmodifiable set of values that are associated to the specified key,
+     *           or null if there is no mapping.
+     */
+    @Override
+    public Set<V> get(K k)
+    {
+        Set<V> values = _map.get(k);
+        if(values == null)
+            return null;
+        return Collections.unmodifiableSet(values);
+    }
+
+    /**
+     * Get a set of keys that specified value is associated with.
+     * @param v - value that is used to get a set of keys
+     * @return - unmodifiable set of keys with the size of > 0, or null if specified value
+     *           is not associated with any keys in the map.
+     */
+    @Override
+    public Set<K> getKeys(V v)
+    {
+        Set<K> keys = _reverse.get(v);
+        if(keys == null)
+            return null;
+        return Collections.unmodifiableSet(keys);
+    }
+
+    /**
+     * Get a Set representation of all values containing in the map
+     * @return - unmodifiable set of values that are associated with at least one key. Never null.
+     */
+    public Set<V> valueSet()
+    {
+        return Collections.unmodifiableSet(_reverse.keySet());
+    }
+
+    @Override
+    public Set<K> keySet()
+    {
+        if(_map.isEmpty())
+            return null;
+        return Collections.unmodifiableSet(_map.keySet());
+    }
+
+    @Override
+    public void put(K k, V v)
+    {
+        Set<V> values = _map.get(k);
+        if(values == null)
+        {
+            values = new HashSet<>();
+            _map.put(k, values);
+        }
+        if(values.add(v))
+            link(v, k);
+    }
+
+    /**
+     * Maps specified set of values with specified key. If the specified key already has
+     * mapped set, then method will combine those 2 sets removing duplicated values.
+     * Unlike MultiMap, the set is copied, so later changes of the set do not affect the map.
+     *
+     * @param k - key with which the specified set is to be associated with.
+     * @param values - values that needs to be associated with specified key.
+     * @throws IllegalArgumentException if set is null.
+     */
+    @Override
+    public void put(K k, Set<V> values)
+    {
+        if(values == null)
+            throw new IllegalArgumentException("Value can't be null");
+        if(!_map.containsKey(k))
+            _map.put(k, new HashSet<V>(values.size()));
+        for(V v : values)
+            put(k, v);
+    }
+
+    /**
+     * Replaces mapped Set of the specified key with a new set.
+     * If there were no previous mapping, method creates new entry. The set is copied.
+     * @param k - key which mapped value is to be replaced.
+     * @param v - Set that is to replace current mapped value.
+     * @return - replaced value, or null if there were no mapping.
+     * @throws   IllegalArgumentException if k == null, or v == null.
+     */
+    @Override
+    public Set<V> replace(K k, Set<V> v)
+    {
+        if(k == null || v == null)
+            throw new IllegalArgumentException();
+        Set<V> replaced = removeAll(k);
+        put(k, v);
+        return replaced;
+    }
+
+    @Override
+    public Set<V> removeAll(K k)
+    {
+        Set<V> values = _map.remove(k);
+        if(values == null)
+            return null;
+        for(V v : values)
+            unlink(v, k);
+        return values;
+    }
+
+    @Override
+    public boolean remove(K k, V v)
+    {
+        assert(_map.get(k) != null);
+        if(!_map.get(k).remove(v))
+            return false;
+        unlink(v, k);
+        return true;
+    }
+
+    @Override
+    public MultiMap<V,K> dissociateAll(V v)
+    {
+        Set<K> keys = _reverse.remove(v);
+        if(keys == null)
+            return null;
+        for(K k : keys)
+            _map.get(k).remove(v);
+        MultiMap<V,K> map = new MultiMap<>();
+        map.put(v, keys);
+        return map;
+    }
+
+    @Override
+    public Collection<Set<V>> values()
+    {
+        if(_map.isEmpty())
+            return null;
+        Collection<Set<V>> values = new ArrayList<>(_map.size());
+        for(Set<V> set : _map.values())
+            values.add(Collections.unmodifiableSet(set));
+        return Collections.unmodifiableCollection(values);
+    }
+
+    /**
+     * Records the association in the reverse index
+     * @param v - associated value
+     * @param k - key of the association
+     */
+    private void link(V v, K k)
+    {
+        Set<K> keys = _reverse.get(v);
+        if(keys == null)
+        {
+            keys = new HashSet<>();
+            _reverse.put(v, keys);
+        }
+        keys.add(k);
+    }
+
+    /**
+     * Removes the association from the reverse index
+     * @param v - associated value
+     * @param k - key of the association
+     */
+    private void unlink(V v, K k)
+    {
+        Set<K> keys = _reverse.get(v);
+        if(keys == null)
+            return;
+        keys.remove(k);
+        if(keys.isEmpty())
+            _reverse.remove(v);
+    }
+
+    /******************** end of class********************************/
+}
@@ -23,6 +23,20 @@ import java.util.Map;
  */
 public abstract class DataStructureHelper
 {
+    /**
+     * Waits until posted notifications reach every listener, including the ones on IO lane.
+     */
+    private static void awaitDelivery()
+    {
+        try
+        {
+            Publisher.flush();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
 
     public static void BulbTest(DatabaseManager databaseManager)
     {
@@ -31,6 +45,7 @@ public abstract class DataStructureHelper
         Lightbulb bulb = new Lightbulb(Lightbulb.getNextBulbId(),"FACTORYNAME_OMG", "Mablawa", trait,Lightbulb.States.OFF);
         Publisher.postBulbNotification(new BulbMessage(BulbMessage.MSG_ADD_BULB, bulb));
         printBulbs("DataStructure", "ADDED LIGHT BULB\n");
+        awaitDelivery();
         databaseManager.loadData();
         printBulbs("Database", "ADDED LIGHT BULB\n");
 
@@ -38,12 +53,14 @@ public abstract class DataStructureHelper
         bulb.setState(Lightbulb.States.ON);
         Publisher.postBulbNotification(new BulbMessage(BulbMessage.MSG_UPDATE_SINGLE_BULB,bulb));
         printBulbs("DataStructure", "UPDATE LIGHT BULB\n");
+        awaitDelivery();
         databaseManager.loadData();
         printBulbs("Database", "UPDATE LIGHT BULB\n");
 
         //remove bulb
         Publisher.postBulbNotification(new BulbMessage(BulbMessage.MSG_REMOVE_BULB, bulb));
         printBulbs("DataStructure", "REMOVED LIGHT BULB\n");
+        awaitDelivery();
         databaseManager.loadData();
         printBulbs("Database", "REMOVED LIGHT BULB\n");
 
@@ -79,6 +96,7 @@ public abstract class DataStructureHelper
         Publisher.postGroupNotification(new GroupMessage(GroupMessage.MSG_ADD_GROUP, group));
 
         printGroups("DataStructure", "ADDED GROUP\n");
+        awaitDelivery();
         databaseManager.loadData();
         printGroups("Database", "ADDED GROUP\n");
 
@@ -87,12 +105,14 @@ public abstract class DataStructureHelper
         group.deactivate();
         Publisher.postGroupNotification(new GroupMessage(GroupMessage.MSG_UPDATE_GROUP, group));
         printGroups("DataStructure", "UPDATE GROUP\n");
+        awaitDelivery();
         databaseManager.loadData();
         printGroups("Database", "UPDATE GROUP\n");
 
         //remove bulb
         Publisher.postGroupNotification(new GroupMessage(GroupMessage.MSG_REMOVE_GROUP, group));
         printGroups("DataStructure", "REMOVED GROUP\n");
+        awaitDelivery();
         databaseManager.loadData();
         printGroups("Database", "REMOVED GROUP\n");
     }
@@ -126,6 +146,7 @@ public abstract class DataStructureHelper
         Publisher.postThemeNotification(new ThemeMessage(ThemeMessage.MSG_ADD_THEME, theme));
 
         printThemes("DataStructure", "ADDED THEME\n");
+        awaitDelivery();
         databaseManager.loadData();
         printGroups("Database", "ADDED GROUP\n");
 
@@ -133,12 +154,14 @@ public abstract class DataStructureHelper
         theme.removeTheme(1);
         Publisher.postThemeNotification(new ThemeMessage(ThemeMessage.MSG_UPDATE_SINGLE_THEME,theme));
         printThemes("DataStructure", "UPDATE THEME\n");
+        awaitDelivery();
         databaseManager.loadData();
         printThemes("Database", "UPDATE THEME\n");
 
         //remove bulb
         Publisher.postThemeNotification(new ThemeMessage(ThemeMessage.MSG_REMOVE_THEME, theme));
         printThemes("DataStructure", "REMOVED THEME\n");
+        awaitDelivery();
         databaseManager.loadData();
         printThemes("Database", "REMOVED THEME\n");
     }
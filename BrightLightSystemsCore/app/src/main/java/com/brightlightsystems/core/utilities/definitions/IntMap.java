@@ -0,0 +1,526 @@
+package com.brightlightsystems.core.utilities.definitions;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map from int keys to objects that keeps the order of insertion, like LinkedHashMap,
+ * without boxing the keys and without an entry object per mapping.
+ * Keys and values are stored in two parallel arrays in the order of insertion,
+ * an open addressing hash table with linear probing holds positions in these arrays.
+ * A removed mapping leaves a hole in the arrays until the map grows or is compacted.
+ * Arrays are allocated on the first insertion, so an empty map costs a few bytes.
+ * {@link #asMap()} is a Map view for code that needs the Map interface, changes in either of them
+ * are visible in the other. Iterators of the view are fail-fast.
+ * V - the type of values.
+ * Not thread safe. Groups and themes keep their maps in it and the data manager guards them
+ * with its locks; any other shared use needs external synchronization.
+ */
+@SuppressWarnings( {"unused"})
+public class IntMap<V>
+{
+    /**Capacity of a map that is created without one*/
+    private static final int DEFAULT_CAPACITY = 8;
+    /**Value of a removed mapping in _values*/
+    private static final Object REMOVED = new Object();
+    /**Arrays of a map without allocated arrays. Never written, a map allocates its own before an insertion*/
+    private static final int[] EMPTY_KEYS = new int[0];
+    private static final Object[] EMPTY_VALUES = new Object[0];
+    private static final int[] EMPTY_TABLE = new int[1];
+
+    /**Keys in the order of insertion*/
+    private int[] _keys;
+    /**Values in the order of insertion, REMOVED for removed mappings*/
+    private Object[] _values;
+    /**Hash table: position of a mapping in _keys + 1, 0 for an empty slot. Length is a power of two*/
+    private int[] _table;
+    /**Next free position in _keys and _values*/
+    private int _end;
+    /**Amount of mappings*/
+    private int _size;
+    /**Amount of structural modifications, for fail-fast iterators*/
+    private int _modCount;
+    /**Capacity of the first allocated arrays*/
+    private final int _initialCapacity;
+    /**Map view, created on the first request*/
+    private Map<Integer,V> _view;
+
+    /**
+     * Constructs an empty map
+     */
+    public IntMap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty map
+     * @param capacity amount of mappings the map can hold without growing
+     */
+    public IntMap(int capacity)
+    {
+        _initialCapacity = Math.max(capacity, 1);
+        _keys = EMPTY_KEYS;
+        _values = EMPTY_VALUES;
+        _table = EMPTY_TABLE;
+    }
+
+    /**
+     * Get amount of mappings
+     * @return amount of mappings
+     */
+    public int size()
+    {
+        return _size;
+    }
+
+    /**
+     * Tests if map contains any mappings.
+     * @return true if the map is empty, false otherwise
+     */
+    public boolean isEmpty()
+    {
+        return _size == 0;
+    }
+
+    /**
+     * Tests if the map contains specified key
+     * @param key key to look for
+     * @return true if the key is mapped, false otherwise
+     */
+    public boolean containsKey(int key)
+    {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Get a value mapped to the key
+     * @param key key to look for
+     * @return mapped value, or null if there is no mapping
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key)
+    {
+        int slot = find(key);
+        if(slot < 0)
+            return null;
+        return (V) _values[_table[slot] - 1];
+    }
+
+    /**
+     * Maps the value to the key. A new key is added at the end of the order,
+     * an existing key keeps its place.
+     * @param key key to map
+     * @param value value to map
+     * @return previous value, or null if there was no mapping
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value)
+    {
+        int slot = find(key);
+        if(slot >= 0)
+        {
+            int position = _table[slot] - 1;
+            V previous = (V) _values[position];
+            _values[position] = value;
+            return previous;
+        }
+        if(_end == _keys.length)
+        {
+            allocate(Math.max(_size * 2, _initialCapacity));
+            slot = find(key);
+        }
+        int position = _end++;
+        _keys[position] = key;
+        _values[position] = value;
+        _table[~slot] = position + 1;
+        _size++;
+        _modCount++;
+        return null;
+    }
+
+    /**
+     * Copies all mappings of the specified map into this map
+     * @param map mappings to copy
+     * @throws IllegalArgumentException if map is null or contains null keys
+     */
+    public void putAll(Map<Integer,? extends V> map)
+    {
+        if(map == null || map.containsKey(null))
+            throw new IllegalArgumentException("Incorrect parameters");
+        for(Map.Entry<Integer,? extends V> e : map.entrySet())
+            put(e.getKey(), e.getValue());
+    }
+
+    /**
+     * Removes the mapping of the key
+     * @param key key to remove
+     * @return removed value, or null if there was no mapping
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key)
+    {
+        int slot = find(key);
+        if(slot < 0)
+            return null;
+        int position = _table[slot] - 1;
+        V value = (V) _values[position];
+        _values[position] = REMOVED;
+        deleteSlot(slot);
+        _size--;
+        _modCount++;
+        if(_size == 0)
+            _end = 0;
+        return value;
+    }
+
+    /**
+     * Removes all mappings
+     */
+    public void clear()
+    {
+        if(_end == 0)
+            return;
+        Arrays.fill(_values, 0, _end, null);
+        Arrays.fill(_table, 0);
+        _end = 0;
+        _size = 0;
+        _modCount++;
+    }
+
+    /**
+     * Get keys in the order of insertion
+     * @return new array of keys
+     */
+    public int[] keys()
+    {
+        int[] keys = new int[_size];
+        int i = 0;
+        for(int position = 0; position < _end; position++)
+        {
+            if(_values[position] != REMOVED)
+                keys[i++] = _keys[position];
+        }
+        return keys;
+    }
+
+    /**
+     * Get a Set representation of all keys containing in the map, see {@link #asMap()}
+     * @return set of keys in the order of insertion
+     */
+    public Set<Integer> keySet()
+    {
+        return asMap().keySet();
+    }
+
+    /**
+     * Get a Collection representation of values, see {@link #asMap()}
+     * @return values in the order of insertion
+     */
+    public Collection<V> values()
+    {
+        return asMap().values();
+    }
+
+    /**
+     * Get a Set representation of the mappings, see {@link #asMap()}
+     * @return mappings in the order of insertion
+     */
+    public Set<Map.Entry<Integer,V>> entrySet()
+    {
+        return asMap().entrySet();
+    }
+
+    /**
+     * Get a Map view of this map. The view boxes keys, but is backed by this map.
+     * @return map view, the same object for every call
+     */
+    public Map<Integer,V> asMap()
+    {
+        if(_view == null)
+            _view = new MapView();
+        return _view;
+    }
+
+    @Override
+    public String toString()
+    {
+        return asMap().toString();
+    }
+
+    /**
+     * Hashes the key, spreading consecutive ids over the table
+     * @param key key to hash
+     * @return hash of the key
+     */
+    private static int hash(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Looks for the slot of the key in the hash table
+     * @param key key to look for
+     * @return slot of the key, or ~slot where the key has to be inserted if it is not in the map
+     */
+    private int find(int key)
+    {
+        int mask = _table.length - 1;
+        int slot = hash(key) & mask;
+        while(_table[slot] != 0)
+        {
+            if(_keys[_table[slot] - 1] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    /**
+     * Empties the slot of the hash table, moving the following slots of the probe sequence back,
+     * so lookups never stop at the hole
+     * @param slot slot to empty
+     */
+    private void deleteSlot(int slot)
+    {
+        int mask = _table.length - 1;
+        int hole = slot;
+        _table[hole] = 0;
+        int next = hole;
+        while(true)
+        {
+            next = (next + 1) & mask;
+            if(_table[next] == 0)
+                return;
+            int home = hash(_keys[_table[next] - 1]) & mask;
+            //the entry stays if its home slot is cyclically in (hole, next]
+            boolean stays = (hole <= next) ? (hole < home && home <= next) : (hole < home || home <= next);
+            if(stays)
+                continue;
+            _table[hole] = _table[next];
+            _table[next] = 0;
+            hole = next;
+        }
+    }
+
+    /**
+     * Allocates arrays for the capacity and moves all mappings there, dropping holes
+     * @param capacity new capacity, >= size
+     */
+    private void allocate(int capacity)
+    {
+        int[] keys = _keys;
+        Object[] values = _values;
+        int end = _end;
+
+        //at most half of the table is used
+        int tableLength = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        _keys = new int[capacity];
+        _values = new Object[capacity];
+        _table = new int[tableLength];
+        _end = 0;
+
+        int mask = tableLength - 1;
+        for(int position = 0; position < end; position++)
+        {
+            if(values[position] == REMOVED)
+                continue;
+            int key = keys[position];
+            int slot = hash(key) & mask;
+            while(_table[slot] != 0)
+                slot = (slot + 1) & mask;
+            _keys[_end] = key;
+            _values[_end] = values[position];
+            _table[slot] = ++_end;
+        }
+        assert(_end == _size);
+    }
+
+    /**
+     * Map view of this map
+     */
+    private final class MapView extends AbstractMap<Integer,V>
+    {
+        /**Set of mappings, created on the first request*/
+        private Set<Map.Entry<Integer,V>> _entries;
+
+        @Override
+        public int size()
+        {
+            return _size;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return key instanceof Integer && IntMap.this.containsKey((Integer) key);
+        }
+
+        @Override
+        public V get(Object key)
+        {
+            return key instanceof Integer ? IntMap.this.get((Integer) key) : null;
+        }
+
+        @Override
+        public V put(Integer key, V value)
+        {
+            return IntMap.this.put(key, value);
+        }
+
+        @Override
+        public V remove(Object key)
+        {
+            return key instanceof Integer ? IntMap.this.remove((Integer) key) : null;
+        }
+
+        @Override
+        public void clear()
+        {
+            IntMap.this.clear();
+        }
+
+        @Override
+        public Set<Map.Entry<Integer,V>> entrySet()
+        {
+            if(_entries == null)
+            {
+                _entries = new AbstractSet<Map.Entry<Integer,V>>()
+                {
+                    @Override
+                    public Iterator<Map.Entry<Integer,V>> iterator()
+                    {
+                        return new EntryIterator();
+                    }
+
+                    @Override
+                    public int size()
+                    {
+                        return _size;
+                    }
+
+                    @Override
+                    public void clear()
+                    {
+                        IntMap.this.clear();
+                    }
+                };
+            }
+            return _entries;
+        }
+    }
+
+    /**
+     * Iterator over mappings in the order of insertion
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<Integer,V>>
+    {
+        /**Position of the next mapping*/
+        private int _next;
+        /**Position of the last returned mapping, -1 if there is none*/
+        private int _last = -1;
+        /**Modification count the iterator is in sync with*/
+        private int _expectedModCount = _modCount;
+
+        @Override
+        public boolean hasNext()
+        {
+            while(_next < _end && _values[_next] == REMOVED)
+                _next++;
+            return _next < _end;
+        }
+
+        @Override
+        public Map.Entry<Integer,V> next()
+        {
+            if(_modCount != _expectedModCount)
+                throw new ConcurrentModificationException();
+            if(!hasNext())
+                throw new NoSuchElementException();
+            _last = _next++;
+            return new Entry(_last);
+        }
+
+        @Override
+        public void remove()
+        {
+            if(_last < 0)
+                throw new IllegalStateException();
+            if(_modCount != _expectedModCount)
+                throw new ConcurrentModificationException();
+            //removing leaves a hole and does not move the following mappings
+            IntMap.this.remove(_keys[_last]);
+            _last = -1;
+            _expectedModCount = _modCount;
+        }
+    }
+
+    /**
+     * Mapping at a position of the arrays
+     */
+    private final class Entry implements Map.Entry<Integer,V>
+    {
+        /**Position of the mapping*/
+        private final int _position;
+
+        private Entry(int position)
+        {
+            _position = position;
+        }
+
+        @Override
+        public Integer getKey()
+        {
+            return _keys[_position];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue()
+        {
+            return (V) _values[_position];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue(V value)
+        {
+            V previous = (V) _values[_position];
+            _values[_position] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+            Object value = getValue();
+            return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /******************** end of class********************************/
+}
@@ -12,7 +12,7 @@ package com.brightlightsystems.core.utilities.definitions;
  * Use this class whenever you need to associate multiple values with a single key.
  * K - the type of keys. Can be mapped to multiple values.
  * V - the type of associated values.
- * TODO: Implement thread safe features
+ * Not thread safe, a map shared by threads needs external synchronization.
  * @author Michael Gulenko. Created on 09/06/2015
  */
 @SuppressWarnings( {"unused"})
@@ -1,7 +1,12 @@
 package com.brightlightsystems.core.utilities.notificationsystem;
 
+import com.brightlightsystems.core.datastructure.DataManager;
 import com.brightlightsystems.core.datastructure.Lightbulb;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Class describes a message that passes to the bulb listener.
  * @author Michael Gulenko Created on 11/11/2015.
@@ -23,7 +28,7 @@ public class BulbMessage
     public static final int MSG_UPDATE_SINGLE_BULB      = 0x03;
     /**
      * Notifies the system that multiple light bulbs changed their
-     * states or traits and needs to be added.
+     * states or traits and needs to be updated. The message carries all of them in _bulbs.
      */
     public static final int MSG_UPDATE_MULTI_BULB       = 0x04;
     /**
@@ -33,21 +38,77 @@ public class BulbMessage
     public static final int MSG_SYNC_BULB_STATE         = 0x05;
     /**Message id. One of the defined above*/
     public final int _id;
-    /**A Lightbulb object that is used while processing a notification*/
+    /**A Lightbulb object that is used while processing a notification. null for batch messages*/
     public final Lightbulb _bulb;
+    /**
+     * Unmodifiable map of light bulbs that are used while processing a notification, where K is a bulb id.
+     * For single bulb messages contains only _bulb.
+     */
+    public final Map<Integer,Lightbulb> _bulbs;
+    /**
+     * Id of the bridge of the bulbs. Taken when the message is created, so listeners that run later
+     * apply the message to the same bridge even if the active bridge has changed meanwhile.
+     */
+    public final int _bridgeId;
 
 
     /**
      * Constructs new instance of the BulbMessage with specified message id and a Lightbulb
+     * of the bridge that is active now
      * @param id specified message id. One of the static members that defined in this class.
      * @param bulb Lightbulb object that is used while processing a notification.
      * @throws IllegalArgumentException if bulb == null
      */
     public BulbMessage(int id, Lightbulb bulb)
+    {
+        this(id, bulb, DataManager.getActiveBridgeId());
+    }
+
+    /**
+     * Constructs new instance of the BulbMessage with specified message id and a Lightbulb of a bridge
+     * @param id specified message id. One of the static members that defined in this class.
+     * @param bulb Lightbulb object that is used while processing a notification.
+     * @param bridgeId id of the bridge of the bulb
+     * @throws IllegalArgumentException if bulb == null
+     */
+    public BulbMessage(int id, Lightbulb bulb, int bridgeId)
     {
         if(bulb == null)
             throw new IllegalArgumentException("Incorrect parameter for the message.");
         _id = id;
         _bulb = bulb;
+        _bulbs = Collections.singletonMap(bulb.getId(), bulb);
+        _bridgeId = bridgeId;
+    }
+
+    /**
+     * Constructs new instance of the batch BulbMessage with specified message id and light bulbs
+     * of the bridge that is active now, e.g. MSG_UPDATE_MULTI_BULB
+     * @param id specified message id. One of the static members that defined in this class.
+     * @param bulbs light bulbs that are used while processing a notification, where K is a bulb id.
+     *              Must be LinkedHashMap, since we care about the order
+     * @throws IllegalArgumentException if bulbs == null or contain nulls
+     */
+    public BulbMessage(int id, Map<Integer,Lightbulb> bulbs)
+    {
+        this(id, bulbs, DataManager.getActiveBridgeId());
+    }
+
+    /**
+     * Constructs new instance of the batch BulbMessage with specified message id and light bulbs of a bridge
+     * @param id specified message id. One of the static members that defined in this class.
+     * @param bulbs light bulbs that are used while processing a notification, where K is a bulb id.
+     *              Must be LinkedHashMap, since we care about the order
+     * @param bridgeId id of the bridge of the bulbs
+     * @throws IllegalArgumentException if bulbs == null or contain nulls
+     */
+    public BulbMessage(int id, Map<Integer,Lightbulb> bulbs, int bridgeId)
+    {
+        if(bulbs == null || bulbs.containsKey(null) || bulbs.containsValue(null))
+            throw new IllegalArgumentException("Incorrect parameter for the message.");
+        _id = id;
+        _bulb = null;
+        _bulbs = Collections.unmodifiableMap(new LinkedHashMap<>(bulbs));
+        _bridgeId = bridgeId;
     }
 }
@@ -0,0 +1,17 @@
+package com.brightlightsystems.core.utilities.notificationsystem;
+
+/**
+ * Describes on which thread a listener receives its notifications.
+ * Every lane except INLINE is served by its own {@link EventLoop}, so listeners on
+ * different lanes never wait for each other, while messages within a lane are always
+ * delivered in the order they were posted.
+ */
+public enum DeliveryLane
+{
+    /**Delivered on the dispatching thread, before the message is handed to other lanes*/
+    INLINE,
+    /**Delivered on a dedicated lane for disk and network bound listeners, e.g. database*/
+    IO,
+    /**Delivered on a lane shared by CPU bound listeners*/
+    COMPUTE
+}
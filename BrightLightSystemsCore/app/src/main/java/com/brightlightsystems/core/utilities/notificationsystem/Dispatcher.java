@@ -1,24 +1,43 @@
 package com.brightlightsystems.core.utilities.notificationsystem;
 
-import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 /**
  * Singleton class that is responsible for message delivery to all subscribers for that message.
+ * By default messages are delivered synchronously on the thread that posted them.
+ * In asynchronous mode messages are queued into a single event loop and delivered in order
+ * on the loop thread, so posting never waits for listeners.
+ * Each listener is registered on a {@link DeliveryLane}. INLINE listeners are called right away
+ * on the dispatching thread, others are called on the event loop of their lane, where
+ * redundant updates of the same element are coalesced.
  * @author Micahel Gulenko.Created on 09/06/2015
  */
 final class Dispatcher
 {
-    List<BulbListener>  _bulbListeners;
-    List<GroupListener> _groupListener;
-    List<ThemeListener> _themeListener;
+    List<Registration<BulbListener>>  _bulbListeners;
+    List<Registration<GroupListener>> _groupListener;
+    List<Registration<ThemeListener>> _themeListener;
+
+    /**Lanes that have at least one listener. Never contains INLINE lane.*/
+    private final Map<DeliveryLane,Lane> _lanes;
 
     /**
      * An instance of this class
      */
     private static Dispatcher _instance = new Dispatcher();
 
+    /**Event loop that delivers messages in asynchronous mode. null in synchronous mode. Changed under _modeLock*/
+    private volatile EventLoop _eventLoop;
+    /**
+     * Guards the switch of the delivery mode and the hand over of messages to the event loop,
+     * so no message is handed over while the mode changes. Never held while listeners are called.
+     */
+    private final Object _modeLock = new Object();
+
     /**
      * Get an instance of this class
      * @return - never null
@@ -33,68 +52,243 @@ final class Dispatcher
      */
     private Dispatcher()
     {
-        _bulbListeners = new ArrayList<>();
-        _groupListener = new ArrayList<>();
-        _themeListener = new ArrayList<>();
+        _bulbListeners = new CopyOnWriteArrayList<>();
+        _groupListener = new CopyOnWriteArrayList<>();
+        _themeListener = new CopyOnWriteArrayList<>();
+        _lanes = new EnumMap<>(DeliveryLane.class);
+    }
+
+    /**
+     * Switches between synchronous and asynchronous delivery. When asynchronous mode is turned off
+     * the event loop first delivers all messages that were posted before, messages posted meanwhile
+     * wait for the switch and are delivered after them on their callers' threads.
+     * Messages of listeners of the event loop itself are delivered right away, since the loop is draining.
+     * @param asynchronous true to deliver messages on the event loop, false to deliver them on the caller's thread.
+     * @throws InterruptedException if interrupted while waiting for pending messages. The loop keeps
+     *         draining and the dispatcher stays asynchronous until the call is repeated
+     */
+    void setAsynchronous(boolean asynchronous) throws InterruptedException
+    {
+        synchronized (_modeLock)
+        {
+            if(asynchronous == isAsynchronous())
+                return;
+            if(asynchronous)
+            {
+                _eventLoop = new EventLoop("DispatcherLoop");
+                return;
+            }
+            EventLoop loop = _eventLoop;
+            loop.shutdown(true);
+            _eventLoop = null;
+        }
+    }
+
+    /**
+     * Checks the delivery mode
+     * @return true if messages are delivered asynchronously, false otherwise
+     */
+    boolean isAsynchronous()
+    {
+        return _eventLoop != null;
+    }
+
+    /**
+     * Blocks until every message posted before this call has been delivered to
+     * listeners of all lanes.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flush() throws InterruptedException
+    {
+        EventLoop loop = _eventLoop;
+        if(loop != null)
+            loop.flush();
+        //at this point every message has been handed over to the lanes
+        Lane[] lanes;
+        synchronized (this)
+        {
+            lanes = _lanes.values().toArray(new Lane[_lanes.size()]);
+        }
+        for(Lane lane : lanes)
+            lane.flush();
+    }
+
+    /**
+     * Get the specified lane. Creates one if the lane is not served yet.
+     * @param lane lane to return. Can't be INLINE
+     * @return lane
+     */
+    private synchronized Lane lane(DeliveryLane lane)
+    {
+        assert(lane != DeliveryLane.INLINE);
+        Lane l = _lanes.get(lane);
+        if(l == null)
+        {
+            l = new Lane(lane);
+            _lanes.put(lane, l);
+        }
+        return l;
+    }
+
+    /**
+     * Get amount of update messages that were merged into already queued ones on the specified lane
+     * @param lane lane to ask
+     * @return amount of coalesced messages. Always 0 for INLINE lane
+     */
+    synchronized long coalescedCount(DeliveryLane lane)
+    {
+        Lane l = _lanes.get(lane);
+        return l == null ? 0 : l.coalescedCount();
+    }
+
+    /**
+     * Hands the delivery over to the event loop, or runs it on the caller's thread in synchronous mode.
+     * If the loop is shut down, the delivery runs after the loop has delivered everything it accepted,
+     * so deliveries are never lost or reordered.
+     * @param delivery delivery of a message to all of its listeners
+     */
+    private void post(Runnable delivery)
+    {
+        EventLoop loop = _eventLoop;
+        if(loop != null && loop.isLoopThread())
+        {
+            //a listener of the loop posts. It must not wait for the mode lock, the thread that
+            //turns asynchronous mode off holds it while it waits for this loop
+            if(!loop.post(delivery))
+                delivery.run();
+            return;
+        }
+        synchronized (_modeLock)
+        {
+            loop = _eventLoop;
+            if(loop != null)
+            {
+                if(loop.post(delivery))
+                    return;
+                //turning asynchronous mode off was interrupted: deliver after the loop is drained
+                loop.awaitTermination();
+            }
+        }
+        delivery.run();
     }
 
     /**
      * Adds a listener to listen to bulb's notifications
      * @param listener listener to add.
+     * @param lane lane that the listener receives notifications on
      */
-    void addBulbListener(BulbListener listener)
+    void addBulbListener(BulbListener listener, DeliveryLane lane)
     {
         assert(listener != null);
-        _bulbListeners.add(listener);
+        assert(lane != null);
+        _bulbListeners.add(new Registration<>(listener, lane));
     }
 
     /**
      * Adds a listener to listen to group's notifications
      * @param listener listener to add
+     * @param lane lane that the listener receives notifications on
      */
-    void addGroupListener(GroupListener listener)
+    void addGroupListener(GroupListener listener, DeliveryLane lane)
     {
         assert(listener != null);
-        _groupListener.add(listener);
+        assert(lane != null);
+        _groupListener.add(new Registration<>(listener, lane));
     }
 
     /**
      * Adds a listener to listen to theme's notifications
      * @param listener listener to add
+     * @param lane lane that the listener receives notifications on
      */
-    void addThemeListener(ThemeListener listener)
+    void addThemeListener(ThemeListener listener, DeliveryLane lane)
     {
         assert(listener != null);
-        _themeListener.add(listener);
+        assert(lane != null);
+        _themeListener.add(new Registration<>(listener, lane));
     }
 
     /**
      * Posts message for bulbs listener
      * @param message message to post
      */
-    void notifyBulbListeners(BulbMessage message)
+    void notifyBulbListeners(final BulbMessage message)
     {
         assert(message != null);
-        for(BulbListener listener:_bulbListeners)
+        post(new Runnable()
         {
-            switch (message._id)
+            @Override
+            public void run()
             {
-                case BulbMessage.MSG_ADD_BULB:
-                    listener.onAddBulb(message);
-                    break;
-                case BulbMessage.MSG_REMOVE_BULB:
-                    listener.onRemoveBulb(message);
-                    break;
-                case BulbMessage.MSG_UPDATE_SINGLE_BULB:
-                    listener.onUpdateBulb(message);
-                    break;
-                case BulbMessage.MSG_UPDATE_MULTI_BULB:
-                    listener.onUpdateMultiBulbs(message);
-                    break;
-                case BulbMessage.MSG_SYNC_BULB_STATE:
-                    listener.onSynchBulbs(message);
-                    break;
+                deliverBulbMessage(message);
             }
+        });
+    }
+
+    /**
+     * Delivers message to all bulb listeners. INLINE listeners are called on the current thread,
+     * the rest of them on their lanes
+     * @param message message to deliver
+     */
+    private void deliverBulbMessage(final BulbMessage message)
+    {
+        for(final Registration<BulbListener> r : _bulbListeners)
+        {
+            if(r._lane == DeliveryLane.INLINE)
+            {
+                dispatch(r._listener, message);
+                continue;
+            }
+            lane(r._lane).post(coalescingKey(r._listener, message), new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    dispatch(r._listener, message);
+                }
+            });
+        }
+    }
+
+    /**
+     * Get a key that identifies deliveries superseded by this one. Only MSG_UPDATE_SINGLE_BULB messages
+     * are coalesced: the listener only needs the latest state of the bulb, and the newest message refers to it.
+     * Messages hold the bulb itself, not a copy of its state, so the state is read when the message is delivered.
+     * @param listener listener the message is delivered to
+     * @param message message to deliver
+     * @return coalescing key, or null if the message must be delivered as is
+     */
+    private static Lane.CoalescingKey coalescingKey(BulbListener listener, BulbMessage message)
+    {
+        if(message._id != BulbMessage.MSG_UPDATE_SINGLE_BULB)
+            return null;
+        return new Lane.CoalescingKey(listener, BulbMessage.class, message._bulb.getId());
+    }
+
+    /**
+     * Calls a handler of the listener that corresponds to the message id
+     * @param listener listener to call
+     * @param message message to deliver
+     */
+    private static void dispatch(BulbListener listener, BulbMessage message)
+    {
+        switch (message._id)
+        {
+            case BulbMessage.MSG_ADD_BULB:
+                listener.onAddBulb(message);
+                break;
+            case BulbMessage.MSG_REMOVE_BULB:
+                listener.onRemoveBulb(message);
+                break;
+            case BulbMessage.MSG_UPDATE_SINGLE_BULB:
+                listener.onUpdateBulb(message);
+                break;
+            case BulbMessage.MSG_UPDATE_MULTI_BULB:
+                listener.onUpdateMultiBulbs(message);
+                break;
+            case BulbMessage.MSG_SYNC_BULB_STATE:
+                listener.onSynchBulbs(message);
+                break;
         }
     }
 
@@ -102,36 +296,91 @@ final class Dispatcher
      *Posts message for group listeners
      * @param message message to post
      */
-    void notifyGroupListeners(GroupMessage message)
+    void notifyGroupListeners(final GroupMessage message)
+    {
+        assert(message != null);
+        post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                deliverGroupMessage(message);
+            }
+        });
+    }
+
+    /**
+     * Delivers message to all group listeners. INLINE listeners are called on the current thread,
+     * the rest of them on their lanes
+     * @param message message to deliver
+     */
+    private void deliverGroupMessage(final GroupMessage message)
     {
-        for(GroupListener listener : _groupListener)
+        for(final Registration<GroupListener> r : _groupListener)
         {
-            switch (message._id)
+            if(r._lane == DeliveryLane.INLINE)
             {
-                case GroupMessage.MSG_ADD_GROUP:
-                    listener.onAddGroup(message);
-                    break;
-                case GroupMessage.MSG_REMOVE_GROUP:
-                    listener.onRemoveGroup(message);
-                    break;
-                case GroupMessage.MSG_UPDATE_GROUP:
-                    listener.onUpdateGroup(message);
-                    break;
-                case GroupMessage.MSG_UPDATE_MULTI_GROUP:
-                    listener.onUpdateMultiGroups(message);
-                    break;
-                case GroupMessage.MSG_ACTIVATE_GROUP:
-                    listener.onActivatedGroup(message);
-                    break;
-                case GroupMessage.MSG_DEACTIVATE_GROUP:
-                    listener.onDeactivateGroup(message);
-                    break;
-                case GroupMessage.MSG_SYNC_GROUPS:
-                    listener.onSyncGroups(message);
-                    break;
-                case GroupMessage.MSG_REMOVE_SUBGROUPS:
-                    listener.onRemoveSubgroups(message);
+                dispatch(r._listener, message);
+                continue;
             }
+            lane(r._lane).post(coalescingKey(r._listener, message), new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    dispatch(r._listener, message);
+                }
+            });
+        }
+    }
+
+    /**
+     * Get a key that identifies deliveries superseded by this one. Only MSG_UPDATE_GROUP messages
+     * are coalesced: the listener only needs the latest state of the group, and the newest message refers to it.
+     * Messages hold the group itself, not a copy of its state, so the state is read when the message is delivered.
+     * @param listener listener the message is delivered to
+     * @param message message to deliver
+     * @return coalescing key, or null if the message must be delivered as is
+     */
+    private static Lane.CoalescingKey coalescingKey(GroupListener listener, GroupMessage message)
+    {
+        if(message._id != GroupMessage.MSG_UPDATE_GROUP)
+            return null;
+        return new Lane.CoalescingKey(listener, GroupMessage.class, message._group.getId());
+    }
+
+    /**
+     * Calls a handler of the listener that corresponds to the message id
+     * @param listener listener to call
+     * @param message message to deliver
+     */
+    private static void dispatch(GroupListener listener, GroupMessage message)
+    {
+        switch (message._id)
+        {
+            case GroupMessage.MSG_ADD_GROUP:
+                listener.onAddGroup(message);
+                break;
+            case GroupMessage.MSG_REMOVE_GROUP:
+                listener.onRemoveGroup(message);
+                break;
+            case GroupMessage.MSG_UPDATE_GROUP:
+                listener.onUpdateGroup(message);
+                break;
+            case GroupMessage.MSG_UPDATE_MULTI_GROUP:
+                listener.onUpdateMultiGroups(message);
+                break;
+            case GroupMessage.MSG_ACTIVATE_GROUP:
+                listener.onActivatedGroup(message);
+                break;
+            case GroupMessage.MSG_DEACTIVATE_GROUP:
+                listener.onDeactivateGroup(message);
+                break;
+            case GroupMessage.MSG_SYNC_GROUPS:
+                listener.onSyncGroups(message);
+                break;
+            case GroupMessage.MSG_REMOVE_SUBGROUPS:
+                listener.onRemoveSubgroups(message);
         }
     }
 
@@ -139,37 +388,107 @@ final class Dispatcher
      * Post message to theme listeners
      * @param message message to post
      */
-    void notifyThemeListeners(ThemeMessage message)
+    void notifyThemeListeners(final ThemeMessage message)
     {
         assert(message != null);
-        for(ThemeListener listener : _themeListener)
+        post(new Runnable()
         {
-            switch(message._id)
+            @Override
+            public void run()
             {
-                case ThemeMessage.MSG_ADD_THEME:
-                    listener.onAddTheme(message);
-                    break;
-                case ThemeMessage.MSG_REMOVE_THEME:
-                    listener.onRemoveTheme(message);
-                    break;
-                case ThemeMessage.MSG_REMOVE_SUBTHEMES:
-                    listener.onRemoveSubthemes(message);
-                    break;
-                case ThemeMessage.MSG_UPDATE_SINGLE_THEME:
-                    listener.onUpdateTheme(message);
-                    break;
-                case ThemeMessage.MSG_ACTIVATE_THEME:
-                    listener.onActivatedTheme(message);
-                    break;
-                case ThemeMessage.MSG_DEACTIVATE_THEME:
-                    listener.onDeactivateTheme(message);
-                    break;
-                case ThemeMessage.MSG_UPDATE_MULTI_THEME:
-                    listener.onUpdateMultiThemes(message);
-                    break;
-                case ThemeMessage.MSG_SYNC_THEMES:
-                    listener.onSyncThemes(message);
+                deliverThemeMessage(message);
             }
+        });
+    }
+
+    /**
+     * Delivers message to all theme listeners. INLINE listeners are called on the current thread,
+     * the rest of them on their lanes
+     * @param message message to deliver
+     */
+    private void deliverThemeMessage(final ThemeMessage message)
+    {
+        for(final Registration<ThemeListener> r : _themeListener)
+        {
+            if(r._lane == DeliveryLane.INLINE)
+            {
+                dispatch(r._listener, message);
+                continue;
+            }
+            lane(r._lane).post(coalescingKey(r._listener, message), new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    dispatch(r._listener, message);
+                }
+            });
+        }
+    }
+
+    /**
+     * Get a key that identifies deliveries superseded by this one. Only MSG_UPDATE_SINGLE_THEME messages
+     * are coalesced: the listener only needs the latest state of the theme, and the newest message refers to it.
+     * Messages hold the theme itself, not a copy of its state, so the state is read when the message is delivered.
+     * @param listener listener the message is delivered to
+     * @param message message to deliver
+     * @return coalescing key, or null if the message must be delivered as is
+     */
+    private static Lane.CoalescingKey coalescingKey(ThemeListener listener, ThemeMessage message)
+    {
+        if(message._id != ThemeMessage.MSG_UPDATE_SINGLE_THEME)
+            return null;
+        return new Lane.CoalescingKey(listener, ThemeMessage.class, message._theme.getId());
+    }
+
+    /**
+     * Calls a handler of the listener that corresponds to the message id
+     * @param listener listener to call
+     * @param message message to deliver
+     */
+    private static void dispatch(ThemeListener listener, ThemeMessage message)
+    {
+        switch(message._id)
+        {
+            case ThemeMessage.MSG_ADD_THEME:
+                listener.onAddTheme(message);
+                break;
+            case ThemeMessage.MSG_REMOVE_THEME:
+                listener.onRemoveTheme(message);
+                break;
+            case ThemeMessage.MSG_REMOVE_SUBTHEMES:
+                listener.onRemoveSubthemes(message);
+                break;
+            case ThemeMessage.MSG_UPDATE_SINGLE_THEME:
+                listener.onUpdateTheme(message);
+                break;
+            case ThemeMessage.MSG_ACTIVATE_THEME:
+                listener.onActivatedTheme(message);
+                break;
+            case ThemeMessage.MSG_DEACTIVATE_THEME:
+                listener.onDeactivateTheme(message);
+                break;
+            case ThemeMessage.MSG_UPDATE_MULTI_THEME:
+                listener.onUpdateMultiThemes(message);
+                break;
+            case ThemeMessage.MSG_SYNC_THEMES:
+                listener.onSyncThemes(message);
+        }
+    }
+
+    /**
+     * Listener together with the lane it receives notifications on
+     * @param <L> type of the listener
+     */
+    static final class Registration<L>
+    {
+        final L _listener;
+        final DeliveryLane _lane;
+
+        Registration(L listener, DeliveryLane lane)
+        {
+            _listener = listener;
+            _lane = lane;
         }
     }
 
@@ -0,0 +1,186 @@
+package com.brightlightsystems.core.utilities.notificationsystem;
+
+import android.util.Log;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Single consumer event loop. Tasks posted to the loop are executed one by one
+ * on a dedicated thread, strictly in the order they were posted.
+ * Used by {@link Dispatcher} to deliver notifications asynchronously.
+ */
+final class EventLoop
+{
+    /**Tag used for logging*/
+    private static final String TAG = "EventLoop";
+
+    /**Queue of pending tasks. Never null, never contains nulls*/
+    private final BlockingQueue<Runnable> _queue;
+    /**Thread that consumes the queue*/
+    private final Thread _thread;
+    /**Flag that indicates whether the loop accepts new tasks. Guarded by this*/
+    private boolean _running;
+
+    /**
+     * Task that is posted to stop the loop. Everything posted before it will be executed.
+     */
+    private final Runnable _poisonPill = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    /**
+     * Constructs and starts an event loop.
+     * @param name name of the loop thread
+     */
+    EventLoop(String name)
+    {
+        _queue = new LinkedBlockingQueue<>();
+        _thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                loop();
+            }
+        }, name);
+        _thread.setDaemon(true);
+        _running = true;
+        _thread.start();
+    }
+
+    /**
+     * Consumes the queue until the poison pill is taken.
+     */
+    private void loop()
+    {
+        while (true)
+        {
+            Runnable task;
+            try
+            {
+                task = _queue.take();
+            }
+            catch (InterruptedException e)
+            {
+                //only shutdown interrupts the loop, nothing else to deliver.
+                return;
+            }
+
+            if (task == _poisonPill)
+                return;
+
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                //a failing listener must not stop delivery for the rest of the system
+                Log.e(TAG, "Task failed on " + _thread.getName(), t);
+            }
+        }
+    }
+
+    /**
+     * Enqueues the task and returns immediately. A task is either queued before the poison pill
+     * and executed, or rejected, it is never queued behind the pill.
+     * @param task task to execute on the loop thread
+     * @return true if the task is queued, false if the loop has been shut down
+     */
+    synchronized boolean post(Runnable task)
+    {
+        assert (task != null);
+        if (!_running)
+            return false;
+        _queue.add(task);
+        return true;
+    }
+
+    /**
+     * Blocks until every task posted before this call has been executed.
+     * Does nothing if called from the loop thread itself, since it would wait for itself.
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    void flush() throws InterruptedException
+    {
+        if (isLoopThread())
+            return;
+
+        final CountDownLatch barrier = new CountDownLatch(1);
+        boolean posted = post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                barrier.countDown();
+            }
+        });
+        if (posted)
+            barrier.await();
+        else
+            _thread.join();
+    }
+
+    /**
+     * Stops accepting new tasks, if the loop still accepts them. Tasks that are already in the queue are still executed.
+     * @param await if true, blocks until the queue is drained and the loop thread is finished,
+     *              also if the loop was shut down before
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    void shutdown(boolean await) throws InterruptedException
+    {
+        synchronized (this)
+        {
+            if (_running)
+            {
+                _running = false;
+                _queue.add(_poisonPill);
+            }
+        }
+        if (await && !isLoopThread())
+            _thread.join();
+    }
+
+    /**
+     * Blocks until the loop thread is finished, i.e. every task accepted before shutdown is executed.
+     * Waits even if the calling thread is interrupted, the interrupt status is restored afterwards.
+     * Does nothing if called from the loop thread itself.
+     */
+    void awaitTermination()
+    {
+        if (isLoopThread())
+            return;
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                _thread.join();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Checks if the caller runs on the loop thread
+     * @return true if the current thread is the loop thread, false otherwise
+     */
+    boolean isLoopThread()
+    {
+        return Thread.currentThread() == _thread;
+    }
+
+    /******************** end of class********************************/
+}
@@ -0,0 +1,174 @@
+package com.brightlightsystems.core.utilities.notificationsystem;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A delivery lane served by its own {@link EventLoop}. The lane coalesces redundant updates:
+ * if an update for the same listener and element is still waiting in the queue, the new one
+ * replaces its payload instead of being queued again, so slow listeners receive only the latest state.
+ * Any message that can't be coalesced acts as a barrier, updates posted after it are
+ * never merged into deliveries queued before it.
+ */
+final class Lane
+{
+    /**Event loop that executes deliveries of this lane*/
+    private final EventLoop _loop;
+    /**Deliveries that are queued but not started yet, by coalescing key. Guarded by this.*/
+    private final Map<CoalescingKey, Slot> _pending;
+    /**Amount of messages that were merged into already queued deliveries*/
+    private final AtomicLong _coalesced;
+
+    /**
+     * Constructs a lane and starts its event loop
+     * @param lane lane that is served
+     */
+    Lane(DeliveryLane lane)
+    {
+        this(new EventLoop("DeliveryLane-" + lane.name()));
+        assert(lane != DeliveryLane.INLINE);
+    }
+
+    /**
+     * Constructs a lane served by the specified event loop
+     * @param loop event loop that executes deliveries of the lane
+     */
+    Lane(EventLoop loop)
+    {
+        assert(loop != null);
+        _loop = loop;
+        _pending = new HashMap<>();
+        _coalesced = new AtomicLong();
+    }
+
+    /**
+     * Queues the delivery.
+     * @param key coalescing key of the delivery, or null if the message must be delivered as is.
+     * @param delivery delivery to execute on the lane
+     * @throws IllegalStateException if the event loop of the lane is shut down. Nothing is queued then
+     */
+    void post(CoalescingKey key, Runnable delivery)
+    {
+        assert(delivery != null);
+        Slot slot;
+        synchronized (this)
+        {
+            if(key == null)
+            {
+                //barrier: nothing that was queued before may absorb later updates
+                _pending.clear();
+                if(!_loop.post(delivery))
+                    throw new IllegalStateException("Lane is shut down");
+                return;
+            }
+
+            slot = _pending.get(key);
+            if(slot != null)
+            {
+                slot._delivery = delivery;
+                _coalesced.incrementAndGet();
+                return;
+            }
+            slot = new Slot(key, delivery);
+            _pending.put(key, slot);
+            if(!_loop.post(slot))
+            {
+                //the slot would never run, later updates must not be merged into it
+                _pending.remove(key);
+                throw new IllegalStateException("Lane is shut down");
+            }
+        }
+    }
+
+    /**
+     * Blocks until every delivery queued before this call is executed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flush() throws InterruptedException
+    {
+        _loop.flush();
+    }
+
+    /**
+     * Get amount of messages that were merged into already queued deliveries
+     * @return coalesced message count
+     */
+    long coalescedCount()
+    {
+        return _coalesced.get();
+    }
+
+    /**
+     * Queued delivery, which payload can be replaced until it starts.
+     */
+    private final class Slot implements Runnable
+    {
+        private final CoalescingKey _key;
+        /**Latest delivery for the key. Guarded by the lane.*/
+        private Runnable _delivery;
+
+        Slot(CoalescingKey key, Runnable delivery)
+        {
+            _key = key;
+            _delivery = delivery;
+        }
+
+        @Override
+        public void run()
+        {
+            Runnable delivery;
+            synchronized (Lane.this)
+            {
+                if(_pending.get(_key) == this)
+                    _pending.remove(_key);
+                delivery = _delivery;
+            }
+            delivery.run();
+        }
+    }
+
+    /**
+     * Identifies updates that supersede each other: same listener, same kind of element, same element id.
+     */
+    static final class CoalescingKey
+    {
+        private final Object _listener;
+        private final Class<?> _messageClass;
+        private final int _elementId;
+
+        /**
+         * Constructs a key
+         * @param listener listener the message is delivered to
+         * @param messageClass class of the message
+         * @param elementId id of the bulb, group or theme the message updates
+         */
+        CoalescingKey(Object listener, Class<?> messageClass, int elementId)
+        {
+            _listener = listener;
+            _messageClass = messageClass;
+            _elementId = elementId;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if(this == o)
+                return true;
+            if(!(o instanceof CoalescingKey))
+                return false;
+            CoalescingKey k = (CoalescingKey) o;
+            return _listener == k._listener && _messageClass == k._messageClass && _elementId == k._elementId;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = System.identityHashCode(_listener);
+            hash = 31 * hash + _messageClass.hashCode();
+            return 31 * hash + _elementId;
+        }
+    }
+
+    /******************** end of class********************************/
+}
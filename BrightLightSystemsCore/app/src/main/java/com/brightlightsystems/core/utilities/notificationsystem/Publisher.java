@@ -4,6 +4,8 @@ package com.brightlightsystems.core.utilities.notificationsystem;
  * Class that responsible for publishing notifications.
  * It uses {@link Dispatcher} class to notify all subscribed
  * to a particular types of notification classes.
+ * Delivery is synchronous by default. Call {@link #enableAsynchronousDispatch()} to make
+ * post methods return immediately and deliver messages in order on a dedicated event loop.
  * @author  Michael Gulenko. Created on 09/06/2015
  */
 public final class Publisher
@@ -48,6 +50,77 @@ public final class Publisher
         Dispatcher.getInstance().notifyThemeListeners(message);
     }
 
+    /**
+     * Turns on asynchronous delivery. Messages posted afterwards are queued and delivered
+     * in order on the dispatcher's event loop. Does nothing if already enabled.
+     */
+    public static void enableAsynchronousDispatch()
+    {
+        try
+        {
+            Dispatcher.getInstance().setAsynchronous(true);
+        }
+        catch (InterruptedException e)
+        {
+            //enabling never waits
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Turns off asynchronous delivery. Blocks until all queued messages are delivered,
+     * afterwards messages are delivered on the caller's thread again.
+     * @throws InterruptedException if interrupted while waiting for queued messages
+     */
+    public static void disableAsynchronousDispatch() throws InterruptedException
+    {
+        Dispatcher.getInstance().setAsynchronous(false);
+    }
+
+    /**
+     * Checks the delivery mode
+     * @return true if notifications are delivered asynchronously, false otherwise
+     */
+    public static boolean isAsynchronousDispatch()
+    {
+        return Dispatcher.getInstance().isAsynchronous();
+    }
+
+    /**
+     * Barrier that blocks until every notification posted before this call has been delivered.
+     * Returns immediately in synchronous mode.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void flush() throws InterruptedException
+    {
+        Dispatcher.getInstance().flush();
+    }
+
+    /**
+     * Get amount of update notifications that were merged into already queued ones on the specified lane,
+     * because a newer state of the same element was posted before the old one had been delivered.
+     * @param lane lane to ask
+     * @return amount of coalesced notifications. Always 0 for INLINE lane
+     * @throws IllegalArgumentException if lane == null
+     */
+    public static long getCoalescedCount(DeliveryLane lane)
+    {
+        if(lane == null)
+            throw new IllegalArgumentException();
+        return Dispatcher.getInstance().coalescedCount(lane);
+    }
+
+    /**
+     * Get amount of update notifications that were coalesced on all lanes
+     * @return total amount of coalesced notifications
+     */
+    public static long getCoalescedCount()
+    {
+        long total = 0;
+        for(DeliveryLane lane : DeliveryLane.values())
+            total += Dispatcher.getInstance().coalescedCount(lane);
+        return total;
+    }
 
     /******************** end of class********************************/
 }
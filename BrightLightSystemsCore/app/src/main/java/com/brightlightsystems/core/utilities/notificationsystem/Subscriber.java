@@ -8,39 +8,72 @@ package com.brightlightsystems.core.utilities.notificationsystem;
 public final class Subscriber
 {
     /**
-     * Adds a listener to listen to bulb's notifications
+     * Adds a listener to listen to bulb's notifications. Notifications are delivered inline.
      * @param listener listener to add.
      * @throws IllegalArgumentException if listener == null
      */
     public static void addBulbListener(BulbListener listener)
     {
-        if(listener == null)
+        addBulbListener(listener, DeliveryLane.INLINE);
+    }
+
+    /**
+     * Adds a listener to listen to bulb's notifications on the specified lane
+     * @param listener listener to add.
+     * @param lane lane that the listener receives notifications on
+     * @throws IllegalArgumentException if listener == null or lane == null
+     */
+    public static void addBulbListener(BulbListener listener, DeliveryLane lane)
+    {
+        if(listener == null || lane == null)
             throw new IllegalArgumentException("Failed to add subscriber");
-        Dispatcher.getInstance().addBulbListener(listener);
+        Dispatcher.getInstance().addBulbListener(listener, lane);
     }
 
     /**
-     * Adds a listener to listen to group's notifications
+     * Adds a listener to listen to group's notifications. Notifications are delivered inline.
      * @param listener listener to add
      * @throws IllegalArgumentException if listener == null
      */
     public static void addGroupListener(GroupListener listener)
     {
-        if(listener == null)
+        addGroupListener(listener, DeliveryLane.INLINE);
+    }
+
+    /**
+     * Adds a listener to listen to group's notifications on the specified lane
+     * @param listener listener to add.
+     * @param lane lane that the listener receives notifications on
+     * @throws IllegalArgumentException if listener == null or lane == null
+     */
+    public static void addGroupListener(GroupListener listener, DeliveryLane lane)
+    {
+        if(listener == null || lane == null)
             throw new IllegalArgumentException("Failed to add subscriber");
-        Dispatcher.getInstance().addGroupListener(listener);
+        Dispatcher.getInstance().addGroupListener(listener, lane);
     }
 
     /**
-     * Adds a listener to listen to theme's notifications
+     * Adds a listener to listen to theme's notifications. Notifications are delivered inline.
      * @param listener listener to add
      * @throws IllegalArgumentException if listener == null
      */
     public static void addThemeListener(ThemeListener listener)
     {
-        if (listener == null)
+        addThemeListener(listener, DeliveryLane.INLINE);
+    }
+
+    /**
+     * Adds a listener to listen to theme's notifications on the specified lane
+     * @param listener listener to add.
+     * @param lane lane that the listener receives notifications on
+     * @throws IllegalArgumentException if listener == null or lane == null
+     */
+    public static void addThemeListener(ThemeListener listener, DeliveryLane lane)
+    {
+        if(listener == null || lane == null)
             throw new IllegalArgumentException("Failed to add subscriber");
-        Dispatcher.getInstance().addThemeListener(listener);
+        Dispatcher.getInstance().addThemeListener(listener, lane);
     }
 
     /******************** end of class********************************/